@@ -16,6 +16,7 @@ import androidx.documentfile.provider.DocumentFile;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -33,7 +34,7 @@ public class AudioRecorderManager {
 
     // --- Configurable Audio Recording Parameters ---
     // Default sampling rate in Hz. Can be 16000, 22050, or 24000.
-    private static final int DEFAULT_SAMPLE_RATE = 22050;
+    static final int DEFAULT_SAMPLE_RATE = 22050;
 
     // Default audio encoding. Use AudioFormat.ENCODING_PCM_16BIT for 16-bit PCM.
     // For 24-bit equivalent, you would use AudioFormat.ENCODING_PCM_FLOAT, which
@@ -46,6 +47,12 @@ public class AudioRecorderManager {
     // Duration of silence padding to add at the beginning and end of recordings (in milliseconds).
     private static final int SILENCE_DURATION_MS = 150;
 
+    // Size of the WAV header written in front of the PCM data.
+    private static final int WAV_HEADER_SIZE = 44;
+
+    // Samples at or beyond this magnitude count as clipped.
+    private static final int CLIP_LEVEL = 32700;
+
     // --- Internal State Variables ---
     private AudioRecord audioRecord = null;
     private boolean isRecording = false;
@@ -55,6 +62,83 @@ public class AudioRecorderManager {
     private ExecutorService executorService; // For background recording and file writing
     private Future<?> recordingTask; // Reference to the submitted recording task
 
+    /**
+     * Computes the duration of a WAV file written by this class from its size alone, so that
+     * durations can be summed without opening the files.
+     * @param fileSizeBytes The size of the complete WAV file, including its header.
+     * @return The duration in milliseconds, 0 for empty or truncated files.
+     */
+    public static long durationMsForWavSize(long fileSizeBytes) {
+        long dataBytes = fileSizeBytes - WAV_HEADER_SIZE;
+        if (dataBytes <= 0) {
+            return 0;
+        }
+        long bytesPerSecond = DEFAULT_SAMPLE_RATE * 2L; // 16-bit mono
+        return dataBytes * 1000L / bytesPerSecond;
+    }
+
+    /**
+     * Checks whether a file size can belong to a complete WAV file written by this class: the
+     * header, whole 16-bit samples and at least the silence padded at both ends.
+     * @param fileSizeBytes The size of the file, including its header.
+     * @return False for empty, header-only, truncated or otherwise mis-sized files.
+     */
+    public static boolean isPlausibleWavSize(long fileSizeBytes) {
+        long dataBytes = fileSizeBytes - WAV_HEADER_SIZE;
+        long paddingBytes = 2L * SILENCE_DURATION_MS * DEFAULT_SAMPLE_RATE * 2L / 1000L; // 16-bit mono
+        return dataBytes >= paddingBytes && dataBytes % 2 == 0;
+    }
+
+    /**
+     * Scores a WAV file written by this class for picking the best of several takes of a
+     * sentence. Clipping ruins a take for training, so every 0.1 % of clipped samples costs 10 dB;
+     * between clean takes the louder one (by RMS level) wins, as a quiet take usually means the
+     * speaker was further from the microphone. Reads the whole file once.
+     * @param wav The complete file, including its header.
+     * @return The score; higher is better. Takes without audio get negative infinity.
+     */
+    public static double qualityScore(InputStream wav) throws IOException {
+        byte[] buffer = new byte[64 * 1024];
+        long skipped = 0;
+        while (skipped < WAV_HEADER_SIZE) {
+            long n = wav.skip(WAV_HEADER_SIZE - skipped);
+            if (n <= 0) {
+                return Double.NEGATIVE_INFINITY;
+            }
+            skipped += n;
+        }
+        long samples = 0;
+        long clipped = 0;
+        double sumOfSquares = 0;
+        int carry = -1; // Low byte of a sample split across two reads
+        int read;
+        while ((read = wav.read(buffer)) > 0) {
+            int i = 0;
+            if (carry >= 0) {
+                int sample = (short) ((buffer[0] << 8) | carry);
+                sumOfSquares += (double) sample * sample;
+                clipped += (sample >= CLIP_LEVEL || sample <= -CLIP_LEVEL) ? 1 : 0;
+                samples++;
+                carry = -1;
+                i = 1;
+            }
+            for (; i + 1 < read; i += 2) {
+                int sample = (short) ((buffer[i + 1] << 8) | (buffer[i] & 0xFF)); // 16-bit little-endian
+                sumOfSquares += (double) sample * sample;
+                clipped += (sample >= CLIP_LEVEL || sample <= -CLIP_LEVEL) ? 1 : 0;
+                samples++;
+            }
+            if (i < read) {
+                carry = buffer[i] & 0xFF;
+            }
+        }
+        if (samples == 0 || sumOfSquares == 0) {
+            return Double.NEGATIVE_INFINITY;
+        }
+        double rmsDb = 10 * Math.log10(sumOfSquares / samples / (32768.0 * 32768.0));
+        return rmsDb - 10_000.0 * clipped / samples;
+    }
+
     /**
      * Callback interface to notify the UI or calling component about recording status.
      */
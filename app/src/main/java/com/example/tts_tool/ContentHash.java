@@ -0,0 +1,71 @@
+package com.example.tts_tool;
+
+import java.util.List;
+
+/**
+ * Stable content hash for script sentences. Sentences are keyed by this hash instead of their
+ * list position, so recordings stay attached to the right text when a script is edited.
+ */
+public final class ContentHash {
+
+    private static final long FNV_OFFSET_BASIS = 0xCBF29CE484222325L;
+    private static final long FNV_PRIME = 0x100000001B3L;
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private ContentHash() {}
+
+    /**
+     * Computes a 64-bit FNV-1a hash of the sentence with runs of whitespace collapsed, so line
+     * wrapping changes don't count as an edit, and returns it as 16 hex digits.
+     */
+    public static String of(String text) {
+        if (text == null) {
+            return null;
+        }
+        long hash = FNV_OFFSET_BASIS;
+        boolean pendingSpace = false;
+        boolean started = false;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (Character.isWhitespace(c)) {
+                pendingSpace = started;
+                continue;
+            }
+            if (pendingSpace) {
+                hash = (hash ^ ' ') * FNV_PRIME;
+                pendingSpace = false;
+            }
+            hash = (hash ^ (c & 0xFF)) * FNV_PRIME;
+            hash = (hash ^ (c >>> 8)) * FNV_PRIME;
+            started = true;
+        }
+        return toHex(hash);
+    }
+
+    /**
+     * Computes a 64-bit FNV-1a hash of a sequence of content hashes, in order, as 16 hex digits.
+     * Sequences of the same sentences in a different order or with one sentence edited differ.
+     */
+    public static String ofSequence(List<String> hashes) {
+        long hash = FNV_OFFSET_BASIS;
+        for (String element : hashes) {
+            if (element != null) {
+                for (int i = 0; i < element.length(); i++) {
+                    hash = (hash ^ element.charAt(i)) * FNV_PRIME; // Hex digits fit in one byte
+                }
+            }
+            hash = (hash ^ '\n') * FNV_PRIME; // Keeps a missing hash from merging into its neighbours
+        }
+        return toHex(hash);
+    }
+
+    // Same output as String.format("%016x"), without parsing a format string for every sentence
+    private static String toHex(long value) {
+        char[] digits = new char[16];
+        for (int i = 15; i >= 0; i--) {
+            digits[i] = HEX_DIGITS[(int) (value & 0xF)];
+            value >>>= 4;
+        }
+        return new String(digits);
+    }
+}
@@ -0,0 +1,96 @@
+package com.example.tts_tool;
+
+import android.content.Context;
+import android.net.Uri;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Exports a recorded folder as {@code <folder>.csv}: one row per sentence of the folder's .txt
+ * script with the WAV file recorded for it, matched by the sentence number in the file name (see
+ * {@link TakeMatcher}). Sentences without a recording are left out and listed in the report
+ * instead of failing the export. Rows are streamed straight from the script to the output, so
+ * memory use doesn't grow with the script; only the folder listing is held.
+ */
+public class CsvExportTask extends FileExportTask {
+
+    static final String HEADER = "Sentence,Audio_Path\n";
+
+    private final TakeMatcher.DuplicatePolicy duplicatePolicy;
+
+    public CsvExportTask(Context context, Uri folderUri, TakeMatcher.DuplicatePolicy duplicatePolicy, Listener listener) {
+        super(context, folderUri, listener);
+        this.duplicatePolicy = duplicatePolicy;
+    }
+
+    @Override
+    protected String getOutputName() {
+        return getFolderName() + ".csv";
+    }
+
+    @Override
+    protected String writeTo(WorkingFolderIndex folder, OutputStream out) throws IOException {
+        WorkingFolderIndex.Entry script = ScriptParser.findScript(folder);
+        if (script == null) {
+            throw new IOException("No .txt file found in the selected folder.");
+        }
+        TakeMatcher takes = TakeMatcher.match(folder, duplicatePolicy, context.getContentResolver());
+        if (takes.getTakeCount() == 0) {
+            throw new IOException("No recorded .wav files found in the selected folder.");
+        }
+
+        final String pathPrefix = "./" + getFolderName() + "/";
+        final TakeMatcher.Report report = takes.newReport();
+        final int total = takes.getTakeCount();
+        int sentenceCount;
+        try (InputStream in = context.getContentResolver().openInputStream(script.getUri())) {
+            if (in == null) {
+                throw new IOException("Could not open " + script.getName());
+            }
+            final Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), OUTPUT_BUFFER_SIZE);
+            writer.write(HEADER);
+            sentenceCount = ScriptParser.parse(new InputStreamReader(in, StandardCharsets.UTF_8), (index, sentence) -> {
+                WorkingFolderIndex.Entry take = takes.getTake(index);
+                if (take == null) {
+                    report.addMissing(index);
+                    return;
+                }
+                writer.write(escapeCsv(sentence));
+                writer.write(',');
+                writer.write(escapeCsv(pathPrefix + take.getName()));
+                writer.write('\n');
+                report.addExported();
+                reportProgress(Math.min(report.getExported(), total), total);
+            });
+            writer.flush();
+        }
+        if (report.getExported() == 0) {
+            throw new IOException("None of the " + sentenceCount + " sentences has a recording.");
+        }
+        return report.describe(sentenceCount);
+    }
+
+    /**
+     * Simple CSV escaping for basic cases. Encloses string in quotes if it contains comma or quotes.
+     * Doubles inner quotes.
+     * @param field The string field to escape.
+     * @return The escaped string.
+     */
+    static String escapeCsv(String field) {
+        if (field == null) {
+            return "";
+        }
+        String escapedField = field.replace("\"", "\"\""); // Escape internal quotes
+        if (escapedField.contains(",") || escapedField.contains("\"") || escapedField.contains("\n") || escapedField.contains("\r")) {
+            return "\"" + escapedField + "\""; // Enclose in quotes if contains special characters
+        }
+        return escapedField;
+    }
+}
@@ -0,0 +1,122 @@
+package com.example.tts_tool;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Assigns takes to train, validation and test splits as they stream past, stratified by speaker
+ * and duration bucket. Within each stratum the split sizes follow the ratios to within one take,
+ * so every speaker and every length of sentence is represented in each split in proportion.
+ *
+ * Each take goes, in a single pass, to one of the splits that are behind their share of the
+ * stratum so far, picked with a hash of the take's name and the seed. Only counts are kept per
+ * stratum, never the takes. The same takes in the same order with the same seed always give the
+ * same splits, and takes appended to a stratum leave the earlier assignments unchanged.
+ */
+final class DatasetSplitter {
+
+    public enum Split {
+        TRAIN("train"),
+        VALIDATION("val"),
+        TEST("test");
+
+        /** The suffix of the split's metadata file. */
+        final String fileSuffix;
+
+        Split(String fileSuffix) {
+            this.fileSuffix = fileSuffix;
+        }
+    }
+
+    static final long DEFAULT_SEED = 1234;
+    // Duration buckets double in length: under 2 s, 2-4 s, 4-8 s, 8-16 s and longer.
+    private static final long[] BUCKET_LIMITS_MS = {2000, 4000, 8000, 16000};
+
+    private final double[] ratios = new double[Split.values().length];
+    private final long seed;
+    // Per stratum: takes seen, then takes assigned to each split
+    private final Map<String, int[]> strata = new HashMap<>();
+    private final int[] totals = new int[Split.values().length];
+
+    /**
+     * The ratios are normalized, so {@code 90, 5, 5} and {@code 0.9, 0.05, 0.05} are the same.
+     */
+    DatasetSplitter(double train, double validation, double test, long seed) {
+        double sum = train + validation + test;
+        if (!(sum > 0) || train < 0 || validation < 0 || test < 0) {
+            throw new IllegalArgumentException("Split ratios must be non-negative and not all zero");
+        }
+        ratios[Split.TRAIN.ordinal()] = train / sum;
+        ratios[Split.VALIDATION.ordinal()] = validation / sum;
+        ratios[Split.TEST.ordinal()] = test / sum;
+        this.seed = seed;
+    }
+
+    /**
+     * @param key Identifies the take, such as its file name.
+     */
+    Split assign(String speaker, long durationMs, String key) {
+        int bucket = 0;
+        while (bucket < BUCKET_LIMITS_MS.length && durationMs >= BUCKET_LIMITS_MS[bucket]) {
+            bucket++;
+        }
+        String stratumKey = speaker + '\u0000' + bucket;
+        int[] counts = strata.get(stratumKey);
+        if (counts == null) {
+            counts = new int[1 + ratios.length];
+            strata.put(stratumKey, counts);
+        }
+        int seen = ++counts[0];
+
+        // How far each split is behind its share; the shortfalls add up to at least one take.
+        double[] shortfalls = new double[ratios.length];
+        double sum = 0;
+        int furthest = 0;
+        for (int i = 0; i < ratios.length; i++) {
+            shortfalls[i] = Math.max(0, ratios[i] * seen - counts[1 + i]);
+            sum += shortfalls[i];
+            if (shortfalls[i] > shortfalls[furthest]) {
+                furthest = i;
+            }
+        }
+        int chosen = 0;
+        if (shortfalls[furthest] >= 1) {
+            // A whole take behind: leaving it for another take would break the bound. With three
+            // splits only one can be this far behind, as the others are less than a take ahead.
+            chosen = furthest;
+        } else {
+            double pick = unitHash(key) * sum;
+            while (chosen < ratios.length - 1 && (shortfalls[chosen] == 0 || pick >= shortfalls[chosen])) {
+                pick -= shortfalls[chosen];
+                chosen++;
+            }
+            while (shortfalls[chosen] == 0) { // Rounding left the pick past the last candidate
+                chosen--;
+            }
+        }
+        counts[1 + chosen]++;
+        totals[chosen]++;
+        return Split.values()[chosen];
+    }
+
+    int getCount(Split split) {
+        return totals[split.ordinal()];
+    }
+
+    String describe() {
+        return "Splits: " + totals[0] + " train, " + totals[1] + " validation, " + totals[2] + " test.";
+    }
+
+    // A value in [0, 1) from the key and the seed: FNV-1a, then the SplitMix64 finalizer.
+    private double unitHash(String key) {
+        long hash = 0xCBF29CE484222325L ^ seed;
+        for (int i = 0; i < key.length(); i++) {
+            hash ^= key.charAt(i);
+            hash *= 0x100000001B3L;
+        }
+        hash = (hash ^ (hash >>> 30)) * 0xBF58476D1CE4E5B9L;
+        hash = (hash ^ (hash >>> 27)) * 0x94D049BB133111EBL;
+        hash ^= hash >>> 31;
+        return (hash >>> 11) * 0x1.0p-53;
+    }
+}
@@ -0,0 +1,224 @@
+package com.example.tts_tool;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Totals, percentiles and histograms of take durations and speaking rates (characters of the
+ * sentence per second of audio), overall and per speaker. Takes are added from any thread; the
+ * report is written once they are all in.
+ */
+final class DatasetStatistics {
+
+    private static final double[] PERCENTILES = {5, 25, 50, 75, 95, 99};
+    private static final int DURATION_BIN_MS = 1000;
+    private static final int DURATION_BINS = 20; // The last bin also counts everything longer
+    private static final int RATE_BIN = 2; // Characters per second
+    private static final int RATE_BINS = 15;
+    private static final int BAR_WIDTH = 40;
+
+    /** Durations and speaking rates of one speaker's takes (or of all of them). */
+    private static class Takes {
+        int count;
+        int missing;
+        int unreadable;
+        long characters;
+        long totalDurationMs;
+        long[] durationsMs = new long[16];
+        int rateCount;
+        double[] rates = new double[16];
+
+        void add(long durationMs, int sentenceLength) {
+            if (count == durationsMs.length) {
+                durationsMs = Arrays.copyOf(durationsMs, count * 2);
+            }
+            durationsMs[count++] = durationMs;
+            totalDurationMs += durationMs;
+            characters += sentenceLength;
+            if (durationMs > 0) {
+                if (rateCount == rates.length) {
+                    rates = Arrays.copyOf(rates, rateCount * 2);
+                }
+                rates[rateCount++] = sentenceLength * 1000.0 / durationMs;
+            }
+        }
+
+        void sort() {
+            Arrays.sort(durationsMs, 0, count);
+            Arrays.sort(rates, 0, rateCount);
+        }
+    }
+
+    private final Takes all = new Takes();
+    private final Map<String, Takes> speakers = new TreeMap<>();
+    private final Map<Integer, Integer> sampleRates = new TreeMap<>();
+    private int folderCount;
+
+    synchronized void addFolder() {
+        folderCount++;
+    }
+
+    /**
+     * @param sentenceLength Characters of the take's sentence.
+     */
+    synchronized void addTake(String speaker, WavHeader header, int sentenceLength) {
+        long durationMs = header.getDurationMs();
+        all.add(durationMs, sentenceLength);
+        speaker(speaker).add(durationMs, sentenceLength);
+        Integer count = sampleRates.get(header.sampleRate);
+        sampleRates.put(header.sampleRate, count == null ? 1 : count + 1);
+    }
+
+    /** Records a sentence without a take. */
+    synchronized void addMissing(String speaker) {
+        all.missing++;
+        speaker(speaker).missing++;
+    }
+
+    /** Records a take whose header couldn't be read. */
+    synchronized void addUnreadable(String speaker) {
+        all.unreadable++;
+        speaker(speaker).unreadable++;
+    }
+
+    private Takes speaker(String speaker) {
+        Takes takes = speakers.get(speaker);
+        if (takes == null) {
+            takes = new Takes();
+            speakers.put(speaker, takes);
+        }
+        return takes;
+    }
+
+    /**
+     * @return The headline numbers, for display.
+     */
+    synchronized String summarize() {
+        StringBuilder summary = new StringBuilder()
+                .append(formatHours(all.totalDurationMs)).append(" in ").append(all.count).append(" takes from ")
+                .append(speakers.size()).append(speakers.size() == 1 ? " speaker" : " speakers").append(".");
+        if (all.count > 0) {
+            all.sort();
+            summary.append(String.format(Locale.ROOT, "\nMedian take %.1f s, median %.1f characters/s.",
+                    percentile(all.durationsMs, all.count, 50) / 1000.0, percentile(all.rates, all.rateCount, 50)));
+        }
+        if (all.missing > 0) {
+            summary.append("\n").append(all.missing).append(" sentences have no recording.");
+        }
+        if (all.unreadable > 0) {
+            summary.append("\n").append(all.unreadable).append(" WAV files could not be read.");
+        }
+        return summary.toString();
+    }
+
+    /**
+     * Writes the full report as plain text.
+     * @param title The workspace the statistics are for.
+     */
+    synchronized void writeReport(Writer out, String title) throws IOException {
+        all.sort();
+        out.write("Dataset statistics: " + title + "\n\n");
+        out.write("Totals\n");
+        out.write("  Folders:                   " + folderCount + "\n");
+        out.write("  Speakers:                  " + speakers.size() + "\n");
+        out.write("  Takes:                     " + all.count + "\n");
+        out.write("  Sentences without a take:  " + all.missing + "\n");
+        out.write("  Unreadable WAV files:      " + all.unreadable + "\n");
+        out.write("  Total duration:            " + formatHours(all.totalDurationMs) + "\n");
+        out.write("  Characters:                " + all.characters + "\n");
+        StringBuilder rates = new StringBuilder();
+        for (Map.Entry<Integer, Integer> rate : sampleRates.entrySet()) {
+            rates.append(rates.length() > 0 ? ", " : "").append(rate.getKey()).append(" Hz (").append(rate.getValue()).append(")");
+        }
+        out.write("  Sample rates:              " + rates + "\n\n");
+        if (all.count == 0) {
+            return;
+        }
+
+        out.write("Percentiles        min     p5    p25    p50    p75    p95    p99    max   mean\n");
+        out.write("  Duration (s) ");
+        out.write(String.format(Locale.ROOT, "%7.2f", all.durationsMs[0] / 1000.0));
+        for (double p : PERCENTILES) {
+            out.write(String.format(Locale.ROOT, "%7.2f", percentile(all.durationsMs, all.count, p) / 1000.0));
+        }
+        out.write(String.format(Locale.ROOT, "%7.2f%7.2f\n", all.durationsMs[all.count - 1] / 1000.0,
+                all.totalDurationMs / 1000.0 / all.count));
+        if (all.rateCount > 0) {
+            out.write("  Characters/s ");
+            out.write(String.format(Locale.ROOT, "%7.2f", all.rates[0]));
+            for (double p : PERCENTILES) {
+                out.write(String.format(Locale.ROOT, "%7.2f", percentile(all.rates, all.rateCount, p)));
+            }
+            out.write(String.format(Locale.ROOT, "%7.2f%7.2f\n", all.rates[all.rateCount - 1],
+                    all.characters * 1000.0 / Math.max(1, all.totalDurationMs)));
+        }
+
+        int[] durationBins = new int[DURATION_BINS];
+        for (int i = 0; i < all.count; i++) {
+            durationBins[(int) Math.min(DURATION_BINS - 1, all.durationsMs[i] / DURATION_BIN_MS)]++;
+        }
+        out.write("\nDuration (s)\n");
+        writeHistogram(out, durationBins, DURATION_BIN_MS / 1000);
+        int[] rateBins = new int[RATE_BINS];
+        for (int i = 0; i < all.rateCount; i++) {
+            rateBins[(int) Math.min(RATE_BINS - 1, all.rates[i] / RATE_BIN)]++;
+        }
+        out.write("\nCharacters per second\n");
+        writeHistogram(out, rateBins, RATE_BIN);
+
+        out.write("\nPer speaker\n");
+        out.write(String.format(Locale.ROOT, "  %-20s %7s %8s %10s %8s %8s %8s\n",
+                "Speaker", "Takes", "Missing", "Duration", "Mean s", "p50 s", "p50 c/s"));
+        for (Map.Entry<String, Takes> entry : speakers.entrySet()) {
+            Takes takes = entry.getValue();
+            takes.sort();
+            out.write(String.format(Locale.ROOT, "  %-20s %7d %8d %10s %8.2f %8.2f %8.2f\n",
+                    entry.getKey(), takes.count, takes.missing, formatHours(takes.totalDurationMs),
+                    takes.count > 0 ? takes.totalDurationMs / 1000.0 / takes.count : 0,
+                    percentile(takes.durationsMs, takes.count, 50) / 1000.0,
+                    percentile(takes.rates, takes.rateCount, 50)));
+        }
+        out.flush();
+    }
+
+    // Bins are [i * width, (i + 1) * width); the last one is open-ended.
+    private static void writeHistogram(Writer out, int[] bins, int width) throws IOException {
+        int max = 1;
+        for (int count : bins) {
+            max = Math.max(max, count);
+        }
+        char[] bar = new char[BAR_WIDTH];
+        Arrays.fill(bar, '#');
+        for (int i = 0; i < bins.length; i++) {
+            String label = (i == bins.length - 1)
+                    ? String.format(Locale.ROOT, "%d+", i * width)
+                    : String.format(Locale.ROOT, "%d-%d", i * width, (i + 1) * width);
+            int length = (int) Math.round((double) bins[i] * BAR_WIDTH / max);
+            out.write(String.format(Locale.ROOT, "  %7s  %-" + BAR_WIDTH + "s %d\n", label, new String(bar, 0, length), bins[i]));
+        }
+    }
+
+    // Nearest-rank percentile of the first count values, which must be sorted.
+    private static long percentile(long[] sorted, int count, double p) {
+        if (count == 0) {
+            return 0;
+        }
+        return sorted[Math.max(0, (int) Math.ceil(p / 100 * count) - 1)];
+    }
+
+    private static double percentile(double[] sorted, int count, double p) {
+        if (count == 0) {
+            return 0;
+        }
+        return sorted[Math.max(0, (int) Math.ceil(p / 100 * count) - 1)];
+    }
+
+    private static String formatHours(long durationMs) {
+        long seconds = durationMs / 1000;
+        return String.format(Locale.ROOT, "%d:%02d:%02d", seconds / 3600, seconds / 60 % 60, seconds % 60);
+    }
+}
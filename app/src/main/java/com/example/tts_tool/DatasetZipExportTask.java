@@ -0,0 +1,266 @@
+package com.example.tts_tool;
+
+import android.content.Context;
+import android.net.Uri;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Packages a recorded folder as a ready-to-train ZIP archive: {@code wavs/} with the chosen take
+ * of every sentence plus {@code metadata.csv} in LJSpeech or Coqui layout. Takes are paired with
+ * sentences by {@link TakeMatcher}, as in the CSV export.
+ *
+ * The archive is streamed straight into the output document by a {@link ZipStreamWriter}. Takes
+ * are read and compressed on a pool with one thread per core and written in script order, with at
+ * most two takes per thread in memory at a time. WAV files are PCM, which deflate barely shrinks,
+ * so they can be STORED instead to save the CPU time; metadata.csv is always deflated.
+ *
+ * With a {@link DatasetSplitter}, the rows of metadata.csv are also divided into
+ * {@code metadata_train.csv}, {@code metadata_val.csv} and {@code metadata_test.csv} alongside it.
+ */
+public class DatasetZipExportTask extends FileExportTask {
+
+    /** The metadata format of the archive. */
+    public enum Layout {
+        /** {@code id|text|normalized text}, no header; ids are WAV names without extension. */
+        LJSPEECH,
+        /** Coqui TTS "coqui" formatter: {@code audio_file|text|speaker_name}, with a header. */
+        COQUI
+    }
+
+    private static final String AUDIO_DIRECTORY = "wavs/";
+    private static final String METADATA_NAME = "metadata.csv";
+    private static final String COQUI_HEADER = "audio_file|text|speaker_name\n";
+
+    private final Layout layout;
+    private final boolean compressAudio;
+    private final TakeMatcher.DuplicatePolicy duplicatePolicy;
+    private final DatasetSplitter splitter;
+
+    /**
+     * @param compressAudio Deflate the WAV files instead of storing them.
+     * @param splitter Divides the takes into train, validation and test metadata; null for none.
+     */
+    public DatasetZipExportTask(Context context, Uri folderUri, Layout layout, boolean compressAudio,
+                                TakeMatcher.DuplicatePolicy duplicatePolicy, DatasetSplitter splitter, Listener listener) {
+        super(context, folderUri, listener);
+        this.layout = layout;
+        this.compressAudio = compressAudio;
+        this.duplicatePolicy = duplicatePolicy;
+        this.splitter = splitter;
+    }
+
+    @Override
+    protected String getOutputName() {
+        return getFolderName() + (layout == Layout.LJSPEECH ? "_ljspeech.zip" : "_coqui.zip");
+    }
+
+    /** One entry, read and compressed, waiting for its turn to be written. */
+    private static class CompressedEntry {
+        String name;
+        int method;
+        byte[] data;
+        int length;
+        long crc;
+        long size;
+        long lastModified;
+    }
+
+    @Override
+    protected String writeTo(WorkingFolderIndex folder, OutputStream out) throws IOException {
+        WorkingFolderIndex.Entry script = ScriptParser.findScript(folder);
+        if (script == null) {
+            throw new IOException("No .txt file found in the selected folder.");
+        }
+        final TakeMatcher takes = TakeMatcher.match(folder, duplicatePolicy, context.getContentResolver());
+        if (takes.getTakeCount() == 0) {
+            throw new IOException("No recorded .wav files found in the selected folder.");
+        }
+
+        final int threads = Math.max(1, Runtime.getRuntime().availableProcessors());
+        final ExecutorService pool = Executors.newFixedThreadPool(threads);
+        final ArrayDeque<Future<CompressedEntry>> inFlight = new ArrayDeque<>();
+        final ZipStreamWriter zip = new ZipStreamWriter(new BufferedOutputStream(out, OUTPUT_BUFFER_SIZE));
+        final MetadataWriter metadata = new MetadataWriter();
+        final MetadataWriter[] splits = new MetadataWriter[splitter != null ? DatasetSplitter.Split.values().length : 0];
+        for (int i = 0; i < splits.length; i++) {
+            splits[i] = new MetadataWriter();
+        }
+        final TakeMatcher.Report report = takes.newReport();
+        final String speaker = speakerOf(getFolderName());
+        final int total = takes.getTakeCount();
+        int sentenceCount;
+        try (InputStream in = context.getContentResolver().openInputStream(script.getUri())) {
+            if (in == null) {
+                throw new IOException("Could not open " + script.getName());
+            }
+            if (layout == Layout.COQUI) {
+                metadata.write(COQUI_HEADER);
+                for (MetadataWriter split : splits) {
+                    split.write(COQUI_HEADER);
+                }
+            }
+            sentenceCount = ScriptParser.parse(new InputStreamReader(in, StandardCharsets.UTF_8), (index, sentence) -> {
+                WorkingFolderIndex.Entry take = takes.getTake(index);
+                if (take == null) {
+                    report.addMissing(index);
+                    return;
+                }
+                String text = cleanText(sentence);
+                String row;
+                if (layout == Layout.LJSPEECH) {
+                    String id = take.getName().substring(0, take.getName().length() - 4); // Without ".wav"
+                    row = id + "|" + text + "|" + text + "\n";
+                } else {
+                    row = AUDIO_DIRECTORY + take.getName() + "|" + text + "|" + speaker + "\n";
+                }
+                metadata.write(row);
+                if (splitter != null) {
+                    long durationMs = AudioRecorderManager.durationMsForWavSize(take.getSize());
+                    splits[splitter.assign(speaker, durationMs, take.getName()).ordinal()].write(row);
+                }
+                inFlight.add(pool.submit(() -> readTake(take)));
+                if (inFlight.size() >= 2 * threads) {
+                    writeNext(zip, inFlight, report, total);
+                }
+            });
+            while (!inFlight.isEmpty()) {
+                writeNext(zip, inFlight, report, total);
+            }
+            long now = System.currentTimeMillis();
+            writeMetadata(zip, METADATA_NAME, metadata, now);
+            for (int i = 0; i < splits.length; i++) {
+                writeMetadata(zip, "metadata_" + DatasetSplitter.Split.values()[i].fileSuffix + ".csv", splits[i], now);
+            }
+            zip.finish();
+        } finally {
+            pool.shutdownNow();
+            metadata.end();
+            for (MetadataWriter split : splits) {
+                split.end();
+            }
+        }
+        if (report.getExported() == 0) {
+            throw new IOException("None of the " + sentenceCount + " sentences has a recording.");
+        }
+        return report.describe(sentenceCount) + (splitter != null ? "\n" + splitter.describe() : "");
+    }
+
+    private static void writeMetadata(ZipStreamWriter zip, String name, MetadataWriter metadata, long lastModified)
+            throws IOException {
+        byte[] bytes = metadata.finish();
+        zip.writeEntry(name, ZipStreamWriter.METHOD_DEFLATED, bytes, bytes.length, metadata.crc.getValue(),
+                metadata.size, lastModified);
+    }
+
+    // Waits for the oldest entry, so entries are written in script order.
+    private void writeNext(ZipStreamWriter zip, ArrayDeque<Future<CompressedEntry>> inFlight,
+                           TakeMatcher.Report report, int total) throws IOException {
+        CompressedEntry entry;
+        try {
+            entry = inFlight.poll().get();
+        } catch (ExecutionException e) {
+            throw (e.getCause() instanceof IOException) ? (IOException) e.getCause() : new IOException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while compressing", e);
+        }
+        zip.writeEntry(entry.name, entry.method, entry.data, entry.length, entry.crc, entry.size, entry.lastModified);
+        report.addExported();
+        reportProgress(report.getExported(), total);
+    }
+
+    // Runs on the pool.
+    private CompressedEntry readTake(WorkingFolderIndex.Entry take) throws IOException {
+        ByteArrayOutputStream raw = new ByteArrayOutputStream(take.getSize() > 0 ? (int) take.getSize() : 64 * 1024);
+        try (InputStream in = context.getContentResolver().openInputStream(take.getUri())) {
+            if (in == null) {
+                throw new IOException("Could not open " + take.getName());
+            }
+            byte[] buffer = new byte[64 * 1024];
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                raw.write(buffer, 0, read);
+            }
+        }
+        byte[] data = raw.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, data.length);
+
+        CompressedEntry entry = new CompressedEntry();
+        entry.name = AUDIO_DIRECTORY + take.getName();
+        entry.crc = crc.getValue();
+        entry.size = data.length;
+        entry.lastModified = take.getLastModified();
+        entry.method = ZipStreamWriter.METHOD_STORED;
+        entry.data = data;
+        entry.length = data.length;
+        if (compressAudio) {
+            Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true); // Raw deflate, as ZIP stores it
+            try {
+                deflater.setInput(data);
+                deflater.finish();
+                byte[] compressed = new byte[data.length + 64];
+                int length = 0;
+                while (!deflater.finished() && length < compressed.length) {
+                    length += deflater.deflate(compressed, length, compressed.length - length);
+                }
+                if (deflater.finished() && length < data.length) { // Otherwise storing is smaller
+                    entry.method = ZipStreamWriter.METHOD_DEFLATED;
+                    entry.data = compressed;
+                    entry.length = length;
+                }
+            } finally {
+                deflater.end();
+            }
+        }
+        return entry;
+    }
+
+    // '|' separates the columns and every row is one line.
+    private static String cleanText(String sentence) {
+        return sentence.replace('|', ' ').replace('\r', ' ').replace('\n', ' ');
+    }
+
+    /**
+     * Builds metadata.csv deflated in memory, so it costs its compressed size until it is written
+     * as the last entry.
+     */
+    private static class MetadataWriter {
+        final CRC32 crc = new CRC32();
+        long size = 0;
+        private final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        private final DeflaterOutputStream out = new DeflaterOutputStream(compressed, deflater, OUTPUT_BUFFER_SIZE);
+
+        void write(String line) throws IOException {
+            byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+            crc.update(bytes, 0, bytes.length);
+            size += bytes.length;
+            out.write(bytes);
+        }
+
+        byte[] finish() throws IOException {
+            out.finish();
+            return compressed.toByteArray();
+        }
+
+        void end() {
+            deflater.end();
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package com.example.tts_tool;
+
+import android.content.Context;
+import android.net.Uri;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Exports only what changed since the previous run, for folders that keep growing and are
+ * offloaded regularly: {@code <folder>_delta_0001.csv}, {@code _0002.csv}, ... with the columns
+ * of {@link CsvExportTask}, holding the sentences whose take was added or replaced, or whose text
+ * was edited. Deltas only add rows: a take that was removed or replaced, and the old text of an
+ * edited sentence, are not retracted (removals are only counted in the summary). Concatenated,
+ * the deltas hold every row the full export has, plus such stale rows; run the full CSV export
+ * when an exact copy of the folder is needed.
+ *
+ * What was exported is kept in {@code <folder>_export.checkpoint}: per sentence, the take's name,
+ * size and modification time and the {@link ContentHash} of the sentence. The checkpoint is
+ * replaced only after the delta is written, so a run that fails halfway is covered again by the
+ * next one. A run reads the folder listing, the checkpoint and the script but no audio, so an
+ * unchanged folder is checked in well under a second.
+ */
+public class DeltaCsvExportTask extends FileExportTask {
+
+    static final String CHECKPOINT_SUFFIX = "_export.checkpoint";
+    private static final String CHECKPOINT_MAGIC = "TTSX";
+    private static final int CHECKPOINT_VERSION = 1;
+    private static final String CHECKPOINT_MIME_TYPE = "application/octet-stream";
+
+    /** What was exported for one sentence. */
+    private static class ExportedTake {
+        final String takeName;
+        final long size;
+        final long lastModified;
+        final String textHash;
+
+        ExportedTake(String takeName, long size, long lastModified, String textHash) {
+            this.takeName = takeName;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.textHash = textHash;
+        }
+
+        boolean sameAs(ExportedTake other) {
+            return other != null && size == other.size && lastModified == other.lastModified
+                    && takeName.equals(other.takeName) && textHash.equals(other.textHash);
+        }
+    }
+
+    private final TakeMatcher.DuplicatePolicy duplicatePolicy;
+    // Set up by prepare()
+    private int deltaNumber;
+    private final TreeMap<Integer, ExportedTake> exported = new TreeMap<>();
+    private final List<Integer> changedIndexes = new ArrayList<>();
+    private final List<String> changedSentences = new ArrayList<>();
+    private int removedCount;
+
+    public DeltaCsvExportTask(Context context, Uri folderUri, TakeMatcher.DuplicatePolicy duplicatePolicy, Listener listener) {
+        super(context, folderUri, listener);
+        this.duplicatePolicy = duplicatePolicy;
+    }
+
+    @Override
+    protected String getOutputName() {
+        return String.format(Locale.ROOT, "%s_delta_%04d.csv", getFolderName(), deltaNumber);
+    }
+
+    @Override
+    protected String prepare(WorkingFolderIndex folder) throws IOException {
+        WorkingFolderIndex.Entry script = ScriptParser.findScript(folder);
+        if (script == null) {
+            throw new IOException("No .txt file found in the selected folder.");
+        }
+        final TakeMatcher takes = TakeMatcher.match(folder, duplicatePolicy, context.getContentResolver());
+        final Map<Integer, ExportedTake> previous = new HashMap<>();
+        WorkingFolderIndex.Entry checkpoint = folder.find(null, getFolderName() + CHECKPOINT_SUFFIX);
+        int previousDeltas = (checkpoint != null) ? readCheckpoint(checkpoint, previous) : 0;
+        deltaNumber = previousDeltas + 1;
+
+        try (InputStream in = context.getContentResolver().openInputStream(script.getUri())) {
+            if (in == null) {
+                throw new IOException("Could not open " + script.getName());
+            }
+            ScriptParser.parse(new InputStreamReader(in, StandardCharsets.UTF_8), (index, sentence) -> {
+                WorkingFolderIndex.Entry take = takes.getTake(index);
+                if (take == null) {
+                    return;
+                }
+                ExportedTake current = new ExportedTake(take.getName(), take.getSize(), take.getLastModified(),
+                        ContentHash.of(sentence));
+                exported.put(index, current);
+                if (!current.sameAs(previous.remove(index))) {
+                    changedIndexes.add(index);
+                    changedSentences.add(sentence);
+                }
+            });
+        }
+        removedCount = previous.size(); // Exported before, without a take now
+        if (!changedIndexes.isEmpty()) {
+            return null;
+        }
+        String summary = (previousDeltas == 0)
+                ? "No recorded sentences to export."
+                : "No takes added or changed since " + String.format(Locale.ROOT, "%s_delta_%04d.csv", getFolderName(), previousDeltas) + ".";
+        return summary + describeRemoved();
+    }
+
+    @Override
+    protected String writeTo(WorkingFolderIndex folder, OutputStream out) throws IOException {
+        String pathPrefix = "./" + getFolderName() + "/";
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), OUTPUT_BUFFER_SIZE);
+        writer.write(CsvExportTask.HEADER);
+        int total = changedIndexes.size();
+        for (int i = 0; i < total; i++) {
+            writer.write(CsvExportTask.escapeCsv(changedSentences.get(i)));
+            writer.write(',');
+            writer.write(CsvExportTask.escapeCsv(pathPrefix + exported.get(changedIndexes.get(i)).takeName));
+            writer.write('\n');
+            reportProgress(i + 1, total);
+        }
+        writer.flush();
+        return total + (total == 1 ? " sentence" : " sentences") + " added or changed since the last export, of "
+                + exported.size() + " recorded." + describeRemoved();
+    }
+
+    @Override
+    protected void afterCommit(WorkingFolderIndex folder, Uri folderDocumentUri) throws IOException {
+        StringBuilder checkpoint = new StringBuilder(64 * (exported.size() + 1));
+        checkpoint.append(CHECKPOINT_MAGIC).append('\t').append(CHECKPOINT_VERSION).append('\t').append(deltaNumber).append('\n');
+        for (Map.Entry<Integer, ExportedTake> entry : exported.entrySet()) {
+            ExportedTake take = entry.getValue();
+            checkpoint.append(entry.getKey()).append('\t').append(take.textHash).append('\t').append(take.size)
+                    .append('\t').append(take.lastModified).append('\t').append(take.takeName).append('\n');
+        }
+        replaceDocument(folder, folderDocumentUri, getFolderName() + CHECKPOINT_SUFFIX, CHECKPOINT_MIME_TYPE,
+                checkpoint.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private String describeRemoved() {
+        return (removedCount > 0) ? "\n" + removedCount + " exported sentences no longer have a take." : "";
+    }
+
+    /**
+     * Reads the checkpoint of the previous run into {@code previous}.
+     * @return The number of deltas written so far.
+     */
+    private int readCheckpoint(WorkingFolderIndex.Entry checkpoint, Map<Integer, ExportedTake> previous) throws IOException {
+        try (InputStream in = context.getContentResolver().openInputStream(checkpoint.getUri())) {
+            if (in == null) {
+                throw new IOException("Could not open " + checkpoint.getName());
+            }
+            BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+            String[] header = String.valueOf(reader.readLine()).split("\t");
+            if (header.length < 3 || !CHECKPOINT_MAGIC.equals(header[0])) {
+                throw new IOException(checkpoint.getName() + " is not an export checkpoint.");
+            }
+            int deltas = Integer.parseInt(header[2]);
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split("\t", 5);
+                if (fields.length < 5) {
+                    continue; // Damaged; the sentence is exported again
+                }
+                previous.put(Integer.parseInt(fields[0]),
+                        new ExportedTake(fields[4], Long.parseLong(fields[2]), Long.parseLong(fields[3]), fields[1]));
+            }
+            return deltas;
+        } catch (NumberFormatException e) {
+            throw new IOException(checkpoint.getName() + " is damaged. Delete it to export everything again.", e);
+        }
+    }
+}
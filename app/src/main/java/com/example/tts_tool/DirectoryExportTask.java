@@ -0,0 +1,55 @@
+package com.example.tts_tool;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.net.Uri;
+import android.provider.DocumentsContract;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * An export that writes a folder of files named {@link #getOutputName()}. The folder replaces
+ * the previous one as a whole, like the output of a {@link FileExportTask}.
+ */
+public abstract class DirectoryExportTask extends ExportTask {
+
+    protected DirectoryExportTask(Context context, Uri folderUri, Listener listener) {
+        super(context, folderUri, listener);
+    }
+
+    /**
+     * Writes the folder. Runs on the export thread.
+     * @param folder The folder's files, listed once when the export started.
+     * @param directoryUri The temporary output folder; see {@link #createFile}.
+     * @return A short description of what was written, for display.
+     */
+    protected abstract String writeDirectory(WorkingFolderIndex folder, Uri directoryUri) throws IOException;
+
+    /**
+     * Creates a file in the output folder of {@link #writeDirectory}. May be called from any thread.
+     * @return The file's output stream, unbuffered; the caller closes it.
+     */
+    protected OutputStream createFile(Uri directoryUri, String name, String mimeType) throws IOException {
+        ContentResolver resolver = context.getContentResolver();
+        Uri fileUri = DocumentsContract.createDocument(resolver, directoryUri, mimeType, name);
+        if (fileUri == null) {
+            throw new IOException("Could not create " + name);
+        }
+        OutputStream out = resolver.openOutputStream(fileUri, "w");
+        if (out == null) {
+            throw new IOException("No output stream for " + fileUri);
+        }
+        return out;
+    }
+
+    @Override
+    final String getTempMimeType() {
+        return DocumentsContract.Document.MIME_TYPE_DIR;
+    }
+
+    @Override
+    final String writeOutput(WorkingFolderIndex folder, Uri tempUri) throws IOException {
+        return writeDirectory(folder, tempUri);
+    }
+}
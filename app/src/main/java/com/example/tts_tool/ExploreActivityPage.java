@@ -15,8 +15,10 @@ import android.widget.ProgressBar;
 import androidx.activity.result.ActivityResultLauncher;
 import androidx.activity.result.contract.ActivityResultContracts;
 import androidx.annotation.NonNull;
+import androidx.appcompat.app.AlertDialog;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.documentfile.provider.DocumentFile;
+import androidx.lifecycle.ViewModelProvider;
 
 import com.google.android.gms.tasks.OnCompleteListener;
 import com.google.android.gms.tasks.Task;
@@ -27,17 +29,6 @@ import com.google.firebase.auth.FirebaseUser;
 
 import android.provider.DocumentsContract;
 
-import java.io.BufferedReader;
-import java.io.OutputStream;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.IOException;
-import java.io.OutputStreamWriter;
-import java.io.PrintWriter;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.List;
 // Removed regex imports as they are no longer needed for simple line reading
 // import java.util.regex.Matcher;
 // import java.util.regex.Pattern;
@@ -50,11 +41,16 @@ public class ExploreActivityPage extends AppCompatActivity implements LoadSessio
     public static final String EXTRA_IS_NEW_SESSION = "is_new_session";
 
     private Button btnLoadSavedSession;
+    private Button btnOpenSessionFolder;
     private Button btnViewFilesInWorkspace;
     private TextView tvNoSavedSessionHint;
     private ProgressBar authProgressBar;
     private Button btnStartNewSession;
     private Button btnExportDataCsv; // New button declaration
+    private ExportStateHolder exportState; // The running export, if any, kept across rotation
+    private AlertDialog exportDialog;
+    private ProgressBar exportProgressBar;
+    private TextView exportProgressText;
 
     private Uri selectedWorkingFolderUri;
     private FirebaseAuth mAuth;
@@ -64,6 +60,8 @@ public class ExploreActivityPage extends AppCompatActivity implements LoadSessio
     private ActivityResultLauncher<Uri> openDirectoryLauncher;
     // New ActivityResultLauncher for selecting a directory for CSV export
     private ActivityResultLauncher<Uri> exportCsvDirectoryLauncher;
+    // ActivityResultLauncher for selecting a session's working folder to open from its manifest
+    private ActivityResultLauncher<Uri> openSessionFolderLauncher;
 
     // Flag to indicate if folder selection is for starting a new session
     private boolean isSelectingFolderForNewSession = false;
@@ -78,11 +76,19 @@ public class ExploreActivityPage extends AppCompatActivity implements LoadSessio
 
         btnStartNewSession = findViewById(R.id.btn_start_new_session);
         btnLoadSavedSession = findViewById(R.id.btn_load_saved_session);
+        btnOpenSessionFolder = findViewById(R.id.btn_open_session_folder);
         btnViewFilesInWorkspace = findViewById(R.id.btn_view_files_in_workspace);
         tvNoSavedSessionHint = findViewById(R.id.tv_no_saved_session_hint);
         authProgressBar = findViewById(R.id.auth_progress_bar);
         btnExportDataCsv = findViewById(R.id.btn_export_data_csv); // Initialize the new button
 
+        // An export started before a rotation is still running; show its progress again
+        exportState = new ViewModelProvider(this).get(ExportStateHolder.class);
+        if (exportState.isRunning()) {
+            showExportDialog();
+        }
+        exportState.attach(exportListener);
+
         authenticateAnonymously();
 
         // Initialize the ActivityResultLauncher for selecting a directory (original logic)
@@ -123,8 +129,8 @@ public class ExploreActivityPage extends AppCompatActivity implements LoadSessio
                 try {
                     getContentResolver().takePersistableUriPermission(uri, takeFlags);
                     Toast.makeText(ExploreActivityPage.this, "Export folder selected: " + getFolderName(uri), Toast.LENGTH_SHORT).show();
-                    Log.d(TAG, "Selected folder for CSV export: " + uri.toString());
-                    processAndExportCsv(uri); // Call the new processing method
+                    Log.d(TAG, "Selected folder for export: " + uri.toString());
+                    chooseExportFormat(uri);
                 } catch (SecurityException e) {
                     Log.e(TAG, "Permissions denied for selected export folder: " + e.getMessage());
                     Toast.makeText(ExploreActivityPage.this, "Permission denied for selected folder. Cannot export CSV.", Toast.LENGTH_LONG).show();
@@ -135,6 +141,25 @@ public class ExploreActivityPage extends AppCompatActivity implements LoadSessio
         });
 
 
+        openSessionFolderLauncher = registerForActivityResult(new ActivityResultContracts.OpenDocumentTree(), uri -> {
+            if (uri != null) {
+                final int takeFlags = Intent.FLAG_GRANT_READ_URI_PERMISSION | Intent.FLAG_GRANT_WRITE_URI_PERMISSION;
+                try {
+                    getContentResolver().takePersistableUriPermission(uri, takeFlags);
+                    Log.d(TAG, "Selected session folder to open: " + uri.toString());
+                    // ProcessingActivity rebuilds the session from the folder's manifest
+                    Intent intent = new Intent(ExploreActivityPage.this, ProcessingActivity.class);
+                    intent.putExtra("working_folder_uri", uri.toString());
+                    startActivity(intent);
+                } catch (SecurityException e) {
+                    Log.e(TAG, "Permissions denied for selected session folder: " + e.getMessage());
+                    Toast.makeText(ExploreActivityPage.this, "Permission denied for selected folder. Please try again.", Toast.LENGTH_LONG).show();
+                }
+            } else {
+                Toast.makeText(ExploreActivityPage.this, "No session folder selected.", Toast.LENGTH_SHORT).show();
+            }
+        });
+
         btnStartNewSession.setOnClickListener(v -> {
             Log.d(TAG, "Start New Session button clicked.");
             if (selectedWorkingFolderUri == null) {
@@ -163,6 +188,12 @@ public class ExploreActivityPage extends AppCompatActivity implements LoadSessio
             loadDialog.show(getSupportFragmentManager(), "LoadSessionDialog");
         });
 
+        btnOpenSessionFolder.setOnClickListener(v -> {
+            Log.d(TAG, "Open Session From Folder button clicked.");
+            Toast.makeText(ExploreActivityPage.this, "Select the working folder of the session to open.", Toast.LENGTH_LONG).show();
+            openSessionFolderLauncher.launch(selectedWorkingFolderUri); // Start in the workspace, if there is one
+        });
+
         btnViewFilesInWorkspace.setOnClickListener(v -> {
             if (selectedWorkingFolderUri != null) {
                 Log.d(TAG, "View Files in Workspace button clicked. Attempting to open system file picker at: " + selectedWorkingFolderUri.toString());
@@ -176,9 +207,9 @@ public class ExploreActivityPage extends AppCompatActivity implements LoadSessio
 
         // Set OnClickListener for the new button
         btnExportDataCsv.setOnClickListener(v -> {
-            Log.d(TAG, "Export Data as CSV button clicked.");
+            Log.d(TAG, "Export Data button clicked.");
             Toast.makeText(ExploreActivityPage.this, "Select the folder containing your .txt and .wav files.", Toast.LENGTH_LONG).show();
-            exportCsvDirectoryLauncher.launch(null); // Launch folder picker for CSV export
+            exportCsvDirectoryLauncher.launch(null); // Launch folder picker for the export
         });
 
         updateButtonStates();
@@ -258,6 +289,8 @@ public class ExploreActivityPage extends AppCompatActivity implements LoadSessio
 
         if (mAuth.getCurrentUser() != null) {
             currentUserId = mAuth.getCurrentUser().getUid();
+            // Moves old sessions out of the active store in the background; runs at most daily
+            SessionRepositories.get(this, currentUserId).archiveSessions(SessionArchivePolicy.DEFAULT, null);
         } else {
             currentUserId = null;
             authenticateAnonymously();
@@ -280,6 +313,7 @@ public class ExploreActivityPage extends AppCompatActivity implements LoadSessio
         btnLoadSavedSession.setEnabled(isWorkingFolderSelected && isAuthenticated);
         btnViewFilesInWorkspace.setEnabled(isWorkingFolderSelected && isAuthenticated);
         btnExportDataCsv.setEnabled(true); // Always enable the export button, it prompts for folder
+        btnOpenSessionFolder.setEnabled(true); // Prompts for the folder; works without a workspace
 
         if (isWorkingFolderSelected) {
             tvNoSavedSessionHint.setVisibility(View.GONE);
@@ -314,150 +348,238 @@ public class ExploreActivityPage extends AppCompatActivity implements LoadSessio
     }
 
     @Override
-    public void onSessionSelected(ProcessingActivity.SessionState sessionState) {
-        if (sessionState != null && sessionState.getSessionId() != null) {
-            Log.d(TAG, "onSessionSelected: Session selected from dialog: " + sessionState.getSessionId());
+    public void onSessionSelected(SessionSummary summary) {
+        if (summary != null && summary.getSessionId() != null) {
+            Log.d(TAG, "onSessionSelected: Session selected from dialog: " + summary.getSessionId());
 
+            // ProcessingActivity loads the session itself (folders, input file, takes) from the ID
             Intent intent = new Intent(ExploreActivityPage.this, ProcessingActivity.class);
-            intent.putExtra("session_id", sessionState.getSessionId());
-            intent.putExtra("username", sessionState.getUsername());
-            intent.putExtra("root_folder_uri", sessionState.getRootFolderUriString());
-            if (sessionState.getOriginalInputFileUriString() != null) {
-                intent.setData(Uri.parse(sessionState.getOriginalInputFileUriString()));
-            }
+            intent.putExtra("session_id", summary.getSessionId());
+            intent.putExtra("username", summary.getUsername());
 
             startActivity(intent);
         } else {
             Toast.makeText(this, "Failed to load session: Invalid session data received.", Toast.LENGTH_SHORT).show();
-            Log.e(TAG, "onSessionSelected: Invalid sessionState received from LoadSessionDialogFragment.");
+            Log.e(TAG, "onSessionSelected: Invalid session summary received from LoadSessionDialogFragment.");
         }
     }
 
     /**
-     * Processes the selected folder, extracts sentences from a .txt file,
-     * finds .wav audio files, matches them, and exports to a CSV.
+     * Asks what to export from the selected folder, then runs that export in the background.
+     * @param folderUri The URI of the selected folder.
+     */
+    private void chooseExportFormat(Uri folderUri) {
+        String[] formats = {"CSV file", "CSV of takes added or changed since the last export",
+                "Training dataset ZIP (LJSpeech)", "Training dataset ZIP (Coqui)", "WebDataset tar shards",
+                "Statistics report (durations, speaking rate, per speaker)",
+                "SHA-256 manifest (create or update)", "Verify against the SHA-256 manifest",
+                "Loudness-normalized copies (EBU R128)", "Merged CSV of all session folders (select the workspace)"};
+        new AlertDialog.Builder(this)
+                .setTitle("Export format")
+                .setItems(formats, (dialog, which) -> {
+                    switch (which) {
+                        case 0:
+                            processAndExportCsv(folderUri);
+                            break;
+                        case 1:
+                            chooseDuplicatePolicy(policy -> startExport(
+                                    new DeltaCsvExportTask(this, folderUri, policy, exportState), "Exporting changes..."));
+                            break;
+                        case 2:
+                            exportDatasetZip(folderUri, DatasetZipExportTask.Layout.LJSPEECH);
+                            break;
+                        case 3:
+                            exportDatasetZip(folderUri, DatasetZipExportTask.Layout.COQUI);
+                            break;
+                        case 4:
+                            exportWebDataset(folderUri);
+                            break;
+                        case 5:
+                            startExport(new StatisticsReportTask(this, folderUri, exportState), "Reading WAV headers...");
+                            break;
+                        case 6:
+                            startExport(new HashManifestTask(this, folderUri, HashManifestTask.Mode.WRITE, exportState),
+                                    "Hashing files...");
+                            break;
+                        case 7:
+                            startExport(new HashManifestTask(this, folderUri, HashManifestTask.Mode.VERIFY, exportState),
+                                    "Verifying files...");
+                            break;
+                        case 8:
+                            normalizeLoudness(folderUri);
+                            break;
+                        default:
+                            chooseDuplicatePolicy(policy -> startExport(
+                                    new WorkspaceMergeExportTask(this, folderUri, policy, exportState), "Merging session folders..."));
+                            break;
+                    }
+                })
+                .show();
+    }
+
+    /**
+     * Exports the selected folder to a CSV file in the background, pairing the sentences of its
+     * .txt file with its .wav audio files.
      * @param folderUri The URI of the selected folder.
      */
     private void processAndExportCsv(Uri folderUri) {
-        DocumentFile rootFolder = DocumentFile.fromTreeUri(this, folderUri);
-        if (rootFolder == null || !rootFolder.exists() || !rootFolder.isDirectory()) {
-            Toast.makeText(this, "Selected folder is not valid or accessible.", Toast.LENGTH_LONG).show();
-            Log.e(TAG, "Invalid root folder for CSV export: " + folderUri);
-            return;
-        }
+        chooseDuplicatePolicy(policy -> startExport(new CsvExportTask(this, folderUri, policy, exportState), "Exporting CSV..."));
+    }
 
-        DocumentFile txtFile = null;
-        List<DocumentFile> wavFiles = new ArrayList<>();
-
-        // Find .txt and .wav files
-        for (DocumentFile file : rootFolder.listFiles()) {
-            if (file.isFile()) {
-                String fileName = file.getName();
-                if (fileName != null) {
-                    if (fileName.toLowerCase().endsWith(".txt")) {
-                        txtFile = file;
-                    } else if (fileName.toLowerCase().endsWith(".wav")) {
-                        wavFiles.add(file);
-                    }
-                }
-            }
-        }
+    private void exportDatasetZip(Uri folderUri, DatasetZipExportTask.Layout layout) {
+        String[] compression = {"Store audio (fast, WAV barely compresses)", "Compress audio (slightly smaller)"};
+        new AlertDialog.Builder(this)
+                .setTitle("Audio in the archive")
+                .setItems(compression, (dialog, which) -> chooseSplits(splitter -> chooseDuplicatePolicy(policy -> startExport(
+                        new DatasetZipExportTask(this, folderUri, layout, which == 1, policy, splitter, exportState),
+                        "Packaging dataset..."))))
+                .show();
+    }
 
-        if (txtFile == null) {
-            Toast.makeText(this, "No .txt file found in the selected folder.", Toast.LENGTH_LONG).show();
-            return;
-        }
-        if (wavFiles.isEmpty()) {
-            Toast.makeText(this, "No .wav audio files found in the selected folder.", Toast.LENGTH_LONG).show();
-            return;
-        }
+    private void normalizeLoudness(Uri folderUri) {
+        String[] targets = {"-23 LUFS (EBU R128 broadcast)", "-20 LUFS", "-16 LUFS (louder, streaming)"};
+        double[] targetLufs = {LoudnessNormalizeTask.EBU_R128_TARGET_LUFS, -20, -16};
+        new AlertDialog.Builder(this)
+                .setTitle("Target loudness")
+                .setItems(targets, (dialog, which) -> startExport(new LoudnessNormalizeTask(this, folderUri,
+                        targetLufs[which], LoudnessNormalizeTask.DEFAULT_CEILING_DBTP, exportState), "Normalizing loudness..."))
+                .show();
+    }
 
-        // Sort WAV files by name for consistent matching (e.g., audio_001.wav, audio_002.wav)
-        Collections.sort(wavFiles, Comparator.comparing(DocumentFile::getName));
-
-        List<String> sentences = new ArrayList<>();
-        try (InputStream inputStream = getContentResolver().openInputStream(txtFile.getUri());
-             BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                String trimmedLine = line.trim();
-                if (!trimmedLine.isEmpty()) {
-                    sentences.add(trimmedLine);
-                }
-            }
-        } catch (IOException e) {
-            Toast.makeText(this, "Error reading .txt file: " + e.getMessage(), Toast.LENGTH_LONG).show();
-            Log.e(TAG, "Error reading .txt file", e);
-            return;
-        }
+    private interface SplitterCallback {
+        void onChosen(DatasetSplitter splitter);
+    }
+
+    // Asks whether to divide the dataset into train, validation and test metadata; null for no splits.
+    private void chooseSplits(SplitterCallback callback) {
+        String[] options = {"No splits", "Train / validation / test: 90 / 5 / 5", "Train / validation / test: 80 / 10 / 10",
+                "Train / validation: 95 / 5"};
+        double[][] ratios = {null, {90, 5, 5}, {80, 10, 10}, {95, 5, 0}};
+        new AlertDialog.Builder(this)
+                .setTitle("Training splits")
+                .setItems(options, (dialog, which) -> callback.onChosen(ratios[which] == null ? null
+                        : new DatasetSplitter(ratios[which][0], ratios[which][1], ratios[which][2], DatasetSplitter.DEFAULT_SEED)))
+                .show();
+    }
+
+    private void exportWebDataset(Uri folderUri) {
+        String[] options = {"1 GB shards, shuffled", "1 GB shards, script order", "256 MB shards, shuffled"};
+        new AlertDialog.Builder(this)
+                .setTitle("Shards")
+                .setItems(options, (dialog, which) -> {
+                    long shardSize = which == 2 ? WebDatasetExportTask.DEFAULT_SHARD_SIZE / 4 : WebDatasetExportTask.DEFAULT_SHARD_SIZE;
+                    boolean shuffle = which != 1;
+                    chooseDuplicatePolicy(policy -> startExport(
+                            new WebDatasetExportTask(this, folderUri, shardSize, shuffle, policy, exportState),
+                            "Writing shards..."));
+                })
+                .show();
+    }
 
-        Log.d(TAG, "Sentences found: " + sentences.size());
-        Log.d(TAG, "WAV files found: " + wavFiles.size());
+    private interface DuplicatePolicyCallback {
+        void onChosen(TakeMatcher.DuplicatePolicy policy);
+    }
+
+    // Asks which take to export for sentences recorded more than once.
+    private void chooseDuplicatePolicy(DuplicatePolicyCallback callback) {
+        String[] options = {"Latest take", "Best take (checks levels and clipping, slower)"};
+        new AlertDialog.Builder(this)
+                .setTitle("Sentences recorded more than once")
+                .setItems(options, (dialog, which) ->
+                        callback.onChosen(which == 0 ? TakeMatcher.DuplicatePolicy.LATEST : TakeMatcher.DuplicatePolicy.BEST))
+                .show();
+    }
 
-        if (sentences.size() != wavFiles.size()) {
-            Toast.makeText(this,
-                    "Mismatch: " + sentences.size() + " sentences and " + wavFiles.size() + " WAV files. Export cancelled.",
-                    Toast.LENGTH_LONG).show();
+    private void startExport(ExportTask task, String title) {
+        if (exportState.isRunning()) {
+            Toast.makeText(this, "An export is already running.", Toast.LENGTH_SHORT).show();
             return;
         }
+        exportState.start(task, title);
+        showExportDialog();
+    }
 
-        // Prepare CSV data
-        List<String[]> csvData = new ArrayList<>();
-        csvData.add(new String[]{"Sentence", "Audio_Path"}); // CSV Header
+    private void showExportDialog() {
+        View view = getLayoutInflater().inflate(R.layout.dialog_export_progress, null);
+        ((TextView) view.findViewById(R.id.text_export_title)).setText(exportState.getTitle());
+        exportProgressBar = view.findViewById(R.id.progress_export);
+        exportProgressText = view.findViewById(R.id.text_export_progress);
+        Button btnCancel = view.findViewById(R.id.btn_export_cancel);
+        btnCancel.setOnClickListener(v -> {
+            exportState.cancel();
+            btnCancel.setEnabled(false);
+            exportProgressText.setText("Cancelling...");
+        });
+        if (exportState.isCancelling()) {
+            btnCancel.setEnabled(false);
+            exportProgressText.setText("Cancelling...");
+        } else if (exportState.getTotal() >= 0) {
+            showExportProgress(exportState.getDone(), exportState.getTotal());
+        }
+        exportDialog = new AlertDialog.Builder(this).setView(view).setCancelable(false).create();
+        exportDialog.show();
+    }
 
-        // Get the name of the root folder once
-        String rootFolderName = getFolderName(rootFolder.getUri()); // Reusing getFolderName
+    private void showExportProgress(int done, int total) {
+        exportProgressBar.setIndeterminate(false);
+        exportProgressBar.setMax(total);
+        exportProgressBar.setProgress(done);
+        exportProgressText.setText(done + " / " + total);
+    }
 
-        for (int i = 0; i < sentences.size(); i++) {
-            String sentence = sentences.get(i);
-            DocumentFile wavFile = wavFiles.get(i);
-            // Construct the relative path as ./foldername/audiopath
-            String relativePath = "./" + rootFolderName + "/" + wavFile.getName();
-            csvData.add(new String[]{sentence, relativePath});
+    private void finishExport() {
+        if (exportDialog != null) {
+            exportDialog.dismiss();
+            exportDialog = null;
         }
+    }
 
-        // Export CSV
-        String folderName = rootFolder.getName();
-        String csvFileName = (folderName != null ? folderName : "exported_data") + ".csv";
-
-        try {
-            DocumentFile csvFile = rootFolder.createFile("text/csv", csvFileName);
-            if (csvFile == null) {
-                Toast.makeText(this, "Failed to create CSV file.", Toast.LENGTH_LONG).show();
-                Log.e(TAG, "Failed to create CSV file: " + csvFileName);
+    private final ExportTask.Listener exportListener = new ExportTask.Listener() {
+        @Override
+        public void onProgress(int done, int total) {
+            if (exportDialog == null || exportState.isCancelling() || isDestroyed()) {
                 return;
             }
+            showExportProgress(done, total);
+        }
 
-            try (OutputStream outputStream = getContentResolver().openOutputStream(csvFile.getUri());
-                 PrintWriter writer = new PrintWriter(new OutputStreamWriter(outputStream))) {
-
-                for (String[] row : csvData) {
-                    writer.println(escapeCsv(row[0]) + "," + escapeCsv(row[1]));
-                }
-                Toast.makeText(this, "CSV exported successfully as " + csvFileName, Toast.LENGTH_LONG).show();
-                Log.d(TAG, "CSV exported successfully to: " + csvFile.getUri());
+        @Override
+        public void onFinished(String summary) {
+            if (isDestroyed()) {
+                return;
             }
-
-        } catch (IOException e) {
-            Toast.makeText(this, "Error exporting CSV: " + e.getMessage(), Toast.LENGTH_LONG).show();
-            Log.e(TAG, "Error exporting CSV file", e);
+            finishExport();
+            new AlertDialog.Builder(ExploreActivityPage.this)
+                    .setTitle("Export finished")
+                    .setMessage(summary)
+                    .setPositiveButton("OK", null)
+                    .show();
         }
-    }
 
-    /**
-     * Simple CSV escaping for basic cases. Encloses string in quotes if it contains comma or quotes.
-     * Doubles inner quotes.
-     * @param field The string field to escape.
-     * @return The escaped string.
-     */
-    private String escapeCsv(String field) {
-        if (field == null) {
-            return "";
+        @Override
+        public void onFailed(Exception e) {
+            if (isDestroyed()) {
+                return;
+            }
+            finishExport();
+            Toast.makeText(ExploreActivityPage.this, "Error exporting: " + e.getMessage(), Toast.LENGTH_LONG).show();
         }
-        String escapedField = field.replace("\"", "\"\""); // Escape internal quotes
-        if (escapedField.contains(",") || escapedField.contains("\"") || escapedField.contains("\n") || escapedField.contains("\r")) {
-            return "\"" + escapedField + "\""; // Enclose in quotes if contains special characters
+
+        @Override
+        public void onCancelled() {
+            if (isDestroyed()) {
+                return;
+            }
+            finishExport();
+            Toast.makeText(ExploreActivityPage.this, "Export cancelled.", Toast.LENGTH_SHORT).show();
         }
-        return escapedField;
+    };
+
+    @Override
+    protected void onDestroy() {
+        // The export keeps running across a rotation; the holder cancels it once the activity is finished for good
+        exportState.detach();
+        finishExport();
+        super.onDestroy();
     }
 }
\ No newline at end of file
@@ -0,0 +1,116 @@
+package com.example.tts_tool;
+
+import androidx.lifecycle.ViewModel;
+
+/**
+ * Keeps the running export of ExploreActivityPage across configuration changes. The export
+ * reports to this holder rather than to the activity, so a rotation neither cancels it nor keeps
+ * the old activity alive. Progress is passed on to the attached activity; the outcome is passed
+ * on, or kept until an activity attaches again.
+ *
+ * The export is only cancelled when the activity is finished for good. Must be used on the main
+ * thread.
+ */
+public class ExportStateHolder extends ViewModel implements ExportTask.Listener {
+
+    // An outcome that arrived while no activity was attached
+    private interface Outcome {
+        void deliverTo(ExportTask.Listener listener);
+    }
+
+    private ExportTask task;
+    private String title;
+    private boolean cancelling;
+    private int done;
+    private int total = -1; // No progress reported yet
+    private ExportTask.Listener attached;
+    private Outcome pendingOutcome;
+
+    /**
+     * Starts an export that was created with this holder as its listener.
+     * @param title What the progress dialog says while the export runs.
+     */
+    public void start(ExportTask task, String title) {
+        this.task = task;
+        this.title = title;
+        cancelling = false;
+        done = 0;
+        total = -1;
+        task.start();
+    }
+
+    public boolean isRunning() { return task != null; }
+    public String getTitle() { return title; }
+    public boolean isCancelling() { return cancelling; }
+    public int getDone() { return done; }
+    /** @return The total of the last progress report, or -1 before the first one. */
+    public int getTotal() { return total; }
+
+    public void cancel() {
+        if (task != null) {
+            task.cancel();
+            cancelling = true;
+        }
+    }
+
+    /**
+     * Passes progress and the outcome on to the given listener from now on, starting with an
+     * outcome that arrived while none was attached.
+     */
+    public void attach(ExportTask.Listener listener) {
+        attached = listener;
+        if (pendingOutcome != null) {
+            Outcome outcome = pendingOutcome;
+            pendingOutcome = null;
+            outcome.deliverTo(listener);
+        }
+    }
+
+    /** Called when the attached activity is destroyed. */
+    public void detach() {
+        attached = null;
+    }
+
+    @Override
+    public void onProgress(int done, int total) {
+        this.done = done;
+        this.total = total;
+        if (attached != null) {
+            attached.onProgress(done, total);
+        }
+    }
+
+    @Override
+    public void onFinished(String summary) {
+        deliver(listener -> listener.onFinished(summary));
+    }
+
+    @Override
+    public void onFailed(Exception e) {
+        deliver(listener -> listener.onFailed(e));
+    }
+
+    @Override
+    public void onCancelled() {
+        deliver(ExportTask.Listener::onCancelled);
+    }
+
+    private void deliver(Outcome outcome) {
+        task = null;
+        if (attached != null) {
+            outcome.deliverTo(attached);
+        } else {
+            pendingOutcome = outcome;
+        }
+    }
+
+    @Override
+    protected void onCleared() {
+        if (task != null) {
+            task.cancel(); // The partial output is discarded
+            task = null;
+        }
+        attached = null;
+        pendingOutcome = null;
+    }
+}
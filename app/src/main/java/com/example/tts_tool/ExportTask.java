@@ -0,0 +1,269 @@
+package com.example.tts_tool;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.provider.DocumentsContract;
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * An export that runs on a background thread and writes one file (or one folder of files) into a
+ * folder picked through the Storage Access Framework. Output goes to a temporary document that
+ * replaces the target only once the export completes, so a failed or cancelled export never
+ * leaves a half-written file and keeps the result of the previous export.
+ *
+ * Exports extend {@link FileExportTask} or {@link DirectoryExportTask}, depending on what they
+ * write, and stream their output calling {@link #reportProgress} (which also throws when the
+ * export was cancelled) as they go. Progress and the outcome are reported on the main thread.
+ * Exports run one at a time.
+ */
+public abstract class ExportTask {
+
+    private static final String TAG = "ExportTask";
+    private static final String TEMP_SUFFIX = ".part";
+    static final String TEMP_MIME_TYPE = "application/octet-stream"; // Keeps providers from adding an extension
+    private static final long PROGRESS_INTERVAL_MS = 100;
+    /** Buffer size for writers over the output stream; one provider write per 64 KiB. */
+    protected static final int OUTPUT_BUFFER_SIZE = 64 * 1024;
+
+    private static final ExecutorService exportExecutor = Executors.newSingleThreadExecutor();
+
+    public interface Listener {
+        void onProgress(int done, int total);
+        /** @param summary What was exported, for display. */
+        void onFinished(String summary);
+        void onFailed(Exception e);
+        void onCancelled();
+    }
+
+    protected final Context context;
+    protected final Uri folderUri;
+    private final Listener listener;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private volatile boolean cancelled = false;
+    private long lastProgressAt;
+    private String folderName;
+
+    /**
+     * @param folderUri The tree URI of the folder to export, which also receives the output.
+     */
+    ExportTask(Context context, Uri folderUri, Listener listener) {
+        this.context = context.getApplicationContext();
+        this.folderUri = folderUri;
+        this.listener = listener;
+    }
+
+    /**
+     * @return The name of the file the export writes into the folder. Called on the export
+     *         thread, after {@link #getFolderName()} is known.
+     */
+    protected abstract String getOutputName();
+
+    /**
+     * Looks at the folder before any output is created. Runs on the export thread.
+     * @param folder The folder's files, listed once when the export started.
+     * @return A summary to finish with, without writing any output, or null to go on and write it.
+     */
+    protected String prepare(WorkingFolderIndex folder) throws IOException {
+        return null;
+    }
+
+    /**
+     * Called on the export thread once the output has replaced the previous one; the export
+     * only counts as finished when this returns.
+     * @param folderDocumentUri The document URI of the exported folder.
+     */
+    protected void afterCommit(WorkingFolderIndex folder, Uri folderDocumentUri) throws IOException {
+    }
+
+    /** Writes the content of a document; see {@link #replaceDocument}. */
+    protected interface DocumentWriter {
+        void writeTo(OutputStream out) throws IOException;
+    }
+
+    /**
+     * Writes a small file next to the output, replacing any previous version the same way the
+     * output is replaced.
+     * @param folder The folder listing the previous version is looked up in.
+     */
+    protected void replaceDocument(WorkingFolderIndex folder, Uri folderDocumentUri, String name, String mimeType,
+                                   byte[] data) throws IOException {
+        replaceDocument(folder, folderDocumentUri, name, mimeType, out -> out.write(data));
+    }
+
+    /**
+     * Writes a file through a temporary document that then replaces any previous version. May be
+     * called from any thread.
+     * @param folder The listing of the folder the file goes into, where the previous version is looked up.
+     * @param writer Streams the content; the stream is closed by the caller.
+     */
+    protected void replaceDocument(WorkingFolderIndex folder, Uri folderDocumentUri, String name, String mimeType,
+                                   DocumentWriter writer) throws IOException {
+        ContentResolver resolver = context.getContentResolver();
+        WorkingFolderIndex.Entry staleTemp = folder.find(null, name + TEMP_SUFFIX);
+        if (staleTemp != null) {
+            DocumentsContract.deleteDocument(resolver, staleTemp.getUri());
+        }
+        Uri tempUri = DocumentsContract.createDocument(resolver, folderDocumentUri, TEMP_MIME_TYPE, name + TEMP_SUFFIX);
+        if (tempUri == null) {
+            throw new IOException("Could not create " + name + TEMP_SUFFIX);
+        }
+        try (OutputStream out = resolver.openOutputStream(tempUri, "w")) {
+            if (out == null) {
+                throw new IOException("No output stream for " + tempUri);
+            }
+            writer.writeTo(out);
+        } catch (IOException | RuntimeException e) {
+            deleteQuietly(resolver, tempUri);
+            throw e;
+        }
+        WorkingFolderIndex.Entry previous = folder.find(null, name);
+        if (previous != null) {
+            DocumentsContract.deleteDocument(resolver, previous.getUri());
+        }
+        DocumentsContract.renameDocument(resolver, tempUri, name);
+    }
+
+    /** @return The MIME type of the temporary output document created before {@link #writeOutput}. */
+    abstract String getTempMimeType();
+
+    /**
+     * Writes the export into the temporary output document. Runs on the export thread.
+     * @return A short description of what was written, for display.
+     */
+    abstract String writeOutput(WorkingFolderIndex folder, Uri tempUri) throws IOException;
+
+    public void start() {
+        exportExecutor.execute(this::run);
+    }
+
+    /**
+     * Stops the export at its next progress report. The listener then receives onCancelled.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * @return The display name of the exported folder.
+     */
+    protected String getFolderName() {
+        return folderName;
+    }
+
+    /**
+     * @return The speaker a working folder was recorded by. Working folders are named
+     *         {@code <speaker>_<yyyyMMdd>_<script>} when a session is set up.
+     */
+    static String speakerOf(String folderName) {
+        int end = folderName.indexOf('_');
+        return (end > 0) ? folderName.substring(0, end) : folderName;
+    }
+
+    /**
+     * Waits for work submitted to a pool, rethrowing the first failure as the export's own: a
+     * cancelled export stays cancelled and I/O errors keep their message.
+     */
+    protected static void awaitAll(List<? extends Future<?>> futures) throws IOException {
+        try {
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause; // Including the CancellationException of reportProgress
+            }
+            throw (cause instanceof IOException) ? (IOException) cause : new IOException(cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while exporting", e);
+        }
+    }
+
+    /**
+     * Reports progress, at most every {@value #PROGRESS_INTERVAL_MS} ms. May be called from any thread.
+     * @throws CancellationException If the export was cancelled.
+     */
+    protected final synchronized void reportProgress(int done, int total) {
+        if (cancelled) {
+            throw new CancellationException();
+        }
+        long now = SystemClock.uptimeMillis();
+        if (now - lastProgressAt >= PROGRESS_INTERVAL_MS || done == total) {
+            lastProgressAt = now;
+            mainHandler.post(() -> listener.onProgress(done, total));
+        }
+    }
+
+    private void run() {
+        ContentResolver resolver = context.getContentResolver();
+        Uri tempUri = null;
+        try {
+            WorkingFolderIndex folder = WorkingFolderIndex.query(resolver, folderUri);
+            Uri folderDocumentUri = WorkingFolderIndex.folderDocumentUri(folderUri);
+            WorkingFolderIndex.Entry folderEntry = WorkingFolderIndex.queryDocument(resolver, folderDocumentUri);
+            folderName = (folderEntry != null && folderEntry.getName() != null) ? folderEntry.getName() : "exported_data";
+            String nothingToWrite = prepare(folder);
+            if (nothingToWrite != null) {
+                Log.d(TAG, "Nothing to export from " + folderUri + ": " + nothingToWrite);
+                mainHandler.post(() -> listener.onFinished(nothingToWrite));
+                return;
+            }
+
+            String outputName = getOutputName();
+            WorkingFolderIndex.Entry staleTemp = folder.find(null, outputName + TEMP_SUFFIX);
+            if (staleTemp != null) {
+                DocumentsContract.deleteDocument(resolver, staleTemp.getUri()); // Left by an interrupted export
+            }
+            tempUri = DocumentsContract.createDocument(resolver, folderDocumentUri, getTempMimeType(), outputName + TEMP_SUFFIX);
+            if (tempUri == null) {
+                throw new IOException("Could not create " + outputName + TEMP_SUFFIX);
+            }
+            String summary = writeOutput(folder, tempUri);
+            if (cancelled) {
+                throw new CancellationException();
+            }
+            // SAF can't rename over a document, so the previous export is deleted first
+            WorkingFolderIndex.Entry previous = folder.find(null, outputName);
+            if (previous != null) {
+                DocumentsContract.deleteDocument(resolver, previous.getUri());
+            }
+            DocumentsContract.renameDocument(resolver, tempUri, outputName);
+            tempUri = null;
+            afterCommit(folder, folderDocumentUri);
+            Log.d(TAG, "Exported " + outputName + ": " + summary);
+            mainHandler.post(() -> listener.onFinished(summary));
+        } catch (CancellationException e) {
+            Log.d(TAG, "Export of " + folderUri + " cancelled.");
+            mainHandler.post(listener::onCancelled);
+        } catch (Exception e) {
+            Log.e(TAG, "Error exporting " + folderUri, e);
+            mainHandler.post(() -> listener.onFailed(e));
+        } finally {
+            if (tempUri != null) {
+                deleteQuietly(resolver, tempUri);
+            }
+        }
+    }
+
+    private static void deleteQuietly(ContentResolver resolver, Uri uri) {
+        try {
+            DocumentsContract.deleteDocument(resolver, uri);
+        } catch (Exception e) {
+            Log.w(TAG, "Could not delete partial export " + uri + ": " + e.getMessage());
+        }
+    }
+}
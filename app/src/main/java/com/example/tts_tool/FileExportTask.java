@@ -0,0 +1,40 @@
+package com.example.tts_tool;
+
+import android.content.Context;
+import android.net.Uri;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * An export that writes a single file named {@link #getOutputName()}.
+ */
+public abstract class FileExportTask extends ExportTask {
+
+    protected FileExportTask(Context context, Uri folderUri, Listener listener) {
+        super(context, folderUri, listener);
+    }
+
+    /**
+     * Writes the file. Runs on the export thread.
+     * @param folder The folder's files, listed once when the export started.
+     * @param out The temporary output; closed by the caller.
+     * @return A short description of what was written, for display.
+     */
+    protected abstract String writeTo(WorkingFolderIndex folder, OutputStream out) throws IOException;
+
+    @Override
+    final String getTempMimeType() {
+        return TEMP_MIME_TYPE;
+    }
+
+    @Override
+    final String writeOutput(WorkingFolderIndex folder, Uri tempUri) throws IOException {
+        try (OutputStream out = context.getContentResolver().openOutputStream(tempUri, "w")) {
+            if (out == null) {
+                throw new IOException("No output stream for " + tempUri);
+            }
+            return writeTo(folder, out);
+        }
+    }
+}
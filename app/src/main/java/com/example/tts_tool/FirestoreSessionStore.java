@@ -0,0 +1,466 @@
+package com.example.tts_tool;
+
+import android.util.Log;
+
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.firestore.Blob;
+import com.google.firebase.firestore.CollectionReference;
+import com.google.firebase.firestore.DocumentReference;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FieldValue;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.QuerySnapshot;
+import com.google.firebase.firestore.SetOptions;
+import com.google.firebase.firestore.WriteBatch;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Reads and writes sessions in Firestore using a layout whose write cost doesn't grow with the
+ * size of the script:
+ * <pre>
+ * sessions/{sessionId}                  small header (speaker, folder URIs, current index, ...)
+ * sessions/{sessionId}/takes/{index}    one document per recorded sentence
+ * sessions/{sessionId}/shards/{n}       content hashes and recording order, SHARD_SIZE per document
+ * sessionSummaries/{sessionId}          what the Load Session list shows, see {@link SessionSummary}
+ * archivedSessions/{sessionId}          an archived session: size and chunk count
+ * archivedSessions/{sessionId}/chunks/{n}  its {@link SessionCodec#toArchive archive form}, ARCHIVE_CHUNK_SIZE bytes per document
+ * </pre>
+ * A take writes a single document (see {@link SyncingSessionRepository}); shards are only written
+ * when a session is saved in full.
+ * Sessions saved before this layout (one document with a full {@code sentenceItems} array) are
+ * still read as before.
+ */
+public class FirestoreSessionStore {
+
+    private static final String TAG = "FirestoreSessionStore";
+    private static final String COLLECTION_SESSIONS = "sessions";
+    private static final String COLLECTION_TAKES = "takes";
+    private static final String COLLECTION_SHARDS = "shards";
+    private static final String COLLECTION_SUMMARIES = "sessionSummaries";
+    private static final String COLLECTION_ARCHIVED = "archivedSessions";
+    private static final String COLLECTION_CHUNKS = "chunks";
+    // Bytes per archive chunk, below the 1 MiB document limit; chunks are written one at a time.
+    static final int ARCHIVE_CHUNK_SIZE = 512 * 1024;
+    // Sentences per shard document; 5000 hashes and order entries stay well below the 1 MiB limit.
+    static final int SHARD_SIZE = 5000;
+    // Firestore allows at most 500 writes per batch.
+    private static final int MAX_WRITES_PER_BATCH = 450;
+
+    public interface LoadCallback {
+        void onLoaded(ProcessingActivity.SessionState sessionState);
+        void onError(Exception e);
+    }
+
+    private final FirebaseFirestore db;
+    private final String appId;
+    private final String userId;
+
+    public FirestoreSessionStore(FirebaseFirestore db, String appId, String userId) {
+        this.db = db;
+        this.appId = appId;
+        this.userId = userId;
+    }
+
+    public CollectionReference sessionsCollection() {
+        return userDocument().collection(COLLECTION_SESSIONS);
+    }
+
+    /**
+     * Summaries live in their own collection so listing them never reads a session document.
+     */
+    public CollectionReference summariesCollection() {
+        return userDocument().collection(COLLECTION_SUMMARIES);
+    }
+
+    private DocumentReference userDocument() {
+        return db.collection("artifacts")
+                .document(appId)
+                .collection("users")
+                .document(userId);
+    }
+
+    public DocumentReference sessionDocument(String sessionId) {
+        return sessionsCollection().document(sessionId);
+    }
+
+    public DocumentReference takeDocument(String sessionId, int sentenceIndex) {
+        return sessionDocument(sessionId).collection(COLLECTION_TAKES).document(takeDocumentId(sentenceIndex));
+    }
+
+    public WriteBatch newBatch() {
+        return db.batch();
+    }
+
+    /**
+     * Adds a write of the header fields of a session to {@code batch}, leaving its takes and
+     * shards untouched.
+     */
+    public void addHeaderWrite(WriteBatch batch, ProcessingActivity.SessionState header) {
+        batch.set(sessionDocument(header.getSessionId()), headerToMap(header), SetOptions.merge());
+    }
+
+    /**
+     * Adds a write (or a delete, if the sentence is no longer recorded) of the take document of a
+     * single sentence to {@code batch}. This is all a recording or a deletion needs to persist,
+     * regardless of how long the script is.
+     */
+    public void addTakeWrite(WriteBatch batch, String sessionId, ProcessingActivity.SentenceItem item) {
+        DocumentReference takeRef = takeDocument(sessionId, item.getIndex());
+        if (item.getRecordedFileName() == null) {
+            batch.delete(takeRef);
+        } else {
+            batch.set(takeRef, takeToMap(item));
+        }
+    }
+
+    /**
+     * Writes the header and summary of a session and the take documents of the given sentences,
+     * in as few batches as Firestore's per-batch limit allows (one for anything under 450 takes).
+     */
+    public Task<Void> saveTakes(ProcessingActivity.SessionState header, List<ProcessingActivity.SentenceItem> takes,
+                                SessionSummary summary) {
+        List<BatchWrite> writes = new ArrayList<>(takes.size() + 2);
+        for (ProcessingActivity.SentenceItem take : takes) {
+            writes.add(batch -> addTakeWrite(batch, header.getSessionId(), take));
+        }
+        writes.add(batch -> addHeaderWrite(batch, header));
+        writes.add(batch -> batch.set(summariesCollection().document(summary.getSessionId()), summary));
+        return commitInBatches(writes);
+    }
+
+    /**
+     * Writes only the summary of a session.
+     */
+    public Task<Void> saveSummary(SessionSummary summary) {
+        return summariesCollection().document(summary.getSessionId()).set(summary);
+    }
+
+    /**
+     * Saves a complete session: header, summary, shards and one document per recorded sentence. Take
+     * documents left over from sentences that are no longer recorded are deleted.
+     *
+     * The batches are not committed atomically, so the legacy {@code sentenceItems} array of a
+     * session saved in the old layout is only dropped in a final write once all of them have
+     * succeeded; until then loadSession keeps reading the array rather than incomplete shards.
+     */
+    public Task<Void> saveFullSession(ProcessingActivity.SessionState sessionState) {
+        String sessionId = sessionState.getSessionId();
+        List<ProcessingActivity.SentenceItem> items = sessionState.getSentenceItems();
+        return sessionDocument(sessionId).collection(COLLECTION_TAKES).get().continueWithTask(existingTask -> {
+            List<BatchWrite> writes = new ArrayList<>();
+            Map<String, Object> header = headerToMap(sessionState);
+            writes.add(batch -> batch.set(sessionDocument(sessionId), header, SetOptions.merge()));
+            final SessionSummary summary = SessionSummary.of(sessionState);
+            writes.add(batch -> batch.set(summariesCollection().document(sessionId), summary));
+
+            for (int shard = 0; shard * SHARD_SIZE < items.size(); shard++) {
+                final Map<String, Object> shardData = shardToMap(items, sessionState.getRecordingOrder(), sessionState.getRecordingOrderFingerprint(), shard);
+                final DocumentReference shardRef = sessionDocument(sessionId).collection(COLLECTION_SHARDS).document(String.valueOf(shard));
+                writes.add(batch -> batch.set(shardRef, shardData));
+            }
+
+            Set<String> recordedIds = new HashSet<>();
+            for (ProcessingActivity.SentenceItem item : items) {
+                if (item.getRecordedFileName() != null) {
+                    recordedIds.add(takeDocumentId(item.getIndex()));
+                    final Map<String, Object> takeData = takeToMap(item);
+                    final DocumentReference takeRef = takeDocument(sessionId, item.getIndex());
+                    writes.add(batch -> batch.set(takeRef, takeData));
+                }
+            }
+            if (existingTask.isSuccessful() && existingTask.getResult() != null) {
+                for (DocumentSnapshot existing : existingTask.getResult().getDocuments()) {
+                    if (!recordedIds.contains(existing.getId())) {
+                        final DocumentReference staleRef = existing.getReference();
+                        writes.add(batch -> batch.delete(staleRef));
+                    }
+                }
+            }
+            return commitInBatches(writes).continueWithTask(committed -> {
+                if (!committed.isSuccessful()) {
+                    return committed;
+                }
+                return sessionDocument(sessionId).update("sentenceItems", FieldValue.delete()); // Drop the legacy array
+            });
+        });
+    }
+
+    /**
+     * Loads a complete session, assembling it from header, shards and takes, or from the single
+     * document of a session saved in the legacy layout.
+     */
+    public void loadSession(String sessionId, LoadCallback callback) {
+        DocumentReference sessionRef = sessionDocument(sessionId);
+        Task<DocumentSnapshot> headerTask = sessionRef.get();
+        Task<QuerySnapshot> shardsTask = sessionRef.collection(COLLECTION_SHARDS).get();
+        Task<QuerySnapshot> takesTask = sessionRef.collection(COLLECTION_TAKES).get();
+        Tasks.whenAllComplete(headerTask, shardsTask, takesTask).addOnCompleteListener(all -> {
+            if (!headerTask.isSuccessful() || headerTask.getResult() == null || !headerTask.getResult().exists()) {
+                callback.onError(headerTask.getException() != null ? headerTask.getException()
+                        : new IllegalStateException("Session " + sessionId + " not found."));
+                return;
+            }
+            try {
+                Map<String, Object> data = headerTask.getResult().getData();
+                if (data == null) {
+                    callback.onError(new IllegalStateException("Session " + sessionId + " could not be deserialized."));
+                    return;
+                }
+                ProcessingActivity.SessionState sessionState = SessionCodec.fromDocument(data);
+                if (sessionState.getSentenceItems() == null && shardsTask.isSuccessful() && takesTask.isSuccessful()) {
+                    assembleFromShards(sessionState, shardsTask.getResult(), takesTask.getResult());
+                } else {
+                    Log.d(TAG, "loadSession: Session " + sessionId + " uses the single-document layout.");
+                }
+                callback.onLoaded(sessionState);
+            } catch (Exception e) {
+                callback.onError(e);
+            }
+        });
+    }
+
+    /**
+     * Moves a session into the archive: writes its archive form in chunks, one document at a
+     * time, then deletes its header, shards and takes and replaces its summary with the tombstone.
+     * Nothing is deleted unless every chunk was written.
+     * @param archive The session in the archive form.
+     * @param tombstone The summary that stays listed.
+     */
+    public Task<Void> archiveSession(String sessionId, byte[] archive, SessionSummary tombstone) {
+        DocumentReference archiveRef = archivedCollection().document(sessionId);
+        int chunkCount = (archive.length + ARCHIVE_CHUNK_SIZE - 1) / ARCHIVE_CHUNK_SIZE;
+        Task<Void> written = Tasks.forResult(null);
+        for (int chunk = 0; chunk < chunkCount; chunk++) {
+            int from = chunk * ARCHIVE_CHUNK_SIZE;
+            final Map<String, Object> chunkData = new HashMap<>();
+            chunkData.put("data", Blob.fromBytes(Arrays.copyOfRange(archive, from, Math.min(archive.length, from + ARCHIVE_CHUNK_SIZE))));
+            final DocumentReference chunkRef = archiveRef.collection(COLLECTION_CHUNKS).document(String.valueOf(chunk));
+            written = written.continueWithTask(previous -> {
+                if (!previous.isSuccessful()) {
+                    return previous;
+                }
+                return chunkRef.set(chunkData);
+            });
+        }
+        return written.continueWithTask(chunksTask -> {
+            if (!chunksTask.isSuccessful()) {
+                return chunksTask;
+            }
+            Map<String, Object> archiveData = new HashMap<>();
+            archiveData.put("sessionId", sessionId);
+            archiveData.put("size", archive.length);
+            archiveData.put("chunkCount", chunkCount);
+            archiveData.put("archivedAt", System.currentTimeMillis());
+            return archiveRef.set(archiveData);
+        }).continueWithTask(archiveTask -> {
+            if (!archiveTask.isSuccessful()) {
+                return archiveTask;
+            }
+            DocumentReference sessionRef = sessionDocument(sessionId);
+            Task<QuerySnapshot> shardsTask = sessionRef.collection(COLLECTION_SHARDS).get();
+            Task<QuerySnapshot> takesTask = sessionRef.collection(COLLECTION_TAKES).get();
+            Task<QuerySnapshot> chunksTask = archiveRef.collection(COLLECTION_CHUNKS).get();
+            return Tasks.whenAllComplete(shardsTask, takesTask, chunksTask).continueWithTask(all -> {
+                if (!shardsTask.isSuccessful() || !takesTask.isSuccessful()) {
+                    return Tasks.forException(new IllegalStateException("Could not list the documents of session " + sessionId));
+                }
+                List<BatchWrite> writes = new ArrayList<>();
+                for (DocumentSnapshot document : shardsTask.getResult().getDocuments()) {
+                    writes.add(batch -> batch.delete(document.getReference()));
+                }
+                for (DocumentSnapshot document : takesTask.getResult().getDocuments()) {
+                    writes.add(batch -> batch.delete(document.getReference()));
+                }
+                if (chunksTask.isSuccessful() && chunksTask.getResult() != null) {
+                    for (DocumentSnapshot document : chunksTask.getResult().getDocuments()) {
+                        if (Integer.parseInt(document.getId()) >= chunkCount) { // Left over from an earlier, larger archive
+                            writes.add(batch -> batch.delete(document.getReference()));
+                        }
+                    }
+                }
+                writes.add(batch -> batch.delete(sessionRef));
+                writes.add(batch -> batch.set(summariesCollection().document(sessionId), tombstone));
+                return commitInBatches(writes);
+            });
+        });
+    }
+
+    /**
+     * Loads a session from the archive written by {@link #archiveSession}. The archive is left in
+     * place; saving the session in full makes it active again.
+     */
+    public void loadArchivedSession(String sessionId, LoadCallback callback) {
+        DocumentReference archiveRef = archivedCollection().document(sessionId);
+        Task<DocumentSnapshot> archiveTask = archiveRef.get();
+        Task<QuerySnapshot> chunksTask = archiveRef.collection(COLLECTION_CHUNKS).get();
+        Tasks.whenAllComplete(archiveTask, chunksTask).addOnCompleteListener(all -> {
+            if (!archiveTask.isSuccessful() || archiveTask.getResult() == null || !archiveTask.getResult().exists()
+                    || !chunksTask.isSuccessful() || chunksTask.getResult() == null) {
+                callback.onError(archiveTask.getException() != null ? archiveTask.getException()
+                        : new IllegalStateException("Session " + sessionId + " is not archived."));
+                return;
+            }
+            try {
+                Long size = archiveTask.getResult().getLong("size");
+                Long chunkCount = archiveTask.getResult().getLong("chunkCount");
+                Blob[] chunks = new Blob[chunkCount != null ? chunkCount.intValue() : 0];
+                for (DocumentSnapshot chunk : chunksTask.getResult().getDocuments()) {
+                    int position = Integer.parseInt(chunk.getId());
+                    if (position < chunks.length) {
+                        chunks[position] = chunk.getBlob("data");
+                    }
+                }
+                ByteArrayOutputStream archive = new ByteArrayOutputStream(size != null ? size.intValue() : 0);
+                for (Blob chunk : chunks) {
+                    if (chunk == null) {
+                        throw new IOException("Archive of session " + sessionId + " is missing chunks.");
+                    }
+                    archive.write(chunk.toBytes());
+                }
+                if (size == null || archive.size() != size) {
+                    throw new IOException("Archive of session " + sessionId + " has the wrong size.");
+                }
+                callback.onLoaded(SessionCodec.fromArchive(new ByteArrayInputStream(archive.toByteArray())));
+            } catch (Exception e) {
+                callback.onError(e);
+            }
+        });
+    }
+
+    private CollectionReference archivedCollection() {
+        return userDocument().collection(COLLECTION_ARCHIVED);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void assembleFromShards(ProcessingActivity.SessionState sessionState, QuerySnapshot shards, QuerySnapshot takes) {
+        List<ProcessingActivity.SentenceItem> items = new ArrayList<>();
+        List<Integer> order = new ArrayList<>();
+        String orderFingerprint = null;
+        List<DocumentSnapshot> sortedShards = new ArrayList<>(shards.getDocuments());
+        sortedShards.sort((a, b) -> Integer.compare(Integer.parseInt(a.getId()), Integer.parseInt(b.getId())));
+        for (DocumentSnapshot shard : sortedShards) {
+            List<String> hashes = (List<String>) shard.get("contentHashes");
+            List<Long> shardOrder = (List<Long>) shard.get("recordingOrder");
+            if (hashes != null) {
+                for (String hash : hashes) {
+                    ProcessingActivity.SentenceItem item = new ProcessingActivity.SentenceItem();
+                    item.setIndex(items.size());
+                    item.setContentHash(hash);
+                    items.add(item);
+                }
+            }
+            if (orderFingerprint == null) {
+                orderFingerprint = shard.getString("recordingOrderFingerprint");
+            }
+            if (shardOrder != null) {
+                for (Long index : shardOrder) {
+                    order.add(index.intValue());
+                }
+            }
+        }
+        for (DocumentSnapshot take : takes.getDocuments()) {
+            Long index = take.getLong("index");
+            if (index == null || index < 0) {
+                continue;
+            }
+            // Grow the list if takes exist beyond the shards (e.g. shards not yet written).
+            while (items.size() <= index) {
+                ProcessingActivity.SentenceItem placeholder = new ProcessingActivity.SentenceItem();
+                placeholder.setIndex(items.size());
+                items.add(placeholder);
+            }
+            ProcessingActivity.SentenceItem item = items.get(index.intValue());
+            String takeHash = take.getString("contentHash");
+            if (takeHash != null) {
+                item.setContentHash(takeHash);
+            }
+            item.setRecordedFileName(take.getString("recordedFileName"));
+            item.setRecordedFileUriString(take.getString("recordedFileUriString"));
+            Long durationMs = take.getLong("recordedDurationMs");
+            item.setRecordedDurationMs(durationMs != null ? durationMs : 0);
+        }
+        sessionState.setSentenceItems(items);
+        sessionState.setRecordingOrder(order.size() == items.size() ? order : null);
+        sessionState.setRecordingOrderFingerprint(sessionState.getRecordingOrder() != null ? orderFingerprint : null);
+        Log.d(TAG, "Assembled session " + sessionState.getSessionId() + " from " + sortedShards.size()
+                + " shards and " + takes.size() + " takes.");
+    }
+
+    private static Map<String, Object> headerToMap(ProcessingActivity.SessionState header) {
+        Map<String, Object> sessionData = new HashMap<>();
+        sessionData.put("sessionId", header.getSessionId());
+        sessionData.put("username", header.getUsername());
+        sessionData.put("originalInputFileUriString", header.getOriginalInputFileUriString());
+        sessionData.put("rootFolderUriString", header.getRootFolderUriString());
+        sessionData.put("workingFolderUriString", header.getWorkingFolderUriString());
+        sessionData.put("currentSentenceIndex", header.getCurrentSentenceIndex());
+        sessionData.put("lastModified", header.getLastModified());
+        sessionData.put("schemaVersion", header.getSchemaVersion());
+        if (header.getSentenceItems() != null) {
+            sessionData.put("sentenceCount", header.getSentenceItems().size());
+        }
+        return sessionData;
+    }
+
+    private static Map<String, Object> takeToMap(ProcessingActivity.SentenceItem item) {
+        Map<String, Object> takeData = new HashMap<>();
+        takeData.put("index", item.getIndex());
+        takeData.put("contentHash", item.getContentHash());
+        takeData.put("recordedFileName", item.getRecordedFileName());
+        takeData.put("recordedFileUriString", item.getRecordedFileUriString());
+        takeData.put("recordedDurationMs", item.getRecordedDurationMs());
+        return takeData;
+    }
+
+    private static Map<String, Object> shardToMap(List<ProcessingActivity.SentenceItem> items, List<Integer> order, String orderFingerprint, int shard) {
+        int from = shard * SHARD_SIZE;
+        int to = Math.min(items.size(), from + SHARD_SIZE);
+        List<String> hashes = new ArrayList<>(to - from);
+        for (int i = from; i < to; i++) {
+            hashes.add(items.get(i).getContentHash());
+        }
+        Map<String, Object> shardData = new HashMap<>();
+        shardData.put("start", from);
+        shardData.put("contentHashes", hashes);
+        if (order != null && order.size() == items.size()) {
+            shardData.put("recordingOrder", new ArrayList<>(order.subList(from, to)));
+            if (shard == 0 && orderFingerprint != null) {
+                shardData.put("recordingOrderFingerprint", orderFingerprint); // Written with the order it belongs to
+            }
+        }
+        return shardData;
+    }
+
+    private interface BatchWrite {
+        void apply(WriteBatch batch);
+    }
+
+    private Task<Void> commitInBatches(List<BatchWrite> writes) {
+        List<Task<Void>> commits = new ArrayList<>();
+        for (int start = 0; start < writes.size(); start += MAX_WRITES_PER_BATCH) {
+            WriteBatch batch = db.batch();
+            for (BatchWrite write : writes.subList(start, Math.min(writes.size(), start + MAX_WRITES_PER_BATCH))) {
+                write.apply(batch);
+            }
+            commits.add(batch.commit());
+        }
+        return Tasks.whenAll(commits);
+    }
+
+    static String takeDocumentId(int sentenceIndex) {
+        // Zero-padded so the takes sort in sentence order in the console
+        return String.format(Locale.US, "%06d", sentenceIndex);
+    }
+}
@@ -0,0 +1,302 @@
+package com.example.tts_tool;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Writes or checks {@code <folder>_sha256.tsv}, the SHA-256 of every WAV file of a working
+ * folder and of its script, so a workspace copied off the device can be checked for files that
+ * changed or were corrupted on the way.
+ *
+ * Each line holds the hash, size, modification time and name of one file, tab-separated. When
+ * the manifest is written again, files whose size and modification time still match their line
+ * keep their hash without being read. Verifying reads every listed file and writes
+ * {@code <folder>_sha256_verify.txt}, listing files that differ, are missing or are new.
+ *
+ * Files are hashed on a pool with one thread per core, each reading through its own direct
+ * buffer with a {@link FileChannel}, so the data goes from the file to the digest without a copy
+ * into the Java heap.
+ */
+public class HashManifestTask extends FileExportTask {
+
+    public enum Mode {
+        /** Creates or updates the manifest. */
+        WRITE,
+        /** Compares the folder against its manifest. */
+        VERIFY
+    }
+
+    static final String MANIFEST_SUFFIX = "_sha256.tsv";
+    static final String VERIFY_SUFFIX = "_sha256_verify.txt";
+    private static final String HEADER = "# sha256\tsize\tlastModified\tname\n";
+    private static final int BUFFER_SIZE = 1024 * 1024;
+    private static final int MAX_LISTED_FILES = 20;
+
+    private final Mode mode;
+
+    public HashManifestTask(Context context, Uri folderUri, Mode mode, Listener listener) {
+        super(context, folderUri, listener);
+        this.mode = mode;
+    }
+
+    @Override
+    protected String getOutputName() {
+        return getFolderName() + (mode == Mode.WRITE ? MANIFEST_SUFFIX : VERIFY_SUFFIX);
+    }
+
+    /** One line of the manifest. */
+    private static class Record {
+        final String sha256;
+        final long size;
+        final long lastModified;
+
+        Record(String sha256, long size, long lastModified) {
+            this.sha256 = sha256;
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+    }
+
+    @Override
+    protected String writeTo(WorkingFolderIndex folder, OutputStream out) throws IOException {
+        WorkingFolderIndex.Entry manifestEntry = folder.find(null, getFolderName() + MANIFEST_SUFFIX);
+        Map<String, Record> manifest = (manifestEntry != null) ? readManifest(manifestEntry) : new HashMap<>();
+        if (mode == Mode.VERIFY && manifestEntry == null) {
+            throw new IOException("This folder has no " + getFolderName() + MANIFEST_SUFFIX + " yet. Create the manifest first.");
+        }
+
+        List<WorkingFolderIndex.Entry> files = new ArrayList<>();
+        WorkingFolderIndex.Entry script = ScriptParser.findScript(folder);
+        for (WorkingFolderIndex.Entry entry : folder.entries()) {
+            String name = entry.getName();
+            if (entry == script || (name != null && name.toLowerCase(Locale.ROOT).endsWith(".wav"))) {
+                files.add(entry);
+            }
+        }
+        Collections.sort(files, (a, b) -> a.getName().compareTo(b.getName()));
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), OUTPUT_BUFFER_SIZE);
+        String summary = (mode == Mode.WRITE) ? writeManifest(files, manifest, writer) : verify(files, manifest, writer);
+        writer.flush();
+        return summary;
+    }
+
+    private String writeManifest(List<WorkingFolderIndex.Entry> files, Map<String, Record> previous,
+                                 Writer writer) throws IOException {
+        if (files.isEmpty()) {
+            throw new IOException("No .wav or .txt files found in the selected folder.");
+        }
+        List<WorkingFolderIndex.Entry> changed = new ArrayList<>();
+        for (WorkingFolderIndex.Entry file : files) {
+            if (!isUnchanged(file, previous.get(file.getName()))) {
+                changed.add(file);
+            }
+        }
+        String[] hashes = hashAll(changed);
+        Map<String, String> hashesByName = new HashMap<>();
+        for (int i = 0; i < hashes.length; i++) {
+            if (hashes[i] == null) {
+                throw new IOException("Could not read " + changed.get(i).getName());
+            }
+            hashesByName.put(changed.get(i).getName(), hashes[i]);
+        }
+
+        writer.write(HEADER);
+        for (WorkingFolderIndex.Entry file : files) {
+            String sha256 = hashesByName.get(file.getName());
+            if (sha256 == null) {
+                sha256 = previous.get(file.getName()).sha256;
+            }
+            writer.write(sha256 + "\t" + file.getSize() + "\t" + file.getLastModified() + "\t" + file.getName() + "\n");
+        }
+        return files.size() + " files in the manifest; " + changed.size() + " hashed, "
+                + (files.size() - changed.size()) + " unchanged since the last manifest.";
+    }
+
+    private String verify(List<WorkingFolderIndex.Entry> files, Map<String, Record> manifest, Writer writer) throws IOException {
+        List<WorkingFolderIndex.Entry> listed = new ArrayList<>();
+        List<String> unlisted = new ArrayList<>();
+        for (WorkingFolderIndex.Entry file : files) {
+            if (manifest.containsKey(file.getName())) {
+                listed.add(file);
+            } else {
+                unlisted.add(file.getName());
+            }
+        }
+        String[] hashes = hashAll(listed);
+        List<String> mismatched = new ArrayList<>();
+        List<String> unreadable = new ArrayList<>();
+        Map<String, Record> missing = new HashMap<>(manifest);
+        for (int i = 0; i < hashes.length; i++) {
+            String name = listed.get(i).getName();
+            missing.remove(name);
+            if (hashes[i] == null) {
+                unreadable.add(name);
+            } else if (!hashes[i].equals(manifest.get(name).sha256)) {
+                mismatched.add(name);
+            }
+        }
+        List<String> missingNames = new ArrayList<>(missing.keySet());
+        Collections.sort(missingNames);
+
+        int verified = listed.size() - mismatched.size() - unreadable.size();
+        writer.write("Verified " + verified + " of " + manifest.size() + " files against " + getFolderName() + MANIFEST_SUFFIX + ".\n");
+        writeList(writer, "Content differs from the manifest", mismatched, Integer.MAX_VALUE);
+        writeList(writer, "Could not be read", unreadable, Integer.MAX_VALUE);
+        writeList(writer, "Missing from the folder", missingNames, Integer.MAX_VALUE);
+        writeList(writer, "Not in the manifest", unlisted, Integer.MAX_VALUE);
+
+        StringBuilder summary = new StringBuilder().append(verified).append(" of ").append(manifest.size())
+                .append(" files match the manifest.");
+        StringBuilder details = new StringBuilder();
+        writeList(details, "Content differs", mismatched, MAX_LISTED_FILES);
+        writeList(details, "Could not be read", unreadable, MAX_LISTED_FILES);
+        writeList(details, "Missing", missingNames, MAX_LISTED_FILES);
+        if (!unlisted.isEmpty()) {
+            details.append("\n").append(unlisted.size()).append(" files are not in the manifest.");
+        }
+        return summary.append(details).toString();
+    }
+
+    private static void writeList(Appendable out, String title, List<String> names, int limit) throws IOException {
+        if (names.isEmpty()) {
+            return;
+        }
+        out.append("\n").append(title).append(" (").append(String.valueOf(names.size())).append("):\n");
+        for (int i = 0; i < names.size() && i < limit; i++) {
+            out.append("  ").append(names.get(i)).append("\n");
+        }
+        if (names.size() > limit) {
+            out.append("  ...\n");
+        }
+    }
+
+    // Providers that don't report a size or time can't vouch for a file being unchanged.
+    private static boolean isUnchanged(WorkingFolderIndex.Entry file, Record record) {
+        return record != null && file.getSize() >= 0 && file.getLastModified() > 0
+                && record.size == file.getSize() && record.lastModified == file.getLastModified();
+    }
+
+    private Map<String, Record> readManifest(WorkingFolderIndex.Entry manifestEntry) throws IOException {
+        Map<String, Record> records = new HashMap<>();
+        try (InputStream in = context.getContentResolver().openInputStream(manifestEntry.getUri())) {
+            if (in == null) {
+                throw new IOException("Could not open " + manifestEntry.getName());
+            }
+            BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split("\t", 4);
+                if (line.startsWith("#") || fields.length < 4 || fields[0].length() != 64) {
+                    continue;
+                }
+                try {
+                    records.put(fields[3], new Record(fields[0], Long.parseLong(fields[1]), Long.parseLong(fields[2])));
+                } catch (NumberFormatException e) {
+                    // A damaged line; its file is hashed again
+                }
+            }
+        }
+        return records;
+    }
+
+    /**
+     * Hashes the files in parallel.
+     * @return The hex SHA-256 of each file, in the same order; null for files that couldn't be read.
+     */
+    private String[] hashAll(final List<WorkingFolderIndex.Entry> files) throws IOException {
+        final String[] hashes = new String[files.size()];
+        if (files.isEmpty()) {
+            return hashes;
+        }
+        final AtomicInteger next = new AtomicInteger();
+        final AtomicInteger done = new AtomicInteger();
+        int threads = Math.min(files.size(), Math.max(1, Runtime.getRuntime().availableProcessors()));
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> workers = new ArrayList<>(threads);
+            for (int i = 0; i < threads; i++) {
+                workers.add(pool.submit(() -> {
+                    ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+                    MessageDigest digest = newDigest();
+                    int index;
+                    while ((index = next.getAndIncrement()) < files.size()) {
+                        hashes[index] = hash(files.get(index), buffer, digest);
+                        reportProgress(done.incrementAndGet(), files.size());
+                    }
+                    return null;
+                }));
+            }
+            awaitAll(workers);
+        } finally {
+            pool.shutdownNow();
+        }
+        return hashes;
+    }
+
+    // Runs on the pool.
+    private String hash(WorkingFolderIndex.Entry file, ByteBuffer buffer, MessageDigest digest) {
+        digest.reset();
+        try {
+            ParcelFileDescriptor descriptor = context.getContentResolver().openFileDescriptor(file.getUri(), "r");
+            if (descriptor == null) {
+                return null;
+            }
+            try (FileInputStream in = new ParcelFileDescriptor.AutoCloseInputStream(descriptor);
+                 FileChannel channel = in.getChannel()) {
+                buffer.clear();
+                while (channel.read(buffer) >= 0) {
+                    buffer.flip();
+                    digest.update(buffer);
+                    buffer.clear();
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+        return toHex(digest.digest());
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is required on Android", e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        char[] digits = "0123456789abcdef".toCharArray();
+        char[] hex = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            hex[2 * i] = digits[(bytes[i] >> 4) & 0xF];
+            hex[2 * i + 1] = digits[bytes[i] & 0xF];
+        }
+        return new String(hex);
+    }
+}
@@ -0,0 +1,110 @@
+package com.example.tts_tool;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Session repository kept entirely in memory, with no Android storage or network access. It
+ * stands in for the real repository when exercising the session flow on a plain JVM, and
+ * answers every callback synchronously on the calling thread.
+ *
+ * Archiving follows the real stores: the session is kept in its compressed archive form, its
+ * summary becomes a tombstone, and loading it restores it.
+ */
+public class InMemorySessionRepository implements SessionRepository {
+
+    private final Map<String, ProcessingActivity.SessionState> sessions = new HashMap<>();
+    private final Map<String, byte[]> archives = new HashMap<>();
+    private final Map<String, SessionSummary> summaries = new HashMap<>();
+
+    @Override
+    public synchronized void loadSession(String sessionId, Callback<ProcessingActivity.SessionState> callback) {
+        try {
+            ProcessingActivity.SessionState sessionState = sessions.get(sessionId);
+            if (sessionState == null && archives.containsKey(sessionId)) {
+                sessionState = restore(sessionId);
+            }
+            if (sessionState == null) {
+                callback.onError(new IllegalStateException("Session " + sessionId + " not found."));
+            } else {
+                callback.onResult(SessionStates.copy(sessionState, true));
+            }
+        } catch (Exception e) {
+            callback.onError(e);
+        }
+    }
+
+    @Override
+    public synchronized void listSessions(SessionSummary after, int pageSize, Callback<List<SessionSummary>> callback) {
+        List<SessionSummary> sorted = new ArrayList<>(summaries.values());
+        sorted.sort(SessionStates.NEWEST_FIRST);
+        callback.onResult(SessionStates.pageAfter(sorted, after, pageSize));
+    }
+
+    @Override
+    public synchronized void saveSession(ProcessingActivity.SessionState sessionState, Callback<Void> callback) {
+        ProcessingActivity.SessionState stored = SessionStates.copy(sessionState, true);
+        archives.remove(stored.getSessionId());
+        sessions.put(stored.getSessionId(), stored);
+        summaries.put(stored.getSessionId(), SessionSummary.of(stored));
+        if (callback != null) {
+            callback.onResult(null);
+        }
+    }
+
+    @Override
+    public synchronized void saveTakes(ProcessingActivity.SessionState header, Collection<ProcessingActivity.SentenceItem> takes) {
+        ProcessingActivity.SessionState stored = sessions.get(header.getSessionId());
+        if (stored == null && archives.containsKey(header.getSessionId())) {
+            try {
+                stored = restore(header.getSessionId());
+            } catch (Exception e) {
+                throw new IllegalStateException("Could not restore session " + header.getSessionId(), e);
+            }
+        }
+        if (stored == null) {
+            stored = SessionStates.copy(header, false);
+            stored.setSentenceItems(new ArrayList<>());
+            sessions.put(header.getSessionId(), stored);
+        }
+        SessionStates.applyTakes(stored, header, takes);
+        summaries.put(stored.getSessionId(), SessionSummary.of(stored));
+    }
+
+    /**
+     * Archives the sessions {@code policy} selects at {@code now}, oldest first.
+     * @param callback Receives the number of sessions archived.
+     */
+    public synchronized void archiveSessions(SessionArchivePolicy policy, long now, Callback<Integer> callback) {
+        List<SessionSummary> sorted = new ArrayList<>(summaries.values());
+        sorted.sort(SessionStates.NEWEST_FIRST);
+        int archived = 0;
+        try {
+            for (int i = sorted.size() - 1; i >= 0 && archived < policy.getMaxSessionsPerRun(); i--) {
+                SessionSummary summary = sorted.get(i);
+                if (!policy.shouldArchive(summary, now)) {
+                    continue;
+                }
+                String sessionId = summary.getSessionId();
+                archives.put(sessionId, SessionCodec.toArchive(sessions.remove(sessionId)));
+                summaries.put(sessionId, summary.toTombstone());
+                archived++;
+            }
+        } catch (Exception e) {
+            callback.onError(e);
+            return;
+        }
+        callback.onResult(archived);
+    }
+
+    private ProcessingActivity.SessionState restore(String sessionId) throws Exception {
+        ProcessingActivity.SessionState sessionState = SessionCodec.fromArchive(new ByteArrayInputStream(archives.remove(sessionId)));
+        sessions.put(sessionId, sessionState);
+        summaries.put(sessionId, SessionSummary.of(sessionState));
+        return sessionState;
+    }
+}
@@ -15,14 +15,14 @@ import java.util.Locale;
 
 public class LoadSessionAdapter extends RecyclerView.Adapter<LoadSessionAdapter.SessionViewHolder> {
 
-    private List<ProcessingActivity.SessionState> sessionList;
+    private List<SessionSummary> sessionList;
     private OnSessionSelectedListener listener;
 
     public interface OnSessionSelectedListener {
-        void onSessionSelected(ProcessingActivity.SessionState sessionState);
+        void onSessionSelected(SessionSummary summary);
     }
 
-    public LoadSessionAdapter(List<ProcessingActivity.SessionState> sessionList, OnSessionSelectedListener listener) {
+    public LoadSessionAdapter(List<SessionSummary> sessionList, OnSessionSelectedListener listener) {
         this.sessionList = sessionList;
         this.listener = listener;
     }
@@ -36,8 +36,9 @@ public class LoadSessionAdapter extends RecyclerView.Adapter<LoadSessionAdapter.
 
     @Override
     public void onBindViewHolder(@NonNull SessionViewHolder holder, int position) {
-        ProcessingActivity.SessionState session = sessionList.get(position);
+        SessionSummary session = sessionList.get(position);
         holder.sessionNameTextView.setText(session.getSessionId()); // Display the session ID as the name
+        holder.detailsTextView.setText(formatDetails(session));
 
         SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.getDefault());
         String lastModifiedDate = sdf.format(new Date(session.getLastModified()));
@@ -55,13 +56,24 @@ public class LoadSessionAdapter extends RecyclerView.Adapter<LoadSessionAdapter.
         return sessionList.size();
     }
 
+    private static String formatDetails(SessionSummary session) {
+        long totalSeconds = session.getDurationMs() / 1000;
+        String duration = String.format(Locale.getDefault(), "%d:%02d:%02d",
+                totalSeconds / 3600, (totalSeconds / 60) % 60, totalSeconds % 60);
+        String speaker = session.getUsername() != null ? session.getUsername() : "Unknown speaker";
+        String details = speaker + " · " + session.getRecordedCount() + "/" + session.getTotalCount() + " recorded · " + duration;
+        return session.isArchived() ? details + " · Archived" : details; // Restored when loaded
+    }
+
     static class SessionViewHolder extends RecyclerView.ViewHolder {
         TextView sessionNameTextView;
+        TextView detailsTextView;
         TextView lastModifiedTextView;
 
         public SessionViewHolder(@NonNull View itemView) {
             super(itemView);
             sessionNameTextView = itemView.findViewById(R.id.text_session_name);
+            detailsTextView = itemView.findViewById(R.id.text_session_details);
             lastModifiedTextView = itemView.findViewById(R.id.text_last_modified);
         }
     }
@@ -4,43 +4,60 @@ package com.example.tts_tool;
 import android.app.Dialog;
 import android.content.Context;
 import android.os.Bundle;
+import android.os.SystemClock;
 import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
+import android.view.ViewTreeObserver;
 import android.widget.Toast;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.appcompat.app.AlertDialog;
 import androidx.fragment.app.DialogFragment;
+import androidx.recyclerview.widget.DiffUtil;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.google.firebase.FirebaseApp;
 import com.google.firebase.auth.FirebaseAuth;
-import com.google.firebase.firestore.FirebaseFirestore;
-import com.google.firebase.firestore.Query;
-import com.google.firebase.firestore.QueryDocumentSnapshot;
 import com.google.firebase.firestore.FirebaseFirestoreException; // Import for Firestore exceptions
 
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Objects;
+import java.util.Set;
 
 public class LoadSessionDialogFragment extends DialogFragment {
 
     public interface OnSessionSelectedListener {
-        void onSessionSelected(ProcessingActivity.SessionState sessionState);
+        void onSessionSelected(SessionSummary summary);
     }
 
     private OnSessionSelectedListener listener;
-    private FirebaseFirestore db;
     private FirebaseAuth mAuth;
     private String currentUserId;
 
     private static final String TAG = "LoadSessionDialog";
-    private static final String FIRESTORE_COLLECTION_SESSIONS = "sessions";
     private static final String ARG_USER_ID = "userId";
+    private static final String ARG_PAGE_SIZE = "pageSize";
+    private static final int DEFAULT_PAGE_SIZE = 20;
+    // Start loading the next page when the last visible row is this close to the end of the list.
+    private static final int PREFETCH_DISTANCE = 5;
+
+    private SyncingSessionRepository repository;
+    private SyncingSessionRepository.SummariesListener summariesListener;
+    private SessionListCache listCache;
+    private long dialogOpenedAt;
+    private LoadSessionAdapter loadSessionAdapter;
+    private final List<SessionSummary> savedSessions = new ArrayList<>();
+    private final Set<String> loadedSessionIds = new HashSet<>();
+    private int pageSize = DEFAULT_PAGE_SIZE;
+    private boolean isLoadingPage = false;
+    private boolean endReached = false;
+    // The list is only reported empty once Firestore had its say, or couldn't be reached
+    private boolean summariesRefreshed = false;
 
     /**
      * Factory method to create a new instance of LoadSessionDialogFragment
@@ -49,9 +66,18 @@ public class LoadSessionDialogFragment extends DialogFragment {
      * @return A new instance of LoadSessionDialogFragment.
      */
     public static LoadSessionDialogFragment newInstance(String userId) {
+        return newInstance(userId, DEFAULT_PAGE_SIZE);
+    }
+
+    /**
+     * @param userId The authenticated Firebase User ID.
+     * @param pageSize Number of sessions fetched per page.
+     */
+    public static LoadSessionDialogFragment newInstance(String userId, int pageSize) {
         LoadSessionDialogFragment fragment = new LoadSessionDialogFragment();
         Bundle args = new Bundle();
         args.putString(ARG_USER_ID, userId);
+        args.putInt(ARG_PAGE_SIZE, pageSize);
         fragment.setArguments(args);
         return fragment;
     }
@@ -66,12 +92,21 @@ public class LoadSessionDialogFragment extends DialogFragment {
         }
     }
 
+    @Override
+    public void onDestroy() {
+        if (repository != null && summariesListener != null) {
+            repository.removeSummariesListener(summariesListener);
+        }
+        super.onDestroy();
+    }
+
     @Override
     public void onCreate(@Nullable Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         // Retrieve userId from arguments
         if (getArguments() != null) {
             currentUserId = getArguments().getString(ARG_USER_ID);
+            pageSize = Math.max(1, getArguments().getInt(ARG_PAGE_SIZE, DEFAULT_PAGE_SIZE));
             Log.d(TAG, "onCreate: Received userId: " + (currentUserId != null ? currentUserId : "null"));
         } else {
             Log.e(TAG, "onCreate: No arguments bundle found for userId.");
@@ -87,7 +122,6 @@ public class LoadSessionDialogFragment extends DialogFragment {
                 Log.e(TAG, "onCreate: FirebaseApp already initialized or cannot be initialized here.", e);
             }
         }
-        db = FirebaseFirestore.getInstance();
         mAuth = FirebaseAuth.getInstance();
         Log.d(TAG, "onCreate: Firebase instances obtained.");
     }
@@ -95,6 +129,7 @@ public class LoadSessionDialogFragment extends DialogFragment {
     @NonNull
     @Override
     public Dialog onCreateDialog(@Nullable Bundle savedInstanceState) {
+        dialogOpenedAt = SystemClock.elapsedRealtime();
         AlertDialog.Builder builder = new AlertDialog.Builder(requireActivity());
         builder.setTitle("Load Session");
 
@@ -126,63 +161,197 @@ public class LoadSessionDialogFragment extends DialogFragment {
         }
         Log.d(TAG, "fetchAndDisplaySessions: Attempting to fetch sessions for userId: " + currentUserId);
 
-        List<ProcessingActivity.SessionState> savedSessions = new ArrayList<>();
-        LoadSessionAdapter loadSessionAdapter = new LoadSessionAdapter(savedSessions, sessionState -> {
-            Log.d(TAG, "Session selected: " + (sessionState != null ? sessionState.getSessionId() : "null"));
+        savedSessions.clear();
+        loadedSessionIds.clear();
+        endReached = false;
+        loadSessionAdapter = new LoadSessionAdapter(savedSessions, summary -> {
+            Log.d(TAG, "Session selected: " + (summary != null ? summary.getSessionId() : "null"));
             if (listener != null) {
-                listener.onSessionSelected(sessionState);
+                listener.onSessionSelected(summary);
             }
             dismiss();
         });
         recyclerView.setAdapter(loadSessionAdapter);
 
-        String appId = requireContext().getPackageName();
-        db.collection("artifacts")
-                .document(appId)
-                .collection("users")
-                .document(currentUserId)
-                .collection(FIRESTORE_COLLECTION_SESSIONS)
-                .orderBy("lastModified", Query.Direction.DESCENDING)
-                .get()
-                .addOnCompleteListener(task -> {
-                    if (task.isSuccessful()) {
-                        savedSessions.clear();
-                        Log.d(TAG, "fetchAndDisplaySessions: Fetch successful. Documents found: " + task.getResult().size());
-                        for (QueryDocumentSnapshot document : task.getResult()) {
-                            try {
-                                // Attempt to deserialize the document
-                                ProcessingActivity.SessionState session = document.toObject(ProcessingActivity.SessionState.class);
-                                if (session != null) {
-                                    savedSessions.add(session);
-                                    Log.d(TAG, "Fetched session: " + session.getSessionId() + " (Last Modified: " + session.getLastModified() + ")");
-                                } else {
-                                    Log.w(TAG, "Skipping null session object from Firestore document (deserialization failed or data incomplete): " + document.getId());
-                                }
-                            } catch (Exception e) {
-                                Log.e(TAG, "Error deserializing session document " + document.getId() + ": " + e.getMessage(), e);
-                                Toast.makeText(requireContext(), "Error processing session data: " + document.getId(), Toast.LENGTH_SHORT).show();
-                            }
-                        }
-                        Collections.sort(savedSessions, (s1, s2) -> Long.compare(s2.getLastModified(), s1.getLastModified()));
-                        loadSessionAdapter.notifyDataSetChanged();
-
-                        if (savedSessions.isEmpty()) {
-                            Toast.makeText(requireContext(), "No saved sessions found for this user.", Toast.LENGTH_SHORT).show();
-                            Log.d(TAG, "No saved sessions found for userId: " + currentUserId);
-                        } else {
-                            Log.d(TAG, "Displaying " + savedSessions.size() + " saved sessions.");
-                        }
-                    } else {
-                        // Handle Firestore specific errors
-                        if (task.getException() instanceof FirebaseFirestoreException) {
-                            FirebaseFirestoreException firestoreException = (FirebaseFirestoreException) task.getException();
-                            Log.e(TAG, "FirebaseFirestoreException fetching saved sessions: " + firestoreException.getCode() + " - " + firestoreException.getMessage(), firestoreException);
-                            Toast.makeText(requireContext(), "Firestore error: " + firestoreException.getMessage(), Toast.LENGTH_LONG).show();
-                        } else {
-                            Log.e(TAG, "General error fetching saved sessions: " + task.getException().getMessage(), task.getException());
-                            Toast.makeText(requireContext(), "Error loading sessions: " + task.getException().getMessage(), Toast.LENGTH_LONG).show();
-                        }
+        // Prefetch the next page while the user is still a few rows away from the end
+        LinearLayoutManager layoutManager = (LinearLayoutManager) recyclerView.getLayoutManager();
+        recyclerView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(@NonNull RecyclerView rv, int dx, int dy) {
+                if (dy > 0 && layoutManager != null
+                        && layoutManager.findLastVisibleItemPosition() >= savedSessions.size() - PREFETCH_DISTANCE) {
+                    loadNextPage();
+                }
+            }
+        });
+
+        repository = SessionRepositories.get(requireContext(), currentUserId);
+        listCache = new SessionListCache(requireContext(), currentUserId);
+        // Listing is answered locally; list again when the background refresh from Firestore changed something
+        summariesListener = changed -> {
+            summariesRefreshed = true;
+            if (!isAdded()) {
+                return;
+            }
+            if (changed) {
+                revalidateFirstPage(recyclerView);
+            } else if (savedSessions.isEmpty()) {
+                Toast.makeText(requireContext(), "No saved sessions found for this user.", Toast.LENGTH_SHORT).show();
+                Log.d(TAG, "No saved sessions found for userId: " + currentUserId);
+            }
+        };
+        repository.addSummariesListener(summariesListener);
+
+        // Stale-while-revalidate: render the cached first page right away, then refresh it
+        List<SessionSummary> cached = listCache.read();
+        if (cached != null && !cached.isEmpty()) {
+            for (SessionSummary summary : cached) {
+                if (loadedSessionIds.add(summary.getSessionId())) {
+                    savedSessions.add(summary);
+                }
+            }
+            loadSessionAdapter.notifyItemRangeInserted(0, savedSessions.size());
+            logFirstRender(recyclerView, "cache");
+        }
+        revalidateFirstPage(recyclerView);
+    }
+
+    /**
+     * Fetches the first page (at least as many rows as are shown) and applies the difference to
+     * the listed sessions, so cached rows that are still current don't flicker or move.
+     */
+    private void revalidateFirstPage(RecyclerView recyclerView) {
+        isLoadingPage = true;
+        final int requested = Math.max(pageSize, savedSessions.size());
+        final boolean renderedFromCache = !savedSessions.isEmpty();
+        repository.listSessions(null, requested, new SessionRepository.Callback<List<SessionSummary>>() {
+            @Override
+            public void onResult(List<SessionSummary> fresh) {
+                isLoadingPage = false;
+                if (!isAdded()) {
+                    return;
+                }
+                List<SessionSummary> previous = new ArrayList<>(savedSessions);
+                DiffUtil.DiffResult diff = DiffUtil.calculateDiff(new SummaryDiffCallback(previous, fresh));
+                savedSessions.clear();
+                savedSessions.addAll(fresh);
+                loadedSessionIds.clear();
+                for (SessionSummary summary : fresh) {
+                    loadedSessionIds.add(summary.getSessionId());
+                }
+                endReached = fresh.size() < requested;
+                diff.dispatchUpdatesTo(loadSessionAdapter);
+                Log.d(TAG, "Revalidated the first page: " + fresh.size() + " sessions (" + previous.size() + " were cached).");
+                if (!renderedFromCache) {
+                    logFirstRender(recyclerView, "revalidation");
+                }
+                if (savedSessions.isEmpty() && summariesRefreshed) {
+                    Toast.makeText(requireContext(), "No saved sessions found for this user.", Toast.LENGTH_SHORT).show();
+                    Log.d(TAG, "No saved sessions found for userId: " + currentUserId);
+                }
+            }
+
+            @Override
+            public void onError(Exception e) {
+                isLoadingPage = false;
+                Log.e(TAG, "Error revalidating saved sessions: " + e.getMessage(), e);
+                if (isAdded() && savedSessions.isEmpty()) {
+                    Toast.makeText(requireContext(), "Error loading sessions: " + e.getMessage(), Toast.LENGTH_LONG).show();
+                }
+            }
+        });
+    }
+
+    // Logs the time from opening the dialog to the first frame that shows sessions.
+    private void logFirstRender(RecyclerView recyclerView, String source) {
+        recyclerView.getViewTreeObserver().addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
+            @Override
+            public boolean onPreDraw() {
+                recyclerView.getViewTreeObserver().removeOnPreDrawListener(this);
+                Log.d(TAG, "Time to first render (" + source + "): " + (SystemClock.elapsedRealtime() - dialogOpenedAt) + " ms");
+                return true;
+            }
+        });
+    }
+
+    private static class SummaryDiffCallback extends DiffUtil.Callback {
+        private final List<SessionSummary> oldList;
+        private final List<SessionSummary> newList;
+
+        SummaryDiffCallback(List<SessionSummary> oldList, List<SessionSummary> newList) {
+            this.oldList = oldList;
+            this.newList = newList;
+        }
+
+        @Override
+        public int getOldListSize() { return oldList.size(); }
+
+        @Override
+        public int getNewListSize() { return newList.size(); }
+
+        @Override
+        public boolean areItemsTheSame(int oldPosition, int newPosition) {
+            return oldList.get(oldPosition).getSessionId().equals(newList.get(newPosition).getSessionId());
+        }
+
+        @Override
+        public boolean areContentsTheSame(int oldPosition, int newPosition) {
+            SessionSummary a = oldList.get(oldPosition);
+            SessionSummary b = newList.get(newPosition);
+            return a.getLastModified() == b.getLastModified()
+                    && a.getRecordedCount() == b.getRecordedCount()
+                    && a.getTotalCount() == b.getTotalCount()
+                    && a.getDurationMs() == b.getDurationMs()
+                    && a.isArchived() == b.isArchived() // Archiving keeps lastModified
+                    && Objects.equals(a.getUsername(), b.getUsername());
+        }
+    }
+
+    /**
+     * Loads the page after the last listed session. Only session summaries are read, one page per
+     * query, so the first page costs a single round trip however many sessions exist.
+     */
+    private void loadNextPage() {
+        if (isLoadingPage || endReached) {
+            return;
+        }
+        isLoadingPage = true;
+        final SessionSummary cursor = savedSessions.isEmpty() ? null : savedSessions.get(savedSessions.size() - 1);
+        repository.listSessions(cursor, pageSize, new SessionRepository.Callback<List<SessionSummary>>() {
+            @Override
+            public void onResult(List<SessionSummary> page) {
+                isLoadingPage = false;
+                if (!isAdded()) {
+                    return;
+                }
+                endReached = page.size() < pageSize;
+                int insertAt = savedSessions.size();
+                for (SessionSummary summary : page) {
+                    if (loadedSessionIds.add(summary.getSessionId())) { // Skip sessions modified while paging
+                        savedSessions.add(summary);
                     }
-                });
+                }
+                loadSessionAdapter.notifyItemRangeInserted(insertAt, savedSessions.size() - insertAt);
+                Log.d(TAG, "Loaded a page of " + page.size() + " sessions, " + savedSessions.size() + " listed.");
+                if (savedSessions.isEmpty()) {
+                    Toast.makeText(requireContext(), "No saved sessions found for this user.", Toast.LENGTH_SHORT).show();
+                    Log.d(TAG, "No saved sessions found for userId: " + currentUserId);
+                }
+            }
+
+            @Override
+            public void onError(Exception e) {
+                isLoadingPage = false;
+                if (e instanceof FirebaseFirestoreException) {
+                    FirebaseFirestoreException firestoreException = (FirebaseFirestoreException) e;
+                    Log.e(TAG, "FirebaseFirestoreException fetching saved sessions: " + firestoreException.getCode() + " - " + firestoreException.getMessage(), firestoreException);
+                } else {
+                    Log.e(TAG, "General error fetching saved sessions: " + e.getMessage(), e);
+                }
+                if (isAdded()) {
+                    Toast.makeText(requireContext(), "Error loading sessions: " + e.getMessage(), Toast.LENGTH_LONG).show();
+                }
+            }
+        });
     }
 }
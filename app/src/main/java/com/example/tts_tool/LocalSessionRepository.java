@@ -0,0 +1,675 @@
+package com.example.tts_tool;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.lang.reflect.Type;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Stores sessions as files in app-private storage: one {@link SessionCodec binary} file per
+ * session plus a JSON index of {@link SessionSummary session summaries}. This is the source of
+ * truth for the app; it works without network access and answers in milliseconds instead of a
+ * Firestore round trip.
+ *
+ * Saving takes doesn't rewrite the session: each flush appends one record (the header and the
+ * changed takes) to the session's journal, {@code <id>.session.log}. The journal is replayed
+ * when the session is read and folded into the session file (compacted) whenever the session is
+ * written in full, when it is read from disk, and once it outgrows the session file. Replaying
+ * is idempotent, so a crash between writing the session file and deleting the journal is harmless;
+ * a record cut short by a crash is ignored.
+ *
+ * Archived sessions (see {@link SyncingSessionRepository#archiveSessions}) keep only a tombstone
+ * summary in the index; the session itself is kept GZIP-compressed in {@code <id>.session.gz}
+ * until it is restored on demand.
+ *
+ * All file access runs on a single background thread, so writes are applied in the order they
+ * were requested; callbacks are posted to the main thread.
+ */
+public class LocalSessionRepository implements SessionRepository {
+
+    private static final String TAG = "LocalSessionRepository";
+    private static final String INDEX_FILE_NAME = "summaries.json";
+    private static final String SESSION_FILE_SUFFIX = ".session.bin";
+    private static final String ARCHIVE_FILE_SUFFIX = ".session.gz";
+    private static final String JOURNAL_FILE_SUFFIX = ".session.log";
+    private static final String LEGACY_SESSION_FILE_SUFFIX = ".session.json"; // Written with Gson before SessionCodec
+
+    private final File directory;
+    private final SessionListCache listCache;
+    private final Gson gson = new Gson();
+    private final ExecutorService ioExecutor = Executors.newSingleThreadExecutor();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    // Only touched on the I/O thread.
+    private Map<String, SessionSummary> summaries;
+    private List<SessionSummary> sortedSummaries; // Summaries in list order, rebuilt after changes
+    private ProcessingActivity.SessionState cachedSession; // Last session read or written, with items
+
+    public LocalSessionRepository(Context context, String userId) {
+        this.directory = new File(new File(context.getFilesDir(), "sessions"), encodeFileName(userId));
+        this.listCache = new SessionListCache(context, userId);
+    }
+
+    @Override
+    public void loadSession(String sessionId, Callback<ProcessingActivity.SessionState> callback) {
+        ioExecutor.execute(() -> {
+            try {
+                ProcessingActivity.SessionState sessionState = readSession(sessionId);
+                if (sessionState == null && archiveFile(sessionId).exists()) {
+                    deliverError(callback, new SessionArchivedException(sessionId));
+                } else if (sessionState == null) {
+                    deliverError(callback, new SessionNotFoundException(sessionId));
+                } else {
+                    deliverResult(callback, SessionStates.copy(sessionState, true));
+                }
+            } catch (Exception e) {
+                Log.e(TAG, "Error reading session " + sessionId, e);
+                deliverError(callback, e);
+            }
+        });
+    }
+
+    @Override
+    public void listSessions(SessionSummary after, int pageSize, Callback<List<SessionSummary>> callback) {
+        ioExecutor.execute(() -> {
+            try {
+                List<SessionSummary> page = SessionStates.pageAfter(sortedSummaries(), after, pageSize);
+                if (after == null && listCache.read() == null) {
+                    listCache.write(page);
+                }
+                deliverResult(callback, page);
+            } catch (Exception e) {
+                Log.e(TAG, "Error reading session index", e);
+                deliverError(callback, e);
+            }
+        });
+    }
+
+    @Override
+    public void saveSession(ProcessingActivity.SessionState sessionState, Callback<Void> callback) {
+        final ProcessingActivity.SessionState snapshot = SessionStates.copy(sessionState, true);
+        ioExecutor.execute(() -> {
+            try {
+                writeSession(snapshot);
+                deliverResult(callback, null);
+            } catch (Exception e) {
+                Log.e(TAG, "Error writing session " + snapshot.getSessionId(), e);
+                deliverError(callback, e);
+            }
+        });
+    }
+
+    @Override
+    public void saveTakes(ProcessingActivity.SessionState header, Collection<ProcessingActivity.SentenceItem> takes) {
+        final ProcessingActivity.SessionState headerSnapshot = SessionStates.copy(header, false);
+        final List<ProcessingActivity.SentenceItem> takeSnapshot = new ArrayList<>();
+        for (ProcessingActivity.SentenceItem take : takes) {
+            takeSnapshot.add(new ProcessingActivity.SentenceItem(take));
+        }
+        ioExecutor.execute(() -> {
+            try {
+                String sessionId = headerSnapshot.getSessionId();
+                ProcessingActivity.SessionState stored = readSession(sessionId);
+                if (stored == null) {
+                    stored = restoreArchive(sessionId); // Archived while it was open
+                }
+                if (stored == null) {
+                    stored = SessionStates.copy(headerSnapshot, false);
+                }
+                SessionSummary summary = applyTakes(stored, headerSnapshot, takeSnapshot);
+                cachedSession = stored;
+                File journal = journalFile(sessionId);
+                File snapshot = sessionFile(sessionId);
+                if (snapshot.exists() && journal.length() > snapshot.length()) {
+                    writeSession(stored); // Compact once replaying would cost more than reading the session
+                    return;
+                }
+                appendToJournal(headerSnapshot, takeSnapshot);
+                getSummaries().put(sessionId, summary);
+                sortedSummaries = null;
+                listCache.update(summary); // The session moves to the top of the list
+            } catch (Exception e) {
+                Log.e(TAG, "Error writing takes of session " + headerSnapshot.getSessionId(), e);
+            }
+        });
+    }
+
+    /** The header, summary and some takes of a stored session, copied for replication. */
+    static class TakeSnapshot {
+        final ProcessingActivity.SessionState header;
+        final List<ProcessingActivity.SentenceItem> takes;
+        final SessionSummary summary;
+
+        TakeSnapshot(ProcessingActivity.SessionState header, List<ProcessingActivity.SentenceItem> takes, SessionSummary summary) {
+            this.header = header;
+            this.takes = takes;
+            this.summary = summary;
+        }
+    }
+
+    /**
+     * Copies the header, the summary and the takes of the given sentences of a session, without
+     * copying the rest of its sentence list. Indices beyond the session's sentences are skipped.
+     */
+    void loadTakes(String sessionId, Collection<Integer> indices, Callback<TakeSnapshot> callback) {
+        final List<Integer> requested = new ArrayList<>(indices);
+        ioExecutor.execute(() -> {
+            try {
+                ProcessingActivity.SessionState sessionState = readSession(sessionId);
+                if (sessionState == null) {
+                    deliverError(callback, new SessionNotFoundException(sessionId));
+                    return;
+                }
+                List<ProcessingActivity.SentenceItem> items = sessionState.getSentenceItems();
+                List<ProcessingActivity.SentenceItem> takes = new ArrayList<>(requested.size());
+                for (int index : requested) {
+                    if (items != null && index >= 0 && index < items.size()) {
+                        takes.add(new ProcessingActivity.SentenceItem(items.get(index)));
+                    }
+                }
+                SessionSummary summary = getSummaries().get(sessionId);
+                deliverResult(callback, new TakeSnapshot(SessionStates.copy(sessionState, false), takes,
+                        summary != null ? summary : SessionSummary.of(sessionState)));
+            } catch (Exception e) {
+                Log.e(TAG, "Error reading takes of session " + sessionId, e);
+                deliverError(callback, e);
+            }
+        });
+    }
+
+    /**
+     * Merges session summaries read from the remote copy into the index. Sessions only known
+     * remotely are listed by their summary; local session files older than their remote summary
+     * are dropped (unless {@code keepLocal} contains them) so that the next load fetches them again.
+     * @param callback Receives whether the index changed. May be null.
+     */
+    void mergeRemoteSummaries(List<SessionSummary> remoteSummaries, Collection<String> keepLocal,
+                              Callback<Boolean> callback) {
+        final List<SessionSummary> snapshot = new ArrayList<>(remoteSummaries);
+        final List<String> keep = new ArrayList<>(keepLocal);
+        ioExecutor.execute(() -> {
+            try {
+                Map<String, SessionSummary> index = getSummaries();
+                boolean changed = false;
+                for (SessionSummary remote : snapshot) {
+                    SessionSummary local = index.get(remote.getSessionId());
+                    if (local != null && (local.getLastModified() > remote.getLastModified()
+                            || (local.getLastModified() == remote.getLastModified() && local.isArchived() == remote.isArchived()))) {
+                        continue; // Archiving or restoring elsewhere doesn't change lastModified
+                    }
+                    if (local != null && keep.contains(remote.getSessionId())) {
+                        continue; // Local changes not yet replicated win
+                    }
+                    index.put(remote.getSessionId(), remote);
+                    deleteSessionFile(remote.getSessionId());
+                    changed = true;
+                }
+                if (changed) {
+                    sortedSummaries = null;
+                    writeIndex();
+                    listCache.write(sortedSummaries());
+                }
+                deliverResult(callback, changed);
+            } catch (Exception e) {
+                Log.e(TAG, "Error merging remote session summaries", e);
+                deliverError(callback, e);
+            }
+        });
+    }
+
+    /**
+     * Finds sessions the policy wants archived, oldest first. Only sessions stored here are
+     * considered; the one last read or written (most likely open) and those in {@code exclude}
+     * are left alone.
+     * @param callback Receives at most {@link SessionArchivePolicy#getMaxSessionsPerRun()} summaries.
+     */
+    void findArchiveCandidates(SessionArchivePolicy policy, long now, Collection<String> exclude,
+                               Callback<List<SessionSummary>> callback) {
+        final List<String> excluded = new ArrayList<>(exclude);
+        ioExecutor.execute(() -> {
+            try {
+                List<SessionSummary> sorted = sortedSummaries();
+                List<SessionSummary> candidates = new ArrayList<>();
+                for (int i = sorted.size() - 1; i >= 0 && candidates.size() < policy.getMaxSessionsPerRun(); i--) {
+                    SessionSummary summary = sorted.get(i);
+                    String sessionId = summary.getSessionId();
+                    if (!policy.shouldArchive(summary, now) || excluded.contains(sessionId)
+                            || (cachedSession != null && cachedSession.getSessionId().equals(sessionId))
+                            || !sessionFile(sessionId).exists()) {
+                        continue;
+                    }
+                    candidates.add(summary);
+                }
+                deliverResult(callback, candidates);
+            } catch (Exception e) {
+                Log.e(TAG, "Error selecting sessions to archive", e);
+                deliverError(callback, e);
+            }
+        });
+    }
+
+    /**
+     * Reads a session and compresses it into the archive form, leaving it in place.
+     */
+    void compressSession(String sessionId, Callback<byte[]> callback) {
+        ioExecutor.execute(() -> {
+            try {
+                ProcessingActivity.SessionState sessionState = readSession(sessionId);
+                if (sessionState == null) {
+                    deliverError(callback, new SessionNotFoundException(sessionId));
+                    return;
+                }
+                deliverResult(callback, SessionCodec.toArchive(sessionState));
+            } catch (Exception e) {
+                Log.e(TAG, "Error compressing session " + sessionId, e);
+                deliverError(callback, e);
+            }
+        });
+    }
+
+    /**
+     * Replaces the stored session with its archive form and its summary with a tombstone.
+     * @param archive The session as returned by {@link #compressSession}.
+     */
+    void storeArchive(String sessionId, byte[] archive, Callback<Void> callback) {
+        ioExecutor.execute(() -> {
+            try {
+                writeAtomically(archiveFile(sessionId), out -> out.write(archive));
+                deleteSessionFiles(sessionId, false);
+                SessionSummary summary = getSummaries().get(sessionId);
+                if (summary != null) {
+                    SessionSummary tombstone = summary.toTombstone();
+                    getSummaries().put(sessionId, tombstone);
+                    sortedSummaries = null;
+                    writeIndex();
+                    listCache.update(tombstone);
+                }
+                deliverResult(callback, null);
+            } catch (Exception e) {
+                Log.e(TAG, "Error archiving session " + sessionId, e);
+                deliverError(callback, e);
+            }
+        });
+    }
+
+    /**
+     * Moves an archived session back into the active store.
+     */
+    void restoreArchivedSession(String sessionId, Callback<ProcessingActivity.SessionState> callback) {
+        ioExecutor.execute(() -> {
+            try {
+                ProcessingActivity.SessionState sessionState = restoreArchive(sessionId);
+                if (sessionState == null) {
+                    deliverError(callback, new SessionNotFoundException(sessionId));
+                } else {
+                    deliverResult(callback, SessionStates.copy(sessionState, true));
+                }
+            } catch (Exception e) {
+                Log.e(TAG, "Error restoring archived session " + sessionId, e);
+                deliverError(callback, e);
+            }
+        });
+    }
+
+    /**
+     * Stores a session fetched from the remote copy, without it counting as a local change.
+     */
+    void storeRemoteSession(ProcessingActivity.SessionState sessionState) {
+        saveSession(sessionState, null);
+    }
+
+    /** Thrown (delivered) when a session has no local copy. */
+    static class SessionNotFoundException extends Exception {
+        SessionNotFoundException(String sessionId) {
+            super("Session " + sessionId + " not found locally.");
+        }
+    }
+
+    /** Thrown (delivered) when a session is only available from the local archive. */
+    static class SessionArchivedException extends Exception {
+        SessionArchivedException(String sessionId) {
+            super("Session " + sessionId + " is archived.");
+        }
+    }
+
+    private ProcessingActivity.SessionState readSession(String sessionId) throws IOException {
+        if (cachedSession != null && cachedSession.getSessionId().equals(sessionId)) {
+            return cachedSession;
+        }
+        File file = sessionFile(sessionId);
+        File legacyFile = new File(directory, encodeFileName(sessionId) + LEGACY_SESSION_FILE_SUFFIX);
+        ProcessingActivity.SessionState sessionState = file.exists() ? readSessionFile(file)
+                : legacyFile.exists() ? readSessionFile(legacyFile) : null;
+        List<ProcessingActivity.SessionState> journal = readJournal(sessionId);
+        if (sessionState == null && journal.isEmpty()) {
+            return null;
+        }
+        if (sessionState == null) {
+            sessionState = SessionStates.copy(journal.get(0), false); // Takes saved before the first full save
+        }
+        for (ProcessingActivity.SessionState record : journal) {
+            SessionStates.applyTakes(sessionState, record, record.getSentenceItems());
+        }
+        boolean migrated = SessionMigrations.migrate(sessionState);
+        if (migrated || !file.exists() || !journal.isEmpty()) {
+            // Converted once (schema, pre-SessionCodec file, journal); later reads get the session file as is
+            writeSession(sessionState);
+            if (legacyFile.exists() && !legacyFile.delete()) {
+                Log.w(TAG, "Could not delete converted session file " + legacyFile.getName());
+            }
+            if (migrated) {
+                Log.d(TAG, "Migrated session " + sessionId + " to schema version " + SessionMigrations.CURRENT_VERSION);
+            }
+        } else if (sessionState.getSentenceItems() != null) {
+            cachedSession = sessionState;
+        }
+        return sessionState;
+    }
+
+    /**
+     * Applies takes to a stored session, as {@link SessionStates#applyTakes} does.
+     * @return Its summary, updated by the changed takes alone rather than by counting every sentence.
+     */
+    private SessionSummary applyTakes(ProcessingActivity.SessionState stored, ProcessingActivity.SessionState header,
+                                      List<ProcessingActivity.SentenceItem> takes) throws IOException {
+        SessionSummary previous = getSummaries().get(stored.getSessionId());
+        boolean incremental = previous != null && !previous.isArchived() && stored.getSentenceItems() != null
+                && previous.getTotalCount() == stored.getSentenceItems().size();
+        int recordedCount = incremental ? previous.getRecordedCount() : 0;
+        long durationMs = incremental ? previous.getDurationMs() : 0;
+        for (ProcessingActivity.SentenceItem take : takes) {
+            List<ProcessingActivity.SentenceItem> items = stored.getSentenceItems();
+            if (incremental && take.getIndex() >= 0 && take.getIndex() < items.size()) {
+                ProcessingActivity.SentenceItem before = items.get(take.getIndex());
+                if (before.getRecordedFileName() != null) {
+                    recordedCount--;
+                    durationMs -= before.getRecordedDurationMs();
+                }
+            }
+            SessionStates.applyTakes(stored, header, Collections.singletonList(take));
+            if (incremental && take.getIndex() >= 0 && take.getRecordedFileName() != null) {
+                recordedCount++;
+                durationMs += take.getRecordedDurationMs();
+            }
+        }
+        if (!incremental) {
+            return SessionSummary.of(stored);
+        }
+        SessionSummary summary = SessionSummary.of(header);
+        summary.setTotalCount(stored.getSentenceItems().size());
+        summary.setRecordedCount(recordedCount);
+        summary.setDurationMs(durationMs);
+        return summary;
+    }
+
+    // Appends one record to the session's journal: the header with the takes as its sentence items.
+    private void appendToJournal(ProcessingActivity.SessionState header, List<ProcessingActivity.SentenceItem> takes) throws IOException {
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IOException("Could not create " + directory);
+        }
+        ProcessingActivity.SessionState record = SessionStates.copy(header, false);
+        record.setSentenceItems(takes);
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(journalFile(header.getSessionId()), true))) {
+            SessionCodec.writeBinary(record, out);
+        }
+    }
+
+    private List<ProcessingActivity.SessionState> readJournal(String sessionId) throws IOException {
+        List<ProcessingActivity.SessionState> records = new ArrayList<>();
+        File journal = journalFile(sessionId);
+        if (!journal.exists()) {
+            return records;
+        }
+        try (InputStream in = new BufferedInputStream(new FileInputStream(journal))) {
+            while (true) {
+                ProcessingActivity.SessionState record = SessionCodec.readBinary(in);
+                if (record.getSentenceItems() != null) {
+                    records.add(record);
+                }
+            }
+        } catch (EOFException e) {
+            // The end of the journal, or a record cut short by a crash
+        } catch (IOException e) {
+            Log.e(TAG, "Ignoring the damaged rest of the journal of session " + sessionId, e);
+        }
+        return records;
+    }
+
+    // Folds journals left by an earlier run into their sessions, so the index they were not written to is current.
+    private void compactJournals() throws IOException {
+        File[] journals = directory.listFiles((dir, name) -> name.endsWith(JOURNAL_FILE_SUFFIX));
+        if (journals == null) {
+            return;
+        }
+        for (File journal : journals) {
+            String name = journal.getName();
+            String sessionId = URLDecoder.decode(name.substring(0, name.length() - JOURNAL_FILE_SUFFIX.length()), "UTF-8");
+            try {
+                readSession(sessionId);
+            } catch (IOException | RuntimeException e) {
+                Log.e(TAG, "Could not compact the journal of session " + sessionId, e);
+            }
+        }
+    }
+
+    // Writes an archived session back as a regular session file; its summary stops being a tombstone.
+    private ProcessingActivity.SessionState restoreArchive(String sessionId) throws IOException {
+        File file = archiveFile(sessionId);
+        if (!file.exists()) {
+            return null;
+        }
+        ProcessingActivity.SessionState sessionState = readSessionFile(file);
+        SessionMigrations.migrate(sessionState);
+        writeSession(sessionState);
+        if (!file.delete()) {
+            Log.w(TAG, "Could not delete restored archive " + file.getName());
+        }
+        Log.d(TAG, "Restored archived session " + sessionId);
+        return sessionState;
+    }
+
+    private static ProcessingActivity.SessionState readSessionFile(File file) throws IOException {
+        if (file.getName().endsWith(LEGACY_SESSION_FILE_SUFFIX)) {
+            try (Reader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+                return SessionCodec.readJson(reader);
+            }
+        }
+        try (InputStream in = new BufferedInputStream(new FileInputStream(file))) {
+            return file.getName().endsWith(ARCHIVE_FILE_SUFFIX) ? SessionCodec.fromArchive(in) : SessionCodec.readBinary(in);
+        }
+    }
+
+    // Also compacts the journal: the session file written holds everything in it.
+    private void writeSession(ProcessingActivity.SessionState sessionState) throws IOException {
+        writeAtomically(sessionFile(sessionState.getSessionId()), out -> SessionCodec.writeBinary(sessionState, out));
+        File journal = journalFile(sessionState.getSessionId());
+        if (journal.exists() && !journal.delete()) {
+            Log.w(TAG, "Could not delete the compacted journal of session " + sessionState.getSessionId());
+        }
+        cachedSession = sessionState;
+        SessionSummary summary = SessionSummary.of(sessionState);
+        getSummaries().put(sessionState.getSessionId(), summary);
+        sortedSummaries = null;
+        writeIndex();
+        listCache.update(summary); // The saved session moves to the top of the list
+    }
+
+    private void deleteSessionFile(String sessionId) {
+        deleteSessionFiles(sessionId, true);
+    }
+
+    private void deleteSessionFiles(String sessionId, boolean includingArchive) {
+        if (cachedSession != null && cachedSession.getSessionId().equals(sessionId)) {
+            cachedSession = null;
+        }
+        List<File> files = new ArrayList<>();
+        files.add(sessionFile(sessionId));
+        files.add(new File(directory, encodeFileName(sessionId) + LEGACY_SESSION_FILE_SUFFIX));
+        files.add(journalFile(sessionId));
+        if (includingArchive) {
+            files.add(archiveFile(sessionId));
+        }
+        for (File file : files) {
+            if (file.exists() && !file.delete()) {
+                Log.w(TAG, "Could not delete stale local copy of session " + sessionId);
+            }
+        }
+    }
+
+    private Map<String, SessionSummary> getSummaries() throws IOException {
+        if (summaries != null) {
+            return summaries;
+        }
+        summaries = new LinkedHashMap<>();
+        if (!readIndex()) {
+            rebuildSummaries();
+        }
+        compactJournals();
+        return summaries;
+    }
+
+    private boolean readIndex() throws IOException {
+        File indexFile = new File(directory, INDEX_FILE_NAME);
+        if (!indexFile.exists()) {
+            return false;
+        }
+        try (Reader reader = new BufferedReader(new InputStreamReader(new FileInputStream(indexFile), StandardCharsets.UTF_8))) {
+            Type type = new TypeToken<List<SessionSummary>>() {}.getType();
+            List<SessionSummary> stored = gson.fromJson(reader, type);
+            if (stored != null) {
+                for (SessionSummary summary : stored) {
+                    summaries.put(summary.getSessionId(), summary);
+                }
+            }
+            return true;
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Session summary index is unreadable, rebuilding it", e);
+            return false;
+        }
+    }
+
+    // Summarizes every stored session file; only needed when the index is missing or damaged.
+    private void rebuildSummaries() throws IOException {
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(SESSION_FILE_SUFFIX)
+                || name.endsWith(LEGACY_SESSION_FILE_SUFFIX) || name.endsWith(ARCHIVE_FILE_SUFFIX));
+        if (files == null || files.length == 0) {
+            return;
+        }
+        for (File file : files) {
+            try {
+                ProcessingActivity.SessionState sessionState = readSessionFile(file);
+                String sessionId = sessionState.getSessionId();
+                if (sessionId == null) {
+                    continue;
+                }
+                if (!file.getName().endsWith(ARCHIVE_FILE_SUFFIX)) {
+                    summaries.put(sessionId, SessionSummary.of(sessionState));
+                } else if (!summaries.containsKey(sessionId)) {
+                    summaries.put(sessionId, SessionSummary.of(sessionState).toTombstone()); // A session file wins
+                }
+            } catch (IOException | RuntimeException e) {
+                Log.e(TAG, "Skipping unreadable session file " + file.getName(), e);
+            }
+        }
+        writeIndex();
+        Log.d(TAG, "Rebuilt the summary index from " + files.length + " session files.");
+    }
+
+    private void writeIndex() throws IOException {
+        final List<SessionSummary> index = new ArrayList<>(getSummaries().values());
+        writeAtomically(new File(directory, INDEX_FILE_NAME), out -> {
+            Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+            gson.toJson(index, writer);
+            writer.flush();
+        });
+    }
+
+    private List<SessionSummary> sortedSummaries() throws IOException {
+        if (sortedSummaries == null) {
+            sortedSummaries = new ArrayList<>(getSummaries().values());
+            sortedSummaries.sort(SessionStates.NEWEST_FIRST);
+        }
+        return sortedSummaries;
+    }
+
+    private interface ContentWriter {
+        void writeTo(OutputStream out) throws IOException;
+    }
+
+    // Writes to a temporary file first so a crash mid-write never leaves a truncated session behind.
+    private void writeAtomically(File target, ContentWriter content) throws IOException {
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IOException("Could not create " + directory);
+        }
+        File temp = new File(directory, target.getName() + ".tmp");
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(temp))) {
+            content.writeTo(out);
+        }
+        if (!temp.renameTo(target)) {
+            throw new IOException("Could not replace " + target);
+        }
+    }
+
+    private File sessionFile(String sessionId) {
+        return new File(directory, encodeFileName(sessionId) + SESSION_FILE_SUFFIX);
+    }
+
+    private File journalFile(String sessionId) {
+        return new File(directory, encodeFileName(sessionId) + JOURNAL_FILE_SUFFIX);
+    }
+
+    private File archiveFile(String sessionId) {
+        return new File(directory, encodeFileName(sessionId) + ARCHIVE_FILE_SUFFIX);
+    }
+
+    private static String encodeFileName(String name) {
+        try {
+            return URLEncoder.encode(name, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e); // UTF-8 is always supported
+        }
+    }
+
+    private <T> void deliverResult(Callback<T> callback, T result) {
+        if (callback != null) {
+            mainHandler.post(() -> callback.onResult(result));
+        }
+    }
+
+    private void deliverError(Callback<?> callback, Exception e) {
+        if (callback != null) {
+            mainHandler.post(() -> callback.onError(e));
+        }
+    }
+}
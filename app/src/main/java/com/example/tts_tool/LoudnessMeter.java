@@ -0,0 +1,180 @@
+package com.example.tts_tool;
+
+import java.util.Arrays;
+
+/**
+ * Measures the integrated loudness (ITU-R BS.1770-4, as used by EBU R128) and the true peak of
+ * 16-bit PCM audio in one streaming pass.
+ *
+ * Loudness: the audio is K-weighted (a high shelf and a high pass), its mean square is taken over
+ * 100 ms steps, and 400 ms blocks overlapping by 75% are built from four steps each. Blocks under
+ * -70 LUFS are gated out, then blocks more than 10 LU below the loudness of the rest. Only the
+ * energy of each 400 ms block is kept, 10 doubles per second of audio.
+ *
+ * True peak: the signal is upsampled four times with a 48-tap polyphase interpolation filter and
+ * the largest absolute value is kept, which catches the peaks between samples that reconstruction
+ * (and any later gain) brings out.
+ */
+final class LoudnessMeter {
+
+    static final double ABSOLUTE_GATE_LUFS = -70;
+    static final double RELATIVE_GATE_LU = -10;
+    private static final int OVERSAMPLING = 4;
+    private static final int TAPS_PER_PHASE = 12;
+    private static final double[][] PHASES = interpolationFilter();
+
+    private final int channels;
+    private final int stepFrames; // Frames per 100 ms
+    // K-weighting biquads, stage 1 (shelf) and stage 2 (high pass), with per-channel state
+    private final double b10, b11, b12, a11, a12;
+    private final double b20, b21, b22, a21, a22;
+    private final double[] stage1Z1, stage1Z2, stage2Z1, stage2Z2;
+    private final double[][] history; // Last TAPS_PER_PHASE samples per channel, newest first
+    private double peak;
+
+    private double stepEnergy;
+    private int stepFill;
+    private final double[] lastSteps = new double[4];
+    private int stepCount;
+    private double[] blocks = new double[64];
+    private int blockCount;
+
+    LoudnessMeter(int sampleRate, int channels) {
+        this.channels = channels;
+        this.stepFrames = Math.max(1, sampleRate / 10);
+
+        // Coefficients of BS.1770 for 48 kHz, re-derived for the actual rate via the bilinear transform
+        double k = Math.tan(Math.PI * 1681.974450955533 / sampleRate);
+        double q = 0.7071752369554196;
+        double vh = Math.pow(10, 3.999843853973347 / 20);
+        double vb = Math.pow(vh, 0.4996667741545416);
+        double a0 = 1 + k / q + k * k;
+        b10 = (vh + vb * k / q + k * k) / a0;
+        b11 = 2 * (k * k - vh) / a0;
+        b12 = (vh - vb * k / q + k * k) / a0;
+        a11 = 2 * (k * k - 1) / a0;
+        a12 = (1 - k / q + k * k) / a0;
+
+        k = Math.tan(Math.PI * 38.13547087602444 / sampleRate);
+        q = 0.5003270373238773;
+        a0 = 1 + k / q + k * k;
+        b20 = 1;
+        b21 = -2;
+        b22 = 1;
+        a21 = 2 * (k * k - 1) / a0;
+        a22 = (1 - k / q + k * k) / a0;
+
+        stage1Z1 = new double[channels];
+        stage1Z2 = new double[channels];
+        stage2Z1 = new double[channels];
+        stage2Z2 = new double[channels];
+        history = new double[channels][TAPS_PER_PHASE];
+    }
+
+    /**
+     * @param samples Interleaved samples; {@code count} must be a whole number of frames.
+     */
+    void add(short[] samples, int count) {
+        for (int i = 0; i < count; i += channels) {
+            for (int c = 0; c < channels; c++) {
+                double x = samples[i + c] / 32768.0;
+                trackPeak(c, x);
+                // Transposed direct form II
+                double y1 = b10 * x + stage1Z1[c];
+                stage1Z1[c] = b11 * x - a11 * y1 + stage1Z2[c];
+                stage1Z2[c] = b12 * x - a12 * y1;
+                double y2 = b20 * y1 + stage2Z1[c];
+                stage2Z1[c] = b21 * y1 - a21 * y2 + stage2Z2[c];
+                stage2Z2[c] = b22 * y1 - a22 * y2;
+                stepEnergy += y2 * y2; // Channel weights are 1 for mono, left, right and centre
+            }
+            if (++stepFill == stepFrames) {
+                endStep();
+            }
+        }
+    }
+
+    private void trackPeak(int channel, double x) {
+        double[] h = history[channel];
+        System.arraycopy(h, 0, h, 1, TAPS_PER_PHASE - 1);
+        h[0] = x;
+        for (double[] phase : PHASES) {
+            double y = 0;
+            for (int t = 0; t < TAPS_PER_PHASE; t++) {
+                y += phase[t] * h[t];
+            }
+            peak = Math.max(peak, Math.abs(y));
+        }
+        peak = Math.max(peak, Math.abs(x));
+    }
+
+    private void endStep() {
+        lastSteps[stepCount % 4] = stepEnergy / stepFrames;
+        stepCount++;
+        stepEnergy = 0;
+        stepFill = 0;
+        if (stepCount >= 4) {
+            if (blockCount == blocks.length) {
+                blocks = Arrays.copyOf(blocks, blockCount * 2);
+            }
+            blocks[blockCount++] = (lastSteps[0] + lastSteps[1] + lastSteps[2] + lastSteps[3]) / 4;
+        }
+    }
+
+    /**
+     * @return The gated loudness in LUFS, or negative infinity for audio shorter than 400 ms or
+     *         below the absolute gate throughout.
+     */
+    double getIntegratedLoudness() {
+        double absoluteGate = energyOf(ABSOLUTE_GATE_LUFS);
+        double sum = 0;
+        int count = 0;
+        for (int i = 0; i < blockCount; i++) {
+            if (blocks[i] > absoluteGate) {
+                sum += blocks[i];
+                count++;
+            }
+        }
+        if (count == 0) {
+            return Double.NEGATIVE_INFINITY;
+        }
+        double relativeGate = energyOf(loudnessOf(sum / count) + RELATIVE_GATE_LU);
+        sum = 0;
+        count = 0;
+        for (int i = 0; i < blockCount; i++) {
+            if (blocks[i] > absoluteGate && blocks[i] > relativeGate) {
+                sum += blocks[i];
+                count++;
+            }
+        }
+        return count > 0 ? loudnessOf(sum / count) : Double.NEGATIVE_INFINITY;
+    }
+
+    /**
+     * @return The true peak in dBTP (dB relative to full scale), negative infinity for silence.
+     */
+    double getTruePeak() {
+        return 20 * Math.log10(peak);
+    }
+
+    private static double loudnessOf(double energy) {
+        return -0.691 + 10 * Math.log10(energy);
+    }
+
+    private static double energyOf(double loudness) {
+        return Math.pow(10, (loudness + 0.691) / 10);
+    }
+
+    // A Hann-windowed sinc lowpass at the original Nyquist frequency, split into its phases.
+    private static double[][] interpolationFilter() {
+        int taps = OVERSAMPLING * TAPS_PER_PHASE;
+        double[][] phases = new double[OVERSAMPLING][TAPS_PER_PHASE];
+        for (int n = 0; n < taps; n++) {
+            double t = (n - (taps - 1) / 2.0) / OVERSAMPLING;
+            double sinc = (t == 0) ? 1 : Math.sin(Math.PI * t) / (Math.PI * t);
+            double window = 0.5 - 0.5 * Math.cos(2 * Math.PI * (n + 0.5) / taps);
+            phases[n % OVERSAMPLING][n / OVERSAMPLING] = sinc * window;
+        }
+        return phases;
+    }
+}
@@ -0,0 +1,349 @@
+package com.example.tts_tool;
+
+import android.content.Context;
+import android.net.Uri;
+import android.provider.DocumentsContract;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Renders loudness-normalized copies of a folder's takes into {@code <folder>_normalized/}, for
+ * training on takes recorded at different levels over several days.
+ *
+ * Each take is measured with a {@link LoudnessMeter} (integrated loudness with BS.1770 gating,
+ * and true peak), then copied with the gain that brings it to the target loudness. Where that
+ * gain would push the true peak over the ceiling, the gain is lowered to meet the ceiling instead,
+ * leaving the take quieter than the target rather than limiting it. Takes are processed on a pool
+ * with one thread per core, each streaming its take twice: once to measure, once to render.
+ *
+ * Measurements are kept in {@code <folder>_loudness.tsv}, the output of this export. A later run
+ * measures only takes whose size or modification time changed, and renders only takes that were
+ * remeasured or are missing from the output folder, unless the target changed.
+ */
+public class LoudnessNormalizeTask extends FileExportTask {
+
+    public static final double EBU_R128_TARGET_LUFS = -23;
+    public static final double DEFAULT_CEILING_DBTP = -1;
+
+    private static final String OUTPUT_DIRECTORY_SUFFIX = "_normalized";
+    private static final String WAV_MIME_TYPE = "audio/wav";
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final double targetLufs;
+    private final double ceilingDbtp;
+
+    /** The measurement and rendering of one take; a line of the cache. */
+    private static class Measurement {
+        final String name;
+        final long size;
+        final long lastModified;
+        final double loudness; // LUFS
+        final double truePeak; // dBTP
+        double gain; // dB applied to the normalized copy
+
+        Measurement(String name, long size, long lastModified, double loudness, double truePeak, double gain) {
+            this.name = name;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.loudness = loudness;
+            this.truePeak = truePeak;
+            this.gain = gain;
+        }
+
+        boolean isFor(WorkingFolderIndex.Entry take) {
+            return take.getSize() >= 0 && take.getLastModified() > 0
+                    && size == take.getSize() && lastModified == take.getLastModified();
+        }
+
+        boolean isSilent() {
+            return Double.isInfinite(loudness);
+        }
+    }
+
+    /**
+     * @param targetLufs The integrated loudness of the normalized takes.
+     * @param ceilingDbtp The highest true peak the gain may produce.
+     */
+    public LoudnessNormalizeTask(Context context, Uri folderUri, double targetLufs, double ceilingDbtp, Listener listener) {
+        super(context, folderUri, listener);
+        this.targetLufs = targetLufs;
+        this.ceilingDbtp = ceilingDbtp;
+    }
+
+    @Override
+    protected String getOutputName() {
+        return getFolderName() + "_loudness.tsv";
+    }
+
+    @Override
+    protected String writeTo(WorkingFolderIndex folder, OutputStream out) throws IOException {
+        final List<WorkingFolderIndex.Entry> takes = new ArrayList<>();
+        for (WorkingFolderIndex.Entry entry : folder.entries()) {
+            if (entry.getName() != null && entry.getName().toLowerCase(Locale.ROOT).endsWith(".wav")) {
+                takes.add(entry);
+            }
+        }
+        if (takes.isEmpty()) {
+            throw new IOException("No recorded .wav files found in the selected folder.");
+        }
+        Collections.sort(takes, (a, b) -> a.getName().compareTo(b.getName()));
+
+        final Map<String, Measurement> cache = new HashMap<>();
+        WorkingFolderIndex.Entry cacheEntry = folder.find(null, getOutputName());
+        boolean sameTarget = cacheEntry != null && readCache(cacheEntry, cache);
+        Uri folderDocumentUri = WorkingFolderIndex.folderDocumentUri(folderUri);
+        final Uri outputUri = outputDirectory(folder, folderDocumentUri);
+        final WorkingFolderIndex outputs = WorkingFolderIndex.query(context.getContentResolver(), outputUri);
+
+        final Measurement[] results = new Measurement[takes.size()];
+        final boolean[] rendered = new boolean[takes.size()];
+        final boolean[] measured = new boolean[takes.size()];
+        final boolean renderAll = !sameTarget;
+        final AtomicInteger next = new AtomicInteger();
+        final AtomicInteger done = new AtomicInteger();
+        final AtomicInteger failed = new AtomicInteger();
+        int threads = Math.min(takes.size(), Math.max(1, Runtime.getRuntime().availableProcessors()));
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> workers = new ArrayList<>(threads);
+            for (int i = 0; i < threads; i++) {
+                workers.add(pool.submit(() -> {
+                    int index;
+                    while ((index = next.getAndIncrement()) < takes.size()) {
+                        WorkingFolderIndex.Entry take = takes.get(index);
+                        try {
+                            Measurement measurement = cache.get(take.getName());
+                            if (measurement == null || !measurement.isFor(take)) {
+                                measurement = measure(take);
+                                measured[index] = true;
+                            }
+                            double gain = gainFor(measurement);
+                            WorkingFolderIndex.Entry output = outputs.find(null, take.getName());
+                            boolean upToDate = !renderAll && !measured[index] && output != null && output.getSize() == take.getSize();
+                            if (!measurement.isSilent() && !upToDate) {
+                                render(take, gain, outputs, outputUri);
+                                rendered[index] = true;
+                            }
+                            measurement.gain = gain;
+                            results[index] = measurement;
+                        } catch (IOException e) {
+                            failed.incrementAndGet(); // Left out of the cache, so it is retried next time
+                        }
+                        reportProgress(done.incrementAndGet(), takes.size());
+                    }
+                    return null;
+                }));
+            }
+            awaitAll(workers);
+        } finally {
+            pool.shutdownNow();
+        }
+
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), OUTPUT_BUFFER_SIZE);
+        writer.write(String.format(Locale.ROOT, "# target\t%.1f\tceiling\t%.1f\n", targetLufs, ceilingDbtp));
+        writer.write("# name\tsize\tlastModified\tloudnessLufs\ttruePeakDbtp\tgainDb\n");
+        int measuredCount = 0;
+        int renderedCount = 0;
+        int silentCount = 0;
+        int limitedCount = 0;
+        for (int i = 0; i < results.length; i++) {
+            Measurement m = results[i];
+            if (m == null) {
+                continue;
+            }
+            writer.write(String.format(Locale.ROOT, "%s\t%d\t%d\t%.2f\t%.2f\t%.2f\n",
+                    m.name, m.size, m.lastModified, m.loudness, m.truePeak, m.gain));
+            measuredCount += measured[i] ? 1 : 0;
+            renderedCount += rendered[i] ? 1 : 0;
+            silentCount += m.isSilent() ? 1 : 0;
+            limitedCount += (!m.isSilent() && m.gain < targetLufs - m.loudness - 0.005) ? 1 : 0;
+        }
+        writer.flush();
+
+        StringBuilder summary = new StringBuilder().append(renderedCount).append(" normalized takes written to ")
+                .append(getFolderName()).append(OUTPUT_DIRECTORY_SUFFIX).append(", ")
+                .append(takes.size() - failed.get() - renderedCount - silentCount).append(" already up to date.")
+                .append("\n").append(measuredCount).append(" takes measured, ")
+                .append(takes.size() - failed.get() - measuredCount).append(" from earlier measurements.");
+        if (limitedCount > 0) {
+            summary.append("\n").append(limitedCount).append(" takes stay quieter than ")
+                    .append(String.format(Locale.ROOT, "%.0f LUFS to keep peaks under %.0f dBTP.", targetLufs, ceilingDbtp));
+        }
+        if (silentCount > 0) {
+            summary.append("\n").append(silentCount).append(" silent takes were skipped.");
+        }
+        if (failed.get() > 0) {
+            summary.append("\n").append(failed.get()).append(" takes could not be read (only 16-bit PCM is supported).");
+        }
+        return summary.toString();
+    }
+
+    private double gainFor(Measurement measurement) {
+        if (measurement.isSilent()) {
+            return 0;
+        }
+        return Math.min(targetLufs - measurement.loudness, ceilingDbtp - measurement.truePeak);
+    }
+
+    // Runs on the pool.
+    private Measurement measure(WorkingFolderIndex.Entry take) throws IOException {
+        try (InputStream in = openTake(take)) {
+            WavHeader header = readHeader(in, take, null);
+            final LoudnessMeter meter = new LoudnessMeter(header.sampleRate, header.channels);
+            streamSamples(in, header, (samples, count) -> meter.add(samples, count));
+            return new Measurement(take.getName(), take.getSize(), take.getLastModified(),
+                    meter.getIntegratedLoudness(), meter.getTruePeak(), 0);
+        }
+    }
+
+    // Runs on the pool. Copies the header unchanged and scales the samples.
+    private void render(WorkingFolderIndex.Entry take, double gainDb, WorkingFolderIndex outputs, Uri outputUri) throws IOException {
+        final double factor = Math.pow(10, gainDb / 20);
+        try (InputStream in = openTake(take)) {
+            final byte[][] headerBytes = new byte[1][];
+            final WavHeader header = readHeader(in, take, headerBytes);
+            // The sizes are rewritten, as takes cut short by a crash keep a placeholder
+            long dataSize = header.dataSize - header.dataSize % (2 * header.channels);
+            writeInt(headerBytes[0], 4, header.dataOffset - 8 + dataSize);
+            writeInt(headerBytes[0], header.dataOffset - 4, dataSize);
+            replaceDocument(outputs, outputUri, take.getName(), WAV_MIME_TYPE, out -> {
+                out.write(headerBytes[0]);
+                final byte[] encoded = new byte[BUFFER_SIZE];
+                streamSamples(in, header, (samples, count) -> {
+                    for (int i = 0; i < count; i++) {
+                        long value = Math.round(samples[i] * factor);
+                        value = Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, value));
+                        encoded[2 * i] = (byte) value;
+                        encoded[2 * i + 1] = (byte) (value >> 8);
+                    }
+                    out.write(encoded, 0, 2 * count);
+                });
+            });
+        }
+    }
+
+    private static void writeInt(byte[] bytes, int offset, long value) {
+        for (int i = 0; i < 4; i++) {
+            bytes[offset + i] = (byte) (value >>> (8 * i));
+        }
+    }
+
+    private InputStream openTake(WorkingFolderIndex.Entry take) throws IOException {
+        InputStream in = context.getContentResolver().openInputStream(take.getUri());
+        if (in == null) {
+            throw new IOException("Could not open " + take.getName());
+        }
+        return new BufferedInputStream(in, BUFFER_SIZE);
+    }
+
+    /**
+     * Reads the header and leaves the stream at the first sample.
+     * @param headerBytes Receives the header as it is in the file, if not null.
+     */
+    private static WavHeader readHeader(InputStream in, WorkingFolderIndex.Entry take, byte[][] headerBytes) throws IOException {
+        in.mark(WavHeader.MAX_HEADER_SIZE);
+        WavHeader header = WavHeader.read(in, take.getSize());
+        if (header.bitsPerSample != 16 || header.channels < 1) {
+            throw new IOException(take.getName() + " is not 16-bit PCM");
+        }
+        in.reset();
+        byte[] bytes = new byte[header.dataOffset];
+        int length = 0;
+        int read;
+        while (length < bytes.length && (read = in.read(bytes, length, bytes.length - length)) > 0) {
+            length += read;
+        }
+        if (headerBytes != null) {
+            headerBytes[0] = bytes;
+        }
+        return header;
+    }
+
+    private interface SampleConsumer {
+        void accept(short[] samples, int count) throws IOException;
+    }
+
+    // Passes the audio on in whole frames, BUFFER_SIZE bytes at most at a time.
+    private static void streamSamples(InputStream in, WavHeader header, SampleConsumer consumer) throws IOException {
+        int frameBytes = 2 * header.channels;
+        byte[] buffer = new byte[BUFFER_SIZE / frameBytes * frameBytes];
+        short[] samples = new short[buffer.length / 2];
+        long remaining = header.dataSize - header.dataSize % frameBytes;
+        int pending = 0; // Bytes of an incomplete frame carried over from the previous read
+        int read;
+        while (remaining > 0 && (read = in.read(buffer, pending, (int) Math.min(buffer.length - pending, remaining))) > 0) {
+            remaining -= read;
+            int length = pending + read;
+            int usable = length - length % frameBytes;
+            for (int i = 0; i < usable; i += 2) {
+                samples[i / 2] = (short) ((buffer[i] & 0xFF) | (buffer[i + 1] << 8));
+            }
+            consumer.accept(samples, usable / 2);
+            pending = length - usable;
+            System.arraycopy(buffer, usable, buffer, 0, pending);
+        }
+    }
+
+    private Uri outputDirectory(WorkingFolderIndex folder, Uri folderDocumentUri) throws IOException {
+        String name = getFolderName() + OUTPUT_DIRECTORY_SUFFIX;
+        WorkingFolderIndex.Entry existing = folder.find(null, name);
+        if (existing != null && existing.isDirectory()) {
+            return existing.getUri();
+        }
+        Uri uri = DocumentsContract.createDocument(context.getContentResolver(), folderDocumentUri,
+                DocumentsContract.Document.MIME_TYPE_DIR, name);
+        if (uri == null) {
+            throw new IOException("Could not create " + name);
+        }
+        return uri;
+    }
+
+    /**
+     * Reads the measurements of the previous run into {@code cache}.
+     * @return True if they were made for the same target and ceiling, so their renderings can be kept.
+     */
+    private boolean readCache(WorkingFolderIndex.Entry cacheEntry, Map<String, Measurement> cache) throws IOException {
+        boolean sameTarget = false;
+        try (InputStream in = context.getContentResolver().openInputStream(cacheEntry.getUri())) {
+            if (in == null) {
+                return false;
+            }
+            BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split("\t");
+                try {
+                    if (line.startsWith("# target") && fields.length >= 4) {
+                        sameTarget = Math.abs(Double.parseDouble(fields[1]) - targetLufs) < 0.05
+                                && Math.abs(Double.parseDouble(fields[3]) - ceilingDbtp) < 0.05;
+                    } else if (!line.startsWith("#") && fields.length == 6) {
+                        cache.put(fields[0], new Measurement(fields[0], Long.parseLong(fields[1]), Long.parseLong(fields[2]),
+                                Double.parseDouble(fields[3]), Double.parseDouble(fields[4]), Double.parseDouble(fields[5])));
+                    }
+                } catch (NumberFormatException e) {
+                    // A damaged line; that take is measured again
+                }
+            }
+        }
+        return sameTarget;
+    }
+}
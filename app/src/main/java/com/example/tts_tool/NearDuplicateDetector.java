@@ -0,0 +1,258 @@
+package com.example.tts_tool;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Finds near-duplicate sentences in a parsed script using MinHash signatures over character
+ * shingles and LSH banding, so merged scripts don't get the same line recorded twice.
+ * Signatures are computed in parallel. Banding then goes one band at a time through a single
+ * open-addressing table of band keys, reused for every band, and each sentence is checked against
+ * the earlier sentences in its bucket, so chains of similar sentences end up in one cluster.
+ *
+ * A bucket keeps one representative per cluster: a sentence that joins a cluster already in the
+ * bucket is not added to it. The check stops after {@link #MAX_BUCKET_CHECKS} members, newest
+ * first, so a key shared by thousands of dissimilar sentences (e.g. a common stock phrase) costs
+ * a bounded amount per sentence instead of growing with the bucket.
+ */
+public class NearDuplicateDetector {
+
+    private static final String TAG = "NearDuplicateDetector";
+
+    // --- Tuning Parameters ---
+    // Length of the character shingles fed into MinHash.
+    private static final int SHINGLE_SIZE = 5;
+    // 16 bands of 4 rows gives a candidate threshold around Jaccard 0.5; candidates are then
+    // verified against SIMILARITY_THRESHOLD using the full signature.
+    private static final int NUM_BANDS = 16;
+    private static final int ROWS_PER_BAND = 4;
+    private static final int NUM_HASHES = NUM_BANDS * ROWS_PER_BAND;
+    // Estimated Jaccard similarity at or above which two sentences are treated as duplicates.
+    private static final double SIMILARITY_THRESHOLD = 0.8;
+    // Earlier bucket members each sentence is compared with, per band. A real duplicate shares
+    // several bands with its original, so a cut-off in one band is caught by another.
+    private static final int MAX_BUCKET_CHECKS = 32;
+    // Sentences per parallel work unit when computing signatures.
+    private static final int CHUNK_SIZE = 2048;
+
+    private static final long[] HASH_A = new long[NUM_HASHES];
+    private static final long[] HASH_B = new long[NUM_HASHES];
+
+    static {
+        // Fixed seed so the same script always yields the same clusters.
+        long seed = 0x9E3779B97F4A7C15L;
+        for (int i = 0; i < NUM_HASHES; i++) {
+            seed = splitMix64(seed);
+            HASH_A[i] = seed | 1L; // Odd multipliers keep the mapping a bijection
+            seed = splitMix64(seed);
+            HASH_B[i] = seed;
+        }
+    }
+
+    private NearDuplicateDetector() {}
+
+    /**
+     * Detects near-duplicate sentences.
+     *
+     * @param texts The sentence texts in script order.
+     * @return An array where entry i is the index of the first sentence that i duplicates,
+     * or -1 if sentence i is the first occurrence of its cluster.
+     */
+    public static int[] findDuplicates(List<String> texts) {
+        long startTime = System.currentTimeMillis();
+        int count = texts.size();
+        int[] signatures = computeSignaturesInParallel(texts);
+
+        // Union-find over sentence indices; the root of each cluster is always its smallest index.
+        int[] parent = new int[count];
+        for (int i = 0; i < count; i++) {
+            parent[i] = i;
+        }
+
+        // Band key -> newest sentence of its bucket; older members are chained through next[].
+        // Capacity is a power of two of at least twice the sentence count, so probes stay short.
+        int capacity = Integer.highestOneBit(Math.max(1, count)) << 2;
+        int mask = capacity - 1;
+        long[] keys = new long[capacity];
+        int[] heads = new int[capacity];
+        int[] next = new int[count];
+
+        for (int band = 0; band < NUM_BANDS; band++) {
+            Arrays.fill(heads, -1);
+            for (int i = 0; i < count; i++) {
+                long bandKey = 0x84222325CBF29CE4L;
+                int offset = i * NUM_HASHES + band * ROWS_PER_BAND;
+                for (int row = 0; row < ROWS_PER_BAND; row++) {
+                    bandKey = (bandKey ^ signatures[offset + row]) * 0x100000001B3L;
+                }
+                int slot = (int) (bandKey ^ (bandKey >>> 32)) & mask;
+                while (heads[slot] != -1 && keys[slot] != bandKey) {
+                    slot = (slot + 1) & mask; // Linear probing
+                }
+                if (heads[slot] == -1) {
+                    keys[slot] = bandKey;
+                }
+                boolean joinedMember = false;
+                int checks = 0;
+                for (int member = heads[slot]; member != -1 && checks < MAX_BUCKET_CHECKS; member = next[member], checks++) {
+                    if (find(parent, member) == find(parent, i)) {
+                        joinedMember = true;
+                    } else if (estimateSimilarity(signatures, member, i) >= SIMILARITY_THRESHOLD) {
+                        union(parent, member, i);
+                        joinedMember = true;
+                    }
+                }
+                if (!joinedMember) {
+                    // Otherwise a member of its cluster already represents it in this bucket
+                    next[i] = heads[slot];
+                    heads[slot] = i;
+                }
+            }
+        }
+
+        int[] duplicateOf = new int[count];
+        int duplicates = 0;
+        for (int i = 0; i < count; i++) {
+            int root = find(parent, i);
+            duplicateOf[i] = (root == i) ? -1 : root;
+            if (root != i) {
+                duplicates++;
+            }
+        }
+        Log.d(TAG, "Checked " + count + " sentences in " + (System.currentTimeMillis() - startTime)
+                + " ms, found " + duplicates + " near-duplicates.");
+        return duplicateOf;
+    }
+
+    private static int[] computeSignaturesInParallel(List<String> texts) {
+        int count = texts.size();
+        int[] signatures = new int[count * NUM_HASHES];
+        int threads = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), (count + CHUNK_SIZE - 1) / CHUNK_SIZE));
+        if (threads == 1) {
+            for (int i = 0; i < count; i++) {
+                computeSignature(texts.get(i), signatures, i * NUM_HASHES);
+            }
+            return signatures;
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int start = 0; start < count; start += CHUNK_SIZE) {
+                final int from = start;
+                final int to = Math.min(count, start + CHUNK_SIZE);
+                futures.add(pool.submit(() -> {
+                    for (int i = from; i < to; i++) {
+                        computeSignature(texts.get(i), signatures, i * NUM_HASHES);
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (Exception e) {
+            throw new IllegalStateException("Signature computation failed: " + e.getMessage(), e);
+        } finally {
+            pool.shutdown();
+        }
+        return signatures;
+    }
+
+    /**
+     * Writes the MinHash signature of one sentence into {@code out} starting at {@code offset}.
+     */
+    private static void computeSignature(String text, int[] out, int offset) {
+        String normalized = normalize(text);
+        for (int h = 0; h < NUM_HASHES; h++) {
+            out[offset + h] = Integer.MAX_VALUE;
+        }
+        int length = normalized.length();
+        int shingleCount = Math.max(1, length - SHINGLE_SIZE + 1);
+        for (int s = 0; s < shingleCount; s++) {
+            long shingleHash = 0xCBF29CE484222325L;
+            int end = Math.min(length, s + SHINGLE_SIZE);
+            for (int c = s; c < end; c++) {
+                shingleHash = (shingleHash ^ normalized.charAt(c)) * 0x100000001B3L;
+            }
+            for (int h = 0; h < NUM_HASHES; h++) {
+                int value = (int) ((HASH_A[h] * shingleHash + HASH_B[h]) >>> 33);
+                if (value < out[offset + h]) {
+                    out[offset + h] = value;
+                }
+            }
+        }
+    }
+
+    /**
+     * Lower-cases the sentence and drops punctuation and repeated whitespace, so differences
+     * in quoting or spacing between script sources don't hide a duplicate.
+     */
+    private static String normalize(String text) {
+        String lower = text.toLowerCase(Locale.ROOT);
+        StringBuilder builder = new StringBuilder(lower.length());
+        boolean lastWasSpace = true;
+        for (int i = 0; i < lower.length(); i++) {
+            char c = lower.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                builder.append(c);
+                lastWasSpace = false;
+            } else if (Character.isWhitespace(c) && !lastWasSpace) {
+                builder.append(' ');
+                lastWasSpace = true;
+            }
+        }
+        int end = builder.length();
+        if (end > 0 && builder.charAt(end - 1) == ' ') {
+            builder.setLength(end - 1);
+        }
+        return builder.toString();
+    }
+
+    private static double estimateSimilarity(int[] signatures, int a, int b) {
+        int baseA = a * NUM_HASHES;
+        int baseB = b * NUM_HASHES;
+        int matches = 0;
+        for (int h = 0; h < NUM_HASHES; h++) {
+            if (signatures[baseA + h] == signatures[baseB + h]) {
+                matches++;
+            }
+        }
+        return (double) matches / NUM_HASHES;
+    }
+
+    private static int find(int[] parent, int i) {
+        while (parent[i] != i) {
+            parent[i] = parent[parent[i]]; // Path halving
+            i = parent[i];
+        }
+        return i;
+    }
+
+    private static void union(int[] parent, int a, int b) {
+        int rootA = find(parent, a);
+        int rootB = find(parent, b);
+        if (rootA == rootB) {
+            return;
+        }
+        // Keep the earliest sentence as the cluster root so it stays the one to record.
+        if (rootA < rootB) {
+            parent[rootB] = rootA;
+        } else {
+            parent[rootA] = rootB;
+        }
+    }
+
+    private static long splitMix64(long x) {
+        x += 0x9E3779B97F4A7C15L;
+        x = (x ^ (x >>> 30)) * 0xBF58476D1CE4E5B9L;
+        x = (x ^ (x >>> 27)) * 0x94D049BB133111EBL;
+        return x ^ (x >>> 31);
+    }
+}
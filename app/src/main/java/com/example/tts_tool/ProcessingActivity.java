@@ -28,11 +28,10 @@ import androidx.appcompat.app.AlertDialog; // For AlertDialog
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.core.content.ContextCompat;
 import androidx.documentfile.provider.DocumentFile;
+import androidx.lifecycle.ViewModelProvider;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
-import com.google.gson.Gson;
-import com.google.gson.reflect.TypeToken;
 
 // Firebase imports
 import com.google.firebase.FirebaseApp;
@@ -52,7 +51,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
-import java.lang.reflect.Type;
+import java.io.StringReader;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Collections; // For sorting
@@ -64,7 +63,8 @@ import java.util.Locale;
 import java.util.Map;
 import java.util.Objects;
 import java.util.UUID; // For generating unique session IDs
-import java.util.regex.Pattern;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 // Import the AudioRecorderManager
 import com.example.tts_tool.AudioRecorderManager; // Explicit import
@@ -80,14 +80,18 @@ public class ProcessingActivity extends AppCompatActivity implements SentenceAda
     private static final String PREFS_NAME = "TTSRecorderPrefs";
     private static final String KEY_SAVED_WORKING_FOLDER_URI = "savedWorkingFolderUri"; // Added for consistency
     private static final String FIRESTORE_COLLECTION_SESSIONS = "sessions";
+    // Per-take session changes are coalesced and saved at most once per this window
+    private static final long SESSION_SAVE_WINDOW_MS = 3000;
 
-    // Keys for saving/restoring instance state
+    // Keys for saving/restoring instance state. Only pointers go in the Bundle: the session itself
+    // is retained in a SessionStateHolder across configuration changes and reloaded from the local
+    // session store after process death.
     private static final String STATE_CURRENT_SESSION_ID = "currentSessionId";
     private static final String STATE_USERNAME = "username";
     private static final String STATE_WORKING_FOLDER_URI = "workingFolderUri";
     private static final String STATE_COPIED_INPUT_FILE_URI = "copiedInputFileUri";
+    private static final String STATE_ROOT_FOLDER_URI = "rootFolderUri";
     private static final String STATE_CURRENT_SENTENCE_INDEX = "currentSentenceIndex";
-    private static final String STATE_SENTENCE_ITEMS_JSON = "sentenceItemsJson";
     private static final String STATE_IS_RECORDING = "isRecording";
     private static final String STATE_IS_PLAYING = "isPlaying";
 
@@ -112,6 +116,11 @@ public class ProcessingActivity extends AppCompatActivity implements SentenceAda
 
     private List<SentenceItem> sentenceItems;
     private int currentSentenceIndex = -1;
+    // Coverage-optimized recording order (a permutation of sentence indices) and its inverse.
+    // Null until planned, in which case navigation falls back to script order.
+    private int[] recordingOrder;
+    private int[] recordingOrderPositions;
+    private boolean duplicatesDetected; // Near-duplicate flags have been applied to the current sentenceItems
     private DocumentFile workingFolderDocument;
 
     // Replaced MediaRecorder with AudioRecorderManager
@@ -127,14 +136,25 @@ public class ProcessingActivity extends AppCompatActivity implements SentenceAda
     private Handler audioLevelHandler;
     private Runnable audioLevelRunnable; // Simplified for playback/status, not amplitude
 
+    // Background executor for script analysis (e.g., near-duplicate detection) so large scripts don't block the UI
+    private ExecutorService analysisExecutor;
+    // Re-attaching recordings gets its own thread so it never waits behind the analyses of a long script
+    private ExecutorService reattachExecutor;
+    // The stored sentence items of a loaded session until their recordings are attached, else null
+    private List<SentenceItem> pendingReattachItems;
+
     private SharedPreferences sharedPreferences;
-    private Gson gson;
 
     private FirebaseFirestore db;
     private FirebaseAuth mAuth;
     private String currentUserId;
     private String currentSessionId; // This will hold the ID of the currently active session
+    private SessionRepository sessionRepository;
+    private SessionSaveScheduler saveScheduler;
+    private SessionStateHolder sessionStateHolder;
+    private WorkspaceManifest workspaceManifest; // Manifest of the current working folder
     private Uri copiedInputFileUri; // Stores the URI of the input text file copied into the working folder
+    private String rootFolderUriString; // From the intent for new sessions, from the saved state for loaded ones
 
     private ActivityResultLauncher<String> requestPermissionLauncher =
             registerForActivityResult(new ActivityResultContracts.RequestPermission(), isGranted -> {
@@ -153,31 +173,68 @@ public class ProcessingActivity extends AppCompatActivity implements SentenceAda
     public static class SentenceItem {
         private int index;
         private String text;
+        private String contentHash; // Stable key for the text, independent of the sentence's position
         private String recordedFileName;
         private String recordedFileUriString;
         private transient Uri recordedFileUri; // Marked transient to avoid Gson serialization issues
+        private long recordedDurationMs; // Length of the take, derived from the WAV file size
+        private int duplicateOf = -1; // Index of the sentence this one nearly duplicates, or -1
 
         public SentenceItem() {}
 
         public SentenceItem(int index, String text) {
             this.index = index;
             this.text = text;
+            this.contentHash = ContentHash.of(text);
             this.recordedFileName = null;
             this.recordedFileUriString = null;
             this.recordedFileUri = null;
         }
 
+        /** Copies every field of {@code other}, including its recording and duplicate state. */
+        public SentenceItem(SentenceItem other) {
+            this.index = other.index;
+            this.text = other.text;
+            this.contentHash = other.contentHash;
+            this.duplicateOf = other.duplicateOf;
+            this.selected = other.selected;
+            copyRecordingFrom(other);
+        }
+
+        /** Takes over the recording of {@code other} (file name and URI) without touching the text. */
+        public void copyRecordingFrom(SentenceItem other) {
+            this.recordedFileName = other.recordedFileName;
+            this.recordedFileUriString = other.recordedFileUriString;
+            this.recordedFileUri = other.recordedFileUri;
+            this.recordedDurationMs = other.recordedDurationMs;
+        }
+
         public int getIndex() { return index; }
         public String getText() { return text; }
+        public String getContentHash() {
+            if (contentHash == null && text != null) {
+                contentHash = ContentHash.of(text); // Sessions saved before hashes were introduced
+            }
+            return contentHash;
+        }
         public String getRecordedFileName() { return recordedFileName; }
         public String getRecordedFileUriString() { return recordedFileUriString; }
 
         public void setIndex(int index) { this.index = index; }
-        public void setText(String text) { this.text = text; }
+        public void setText(String text) {
+            this.text = text;
+            this.contentHash = ContentHash.of(text);
+        }
+        public void setContentHash(String contentHash) { this.contentHash = contentHash; }
+        /** Sets text and a hash already known for it (e.g. decoded alongside); a null hash is computed on demand. */
+        public void setTextAndHash(String text, String contentHash) {
+            this.text = text;
+            this.contentHash = contentHash;
+        }
         public void setRecordedFileName(String recordedFileName) { this.recordedFileName = recordedFileName; }
         public void setRecordedFileUriString(String recordedFileUriString) {
             this.recordedFileUriString = recordedFileUriString;
-            this.recordedFileUri = (recordedFileUriString != null) ? Uri.parse(recordedFileUriString) : null;
+            this.recordedFileUri = null; // Parsed on first use by getRecordedFileUri()
         }
 
         public void setRecordedFile(String fileName, Uri fileUri) {
@@ -197,11 +254,19 @@ public class ProcessingActivity extends AppCompatActivity implements SentenceAda
             this.recordedFileName = null;
             this.recordedFileUriString = null;
             this.recordedFileUri = null;
+            this.recordedDurationMs = 0;
         }
 
+        public long getRecordedDurationMs() { return recordedDurationMs; }
+        public void setRecordedDurationMs(long recordedDurationMs) { this.recordedDurationMs = recordedDurationMs; }
+
         private boolean selected;
         public boolean isSelected() { return selected; }
         public void setSelected(boolean selected) { this.selected = selected; }
+
+        public int getDuplicateOf() { return duplicateOf; }
+        public void setDuplicateOf(int duplicateOf) { this.duplicateOf = duplicateOf; }
+        public boolean isDuplicate() { return duplicateOf != -1; }
     }
 
     public static class SessionState {
@@ -212,7 +277,10 @@ public class ProcessingActivity extends AppCompatActivity implements SentenceAda
         String workingFolderUriString;
         int currentSentenceIndex;
         List<SentenceItem> sentenceItems;
+        List<Integer> recordingOrder; // Sentence indices in the order they should be recorded
+        String recordingOrderFingerprint; // RecordingOrderPlanner.fingerprint of the script the order was planned for
         long lastModified;
+        int schemaVersion; // See SessionMigrations; 0 when read from data that has no version
 
         public SessionState() {}
 
@@ -225,6 +293,7 @@ public class ProcessingActivity extends AppCompatActivity implements SentenceAda
             this.currentSentenceIndex = currentSentenceIndex;
             this.sentenceItems = sentenceItems;
             this.lastModified = lastModified;
+            this.schemaVersion = SessionMigrations.CURRENT_VERSION;
         }
 
         public String getSessionId() { return sessionId; }
@@ -235,6 +304,9 @@ public class ProcessingActivity extends AppCompatActivity implements SentenceAda
         public int getCurrentSentenceIndex() { return currentSentenceIndex; }
         public List<SentenceItem> getSentenceItems() { return sentenceItems; }
         public long getLastModified() { return lastModified; }
+        public List<Integer> getRecordingOrder() { return recordingOrder; }
+        public String getRecordingOrderFingerprint() { return recordingOrderFingerprint; }
+        public int getSchemaVersion() { return schemaVersion; }
 
         public void setSessionId(String sessionId) { this.sessionId = sessionId; }
         public void setUsername(String username) { this.username = username; }
@@ -244,6 +316,9 @@ public class ProcessingActivity extends AppCompatActivity implements SentenceAda
         public void setCurrentSentenceIndex(int currentSentenceIndex) { this.currentSentenceIndex = currentSentenceIndex; }
         public void setSentenceItems(List<SentenceItem> sentenceItems) { this.sentenceItems = sentenceItems; }
         public void setLastModified(long lastModified) { this.lastModified = lastModified; }
+        public void setRecordingOrder(List<Integer> recordingOrder) { this.recordingOrder = recordingOrder; }
+        public void setRecordingOrderFingerprint(String recordingOrderFingerprint) { this.recordingOrderFingerprint = recordingOrderFingerprint; }
+        public void setSchemaVersion(int schemaVersion) { this.schemaVersion = schemaVersion; }
     }
     // --- END: SentenceItem and SessionState Definitions ---
 
@@ -259,14 +334,24 @@ public class ProcessingActivity extends AppCompatActivity implements SentenceAda
         mAuth = FirebaseAuth.getInstance();
 
         sharedPreferences = getSharedPreferences(PREFS_NAME, MODE_PRIVATE);
-        gson = new Gson();
 
-        // Initialize sentenceItems and sentenceAdapter here to prevent NullPointerException
-        sentenceItems = new ArrayList<>();
-        sentenceAdapter = new SentenceAdapter(sentenceItems, this);
+        sessionStateHolder = new ViewModelProvider(this).get(SessionStateHolder.class);
+        boolean sessionRetained = savedInstanceState != null && sessionStateHolder.hasSession();
+
+        // Initialize sentenceItems and sentenceAdapter here to prevent NullPointerException.
+        // After a configuration change both lists are taken back from the holder as they are.
+        if (sessionRetained) {
+            sentenceItems = sessionStateHolder.getSession().getSentenceItems();
+            sentenceAdapter = new SentenceAdapter(sessionStateHolder.getDisplayedItems(), this);
+        } else {
+            sentenceItems = new ArrayList<>();
+            sentenceAdapter = new SentenceAdapter(sentenceItems, this);
+        }
 
         // Initialize AudioRecorderManager here, passing 'this' as context and callback
         audioRecorderManager = new AudioRecorderManager(this, this);
+        analysisExecutor = Executors.newSingleThreadExecutor();
+        reattachExecutor = Executors.newSingleThreadExecutor();
 
 
         usernameTextView = findViewById(R.id.username_display_text_view);
@@ -331,114 +416,16 @@ public class ProcessingActivity extends AppCompatActivity implements SentenceAda
 
         // --- START: State Restoration Logic ---
         if (savedInstanceState != null) {
-            Log.d(TAG, "onCreate: Restoring state from savedInstanceState.");
-            currentSessionId = savedInstanceState.getString(STATE_CURRENT_SESSION_ID);
-            String savedUsername = savedInstanceState.getString(STATE_USERNAME);
-            String savedWorkingFolderUriString = savedInstanceState.getString(STATE_WORKING_FOLDER_URI);
-            String savedCopiedInputFileUriString = savedInstanceState.getString(STATE_COPIED_INPUT_FILE_URI);
-            currentSentenceIndex = savedInstanceState.getInt(STATE_CURRENT_SENTENCE_INDEX, -1);
-            String sentenceItemsJson = savedInstanceState.getString(STATE_SENTENCE_ITEMS_JSON);
             isRecording = savedInstanceState.getBoolean(STATE_IS_RECORDING, false);
             isPlaying = savedInstanceState.getBoolean(STATE_IS_PLAYING, false);
-
-            usernameTextView.setText("Speaker: " + savedUsername);
-
-            if (savedWorkingFolderUriString != null) {
-                workingFolderDocument = DocumentFile.fromTreeUri(this, Uri.parse(savedWorkingFolderUriString));
-                if (workingFolderDocument != null && workingFolderDocument.exists() && workingFolderDocument.isDirectory()) {
-                    fileUriTextView.setText("Working Folder: " + workingFolderDocument.getName());
-                    Log.d(TAG, "Restored working folder: " + workingFolderDocument.getUri().toString());
-                } else {
-                    Log.e(TAG, "Restored working folder URI invalid or inaccessible: " + savedWorkingFolderUriString);
-                    Toast.makeText(this, "Failed to restore working folder. Please restart session.", Toast.LENGTH_LONG).show();
-                    handleInitializationError("Failed to restore working folder from saved state.");
-                    return; // Exit if critical component fails to restore
-                }
-            } else {
-                Log.e(TAG, "No working folder URI found in saved instance state.");
-                Toast.makeText(this, "Failed to restore session (no working folder data).", Toast.LENGTH_LONG).show();
-                handleInitializationError("No working folder URI in saved state.");
-                return; // Exit if critical component fails to restore
-            }
-
-            if (savedCopiedInputFileUriString != null) {
-                copiedInputFileUri = Uri.parse(savedCopiedInputFileUriString);
-                DocumentFile restoredInputFile = DocumentFile.fromSingleUri(this, copiedInputFileUri);
-                if (restoredInputFile != null && restoredInputFile.exists() && restoredInputFile.isFile()) {
-                    readFileContentAndPopulateList(copiedInputFileUri); // Re-populate sentences
-                    loadedFileNameTextView.setText("Loaded File: " + restoredInputFile.getName());
-                    Log.d(TAG, "Restored copied input file: " + copiedInputFileUri.toString());
-                } else {
-                    Log.e(TAG, "Restored copied input file URI invalid or inaccessible: " + savedCopiedInputFileUriString);
-                    Toast.makeText(this, "Failed to restore input file. Session loaded partially.", Toast.LENGTH_LONG).show();
-                    loadedFileNameTextView.setText("Loaded File: Not Restored");
-                    // Continue without input file content but log the error
-                }
-            } else {
-                Log.w(TAG, "No copied input file URI found in saved instance state.");
-                loadedFileNameTextView.setText("Loaded File: Not Available");
-            }
-
-
-            if (sentenceItemsJson != null) {
-                Type type = new TypeToken<List<SentenceItem>>(){}.getType();
-                List<SentenceItem> restoredSentenceItems = gson.fromJson(sentenceItemsJson, type);
-                if (restoredSentenceItems != null) {
-                    sentenceItems.clear();
-                    sentenceItems.addAll(restoredSentenceItems);
-                    // Re-associate recordedFileUri for each item as it's transient
-                    for (SentenceItem item : sentenceItems) {
-                        if (item.getRecordedFileUriString() != null) {
-                            // Corrected line: Use setRecordedFileUriString
-                            item.setRecordedFileUriString(item.getRecordedFileUriString());
-                        }
-                    }
-                    sentenceAdapter.updateData(sentenceItems);
-                    Log.d(TAG, "Restored " + sentenceItems.size() + " sentence items.");
-                } else {
-                    Log.e(TAG, "Failed to deserialize sentence items from JSON.");
-                    Toast.makeText(this, "Failed to restore sentence data.", Toast.LENGTH_LONG).show();
-                    sentenceItems.clear();
-                    sentenceAdapter.updateData(sentenceItems);
-                }
+            if (sessionRetained) {
+                Log.d(TAG, "onCreate: Restoring retained session after a configuration change.");
+                restoreRetainedSession();
             } else {
-                Log.w(TAG, "No sentence items JSON found in saved instance state.");
-                // If no sentences, the list will remain empty from initial ArrayList creation
+                Log.d(TAG, "onCreate: Restoring session from savedInstanceState after process death.");
+                restoreSessionAfterProcessDeath(savedInstanceState);
             }
 
-            // After all data is restored, select the sentence and update UI
-            if (!sentenceItems.isEmpty() && currentSentenceIndex != -1 && currentSentenceIndex < sentenceItems.size()) {
-                selectSentence(currentSentenceIndex);
-            } else if (!sentenceItems.isEmpty()) {
-                selectSentence(0); // Select first if index invalid but list not empty
-            } else {
-                currentSelectedSentenceTextView.setText("No sentences loaded.");
-            }
-
-            Log.d(TAG, "State restoration complete.");
-            Toast.makeText(this, "Session restored successfully!", Toast.LENGTH_SHORT).show();
-
-            // Re-authenticate Firebase after restoring state to ensure currentUserId is set
-            mAuth.signInAnonymously()
-                    .addOnCompleteListener(this, task -> {
-                        if (task.isSuccessful()) {
-                            FirebaseUser user = mAuth.getCurrentUser();
-                            if (user != null) {
-                                currentUserId = user.getUid();
-                                Log.d(TAG, "Firebase re-authenticated on restore. UID: " + currentUserId);
-                                updateButtonStates(); // Update buttons after auth
-                            } else {
-                                Log.e(TAG, "Firebase re-authentication successful, but user is null.");
-                                Toast.makeText(this, "Authentication issue on restore.", Toast.LENGTH_SHORT).show();
-                                handleInitializationError("Firebase re-authentication failed (user null).");
-                            }
-                        } else {
-                            Log.e(TAG, "Firebase re-authentication failed on restore.", task.getException());
-                            Toast.makeText(this, "Authentication failed on restore.", Toast.LENGTH_SHORT).show();
-                            handleInitializationError("Firebase re-authentication failed: " + (task.getException() != null ? task.getException().getMessage() : "Unknown error"));
-                        }
-                    });
-
         } else {
             // --- END: State Restoration Logic ---
             // Original initialization logic for first launch
@@ -492,18 +479,190 @@ public class ProcessingActivity extends AppCompatActivity implements SentenceAda
         if (copiedInputFileUri != null) {
             outState.putString(STATE_COPIED_INPUT_FILE_URI, copiedInputFileUri.toString());
         }
+        outState.putString(STATE_ROOT_FOLDER_URI, rootFolderUriString);
+
+        // The session itself is handed over by reference; nothing here depends on the script's length
+        SessionState liveSession = new SessionState(
+                currentSessionId,
+                usernameTextView.getText().toString().replace("Speaker: ", ""),
+                copiedInputFileUri != null ? copiedInputFileUri.toString() : null,
+                rootFolderUriString,
+                workingFolderDocument != null ? workingFolderDocument.getUri().toString() : null,
+                currentSentenceIndex,
+                sentenceItems,
+                0
+        );
+        sessionStateHolder.retain(currentUserId, liveSession, sentenceAdapter.getItems(),
+                recordingOrder, recordingOrderPositions, duplicatesDetected, pendingReattachItems);
+    }
+
+    /**
+     * Takes the session back from the SessionStateHolder after a configuration change. The
+     * sentence lists are adopted as they are, so this doesn't depend on the length of the script.
+     */
+    private void restoreRetainedSession() {
+        SessionState retainedSession = sessionStateHolder.getSession();
+        currentUserId = sessionStateHolder.getUserId();
+        currentSessionId = retainedSession.getSessionId();
+        rootFolderUriString = retainedSession.getRootFolderUriString();
+        usernameTextView.setText("Speaker: " + retainedSession.getUsername());
+        if (!restoreDocumentPointers(retainedSession.getWorkingFolderUriString(), retainedSession.getOriginalInputFileUriString())) {
+            return;
+        }
+
+        recordingOrder = sessionStateHolder.getRecordingOrder();
+        recordingOrderPositions = sessionStateHolder.getRecordingOrderPositions();
+        duplicatesDetected = sessionStateHolder.isDuplicatesDetected();
+        // Work the previous instance didn't get to finish is started again, recordings first
+        if (sessionStateHolder.getPendingReattach() != null) {
+            reattachRecordings(sessionStateHolder.getPendingReattach());
+        }
+        if (recordingOrder == null) {
+            planRecordingOrder();
+        }
+        if (!duplicatesDetected) {
+            detectDuplicateSentences();
+        }
+        selectRestoredSentence(retainedSession.getCurrentSentenceIndex());
+        Log.d(TAG, "Retained session restored with " + sentenceItems.size() + " sentence items.");
+        Toast.makeText(this, "Session restored successfully!", Toast.LENGTH_SHORT).show();
+
+        if (currentUserId == null) {
+            // Recreated before the first sign-in finished
+            reauthenticate(null);
+        }
+    }
+
+    /**
+     * Restores the session after the process was killed. The Bundle only points at the session;
+     * once authenticated the session is reloaded from the local session store, which the
+     * SessionSaveScheduler flushed in onStop. The script is read and parsed exactly once.
+     */
+    private void restoreSessionAfterProcessDeath(Bundle savedInstanceState) {
+        currentSessionId = savedInstanceState.getString(STATE_CURRENT_SESSION_ID);
+        rootFolderUriString = savedInstanceState.getString(STATE_ROOT_FOLDER_URI);
+        final int savedSentenceIndex = savedInstanceState.getInt(STATE_CURRENT_SENTENCE_INDEX, -1);
+        usernameTextView.setText("Speaker: " + savedInstanceState.getString(STATE_USERNAME));
+        if (!restoreDocumentPointers(savedInstanceState.getString(STATE_WORKING_FOLDER_URI),
+                savedInstanceState.getString(STATE_COPIED_INPUT_FILE_URI))) {
+            return;
+        }
+        reauthenticate(() -> reloadSessionFromStore(savedSentenceIndex));
+    }
+
+    private void reloadSessionFromStore(final int savedSentenceIndex) {
+        if (currentSessionId == null) {
+            restoreSessionFromScript(savedSentenceIndex);
+            return;
+        }
+        getSessionRepository().loadSession(currentSessionId, new SessionRepository.Callback<SessionState>() {
+            @Override
+            public void onResult(SessionState storedSessionState) {
+                applySessionState(storedSessionState);
+                if (storedSessionState.getSessionId() != null) {
+                    selectRestoredSentence(savedSentenceIndex);
+                }
+            }
+
+            @Override
+            public void onError(Exception e) {
+                // Nothing was recorded or saved before the process died
+                Log.w(TAG, "No stored copy of session " + currentSessionId + " to restore, starting from the script: " + e.getMessage());
+                restoreSessionFromScript(savedSentenceIndex);
+            }
+        });
+    }
+
+    private void restoreSessionFromScript(int savedSentenceIndex) {
+        if (copiedInputFileUri != null) {
+            readFileContentAndPopulateList(copiedInputFileUri);
+        }
+        selectRestoredSentence(savedSentenceIndex);
+        updateButtonStates();
+        Toast.makeText(this, "Session restored successfully!", Toast.LENGTH_SHORT).show();
+    }
+
+    /**
+     * Re-resolves the working folder and the copied input file from their URIs and shows them.
+     * @return False if the working folder is gone, in which case the activity is being closed.
+     */
+    private boolean restoreDocumentPointers(String workingFolderUriString, String copiedInputFileUriString) {
+        if (workingFolderUriString != null) {
+            workingFolderDocument = DocumentFile.fromTreeUri(this, Uri.parse(workingFolderUriString));
+            if (workingFolderDocument != null && workingFolderDocument.exists() && workingFolderDocument.isDirectory()) {
+                fileUriTextView.setText("Working Folder: " + workingFolderDocument.getName());
+                Log.d(TAG, "Restored working folder: " + workingFolderDocument.getUri().toString());
+            } else {
+                Log.e(TAG, "Restored working folder URI invalid or inaccessible: " + workingFolderUriString);
+                Toast.makeText(this, "Failed to restore working folder. Please restart session.", Toast.LENGTH_LONG).show();
+                handleInitializationError("Failed to restore working folder from saved state.");
+                return false;
+            }
+        } else {
+            Log.e(TAG, "No working folder URI found in saved instance state.");
+            Toast.makeText(this, "Failed to restore session (no working folder data).", Toast.LENGTH_LONG).show();
+            handleInitializationError("No working folder URI in saved state.");
+            return false;
+        }
+
+        if (copiedInputFileUriString != null) {
+            copiedInputFileUri = Uri.parse(copiedInputFileUriString);
+            DocumentFile restoredInputFile = DocumentFile.fromSingleUri(this, copiedInputFileUri);
+            if (restoredInputFile != null && restoredInputFile.exists() && restoredInputFile.isFile()) {
+                loadedFileNameTextView.setText("Loaded File: " + restoredInputFile.getName());
+                Log.d(TAG, "Restored copied input file: " + copiedInputFileUri.toString());
+            } else {
+                Log.e(TAG, "Restored copied input file URI invalid or inaccessible: " + copiedInputFileUriString);
+                Toast.makeText(this, "Failed to restore input file. Session loaded partially.", Toast.LENGTH_LONG).show();
+                loadedFileNameTextView.setText("Loaded File: Not Restored");
+                // Continue without input file content but log the error
+            }
+        } else {
+            Log.w(TAG, "No copied input file URI found in saved instance state.");
+            loadedFileNameTextView.setText("Loaded File: Not Available");
+        }
+        return true;
+    }
 
-        // Save sentenceItems list as JSON string
-        if (sentenceItems != null && !sentenceItems.isEmpty()) {
-            String sentenceItemsJson = gson.toJson(sentenceItems);
-            outState.putString(STATE_SENTENCE_ITEMS_JSON, sentenceItemsJson);
-            Log.d(TAG, "Saved " + sentenceItems.size() + " sentence items to JSON.");
+    private void selectRestoredSentence(int index) {
+        if (!sentenceItems.isEmpty() && index != -1 && index < sentenceItems.size()) {
+            selectSentence(index);
+        } else if (!sentenceItems.isEmpty()) {
+            selectSentence(0); // Select first if index invalid but list not empty
         } else {
-            outState.putString(STATE_SENTENCE_ITEMS_JSON, null);
-            Log.d(TAG, "No sentence items to save.");
+            currentSelectedSentenceTextView.setText("No sentences loaded.");
         }
     }
 
+    /**
+     * Signs in again after the activity was recreated, to make sure currentUserId is set.
+     * @param onAuthenticated Run once signed in. May be null.
+     */
+    private void reauthenticate(Runnable onAuthenticated) {
+        mAuth.signInAnonymously()
+                .addOnCompleteListener(this, task -> {
+                    if (task.isSuccessful()) {
+                        FirebaseUser user = mAuth.getCurrentUser();
+                        if (user != null) {
+                            currentUserId = user.getUid();
+                            Log.d(TAG, "Firebase re-authenticated on restore. UID: " + currentUserId);
+                            if (onAuthenticated != null) {
+                                onAuthenticated.run();
+                            }
+                            updateButtonStates(); // Update buttons after auth
+                        } else {
+                            Log.e(TAG, "Firebase re-authentication successful, but user is null.");
+                            Toast.makeText(this, "Authentication issue on restore.", Toast.LENGTH_SHORT).show();
+                            handleInitializationError("Firebase re-authentication failed (user null).");
+                        }
+                    } else {
+                        Log.e(TAG, "Firebase re-authentication failed on restore.", task.getException());
+                        Toast.makeText(this, "Authentication failed on restore.", Toast.LENGTH_SHORT).show();
+                        handleInitializationError("Firebase re-authentication failed: " + (task.getException() != null ? task.getException().getMessage() : "Unknown error"));
+                    }
+                });
+    }
+
 
     /**
      * Called after Firebase authentication to determine whether to setup a new session or load an existing one.
@@ -514,41 +673,35 @@ public class ProcessingActivity extends AppCompatActivity implements SentenceAda
         Uri originalInputFileUriFromIntent = getIntent().getData(); // This is the *external* URI passed from MainActivity
         String rootFolderUriStringFromIntent = getIntent().getStringExtra("root_folder_uri");
         String sessionIdFromIntent = getIntent().getStringExtra("session_id"); // This would be null for new sessions
+        String workingFolderUriStringFromIntent = getIntent().getStringExtra("working_folder_uri"); // Opening a folder's manifest
 
         Log.d(TAG, "initializeSessionBasedOnIntent: sessionIdFromIntent=" + sessionIdFromIntent +
                 ", usernameFromIntent=" + usernameFromIntent + ", originalInputFileUriFromIntent=" + originalInputFileUriFromIntent +
                 ", rootFolderUriStringFromIntent=" + rootFolderUriStringFromIntent);
 
-        if (sessionIdFromIntent != null && currentUserId != null) {
+        if (workingFolderUriStringFromIntent != null) {
+            Log.d(TAG, "initializeSessionBasedOnIntent: Opening session from working folder: " + workingFolderUriStringFromIntent);
+            openSessionFromFolder(Uri.parse(workingFolderUriStringFromIntent));
+
+        } else if (sessionIdFromIntent != null && currentUserId != null) {
             Log.d(TAG, "initializeSessionBasedOnIntent: Attempting to load saved session with ID: " + sessionIdFromIntent + " for user: " + currentUserId);
             currentSessionId = sessionIdFromIntent;
 
-            // Fetch the specific session state from Firestore
-            String appId = getApplicationContext().getPackageName();
-            db.collection("artifacts")
-                    .document(appId)
-                    .collection("users")
-                    .document(currentUserId)
-                    .collection(FIRESTORE_COLLECTION_SESSIONS)
-                    .document(sessionIdFromIntent)
-                    .get()
-                    .addOnCompleteListener(task -> {
-                        if (task.isSuccessful() && task.getResult().exists()) {
-                            ProcessingActivity.SessionState loadedSessionState = task.getResult().toObject(ProcessingActivity.SessionState.class);
-                            if (loadedSessionState != null) {
-                                Log.d(TAG, "initializeSessionBasedOnIntent: Session data fetched successfully for ID: " + sessionIdFromIntent);
-                                onSessionSelected(loadedSessionState); // Pass the loaded SessionState to the handler
-                            } else {
-                                Log.e(TAG, "initializeSessionBasedOnIntent: Failed to deserialize session data for ID: " + sessionIdFromIntent);
-                                Toast.makeText(this, "Failed to load session data. It might be corrupted.", Toast.LENGTH_LONG).show();
-                                handleInitializationError("Failed to deserialize session state from Firestore.");
-                            }
-                        } else {
-                            Log.e(TAG, "initializeSessionBasedOnIntent: Error fetching session " + sessionIdFromIntent + ": " + task.getException());
-                            Toast.makeText(this, "Failed to load session: " + (task.getException() != null ? task.getException().getMessage() : "Unknown error"), Toast.LENGTH_LONG).show();
-                            handleInitializationError("Error fetching session from Firestore: " + (task.getException() != null ? task.getException().getMessage() : "Unknown error"));
-                        }
-                    });
+            // Read from the local store; only sessions without a local copy are fetched from Firestore
+            getSessionRepository().loadSession(sessionIdFromIntent, new SessionRepository.Callback<SessionState>() {
+                @Override
+                public void onResult(SessionState loadedSessionState) {
+                    Log.d(TAG, "initializeSessionBasedOnIntent: Session data fetched successfully for ID: " + sessionIdFromIntent);
+                    applySessionState(loadedSessionState); // Pass the loaded SessionState to the handler
+                }
+
+                @Override
+                public void onError(Exception e) {
+                    Log.e(TAG, "initializeSessionBasedOnIntent: Error fetching session " + sessionIdFromIntent + ": " + e);
+                    Toast.makeText(ProcessingActivity.this, "Failed to load session: " + e.getMessage(), Toast.LENGTH_LONG).show();
+                    handleInitializationError("Error loading session: " + e.getMessage());
+                }
+            });
 
         } else if (usernameFromIntent != null && originalInputFileUriFromIntent != null && rootFolderUriStringFromIntent != null) {
             Log.d(TAG, "initializeSessionBasedOnIntent: Starting new session from intent.");
@@ -561,9 +714,52 @@ public class ProcessingActivity extends AppCompatActivity implements SentenceAda
         }
     }
 
+    /**
+     * Opens the session recorded in a working folder from the folder's manifest alone, without
+     * the network. The session is then saved like any other, so it is listed from now on.
+     * @param folderUri The working folder picked by the user.
+     */
+    private void openSessionFromFolder(Uri folderUri) {
+        DocumentFile folder = DocumentFile.fromTreeUri(this, folderUri);
+        if (folder == null || !folder.isDirectory()) {
+            Log.e(TAG, "openSessionFromFolder: Not an accessible folder: " + folderUri);
+            Toast.makeText(this, "Selected folder is not valid or accessible.", Toast.LENGTH_LONG).show();
+            handleInitializationError("Invalid working folder: " + folderUri);
+            return;
+        }
+        workspaceManifest = new WorkspaceManifest(getContentResolver(), folder.getUri());
+        workspaceManifest.read(new SessionRepository.Callback<SessionState>() {
+            @Override
+            public void onResult(SessionState manifestSessionState) {
+                Log.d(TAG, "openSessionFromFolder: Read manifest of session " + manifestSessionState.getSessionId());
+                currentSessionId = manifestSessionState.getSessionId();
+                applySessionState(manifestSessionState);
+                getSessionRepository().saveSession(manifestSessionState, null);
+            }
+
+            @Override
+            public void onError(Exception e) {
+                Log.e(TAG, "openSessionFromFolder: Could not read the session manifest of " + folderUri + ": " + e);
+                Toast.makeText(ProcessingActivity.this, "No session found in this folder. Pick a session's working folder.", Toast.LENGTH_LONG).show();
+                handleInitializationError("No readable session manifest in " + folderUri);
+            }
+        });
+    }
+
+    @Override
+    protected void onStop() {
+        super.onStop();
+        // Don't hold coalesced take changes while backgrounded; the process may not come back
+        flushPendingSaves();
+    }
+
     @Override
     protected void onDestroy() {
         super.onDestroy();
+        flushPendingSaves();
+        if (saveScheduler != null) {
+            Log.d(TAG, "onDestroy: " + saveScheduler.getStatsSummary());
+        }
         if (audioLevelHandler != null) {
             audioLevelHandler.removeCallbacks(audioLevelRunnable);
         }
@@ -571,6 +767,15 @@ public class ProcessingActivity extends AppCompatActivity implements SentenceAda
         if (audioRecorderManager != null) {
             audioRecorderManager.shutdown();
         }
+        if (analysisExecutor != null) {
+            analysisExecutor.shutdownNow();
+        }
+        if (reattachExecutor != null) {
+            reattachExecutor.shutdownNow();
+        }
+        if (workspaceManifest != null) {
+            workspaceManifest.shutdown();
+        }
         if (mediaPlayer != null) {
             stopPlayingAudio();
         }
@@ -579,6 +784,7 @@ public class ProcessingActivity extends AppCompatActivity implements SentenceAda
     private void setupNewSession(String username, Uri originalInputFileUri, String rootFolderUriString) {
         Log.d(TAG, "setupNewSession: Setting up new session for username: " + username);
         usernameTextView.setText("Speaker: " + username);
+        this.rootFolderUriString = rootFolderUriString;
         Uri rootFolderUri = Uri.parse(rootFolderUriString);
         DocumentFile rootDocument = DocumentFile.fromTreeUri(this, rootFolderUri);
 
@@ -618,6 +824,8 @@ public class ProcessingActivity extends AppCompatActivity implements SentenceAda
                     copiedInputFileUri = newFileInWorkingFolder.getUri(); // Store the URI of the *copied* file
                     loadedFileNameTextView.setText("Loaded File: " + newFileInWorkingFolder.getName());
                     readFileContentAndPopulateList(copiedInputFileUri); // Read from the copied file
+                    // From here on the folder describes its own session
+                    getWorkspaceManifest().writeSnapshot(snapshotSessionState(currentSessionId));
                 } else {
                     Log.e(TAG, "setupNewSession: Failed to copy input file to working folder.");
                     Toast.makeText(this, "Failed to copy input file. Session may be incomplete.", Toast.LENGTH_LONG).show();
@@ -700,8 +908,8 @@ public class ProcessingActivity extends AppCompatActivity implements SentenceAda
     }
 
     /**
-     * Saves the current session state to Firestore with a given session ID.
-     * @param sessionId The ID to use for the Firestore document.
+     * Saves the current session state (locally, replicated to Firestore) under a given session ID.
+     * @param sessionId The ID to save the session under.
      */
     private void saveSessionState(String sessionId) {
         if (currentUserId == null) {
@@ -715,20 +923,52 @@ public class ProcessingActivity extends AppCompatActivity implements SentenceAda
             return;
         }
 
+        SessionState sessionState = snapshotSessionState(sessionId);
+
+        // Write coalesced take changes first so they can't land after (and on top of) the full save
+        flushPendingSaves();
+
+        getWorkspaceManifest().writeSnapshot(sessionState);
+        // Saved locally right away; the repository replicates it to Firestore in the background
+        getSessionRepository().saveSession(sessionState, new SessionRepository.Callback<Void>() {
+            @Override
+            public void onResult(Void result) {
+                Log.d(TAG, "Session state saved successfully: " + sessionId);
+            }
+
+            @Override
+            public void onError(Exception e) {
+                Log.e(TAG, "Error saving session state: " + e);
+                Toast.makeText(ProcessingActivity.this, "Error saving session: " + e.getMessage(), Toast.LENGTH_LONG).show();
+            }
+        });
+    }
+
+    /**
+     * Builds the complete state of the current session, with copies of the sentence items. While
+     * the recordings of a loaded session are still being re-attached, sentences without a take
+     * keep the one stored for their text, so a save in the meantime can't drop them.
+     * @param sessionId The ID to save the session under.
+     */
+    private SessionState snapshotSessionState(String sessionId) {
         String username = usernameTextView.getText().toString().replace("Speaker: ", "");
         // IMPORTANT: Use copiedInputFileUri for saving, as this is the accessible file within the working folder
         String originalInputFileUriString = copiedInputFileUri != null ? copiedInputFileUri.toString() : null;
-        // The rootFolderUriString is needed for new session setup, but not directly used in saved state restoration
-        // It's part of the initial intent, so we can retrieve it from there if needed for full SessionState object
-        String rootFolderUriString = getIntent().getStringExtra("root_folder_uri");
         String workingFolderUriString = workingFolderDocument.getUri().toString();
         long lastModified = System.currentTimeMillis();
 
+        Map<String, List<SentenceItem>> pendingTakes = pendingTakesByHash();
         List<SentenceItem> serializableSentenceItems = new ArrayList<>();
         for (SentenceItem item : sentenceItems) {
             SentenceItem serializableItem = new SentenceItem(item.getIndex(), item.getText());
             if (item.getRecordedFileName() != null && item.getRecordedFileUri() != null) {
                 serializableItem.setRecordedFile(item.getRecordedFileName(), item.getRecordedFileUri());
+                serializableItem.setRecordedDurationMs(item.getRecordedDurationMs());
+            } else {
+                List<SentenceItem> takes = pendingTakes.get(item.getContentHash());
+                if (takes != null && !takes.isEmpty()) {
+                    serializableItem.copyRecordingFrom(takes.remove(0));
+                }
             }
             serializableSentenceItems.add(serializableItem);
         }
@@ -743,54 +983,134 @@ public class ProcessingActivity extends AppCompatActivity implements SentenceAda
                 serializableSentenceItems,
                 lastModified
         );
+        sessionState.setRecordingOrder(getRecordingOrderList());
+        if (sessionState.getRecordingOrder() != null) {
+            sessionState.setRecordingOrderFingerprint(RecordingOrderPlanner.fingerprint(sentenceItems));
+        }
+        return sessionState;
+    }
 
-        Map<String, Object> sessionData = new HashMap<>();
-        sessionData.put("sessionId", sessionState.getSessionId());
-        sessionData.put("username", sessionState.getUsername());
-        sessionData.put("originalInputFileUriString", sessionState.getOriginalInputFileUriString());
-        sessionData.put("rootFolderUriString", sessionState.getRootFolderUriString());
-        sessionData.put("workingFolderUriString", sessionState.getWorkingFolderUriString());
-        sessionData.put("currentSentenceIndex", sessionState.getCurrentSentenceIndex());
-        sessionData.put("lastModified", sessionState.getLastModified());
-
-        List<Map<String, Object>> serializableSentenceItemsMap = new ArrayList<>();
-        for (SentenceItem item : serializableSentenceItems) {
-            Map<String, Object> itemMap = new HashMap<>();
-            itemMap.put("index", item.getIndex());
-            itemMap.put("text", item.getText());
-            itemMap.put("recordedFileName", item.getRecordedFileName());
-            itemMap.put("recordedFileUriString", item.getRecordedFileUri() != null ? item.getRecordedFileUri().toString() : null);
-            itemMap.put("selected", item.isSelected());
-            serializableSentenceItemsMap.add(itemMap);
-        }
-        sessionData.put("sentenceItems", serializableSentenceItemsMap);
-
-        String appId = getApplicationContext().getPackageName();
-        DocumentReference sessionDocRef = db.collection("artifacts")
-                .document(appId)
-                .collection("users")
-                .document(currentUserId)
-                .collection(FIRESTORE_COLLECTION_SESSIONS)
-                .document(sessionId);
-
-        Log.d(TAG, "Saving session to Firestore at path: " + sessionDocRef.getPath());
-        sessionDocRef.set(sessionData, SetOptions.merge())
-                .addOnCompleteListener(task -> {
-                    if (task.isSuccessful()) {
-                        Log.d(TAG, "Session state saved to Firestore successfully: " + sessionId);
-                    } else {
-                        Log.e(TAG, "Error saving session state to Firestore: " + task.getException());
-                        Toast.makeText(this, "Error saving session: " + task.getException().getMessage(), Toast.LENGTH_LONG).show();
-                    }
-                });
+    /**
+     * @return The stored takes not attached yet, by the content hash of their sentence, in script
+     *         order; empty once re-attaching is done.
+     */
+    private Map<String, List<SentenceItem>> pendingTakesByHash() {
+        Map<String, List<SentenceItem>> takes = new HashMap<>();
+        if (pendingReattachItems == null) {
+            return takes;
+        }
+        for (SentenceItem savedItem : pendingReattachItems) {
+            if (savedItem.getRecordedFileName() != null && savedItem.getRecordedFileUriString() != null) {
+                List<SentenceItem> sameText = takes.get(savedItem.getContentHash());
+                if (sameText == null) {
+                    sameText = new ArrayList<>(1);
+                    takes.put(savedItem.getContentHash(), sameText);
+                }
+                sameText.add(savedItem);
+            }
+        }
+        return takes;
+    }
+
+    /**
+     * Persists the recording state of a single sentence after a take or a deletion. Only that
+     * sentence's take and the small session header are written, so the remote cost doesn't
+     * depend on the length of the script. Writes are deferred to the SessionSaveScheduler.
+     * @param item The sentence whose recording changed.
+     */
+    private void saveTakeState(SentenceItem item) {
+        if (currentSessionId == null || workingFolderDocument == null) {
+            Log.w(TAG, "saveTakeState: No active session. Skipping save.");
+            return;
+        }
+        SessionState header = new SessionState(
+                currentSessionId,
+                usernameTextView.getText().toString().replace("Speaker: ", ""),
+                copiedInputFileUri != null ? copiedInputFileUri.toString() : null,
+                rootFolderUriString,
+                workingFolderDocument.getUri().toString(),
+                currentSentenceIndex,
+                null,
+                System.currentTimeMillis()
+        );
+        // The folder's manifest gets every take right away and doesn't need a signed-in user
+        getWorkspaceManifest().recordTake(header, item, sentenceItems.size());
+        if (currentUserId == null) {
+            Log.w(TAG, "saveTakeState: Not authenticated. Skipping session save.");
+            return;
+        }
+        // Coalesced with other changes and written in one batch per save window
+        getSaveScheduler().markTakeDirty(currentSessionId, item, header);
+    }
+
+    /**
+     * @return The manifest of the current working folder, which must be set.
+     */
+    private WorkspaceManifest getWorkspaceManifest() {
+        Uri folderUri = WorkingFolderIndex.folderDocumentUri(workingFolderDocument.getUri());
+        if (workspaceManifest == null || !workspaceManifest.getFolderUri().equals(folderUri)) {
+            if (workspaceManifest != null) {
+                workspaceManifest.shutdown();
+            }
+            workspaceManifest = new WorkspaceManifest(getContentResolver(), folderUri);
+        }
+        return workspaceManifest;
+    }
+
+    private SessionRepository getSessionRepository() {
+        if (sessionRepository == null) {
+            sessionRepository = SessionRepositories.get(this, currentUserId);
+        }
+        return sessionRepository;
+    }
+
+    private SessionSaveScheduler getSaveScheduler() {
+        if (saveScheduler == null) {
+            saveScheduler = new SessionSaveScheduler(getSessionRepository(), SESSION_SAVE_WINDOW_MS);
+        }
+        return saveScheduler;
+    }
+
+    private void flushPendingSaves() {
+        if (saveScheduler != null) {
+            saveScheduler.flushNow();
+        }
     }
 
     /**
-     * Loads a specific session state from Firestore.
-     * @param sessionState The SessionState object loaded from Firestore.
+     * Loads the complete state of a session picked in the LoadSessionDialogFragment. The dialog only
+     * lists session summaries, so the session itself is loaded here before applying it.
+     * @param summary The summary of the session selected in the dialog.
      */
     @Override
-    public void onSessionSelected(ProcessingActivity.SessionState sessionState) {
+    public void onSessionSelected(SessionSummary summary) {
+        if (summary == null || summary.getSessionId() == null) {
+            Toast.makeText(this, "Failed to load session: Invalid session data received.", Toast.LENGTH_SHORT).show();
+            Log.e(TAG, "onSessionSelected: Invalid session summary received from LoadSessionDialogFragment.");
+            return;
+        }
+        if (summary.isArchived()) {
+            Toast.makeText(this, "Restoring archived session...", Toast.LENGTH_SHORT).show();
+        }
+        getSessionRepository().loadSession(summary.getSessionId(), new SessionRepository.Callback<SessionState>() {
+            @Override
+            public void onResult(SessionState loadedSessionState) {
+                applySessionState(loadedSessionState);
+            }
+
+            @Override
+            public void onError(Exception e) {
+                Log.e(TAG, "onSessionSelected: Error fetching session " + summary.getSessionId() + ": " + e);
+                Toast.makeText(ProcessingActivity.this, "Failed to load session: " + e.getMessage(), Toast.LENGTH_LONG).show();
+            }
+        });
+    }
+
+    /**
+     * Applies a fully loaded session state to the activity.
+     * @param sessionState The SessionState object loaded from the session repository.
+     */
+    private void applySessionState(ProcessingActivity.SessionState sessionState) {
         if (sessionState == null || sessionState.getSessionId() == null) {
             Toast.makeText(this, "Failed to load session: Invalid session data received.", Toast.LENGTH_SHORT).show();
             Log.e(TAG, "onSessionSelected: Invalid sessionState received from LoadSessionDialogFragment.");
@@ -801,6 +1121,7 @@ public class ProcessingActivity extends AppCompatActivity implements SentenceAda
         Log.d(TAG, "onSessionSelected: Attempting to load session with ID: " + sessionState.getSessionId());
 
         usernameTextView.setText("Speaker: " + sessionState.getUsername());
+        rootFolderUriString = sessionState.getRootFolderUriString();
 
         // Reconstruct workingFolderDocument
         if (sessionState.getWorkingFolderUriString() != null) {
@@ -825,6 +1146,7 @@ public class ProcessingActivity extends AppCompatActivity implements SentenceAda
         // These are already initialized in onCreate, but ensure they are cleared for a new load
         sentenceItems.clear();
         sentenceAdapter.updateData(sentenceItems);
+        pendingReattachItems = null; // Takes of a previously loaded session must not be merged into this one
 
 
         // Now, read the content from the *copied* input file within the working folder
@@ -854,30 +1176,20 @@ public class ProcessingActivity extends AppCompatActivity implements SentenceAda
             this.copiedInputFileUri = null; // Clear the member variable
         }
 
-        // After parsing sentences (or clearing them due to error), update their recorded file Uris
+        // After parsing sentences (or clearing them due to error), re-attach recordings by content hash
         if (sentenceItems != null && sessionState.getSentenceItems() != null) {
-            for (int i = 0; i < sentenceItems.size() && i < sessionState.getSentenceItems().size(); i++) {
-                SentenceItem currentItem = sentenceItems.get(i);
-                SentenceItem loadedItem = sessionState.getSentenceItems().get(i);
-                if (loadedItem.getRecordedFileName() != null && loadedItem.getRecordedFileUriString() != null) {
-                    // Re-check if the recorded file actually exists on device within the working folder
-                    Uri recordedFileUri = Uri.parse(loadedItem.getRecordedFileUriString());
-                    DocumentFile recordedDocument = DocumentFile.fromSingleUri(this, recordedFileUri);
-                    if (recordedDocument != null && recordedDocument.exists()) {
-                        currentItem.setRecordedFile(loadedItem.getRecordedFileName(), recordedFileUri);
-                    } else {
-                        Log.w(TAG, "Recorded file not found on device for sentence " + i + ": " + recordedFileUri.toString());
-                        currentItem.clearRecordedFile(); // Clear if file doesn't exist
-                    }
-                }
-            }
-            // This line is safe because sentenceAdapter is guaranteed to be non-null here.
-            sentenceAdapter.notifyDataSetChanged();
-            Log.d(TAG, "onSessionSelected: Recorded file URIs updated from loaded state.");
+            reattachRecordings(sessionState.getSentenceItems()); // Attached in the background
         } else {
             Log.d(TAG, "onSessionSelected: No sentence items to update or loaded state is null.");
         }
 
+        // Keep following the order the session was started with, as long as the script is unchanged;
+        // otherwise the order planned for the current script applies
+        if (RecordingOrderPlanner.isOrderFor(sessionState.getRecordingOrder(), sessionState.getRecordingOrderFingerprint(), sentenceItems)) {
+            applyRecordingOrder(sessionState.getRecordingOrder());
+            Log.d(TAG, "onSessionSelected: Restored saved recording order.");
+        }
+
 
         currentSentenceIndex = sessionState.getCurrentSentenceIndex();
         if (sentenceItems != null && !sentenceItems.isEmpty() && currentSentenceIndex != -1 && currentSentenceIndex < sentenceItems.size()) {
@@ -898,6 +1210,185 @@ public class ProcessingActivity extends AppCompatActivity implements SentenceAda
         updateButtonStates();
     }
 
+    /**
+     * Re-attaches the recordings of a saved session to the freshly parsed sentences. Sentences are
+     * matched by content hash rather than by list position, so inserting, removing or reordering
+     * lines in the script doesn't attach recordings to the wrong text. Recordings whose sentence
+     * was edited or removed are left on disk, not attached, and reported to the user.
+     *
+     * The files are checked against a WorkingFolderIndex (one query for the whole folder) on a
+     * background thread. Missing, empty and truncated files are not attached; files whose size no
+     * longer matches the recorded duration are attached with the duration of the file and reported.
+     *
+     * Until the result is applied the stored items stay pending: they are retained across a
+     * configuration change, where the new instance starts over, and merged into full saves.
+     * @param savedItems The sentence items stored with the session.
+     */
+    private void reattachRecordings(List<SentenceItem> savedItems) {
+        final List<SentenceItem> snapshot = sentenceItems;
+        final List<SentenceItem> saved = new ArrayList<>(savedItems);
+        pendingReattachItems = saved;
+        final List<String> currentHashes = new ArrayList<>(snapshot.size());
+        final List<String> currentTexts = new ArrayList<>(snapshot.size());
+        for (SentenceItem currentItem : snapshot) {
+            currentHashes.add(currentItem.getContentHash());
+            currentTexts.add(currentItem.getText());
+        }
+        final Uri folderUri = workingFolderDocument != null ? workingFolderDocument.getUri() : null;
+        if (folderUri == null || reattachExecutor == null) {
+            return;
+        }
+        reattachExecutor.submit(() -> {
+            try {
+                ReattachResult result = reconcileRecordings(saved, currentHashes, currentTexts, folderUri);
+                new Handler(Looper.getMainLooper()).post(() -> applyReattachedRecordings(snapshot, result));
+            } catch (Exception e) {
+                Log.e(TAG, "reattachRecordings: Reconciling recordings failed: " + e.getMessage(), e);
+            }
+        });
+    }
+
+    /** The recordings to attach and the problems to report, computed off the main thread. */
+    private static class ReattachResult {
+        final List<Integer> indices = new ArrayList<>();
+        final List<SentenceItem> recordings = new ArrayList<>();
+        final List<String> mismatches = new ArrayList<>();
+        final List<String> fileProblems = new ArrayList<>();
+        int moved;
+        int missing;
+    }
+
+    // Runs on reattachExecutor. Reads nothing but its arguments and the content resolver.
+    private ReattachResult reconcileRecordings(List<SentenceItem> savedItems, List<String> currentHashes,
+                                               List<String> currentTexts, Uri folderUri) {
+        List<String> savedHashes = new ArrayList<>(savedItems.size());
+        List<String> savedTexts = new ArrayList<>(savedItems.size());
+        for (SentenceItem savedItem : savedItems) {
+            savedHashes.add(savedItem.getContentHash());
+            savedTexts.add(savedItem.getText());
+        }
+        RecordingReconciler.Result matches = RecordingReconciler.reconcile(savedHashes, currentHashes, savedTexts, currentTexts);
+
+        WorkingFolderIndex folderIndex = null;
+        try {
+            folderIndex = WorkingFolderIndex.query(getContentResolver(), folderUri);
+            Log.d(TAG, "reconcileRecordings: Indexed " + folderIndex.size() + " files in the working folder.");
+        } catch (Exception e) {
+            Log.e(TAG, "reconcileRecordings: Could not list the working folder, checking files one by one.", e);
+        }
+
+        ReattachResult result = new ReattachResult();
+        for (int i = 0; i < savedItems.size(); i++) {
+            SentenceItem loadedItem = savedItems.get(i);
+            if (loadedItem.getRecordedFileName() == null || loadedItem.getRecordedFileUriString() == null) {
+                continue;
+            }
+            int matchedIndex = matches.getMatchedIndex(i);
+            if (matchedIndex == -1) {
+                int editedIndex = matches.getEditedIndex(i);
+                String mismatch = (editedIndex != -1)
+                        ? "Sentence " + (i + 1) + " was edited (now sentence " + (editedIndex + 1) + "); "
+                        + loadedItem.getRecordedFileName() + " was not attached."
+                        : "Sentence " + (i + 1) + " was removed from the script; "
+                        + loadedItem.getRecordedFileName() + " was not attached.";
+                result.mismatches.add(mismatch);
+                Log.w(TAG, "reattachRecordings: " + mismatch);
+                continue;
+            }
+            if (matchedIndex != i) {
+                result.moved++;
+            }
+
+            Uri recordedFileUri = Uri.parse(loadedItem.getRecordedFileUriString());
+            WorkingFolderIndex.Entry file = (folderIndex != null)
+                    ? folderIndex.find(recordedFileUri, loadedItem.getRecordedFileName())
+                    : WorkingFolderIndex.queryDocument(getContentResolver(), recordedFileUri);
+            if (file == null) {
+                Log.w(TAG, "Recorded file not found on device for sentence " + matchedIndex + ": " + recordedFileUri.toString());
+                result.missing++;
+                continue;
+            }
+            if (file.getSize() >= 0 && !AudioRecorderManager.isPlausibleWavSize(file.getSize())) {
+                String problem = loadedItem.getRecordedFileName() + " (sentence " + (matchedIndex + 1) + ") is "
+                        + (file.getSize() == 0 ? "empty" : "truncated (" + file.getSize() + " bytes)") + " and was not attached.";
+                result.fileProblems.add(problem);
+                Log.w(TAG, "reattachRecordings: " + problem);
+                continue;
+            }
+            long fileDurationMs = AudioRecorderManager.durationMsForWavSize(file.getSize());
+            if (file.getSize() >= 0 && loadedItem.getRecordedDurationMs() > 0 && fileDurationMs != loadedItem.getRecordedDurationMs()) {
+                String problem = loadedItem.getRecordedFileName() + " (sentence " + (matchedIndex + 1) + ") changed size since it was recorded ("
+                        + loadedItem.getRecordedDurationMs() + " ms, now " + fileDurationMs + " ms).";
+                result.fileProblems.add(problem);
+                Log.w(TAG, "reattachRecordings: " + problem);
+            }
+
+            SentenceItem recording = new SentenceItem();
+            recording.setRecordedFile(loadedItem.getRecordedFileName(), file.getUri());
+            // Sessions saved before durations were tracked get theirs from the file size
+            recording.setRecordedDurationMs(file.getSize() >= 0 ? fileDurationMs : loadedItem.getRecordedDurationMs());
+            result.indices.add(matchedIndex);
+            result.recordings.add(recording);
+        }
+        return result;
+    }
+
+    private void applyReattachedRecordings(List<SentenceItem> snapshot, ReattachResult result) {
+        if (isFinishing() || isDestroyed() || snapshot != sentenceItems) {
+            Log.d(TAG, "Discarding stale recording reconciliation.");
+            return;
+        }
+        pendingReattachItems = null;
+        for (int i = 0; i < result.indices.size(); i++) {
+            SentenceItem currentItem = sentenceItems.get(result.indices.get(i));
+            if (currentItem.getRecordedFileName() != null) {
+                continue; // Recorded again while the files were being checked
+            }
+            SentenceItem recording = result.recordings.get(i);
+            currentItem.setRecordedFile(recording.getRecordedFileName(), recording.getRecordedFileUri());
+            currentItem.setRecordedDurationMs(recording.getRecordedDurationMs());
+        }
+        sentenceAdapter.notifyDataSetChanged();
+        updateProgressBar();
+        updateButtonStates();
+        Log.d(TAG, "reattachRecordings: " + result.indices.size() + " recordings attached, " + result.moved + " followed moved sentences, "
+                + result.mismatches.size() + " mismatches, " + result.missing + " missing, " + result.fileProblems.size() + " file problems.");
+
+        if (!result.mismatches.isEmpty() || !result.fileProblems.isEmpty()) {
+            showRecordingMismatchReport(result.mismatches, result.fileProblems);
+        }
+    }
+
+    private void showRecordingMismatchReport(List<String> mismatches, List<String> fileProblems) {
+        final int maxListed = 10;
+        StringBuilder message = new StringBuilder();
+        if (!mismatches.isEmpty()) {
+            message.append("The script changed since this session was saved:\n\n");
+            appendReportLines(message, mismatches, maxListed);
+        }
+        if (!fileProblems.isEmpty()) {
+            if (message.length() > 0) {
+                message.append("\n");
+            }
+            message.append("Some recordings in the working folder look damaged:\n\n");
+            appendReportLines(message, fileProblems, maxListed);
+        }
+        new AlertDialog.Builder(this)
+                .setTitle("Recording Mismatches")
+                .setMessage(message.toString().trim())
+                .setPositiveButton("OK", null)
+                .show();
+    }
+
+    private static void appendReportLines(StringBuilder message, List<String> lines, int maxListed) {
+        for (int i = 0; i < lines.size() && i < maxListed; i++) {
+            message.append("• ").append(lines.get(i)).append("\n");
+        }
+        if (lines.size() > maxListed) {
+            message.append("…and ").append(lines.size() - maxListed).append(" more.\n");
+        }
+    }
+
     // --- NEW: Implementations for ExitConfirmationDialogFragment.ExitConfirmationListener ---
     @Override
     public void onSaveAndExit() {
@@ -1089,19 +1580,147 @@ public class ProcessingActivity extends AppCompatActivity implements SentenceAda
         }
     }
 
-    private void parseTextIntoSentences(String fullText) {
-        sentenceItems = new ArrayList<>();
-        Pattern pattern = Pattern.compile("\\n\\s*\\n+");
-        String[] sentences = pattern.split(fullText);
+    private void parseTextIntoSentences(String fullText) throws IOException {
+        final List<SentenceItem> parsedItems = new ArrayList<>();
+        ScriptParser.parse(new StringReader(fullText), (index, sentence) -> parsedItems.add(new SentenceItem(index, sentence)));
+        sentenceItems = parsedItems;
+        sentenceAdapter.updateData(sentenceItems);
+        detectDuplicateSentences();
+        planRecordingOrder();
+    }
 
-        int index = 0;
-        for (String sentence : sentences) {
-            String trimmedSentence = sentence.trim();
-            if (!trimmedSentence.isEmpty()) {
-                sentenceItems.add(new SentenceItem(index++, trimmedSentence));
+    /**
+     * Computes the coverage-optimized recording order on a background thread. Navigation follows
+     * script order until the plan arrives; a saved order applied in the meantime takes precedence.
+     */
+    private void planRecordingOrder() {
+        recordingOrder = null;
+        recordingOrderPositions = null;
+        final List<SentenceItem> snapshot = sentenceItems;
+        if (snapshot == null || snapshot.isEmpty() || analysisExecutor == null) {
+            return;
+        }
+        final List<String> texts = new ArrayList<>(snapshot.size());
+        for (SentenceItem item : snapshot) {
+            texts.add(item.getText());
+        }
+        analysisExecutor.submit(() -> {
+            try {
+                int[] order = RecordingOrderPlanner.planOrder(texts);
+                new Handler(Looper.getMainLooper()).post(() -> {
+                    if (isFinishing() || isDestroyed() || snapshot != sentenceItems || recordingOrder != null) {
+                        Log.d(TAG, "Discarding stale or superseded recording order.");
+                        return;
+                    }
+                    List<Integer> orderList = new ArrayList<>(order.length);
+                    for (int index : order) {
+                        orderList.add(index);
+                    }
+                    applyRecordingOrder(orderList);
+                    // Still on the default first sentence with nothing recorded: start where the plan starts
+                    if (currentSentenceIndex <= 0 && !hasAnyRecording() && !isRecording && !isPlaying && order.length > 0) {
+                        selectSentence(order[0]);
+                    }
+                });
+            } catch (Exception e) {
+                Log.e(TAG, "Recording order planning failed: " + e.getMessage(), e);
             }
+        });
+    }
+
+    private void applyRecordingOrder(List<Integer> order) {
+        recordingOrder = new int[order.size()];
+        recordingOrderPositions = new int[order.size()];
+        for (int position = 0; position < order.size(); position++) {
+            int index = order.get(position);
+            recordingOrder[position] = index;
+            recordingOrderPositions[index] = position;
+        }
+        updateButtonStates();
+    }
+
+    private List<Integer> getRecordingOrderList() {
+        if (recordingOrder == null) {
+            return null;
+        }
+        List<Integer> order = new ArrayList<>(recordingOrder.length);
+        for (int index : recordingOrder) {
+            order.add(index);
+        }
+        return order;
+    }
+
+    private boolean hasAnyRecording() {
+        for (SentenceItem item : sentenceItems) {
+            if (item.getRecordedFileName() != null) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Finds the sentence that follows {@code index} in the recording order (script order if no
+     * order is planned), skipping near-duplicates.
+     * @return The next sentence index, or -1 at the end of the order.
+     */
+    private int findNextSentenceIndex(int index) {
+        if (sentenceItems == null || sentenceItems.isEmpty()) {
+            return -1;
+        }
+        boolean useOrder = recordingOrder != null && recordingOrder.length == sentenceItems.size();
+        int position = (index < 0) ? -1 : (useOrder ? recordingOrderPositions[index] : index);
+        for (int next = position + 1; next < sentenceItems.size(); next++) {
+            int candidate = useOrder ? recordingOrder[next] : next;
+            if (!sentenceItems.get(candidate).isDuplicate()) {
+                return candidate;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Runs near-duplicate detection over the parsed sentences on a background thread and flags
+     * the duplicates in the list, so they are skipped when advancing to the next sentence.
+     */
+    private void detectDuplicateSentences() {
+        final List<SentenceItem> snapshot = sentenceItems;
+        duplicatesDetected = snapshot != null && snapshot.size() < 2; // Nothing to compare
+        if (snapshot == null || snapshot.size() < 2 || analysisExecutor == null) {
+            return;
+        }
+        final List<String> texts = new ArrayList<>(snapshot.size());
+        for (SentenceItem item : snapshot) {
+            texts.add(item.getText());
+        }
+        analysisExecutor.submit(() -> {
+            try {
+                int[] duplicateOf = NearDuplicateDetector.findDuplicates(texts);
+                new Handler(Looper.getMainLooper()).post(() -> applyDuplicateFlags(snapshot, duplicateOf));
+            } catch (Exception e) {
+                Log.e(TAG, "Near-duplicate detection failed: " + e.getMessage(), e);
+            }
+        });
+    }
+
+    private void applyDuplicateFlags(List<SentenceItem> snapshot, int[] duplicateOf) {
+        if (isFinishing() || isDestroyed() || snapshot != sentenceItems || duplicateOf.length != sentenceItems.size()) {
+            Log.d(TAG, "Discarding stale duplicate detection result.");
+            return;
+        }
+        int duplicates = 0;
+        for (int i = 0; i < duplicateOf.length; i++) {
+            sentenceItems.get(i).setDuplicateOf(duplicateOf[i]);
+            if (duplicateOf[i] != -1) {
+                duplicates++;
+            }
+        }
+        duplicatesDetected = true;
+        sentenceAdapter.notifyDataSetChanged();
+        if (duplicates > 0) {
+            Log.d(TAG, "Flagged " + duplicates + " near-duplicate sentences.");
+            Toast.makeText(this, duplicates + " near-duplicate sentences flagged and will be skipped.", Toast.LENGTH_LONG).show();
         }
-        sentenceAdapter.updateData(sentenceItems);
     }
 
     @Override
@@ -1175,7 +1794,7 @@ public class ProcessingActivity extends AppCompatActivity implements SentenceAda
             btnPlayAudio.setText("Play");
             btnPlayAudio.setBackgroundTintList(ContextCompat.getColorStateList(this, R.color.custom_blue));
             btnPlayAudio.setEnabled(hasRecordedAudio);
-            btnNextItem.setEnabled(hasSentences && currentSentenceIndex < sentenceItems.size() - 1);
+            btnNextItem.setEnabled(hasSentences && findNextSentenceIndex(currentSentenceIndex) != -1);
             btnSaveSession.setEnabled(currentUserId != null && hasSentences); // Can save if authenticated AND has sentences
             btnLoadSession.setEnabled(currentUserId != null); // Can load if authenticated
             btnExitActivity.setEnabled(true);
@@ -1284,11 +1903,14 @@ public class ProcessingActivity extends AppCompatActivity implements SentenceAda
             // Use the name from the DocumentFile created earlier, or derive from URI if needed
             String recordedFileName = tempRecordingDocumentFile != null ? tempRecordingDocumentFile.getName() : fileUri.getLastPathSegment();
             selectedItem.setRecordedFile(recordedFileName, fileUri);
+            if (tempRecordingDocumentFile != null) {
+                selectedItem.setRecordedDurationMs(AudioRecorderManager.durationMsForWavSize(tempRecordingDocumentFile.length()));
+            }
             sentenceAdapter.notifyItemChanged(currentSentenceIndex);
             //Toast.makeText(this, "Recording stopped and saved.", Toast.LENGTH_SHORT).show();
             Log.d(TAG, "Recording saved to: " + fileUri.toString());
             updateProgressBar();
-            saveSessionState(currentSessionId);
+            saveTakeState(selectedItem);
             handleNextSentence(); // Automatically move to next sentence
         } else {
             Toast.makeText(this, "Recording stopped, but file was not saved or found.", Toast.LENGTH_SHORT).show();
@@ -1344,7 +1966,7 @@ public class ProcessingActivity extends AppCompatActivity implements SentenceAda
                             //Toast.makeText(this, "Recording deleted for sentence " + (currentSentenceIndex + 1), Toast.LENGTH_SHORT).show();
                             Log.d(TAG, "Deleted file: " + fileToDelete.getName());
                             updateProgressBar();
-                            saveSessionState(currentSessionId);
+                            saveTakeState(selectedItem);
                         } else {
                             Toast.makeText(this, "Failed to delete recording.", Toast.LENGTH_SHORT).show();
                             Log.e(TAG, "DocumentFile.delete() returned false for " + fileToDelete.getName());
@@ -1355,7 +1977,7 @@ public class ProcessingActivity extends AppCompatActivity implements SentenceAda
                         selectedItem.clearRecordedFile();
                         sentenceAdapter.notifyItemChanged(currentSentenceIndex);
                         updateProgressBar();
-                        saveSessionState(currentSessionId);
+                        saveTakeState(selectedItem);
                     }
                 } catch (SecurityException e) {
                     Log.e(TAG, "Permission denied to delete file: " + e.getMessage(), e);
@@ -1452,8 +2074,11 @@ public class ProcessingActivity extends AppCompatActivity implements SentenceAda
             return;
         }
 
-        if (currentSentenceIndex < sentenceItems.size() - 1) {
-            selectSentence(currentSentenceIndex + 1);
+        // Follow the recording order, skipping sentences flagged as near-duplicates
+        int nextIndex = findNextSentenceIndex(currentSentenceIndex);
+
+        if (nextIndex != -1) {
+            selectSentence(nextIndex);
         } else {
             Toast.makeText(this, "End of sentences.", Toast.LENGTH_SHORT).show();
         }
@@ -0,0 +1,218 @@
+package com.example.tts_tool;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.PriorityQueue;
+
+/**
+ * Plans the order in which script sentences are recorded so that every prefix of the order
+ * covers as many distinct character bigrams and trigrams as possible. A speaker who only finishes
+ * part of a script then still leaves behind a recorded subset with good phonetic coverage.
+ *
+ * Uses greedy set cover with lazy gain re-evaluation: a sentence's gain can only shrink as
+ * coverage grows, so a stale heap entry is re-scored only when it reaches the top.
+ */
+public class RecordingOrderPlanner {
+
+    private static final String TAG = "RecordingOrderPlanner";
+
+    private RecordingOrderPlanner() {}
+
+    /**
+     * Computes the recording order.
+     *
+     * @param texts The sentence texts in script order.
+     * @return A permutation of sentence indices, in the order they should be recorded.
+     */
+    public static int[] planOrder(List<String> texts) {
+        long startTime = System.currentTimeMillis();
+        int count = texts.size();
+
+        // Map every distinct bigram/trigram to a dense id, and each sentence to its distinct ids.
+        UnitIdMap unitIds = new UnitIdMap();
+        int[][] sentenceUnits = new int[count][];
+        for (int i = 0; i < count; i++) {
+            sentenceUnits[i] = collectUnits(texts.get(i), unitIds);
+        }
+        boolean[] covered = new boolean[unitIds.size()];
+
+        // Heap entries are {cachedGain, sentenceIndex}; highest gain first, earlier sentence on ties.
+        PriorityQueue<int[]> heap = new PriorityQueue<>(Math.max(1, count), (a, b) ->
+                a[0] != b[0] ? Integer.compare(b[0], a[0]) : Integer.compare(a[1], b[1]));
+        for (int i = 0; i < count; i++) {
+            heap.add(new int[]{sentenceUnits[i].length, i});
+        }
+
+        int[] order = new int[count];
+        boolean[] placed = new boolean[count];
+        int position = 0;
+        while (!heap.isEmpty()) {
+            int[] top = heap.poll();
+            int gain = countUncovered(sentenceUnits[top[1]], covered);
+            if (gain == 0) {
+                // Nothing left adds coverage; the remainder keeps script order below.
+                break;
+            }
+            int[] next = heap.peek();
+            if (gain < top[0] && next != null && (gain < next[0] || (gain == next[0] && next[1] < top[1]))) {
+                top[0] = gain; // Stale entry: re-score and let it compete again
+                heap.add(top);
+                continue;
+            }
+            for (int unit : sentenceUnits[top[1]]) {
+                covered[unit] = true;
+            }
+            order[position++] = top[1];
+            placed[top[1]] = true;
+        }
+        for (int i = 0; i < count; i++) {
+            if (!placed[i]) {
+                order[position++] = i;
+            }
+        }
+
+        Log.d(TAG, "Planned recording order for " + count + " sentences covering " + covered.length
+                + " n-grams in " + (System.currentTimeMillis() - startTime) + " ms.");
+        return order;
+    }
+
+    /**
+     * Checks whether {@code order} is a permutation of {@code 0..count-1}, e.g. before reusing an
+     * order saved with a session against a freshly parsed script.
+     */
+    public static boolean isValidOrder(List<Integer> order, int count) {
+        if (order == null || order.size() != count) {
+            return false;
+        }
+        boolean[] seen = new boolean[count];
+        for (Integer index : order) {
+            if (index == null || index < 0 || index >= count || seen[index]) {
+                return false;
+            }
+            seen[index] = true;
+        }
+        return true;
+    }
+
+    /**
+     * Fingerprints the script an order was planned for, from the content hashes of its sentences
+     * in script order. Saved with the order, it tells a same-length edited script apart from the
+     * one the order belongs to.
+     */
+    public static String fingerprint(List<ProcessingActivity.SentenceItem> items) {
+        List<String> hashes = new ArrayList<>(items.size());
+        for (ProcessingActivity.SentenceItem item : items) {
+            hashes.add(item.getContentHash());
+        }
+        return ContentHash.ofSequence(hashes);
+    }
+
+    /**
+     * Checks whether a saved order still belongs to {@code items}: a permutation of them, saved
+     * with the fingerprint of this same script.
+     */
+    public static boolean isOrderFor(List<Integer> order, String fingerprint, List<ProcessingActivity.SentenceItem> items) {
+        return fingerprint != null && isValidOrder(order, items.size()) && fingerprint.equals(fingerprint(items));
+    }
+
+    private static int[] collectUnits(String text, UnitIdMap unitIds) {
+        String normalized = text.toLowerCase(Locale.ROOT);
+        int[] ids = new int[Math.max(0, 2 * normalized.length() - 3)];
+        int idCount = 0;
+        for (int n = 2; n <= 3; n++) {
+            for (int i = 0; i + n <= normalized.length(); i++) {
+                // Pack the n-gram's UTF-16 chars into one key instead of allocating a substring
+                long unit = n;
+                boolean allWhitespace = true;
+                for (int c = i; c < i + n; c++) {
+                    char ch = normalized.charAt(c);
+                    unit = (unit << 16) | ch;
+                    allWhitespace &= Character.isWhitespace(ch);
+                }
+                if (allWhitespace) {
+                    continue; // Pure whitespace carries no phonetic information
+                }
+                ids[idCount++] = unitIds.idFor(unit);
+            }
+        }
+        // Sort and drop repeats so each n-gram counts once per sentence
+        Arrays.sort(ids, 0, idCount);
+        int distinct = 0;
+        for (int i = 0; i < idCount; i++) {
+            if (distinct == 0 || ids[distinct - 1] != ids[i]) {
+                ids[distinct++] = ids[i];
+            }
+        }
+        return Arrays.copyOf(ids, distinct);
+    }
+
+    private static int countUncovered(int[] units, boolean[] covered) {
+        int gain = 0;
+        for (int unit : units) {
+            if (!covered[unit]) {
+                gain++;
+            }
+        }
+        return gain;
+    }
+
+    /**
+     * Open-addressing map from packed n-gram keys to dense ids. Avoids boxing a Long and an
+     * Integer for every n-gram of every sentence, which dominates the cost on large scripts.
+     */
+    private static final class UnitIdMap {
+        private long[] keys = new long[1 << 14];
+        private int[] values = new int[1 << 14];
+        private int size;
+
+        int idFor(long key) {
+            int mask = keys.length - 1;
+            int slot = mix(key) & mask;
+            while (keys[slot] != 0) {
+                if (keys[slot] == key) {
+                    return values[slot];
+                }
+                slot = (slot + 1) & mask;
+            }
+            // Packed keys always carry the n-gram length in their top bits, so 0 marks an empty slot.
+            keys[slot] = key;
+            values[slot] = size;
+            size++;
+            if (size * 2 > keys.length) {
+                grow();
+            }
+            return size - 1;
+        }
+
+        int size() {
+            return size;
+        }
+
+        private void grow() {
+            long[] oldKeys = keys;
+            int[] oldValues = values;
+            keys = new long[oldKeys.length * 2];
+            values = new int[oldValues.length * 2];
+            int mask = keys.length - 1;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != 0) {
+                    int slot = mix(oldKeys[i]) & mask;
+                    while (keys[slot] != 0) {
+                        slot = (slot + 1) & mask;
+                    }
+                    keys[slot] = oldKeys[i];
+                    values[slot] = oldValues[i];
+                }
+            }
+        }
+
+        private static int mix(long key) {
+            key *= 0x9E3779B97F4A7C15L;
+            return (int) (key ^ (key >>> 32));
+        }
+    }
+}
@@ -0,0 +1,207 @@
+package com.example.tts_tool;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Maps sentences of a saved session onto a re-parsed (possibly edited) script by content hash.
+ *
+ * Identical sentences are matched with a hash-map join, in occurrence order for repeated lines.
+ * The remaining saved sentences are aligned diff-style: each run of unmatched saved sentences
+ * between two matched neighbours is paired with the unmatched script lines between the same
+ * neighbours. Runs of the same length are paired in order, i.e. the lines were edited in place.
+ * Runs of different lengths (lines edited and others added or removed between the same anchors)
+ * are aligned by a longest common subsequence in which two lines count as equal when their
+ * character bigrams are similar enough; lines left over were added or removed.
+ *
+ * The join and the anchors take O(n) for n sentences. The alignment of a run takes O(r * g) for
+ * a run of r sentences against g script lines, and runs over {@link #MAX_ALIGNMENT_CELLS} are left
+ * unpaired and reported as removed.
+ */
+public class RecordingReconciler {
+
+    /**
+     * Result of a reconciliation, indexed by saved sentence position.
+     */
+    public static class Result {
+        private final int[] savedToCurrent;
+        private final int[] savedToEdited;
+
+        Result(int[] savedToCurrent, int[] savedToEdited) {
+            this.savedToCurrent = savedToCurrent;
+            this.savedToEdited = savedToEdited;
+        }
+
+        /** @return The script index holding the identical sentence, or -1 if there is none. */
+        public int getMatchedIndex(int savedIndex) { return savedToCurrent[savedIndex]; }
+
+        /** @return The script index of the edited version of this sentence, or -1 if it was removed. */
+        public int getEditedIndex(int savedIndex) { return savedToEdited[savedIndex]; }
+    }
+
+    // Dice coefficient of the character bigrams at or above which two lines are an edit of each other.
+    private static final double EDIT_SIMILARITY = 0.5;
+    // Largest run-by-gap table aligned; about 1 MB of DP table.
+    static final int MAX_ALIGNMENT_CELLS = 1 << 18;
+
+    private RecordingReconciler() {}
+
+    /**
+     * @param savedHashes Content hashes of the sentences as they were saved with the session.
+     * @param currentHashes Content hashes of the sentences parsed from the current script.
+     * @param savedTexts The saved sentences, parallel to {@code savedHashes}.
+     * @param currentTexts The script's sentences, parallel to {@code currentHashes}.
+     */
+    public static Result reconcile(List<String> savedHashes, List<String> currentHashes,
+                                   List<String> savedTexts, List<String> currentTexts) {
+        int savedCount = savedHashes.size();
+        int currentCount = currentHashes.size();
+
+        // Hash join: every hash maps to the queue of script positions that carry it.
+        Map<String, ArrayDeque<Integer>> positionsByHash = new HashMap<>(currentCount * 2);
+        for (int i = 0; i < currentCount; i++) {
+            String hash = currentHashes.get(i);
+            ArrayDeque<Integer> positions = positionsByHash.get(hash);
+            if (positions == null) {
+                positions = new ArrayDeque<>(1);
+                positionsByHash.put(hash, positions);
+            }
+            positions.addLast(i);
+        }
+
+        int[] savedToCurrent = new int[savedCount];
+        int[] savedToEdited = new int[savedCount];
+        Arrays.fill(savedToEdited, -1);
+        boolean[] currentMatched = new boolean[currentCount];
+        for (int i = 0; i < savedCount; i++) {
+            ArrayDeque<Integer> positions = positionsByHash.get(savedHashes.get(i));
+            Integer position = (positions != null) ? positions.pollFirst() : null;
+            savedToCurrent[i] = (position != null) ? position : -1;
+            if (position != null) {
+                currentMatched[position] = true;
+            }
+        }
+
+        // Align runs of unmatched saved sentences with unmatched lines between the same anchors.
+        int scanFrom = 0; // Script lines before this were already scanned, keeping the pass linear
+        int[] gap = new int[currentCount]; // Unmatched script lines between the current anchors
+        int previousAnchor = -1;
+        int runStart = -1;
+        for (int i = 0; i <= savedCount; i++) {
+            boolean isAnchor = (i == savedCount) || savedToCurrent[i] != -1;
+            if (!isAnchor) {
+                if (runStart == -1) {
+                    runStart = i;
+                }
+                continue;
+            }
+            int nextAnchor = (i == savedCount) ? currentCount : savedToCurrent[i];
+            if (runStart != -1 && previousAnchor < nextAnchor) {
+                int runLength = i - runStart;
+                int from = Math.max(previousAnchor + 1, scanFrom);
+                int gapLength = 0;
+                for (int c = from; c < nextAnchor; c++) {
+                    if (!currentMatched[c]) {
+                        gap[gapLength++] = c;
+                    }
+                }
+                if (gapLength == runLength) {
+                    for (int k = 0; k < runLength; k++) {
+                        savedToEdited[runStart + k] = gap[k];
+                    }
+                } else if (gapLength > 0 && (long) runLength * gapLength <= MAX_ALIGNMENT_CELLS) {
+                    alignRun(savedTexts, currentTexts, runStart, runLength, gap, gapLength, savedToEdited);
+                }
+                scanFrom = Math.max(scanFrom, nextAnchor);
+            }
+            runStart = -1;
+            if (i < savedCount) {
+                previousAnchor = nextAnchor;
+            }
+        }
+        return new Result(savedToCurrent, savedToEdited);
+    }
+
+    // LCS of the run against the gap, where similar lines count as equal; pairs the lines on it.
+    private static void alignRun(List<String> savedTexts, List<String> currentTexts, int runStart, int runLength,
+                                 int[] gap, int gapLength, int[] savedToEdited) {
+        int[][] gapBigrams = new int[gapLength][];
+        for (int l = 0; l < gapLength; l++) {
+            gapBigrams[l] = bigrams(currentTexts.get(gap[l]));
+        }
+        boolean[] similar = new boolean[runLength * gapLength];
+        for (int k = 0; k < runLength; k++) {
+            int[] savedBigrams = bigrams(savedTexts.get(runStart + k));
+            for (int l = 0; l < gapLength; l++) {
+                similar[k * gapLength + l] = dice(savedBigrams, gapBigrams[l]) >= EDIT_SIMILARITY;
+            }
+        }
+        // lengths[k][l]: LCS length of the run from k and the gap from l, filled back to front
+        int columns = gapLength + 1;
+        int[] lengths = new int[(runLength + 1) * columns];
+        for (int k = runLength - 1; k >= 0; k--) {
+            for (int l = gapLength - 1; l >= 0; l--) {
+                lengths[k * columns + l] = similar[k * gapLength + l]
+                        ? lengths[(k + 1) * columns + l + 1] + 1
+                        : Math.max(lengths[(k + 1) * columns + l], lengths[k * columns + l + 1]);
+            }
+        }
+        int k = 0;
+        int l = 0;
+        while (k < runLength && l < gapLength) {
+            if (similar[k * gapLength + l]) {
+                savedToEdited[runStart + k] = gap[l];
+                k++;
+                l++;
+            } else if (lengths[(k + 1) * columns + l] >= lengths[k * columns + l + 1]) {
+                k++; // Saved line removed
+            } else {
+                l++; // Script line added
+            }
+        }
+    }
+
+    // The sorted character bigrams of a line, lower-cased and without punctuation or spacing.
+    private static int[] bigrams(String text) {
+        String lower = (text != null) ? text.toLowerCase(Locale.ROOT) : "";
+        StringBuilder kept = new StringBuilder(lower.length());
+        for (int i = 0; i < lower.length(); i++) {
+            char c = lower.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                kept.append(c);
+            }
+        }
+        int[] bigrams = new int[Math.max(0, kept.length() - 1)];
+        for (int i = 0; i < bigrams.length; i++) {
+            bigrams[i] = (kept.charAt(i) << 16) | kept.charAt(i + 1);
+        }
+        Arrays.sort(bigrams);
+        return bigrams;
+    }
+
+    // Dice coefficient of two sorted bigram multisets.
+    private static double dice(int[] a, int[] b) {
+        if (a.length == 0 || b.length == 0) {
+            return 0;
+        }
+        int common = 0;
+        int i = 0;
+        int j = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] == b[j]) {
+                common++;
+                i++;
+                j++;
+            } else if (a[i] < b[j]) {
+                i++;
+            } else {
+                j++;
+            }
+        }
+        return 2.0 * common / (a.length + b.length);
+    }
+}
@@ -0,0 +1,72 @@
+package com.example.tts_tool;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Locale;
+
+/**
+ * Splits a script into sentences: blocks of text separated by one or more blank lines, trimmed.
+ * Recordings are named after the position of their sentence in this split, so the recorder and
+ * every export must use this class to agree on sentence numbers.
+ *
+ * Parsing streams line by line and never holds more than one sentence.
+ */
+public final class ScriptParser {
+
+    public interface SentenceConsumer {
+        /**
+         * @param index The zero-based position of the sentence in the script.
+         */
+        void accept(int index, String sentence) throws IOException;
+    }
+
+    private ScriptParser() {}
+
+    /**
+     * Reads a script, passing each sentence to {@code consumer} as soon as it is complete.
+     * @return The number of sentences.
+     */
+    public static int parse(Reader reader, SentenceConsumer consumer) throws IOException {
+        BufferedReader lines = (reader instanceof BufferedReader) ? (BufferedReader) reader : new BufferedReader(reader);
+        StringBuilder sentence = new StringBuilder();
+        int count = 0;
+        String line;
+        while ((line = lines.readLine()) != null) {
+            if (line.trim().isEmpty()) {
+                count = flush(sentence, count, consumer);
+            } else {
+                sentence.append(line).append('\n');
+            }
+        }
+        return flush(sentence, count, consumer);
+    }
+
+    /**
+     * @return The script of a recorded folder: its .txt file other than the reports exports
+     *         write next to it, or null if it has none.
+     */
+    public static WorkingFolderIndex.Entry findScript(WorkingFolderIndex folder) {
+        for (WorkingFolderIndex.Entry entry : folder.entries()) {
+            String name = entry.getName();
+            if (name != null && name.toLowerCase(Locale.ROOT).endsWith(".txt") && !isReport(name)) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    private static boolean isReport(String name) {
+        return name.endsWith(StatisticsReportTask.OUTPUT_SUFFIX) || name.endsWith(HashManifestTask.VERIFY_SUFFIX);
+    }
+
+    private static int flush(StringBuilder sentence, int count, SentenceConsumer consumer) throws IOException {
+        String trimmed = sentence.toString().trim();
+        sentence.setLength(0);
+        if (trimmed.isEmpty()) {
+            return count;
+        }
+        consumer.accept(count, trimmed);
+        return count + 1;
+    }
+}
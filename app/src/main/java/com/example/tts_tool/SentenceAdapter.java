@@ -54,6 +54,14 @@ public class SentenceAdapter extends RecyclerView.Adapter<SentenceAdapter.Senten
             holder.recordedFileNameTextView.setVisibility(View.GONE);
             holder.recordedFileNameTextView.setText(""); // Clear text when not visible
         }
+
+        // Flag near-duplicates so the speaker knows they will be skipped
+        if (currentItem.isDuplicate()) {
+            holder.duplicateMarkerTextView.setText("Near-duplicate of sentence " + (currentItem.getDuplicateOf() + 1) + " (skipped)");
+            holder.duplicateMarkerTextView.setVisibility(View.VISIBLE);
+        } else {
+            holder.duplicateMarkerTextView.setVisibility(View.GONE);
+        }
     }
 
     @Override
@@ -61,6 +69,13 @@ public class SentenceAdapter extends RecyclerView.Adapter<SentenceAdapter.Senten
         return sentenceList.size();
     }
 
+    /**
+     * @return The list backing this adapter, for handing it over across configuration changes.
+     */
+    List<ProcessingActivity.SentenceItem> getItems() {
+        return sentenceList;
+    }
+
     public void updateData(List<ProcessingActivity.SentenceItem> newSentenceList) {
         this.sentenceList.clear();
         this.sentenceList.addAll(newSentenceList);
@@ -79,11 +94,13 @@ public class SentenceAdapter extends RecyclerView.Adapter<SentenceAdapter.Senten
     public class SentenceViewHolder extends RecyclerView.ViewHolder implements View.OnClickListener {
         public TextView sentenceTextView;
         public TextView recordedFileNameTextView; // Declare the new TextView
+        public TextView duplicateMarkerTextView;
 
         public SentenceViewHolder(@NonNull View itemView) {
             super(itemView);
             sentenceTextView = itemView.findViewById(R.id.text_view_sentence);
             recordedFileNameTextView = itemView.findViewById(R.id.text_view_recorded_file_name); // Find the new TextView by ID
+            duplicateMarkerTextView = itemView.findViewById(R.id.text_view_duplicate_marker);
             itemView.setOnClickListener(this);
         }
 
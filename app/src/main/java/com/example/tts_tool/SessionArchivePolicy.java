@@ -0,0 +1,44 @@
+package com.example.tts_tool;
+
+/**
+ * Decides which sessions the archival job moves out of the active store (see
+ * {@link SyncingSessionRepository#archiveSessions}): fully recorded sessions once they have been
+ * left alone for a while, and any session nobody has touched for much longer.
+ */
+public class SessionArchivePolicy {
+
+    private static final long DAY_MS = 24L * 60 * 60 * 1000;
+
+    /** Completed after 30 days, anything after 180 days; 10 sessions per run, at most daily. */
+    public static final SessionArchivePolicy DEFAULT = new SessionArchivePolicy(30 * DAY_MS, 180 * DAY_MS, 10, DAY_MS);
+
+    private final long completedAfterMs;
+    private final long idleAfterMs;
+    private final int maxSessionsPerRun;
+    private final long minRunIntervalMs;
+
+    /**
+     * @param completedAfterMs Age (since the last change) at which fully recorded sessions are archived.
+     * @param idleAfterMs Age at which any session is archived.
+     * @param maxSessionsPerRun Upper bound on the sessions one run moves, oldest first.
+     * @param minRunIntervalMs Minimum time between two runs; earlier requests do nothing.
+     */
+    public SessionArchivePolicy(long completedAfterMs, long idleAfterMs, int maxSessionsPerRun, long minRunIntervalMs) {
+        this.completedAfterMs = completedAfterMs;
+        this.idleAfterMs = idleAfterMs;
+        this.maxSessionsPerRun = Math.max(1, maxSessionsPerRun);
+        this.minRunIntervalMs = minRunIntervalMs;
+    }
+
+    public boolean shouldArchive(SessionSummary summary, long now) {
+        if (summary.isArchived()) {
+            return false;
+        }
+        long idleMs = now - summary.getLastModified();
+        boolean completed = summary.getTotalCount() > 0 && summary.getRecordedCount() >= summary.getTotalCount();
+        return (completed && idleMs >= completedAfterMs) || idleMs >= idleAfterMs;
+    }
+
+    public int getMaxSessionsPerRun() { return maxSessionsPerRun; }
+    public long getMinRunIntervalMs() { return minRunIntervalMs; }
+}
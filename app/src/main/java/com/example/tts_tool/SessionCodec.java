@@ -0,0 +1,408 @@
+package com.example.tts_tool;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Hand-written, reflection-free encoder and decoder for {@link ProcessingActivity.SessionState}
+ * and its {@link ProcessingActivity.SentenceItem}s. Both forms stream item by item, without
+ * building an intermediate tree:
+ * <ul>
+ * <li>JSON, using the same field names as the reflective Gson output, so files written by Gson
+ * are read unchanged. Unknown fields are skipped.</li>
+ * <li>A compact binary form (varints, length-prefixed UTF-8) for local persistence and state
+ * handoff, about half the size of the JSON and several times faster to decode.</li>
+ * </ul>
+ * Archived sessions are stored in the binary form, GZIP-compressed; see {@link #toArchive}.
+ * Both forms carry {@link #VERSION}, the version of the encoding. When the encoding changes,
+ * bump it and branch on the version read in the decoders; older data must stay readable. The
+ * version of the session's content is separate: it is carried as {@code schemaVersion}, and
+ * {@link SessionMigrations} upgrades old content after decoding.
+ */
+public final class SessionCodec {
+
+    /**
+     * Current encoding version, written by both forms. 2 added the schema version, 3 the
+     * recording order fingerprint.
+     */
+    public static final int VERSION = 3;
+
+    private static final int BINARY_MAGIC = 0x54545353; // "TTSS"
+    private static final int FLAG_SELECTED = 1;
+    private static final int ARCHIVE_BUFFER_SIZE = 64 * 1024;
+
+    private SessionCodec() {}
+
+    // --- Binary form ---
+
+    public static void writeBinary(ProcessingActivity.SessionState state, OutputStream stream) throws IOException {
+        DataOutputStream out = new DataOutputStream(stream);
+        out.writeInt(BINARY_MAGIC);
+        writeVarInt(out, VERSION);
+        writeVarInt(out, state.getSchemaVersion());
+        writeString(out, state.getSessionId());
+        writeString(out, state.getUsername());
+        writeString(out, state.getOriginalInputFileUriString());
+        writeString(out, state.getRootFolderUriString());
+        writeString(out, state.getWorkingFolderUriString());
+        writeVarInt(out, state.getCurrentSentenceIndex() + 1); // -1 (nothing selected) becomes 0
+        out.writeLong(state.getLastModified());
+
+        List<ProcessingActivity.SentenceItem> items = state.getSentenceItems();
+        writeVarInt(out, items == null ? 0 : items.size() + 1); // 0 distinguishes a missing list
+        if (items != null) {
+            for (ProcessingActivity.SentenceItem item : items) {
+                writeVarInt(out, item.getIndex());
+                writeString(out, item.getText());
+                writeString(out, item.getContentHash());
+                writeString(out, item.getRecordedFileName());
+                writeString(out, item.getRecordedFileUriString());
+                writeVarLong(out, item.getRecordedDurationMs());
+                writeVarInt(out, item.getDuplicateOf() + 1);
+                out.writeByte(item.isSelected() ? FLAG_SELECTED : 0);
+            }
+        }
+        List<Integer> order = state.getRecordingOrder();
+        writeVarInt(out, order == null ? 0 : order.size() + 1);
+        if (order != null) {
+            for (int index : order) {
+                writeVarInt(out, index);
+            }
+        }
+        writeString(out, state.getRecordingOrderFingerprint());
+        out.flush();
+    }
+
+    public static ProcessingActivity.SessionState readBinary(InputStream stream) throws IOException {
+        DataInputStream in = new DataInputStream(stream);
+        if (in.readInt() != BINARY_MAGIC) {
+            throw new IOException("Not an encoded session.");
+        }
+        int version = readVarInt(in);
+        if (version < 1 || version > VERSION) {
+            throw new IOException("Unsupported session encoding version " + version);
+        }
+        ProcessingActivity.SessionState state = new ProcessingActivity.SessionState();
+        // Encoding version 1 always wrote content hashes, which is schema version 2
+        state.setSchemaVersion(version >= 2 ? readVarInt(in) : 2);
+        state.setSessionId(readString(in));
+        state.setUsername(readString(in));
+        state.setOriginalInputFileUriString(readString(in));
+        state.setRootFolderUriString(readString(in));
+        state.setWorkingFolderUriString(readString(in));
+        state.setCurrentSentenceIndex(readVarInt(in) - 1);
+        state.setLastModified(in.readLong());
+
+        int itemCount = readVarInt(in) - 1;
+        if (itemCount >= 0) {
+            List<ProcessingActivity.SentenceItem> items = new ArrayList<>(itemCount);
+            for (int i = 0; i < itemCount; i++) {
+                ProcessingActivity.SentenceItem item = new ProcessingActivity.SentenceItem();
+                item.setIndex(readVarInt(in));
+                String text = readString(in);
+                String contentHash = readString(in);
+                item.setTextAndHash(text, contentHash);
+                item.setRecordedFileName(readString(in));
+                item.setRecordedFileUriString(readString(in));
+                item.setRecordedDurationMs(readVarLong(in));
+                item.setDuplicateOf(readVarInt(in) - 1);
+                item.setSelected((in.readByte() & FLAG_SELECTED) != 0);
+                items.add(item);
+            }
+            state.setSentenceItems(items);
+        }
+        int orderCount = readVarInt(in) - 1;
+        if (orderCount >= 0) {
+            List<Integer> order = new ArrayList<>(orderCount);
+            for (int i = 0; i < orderCount; i++) {
+                order.add(readVarInt(in));
+            }
+            state.setRecordingOrder(order);
+        }
+        if (version >= 3) {
+            state.setRecordingOrderFingerprint(readString(in));
+        }
+        return state;
+    }
+
+    // --- Archive form ---
+
+    /**
+     * @return The session in the binary form, GZIP-compressed, as kept in the archive stores.
+     */
+    public static byte[] toArchive(ProcessingActivity.SessionState state) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (GZIPOutputStream out = new GZIPOutputStream(bytes, ARCHIVE_BUFFER_SIZE)) {
+            writeBinary(state, out);
+        }
+        return bytes.toByteArray();
+    }
+
+    public static ProcessingActivity.SessionState fromArchive(InputStream stream) throws IOException {
+        return readBinary(new GZIPInputStream(stream, ARCHIVE_BUFFER_SIZE));
+    }
+
+    // --- JSON form ---
+
+    public static void writeJson(ProcessingActivity.SessionState state, Writer writer) throws IOException {
+        JsonWriter json = new JsonWriter(writer);
+        json.beginObject();
+        json.name("version").value(VERSION);
+        json.name("schemaVersion").value(state.getSchemaVersion());
+        writeNullable(json, "sessionId", state.getSessionId());
+        writeNullable(json, "username", state.getUsername());
+        writeNullable(json, "originalInputFileUriString", state.getOriginalInputFileUriString());
+        writeNullable(json, "rootFolderUriString", state.getRootFolderUriString());
+        writeNullable(json, "workingFolderUriString", state.getWorkingFolderUriString());
+        json.name("currentSentenceIndex").value(state.getCurrentSentenceIndex());
+        json.name("lastModified").value(state.getLastModified());
+        if (state.getSentenceItems() != null) {
+            json.name("sentenceItems").beginArray();
+            for (ProcessingActivity.SentenceItem item : state.getSentenceItems()) {
+                json.beginObject();
+                json.name("index").value(item.getIndex());
+                writeNullable(json, "text", item.getText());
+                writeNullable(json, "contentHash", item.getContentHash());
+                writeNullable(json, "recordedFileName", item.getRecordedFileName());
+                writeNullable(json, "recordedFileUriString", item.getRecordedFileUriString());
+                if (item.getRecordedDurationMs() != 0) {
+                    json.name("recordedDurationMs").value(item.getRecordedDurationMs());
+                }
+                if (item.getDuplicateOf() != -1) {
+                    json.name("duplicateOf").value(item.getDuplicateOf());
+                }
+                if (item.isSelected()) {
+                    json.name("selected").value(true);
+                }
+                json.endObject();
+            }
+            json.endArray();
+        }
+        if (state.getRecordingOrder() != null) {
+            json.name("recordingOrder").beginArray();
+            for (int index : state.getRecordingOrder()) {
+                json.value(index);
+            }
+            json.endArray();
+        }
+        if (state.getRecordingOrderFingerprint() != null) {
+            json.name("recordingOrderFingerprint").value(state.getRecordingOrderFingerprint());
+        }
+        json.endObject();
+        json.flush();
+    }
+
+    public static ProcessingActivity.SessionState readJson(Reader reader) throws IOException {
+        JsonReader json = new JsonReader(reader);
+        ProcessingActivity.SessionState state = new ProcessingActivity.SessionState();
+        json.beginObject();
+        while (json.hasNext()) {
+            String name = json.nextName();
+            if (json.peek() == JsonToken.NULL) {
+                json.nextNull();
+                continue;
+            }
+            switch (name) {
+                case "version":
+                    int version = json.nextInt(); // Absent in files written by Gson, which match version 1
+                    if (version > VERSION) {
+                        throw new IOException("Unsupported session encoding version " + version);
+                    }
+                    break;
+                case "schemaVersion": state.setSchemaVersion(json.nextInt()); break;
+                case "sessionId": state.setSessionId(json.nextString()); break;
+                case "username": state.setUsername(json.nextString()); break;
+                case "originalInputFileUriString": state.setOriginalInputFileUriString(json.nextString()); break;
+                case "rootFolderUriString": state.setRootFolderUriString(json.nextString()); break;
+                case "workingFolderUriString": state.setWorkingFolderUriString(json.nextString()); break;
+                case "currentSentenceIndex": state.setCurrentSentenceIndex(json.nextInt()); break;
+                case "lastModified": state.setLastModified(json.nextLong()); break;
+                case "sentenceItems": state.setSentenceItems(readJsonItems(json)); break;
+                case "recordingOrder":
+                    List<Integer> order = new ArrayList<>();
+                    json.beginArray();
+                    while (json.hasNext()) {
+                        order.add(json.nextInt());
+                    }
+                    json.endArray();
+                    state.setRecordingOrder(order);
+                    break;
+                case "recordingOrderFingerprint": state.setRecordingOrderFingerprint(json.nextString()); break;
+                default: json.skipValue(); break;
+            }
+        }
+        json.endObject();
+        return state;
+    }
+
+    private static List<ProcessingActivity.SentenceItem> readJsonItems(JsonReader json) throws IOException {
+        List<ProcessingActivity.SentenceItem> items = new ArrayList<>();
+        json.beginArray();
+        while (json.hasNext()) {
+            ProcessingActivity.SentenceItem item = new ProcessingActivity.SentenceItem();
+            String text = null;
+            String contentHash = null;
+            json.beginObject();
+            while (json.hasNext()) {
+                String name = json.nextName();
+                if (json.peek() == JsonToken.NULL) {
+                    json.nextNull();
+                    continue;
+                }
+                switch (name) {
+                    case "index": item.setIndex(json.nextInt()); break;
+                    case "text": text = json.nextString(); break;
+                    case "contentHash": contentHash = json.nextString(); break;
+                    case "recordedFileName": item.setRecordedFileName(json.nextString()); break;
+                    case "recordedFileUriString": item.setRecordedFileUriString(json.nextString()); break;
+                    case "recordedDurationMs": item.setRecordedDurationMs(json.nextLong()); break;
+                    case "duplicateOf": item.setDuplicateOf(json.nextInt()); break;
+                    case "selected": item.setSelected(json.nextBoolean()); break;
+                    default: json.skipValue(); break;
+                }
+            }
+            json.endObject();
+            item.setTextAndHash(text, contentHash);
+            items.add(item);
+        }
+        json.endArray();
+        return items;
+    }
+
+    // --- Firestore documents ---
+
+    /**
+     * Reads a session header (or a legacy single-document session) from a Firestore document's
+     * data map, replacing the reflective {@code toObject(SessionState.class)}.
+     */
+    @SuppressWarnings("unchecked")
+    public static ProcessingActivity.SessionState fromDocument(Map<String, Object> data) {
+        ProcessingActivity.SessionState state = new ProcessingActivity.SessionState();
+        state.setSessionId((String) data.get("sessionId"));
+        state.setUsername((String) data.get("username"));
+        state.setOriginalInputFileUriString((String) data.get("originalInputFileUriString"));
+        state.setRootFolderUriString((String) data.get("rootFolderUriString"));
+        state.setWorkingFolderUriString((String) data.get("workingFolderUriString"));
+        state.setCurrentSentenceIndex(intValue(data.get("currentSentenceIndex"), -1));
+        state.setLastModified(longValue(data.get("lastModified"), 0));
+        state.setSchemaVersion(intValue(data.get("schemaVersion"), 0));
+        Object items = data.get("sentenceItems");
+        if (items instanceof List) {
+            List<ProcessingActivity.SentenceItem> sentenceItems = new ArrayList<>();
+            for (Object element : (List<Object>) items) {
+                if (!(element instanceof Map)) {
+                    continue;
+                }
+                Map<String, Object> itemData = (Map<String, Object>) element;
+                ProcessingActivity.SentenceItem item = new ProcessingActivity.SentenceItem();
+                item.setIndex(intValue(itemData.get("index"), sentenceItems.size()));
+                item.setTextAndHash((String) itemData.get("text"), (String) itemData.get("contentHash"));
+                item.setRecordedFileName((String) itemData.get("recordedFileName"));
+                item.setRecordedFileUriString((String) itemData.get("recordedFileUriString"));
+                item.setRecordedDurationMs(longValue(itemData.get("recordedDurationMs"), 0));
+                item.setDuplicateOf(intValue(itemData.get("duplicateOf"), -1));
+                sentenceItems.add(item);
+            }
+            state.setSentenceItems(sentenceItems);
+        }
+        return state;
+    }
+
+    /**
+     * Reads a {@link SessionSummary} from a Firestore document's data map.
+     */
+    public static SessionSummary summaryFromDocument(Map<String, Object> data) {
+        SessionSummary summary = new SessionSummary();
+        summary.setSessionId((String) data.get("sessionId"));
+        summary.setUsername((String) data.get("username"));
+        summary.setLastModified(longValue(data.get("lastModified"), 0));
+        summary.setRecordedCount(intValue(data.get("recordedCount"), 0));
+        summary.setTotalCount(intValue(data.get("totalCount"), 0));
+        summary.setDurationMs(longValue(data.get("durationMs"), 0));
+        summary.setArchived(Boolean.TRUE.equals(data.get("archived")));
+        return summary;
+    }
+
+    private static int intValue(Object value, int fallback) {
+        return (value instanceof Number) ? ((Number) value).intValue() : fallback;
+    }
+
+    private static long longValue(Object value, long fallback) {
+        return (value instanceof Number) ? ((Number) value).longValue() : fallback;
+    }
+
+    // --- Primitives ---
+
+    private static void writeNullable(JsonWriter json, String name, String value) throws IOException {
+        if (value != null) {
+            json.name(name).value(value);
+        }
+    }
+
+    private static void writeString(DataOutput out, String value) throws IOException {
+        if (value == null) {
+            writeVarInt(out, 0);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarInt(out, bytes.length + 1); // 0 is reserved for null
+        out.write(bytes);
+    }
+
+    private static String readString(DataInput in) throws IOException {
+        int length = readVarInt(in) - 1;
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeVarInt(DataOutput out, int value) throws IOException {
+        writeVarLong(out, value & 0xFFFFFFFFL);
+    }
+
+    private static int readVarInt(DataInput in) throws IOException {
+        return (int) readVarLong(in);
+    }
+
+    // Unsigned LEB128: 7 bits per byte, high bit set on all but the last byte.
+    private static void writeVarLong(DataOutput out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    private static long readVarLong(DataInput in) throws IOException {
+        long result = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.readByte();
+            result |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+        }
+        throw new IOException("Malformed variable-length integer.");
+    }
+}
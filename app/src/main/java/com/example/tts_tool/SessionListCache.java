@@ -0,0 +1,134 @@
+package com.example.tts_tool;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps the first page of the session list in the cache directory (and in memory) so the Load
+ * Session dialog can render it before anything else answers. The dialog revalidates it right
+ * after rendering. Only LocalSessionRepository writes it, on its I/O thread: a save moves that
+ * one session to its new place in the page rather than dropping the page.
+ *
+ * The cache holds at most {@link #MAX_ENTRIES} summaries, a few kilobytes per user.
+ */
+public class SessionListCache {
+
+    private static final String TAG = "SessionListCache";
+    static final int MAX_ENTRIES = 50;
+
+    // Shared by all instances so a warm process never touches the disk.
+    private static final Map<String, List<SessionSummary>> memoryCache = new HashMap<>();
+
+    private final File file;
+    private final String userId;
+    private final Gson gson = new Gson();
+
+    public SessionListCache(Context context, String userId) {
+        this.userId = userId;
+        this.file = new File(context.getCacheDir(), "session_list_" + Integer.toHexString(userId.hashCode()) + ".json");
+    }
+
+    /**
+     * @return The cached first page, or null if there is none (never cached or invalidated).
+     */
+    public List<SessionSummary> read() {
+        synchronized (memoryCache) {
+            List<SessionSummary> cached = memoryCache.get(userId);
+            if (cached != null) {
+                return new ArrayList<>(cached);
+            }
+        }
+        if (!file.exists()) {
+            return null;
+        }
+        try (Reader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+            Type type = new TypeToken<List<SessionSummary>>() {}.getType();
+            List<SessionSummary> cached = gson.fromJson(reader, type);
+            if (cached != null) {
+                synchronized (memoryCache) {
+                    memoryCache.put(userId, cached);
+                }
+                return new ArrayList<>(cached);
+            }
+        } catch (IOException | RuntimeException e) {
+            Log.e(TAG, "Discarding unreadable session list cache", e);
+            invalidate();
+        }
+        return null;
+    }
+
+    /**
+     * Replaces the cached page with the first {@link #MAX_ENTRIES} entries of {@code summaries}.
+     */
+    public void write(List<SessionSummary> summaries) {
+        List<SessionSummary> bounded = new ArrayList<>(summaries.subList(0, Math.min(summaries.size(), MAX_ENTRIES)));
+        synchronized (memoryCache) {
+            memoryCache.put(userId, bounded);
+        }
+        File temp = new File(file.getPath() + ".tmp");
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(temp), StandardCharsets.UTF_8))) {
+            gson.toJson(bounded, writer);
+        } catch (IOException e) {
+            Log.e(TAG, "Error writing session list cache", e);
+            return;
+        }
+        if (!temp.renameTo(file)) {
+            Log.w(TAG, "Could not replace session list cache " + file);
+        }
+    }
+
+    /**
+     * Puts one session's summary at its place in the cached page, replacing its previous entry.
+     * A summary that sorts after the whole page is left out, since the page only holds the
+     * beginning of the list. Does nothing when no page is cached.
+     */
+    public void update(SessionSummary summary) {
+        List<SessionSummary> cached = read();
+        if (cached == null) {
+            return;
+        }
+        for (int i = 0; i < cached.size(); i++) {
+            if (cached.get(i).getSessionId().equals(summary.getSessionId())) {
+                cached.remove(i);
+                break;
+            }
+        }
+        int position = 0;
+        while (position < cached.size() && SessionStates.NEWEST_FIRST.compare(cached.get(position), summary) < 0) {
+            position++;
+        }
+        if (position < cached.size()) {
+            cached.add(position, summary);
+        }
+        write(cached);
+    }
+
+    public void invalidate() {
+        synchronized (memoryCache) {
+            memoryCache.remove(userId);
+        }
+        if (file.exists() && !file.delete()) {
+            Log.w(TAG, "Could not delete session list cache " + file);
+        }
+    }
+}
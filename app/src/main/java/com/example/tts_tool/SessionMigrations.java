@@ -0,0 +1,83 @@
+package com.example.tts_tool;
+
+import java.util.List;
+
+/**
+ * Brings stored sessions up to {@link #CURRENT_VERSION}, one version at a time. The chain runs
+ * lazily when a session is read. The store that read an old session writes the result back, so
+ * each session is converted once and later loads pay nothing.
+ *
+ * Schema versions:
+ * <ol>
+ * <li>Sentences carry index, text and recording: the original single-document layout, which
+ * has no version field.</li>
+ * <li>Every sentence carries the content hash of its text; recordings follow sentences by
+ * hash.</li>
+ * <li>Sentences carry near-duplicate flags and the duration of their take, and sessions carry
+ * a recording order.</li>
+ * </ol>
+ * To change the schema, bump {@link #CURRENT_VERSION} and append the migration from the
+ * previous version to {@link #MIGRATIONS}.
+ */
+final class SessionMigrations {
+
+    static final int CURRENT_VERSION = 3;
+
+    private interface Migration {
+        void migrate(ProcessingActivity.SessionState state);
+    }
+
+    // MIGRATIONS[v - 1] lifts a session from version v to v + 1.
+    private static final Migration[] MIGRATIONS = {
+            SessionMigrations::addContentHashes,
+            SessionMigrations::checkAnalysisFields,
+    };
+
+    private SessionMigrations() {}
+
+    /**
+     * Migrates {@code state} in place.
+     * @return True if the session was changed and should be written back.
+     */
+    static boolean migrate(ProcessingActivity.SessionState state) {
+        int version = Math.max(1, state.getSchemaVersion()); // 0: read from data without a version
+        if (version >= CURRENT_VERSION) {
+            return false;
+        }
+        for (; version < CURRENT_VERSION; version++) {
+            MIGRATIONS[version - 1].migrate(state);
+        }
+        state.setSchemaVersion(CURRENT_VERSION);
+        return true;
+    }
+
+    // 1 -> 2: hash every sentence once, instead of on every access after each load.
+    private static void addContentHashes(ProcessingActivity.SessionState state) {
+        if (state.getSentenceItems() == null) {
+            return;
+        }
+        for (ProcessingActivity.SentenceItem item : state.getSentenceItems()) {
+            if (item.getText() != null) {
+                item.getContentHash(); // Computes and keeps the missing hash
+            }
+        }
+    }
+
+    // 2 -> 3: the new fields default to "unknown"; drop values that don't fit the sentences.
+    // Take durations stay 0 (unknown) and are read from the file when recordings are re-attached.
+    private static void checkAnalysisFields(ProcessingActivity.SessionState state) {
+        List<ProcessingActivity.SentenceItem> items = state.getSentenceItems();
+        if (items == null) {
+            return;
+        }
+        for (int i = 0; i < items.size(); i++) {
+            ProcessingActivity.SentenceItem item = items.get(i);
+            if (item.getDuplicateOf() >= i || item.getDuplicateOf() < -1) {
+                item.setDuplicateOf(-1); // Duplicates always point at an earlier sentence
+            }
+        }
+        if (state.getRecordingOrder() != null && !RecordingOrderPlanner.isValidOrder(state.getRecordingOrder(), items.size())) {
+            state.setRecordingOrder(null);
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package com.example.tts_tool;
+
+import android.content.Context;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Hands out one session repository per signed-in user, shared by all screens so that their
+ * reads and writes go through the same local store and replication queue.
+ */
+public final class SessionRepositories {
+
+    private static final Map<String, SyncingSessionRepository> repositories = new HashMap<>();
+
+    private SessionRepositories() {}
+
+    public static synchronized SyncingSessionRepository get(Context context, String userId) {
+        SyncingSessionRepository repository = repositories.get(userId);
+        if (repository == null) {
+            repository = new SyncingSessionRepository(context, userId);
+            repositories.put(userId, repository);
+        }
+        return repository;
+    }
+}
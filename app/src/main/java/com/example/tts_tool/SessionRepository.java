@@ -0,0 +1,44 @@
+package com.example.tts_tool;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Source of truth for recording sessions. Implementations serve every read from local storage;
+ * remote replication (if any) happens behind this interface.
+ *
+ * Callbacks are delivered on the thread the implementation was set up for (the main thread in
+ * the app, the calling thread in {@link InMemorySessionRepository}).
+ */
+public interface SessionRepository {
+
+    interface Callback<T> {
+        void onResult(T result);
+        void onError(Exception e);
+    }
+
+    /**
+     * Loads a complete session, including its sentence items.
+     */
+    void loadSession(String sessionId, Callback<ProcessingActivity.SessionState> callback);
+
+    /**
+     * Lists one page of session summaries, newest first. Never reads the sessions themselves.
+     * @param after The last summary of the previous page (the keyset cursor), or null for the first page.
+     * @param pageSize Maximum number of summaries to return; fewer means the list has ended.
+     */
+    void listSessions(SessionSummary after, int pageSize, Callback<List<SessionSummary>> callback);
+
+    /**
+     * Saves a complete session, replacing any previous state stored under its ID.
+     * @param callback May be null.
+     */
+    void saveSession(ProcessingActivity.SessionState sessionState, Callback<Void> callback);
+
+    /**
+     * Saves the recording state of some sentences of a session plus its header fields.
+     * @param header The session header; its sentence items are ignored.
+     * @param takes The sentences whose recording state changed.
+     */
+    void saveTakes(ProcessingActivity.SessionState header, Collection<ProcessingActivity.SentenceItem> takes);
+}
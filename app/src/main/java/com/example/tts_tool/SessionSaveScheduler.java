@@ -0,0 +1,129 @@
+package com.example.tts_tool;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Coalesces per-sentence session changes in memory and hands them to the session repository at
+ * most once per save window, as a single {@link SessionRepository#saveTakes} call. Recording
+ * quickly no longer fires one write per take and deletion; repeated changes to the same sentence
+ * within a window collapse into one write (and one Firestore WriteBatch when replicated).
+ *
+ * All methods must be called on the main thread. {@link #flushNow()} should be called when the
+ * activity is backgrounded and before it exits.
+ */
+public class SessionSaveScheduler {
+
+    private static final String TAG = "SessionSaveScheduler";
+
+    private final SessionRepository repository;
+    private final long saveWindowMs;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Runnable flushRunnable = this::flushNow;
+
+    // Dirty take state of the pending session, keyed by sentence index; later changes replace earlier ones.
+    private final Map<Integer, ProcessingActivity.SentenceItem> dirtyTakes = new LinkedHashMap<>();
+    private String pendingSessionId;
+    private ProcessingActivity.SessionState pendingHeader;
+    private boolean flushScheduled = false;
+    private long lastFlushTime = 0;
+
+    // Statistics: writes the callers asked for vs. documents actually written.
+    private long requestedWrites = 0;
+    private long committedWrites = 0;
+    private long flushes = 0;
+
+    /**
+     * @param repository The repository the coalesced changes are saved to.
+     * @param saveWindowMs Minimum time between two flushes, in milliseconds.
+     */
+    public SessionSaveScheduler(SessionRepository repository, long saveWindowMs) {
+        this.repository = repository;
+        this.saveWindowMs = saveWindowMs;
+    }
+
+    /**
+     * Records that a sentence's recording state changed. The take and the session header are
+     * written with the next flush.
+     * @param sessionId The session the change belongs to.
+     * @param item The sentence whose recording was added or removed. Its state is copied now.
+     * @param header The session header as of this change (current index, last modified, ...).
+     */
+    public void markTakeDirty(String sessionId, ProcessingActivity.SentenceItem item, ProcessingActivity.SessionState header) {
+        if (pendingSessionId != null && !pendingSessionId.equals(sessionId)) {
+            flushNow(); // Changes of another session must not end up under the new ID
+        }
+        pendingSessionId = sessionId;
+        pendingHeader = header;
+        dirtyTakes.put(item.getIndex(), copyTakeState(item));
+        requestedWrites += 2; // Without coalescing each change writes its take and the header
+        scheduleFlush();
+    }
+
+    /**
+     * Saves all pending changes immediately in one call.
+     */
+    public void flushNow() {
+        handler.removeCallbacks(flushRunnable);
+        flushScheduled = false;
+        if (pendingSessionId == null || pendingHeader == null) {
+            return;
+        }
+        final String sessionId = pendingSessionId;
+        int writes = dirtyTakes.size() + 1; // The takes plus the header
+        repository.saveTakes(pendingHeader, new ArrayList<>(dirtyTakes.values()));
+        committedWrites += writes;
+        flushes++;
+        dirtyTakes.clear();
+        pendingHeader = null;
+        pendingSessionId = null;
+        lastFlushTime = SystemClock.elapsedRealtime();
+        Log.d(TAG, "Flushed " + writes + " writes for session " + sessionId + ". " + getStatsSummary());
+    }
+
+    public boolean hasPendingChanges() {
+        return pendingSessionId != null;
+    }
+
+    public long getRequestedWrites() {
+        return requestedWrites;
+    }
+
+    public long getCommittedWrites() {
+        return committedWrites;
+    }
+
+    public String getStatsSummary() {
+        long saved = requestedWrites - committedWrites;
+        return "Writes requested: " + requestedWrites + ", written: " + committedWrites
+                + " in " + flushes + " flushes, saved by coalescing: " + Math.max(0, saved) + ".";
+    }
+
+    private void scheduleFlush() {
+        if (flushScheduled) {
+            return;
+        }
+        long sinceLastFlush = SystemClock.elapsedRealtime() - lastFlushTime;
+        long delay = Math.max(0, saveWindowMs - sinceLastFlush);
+        // Always wait at least a short moment so that a burst of changes lands in one batch.
+        delay = Math.max(delay, Math.min(saveWindowMs, 250));
+        handler.postDelayed(flushRunnable, delay);
+        flushScheduled = true;
+    }
+
+    private static ProcessingActivity.SentenceItem copyTakeState(ProcessingActivity.SentenceItem item) {
+        ProcessingActivity.SentenceItem copy = new ProcessingActivity.SentenceItem();
+        copy.setIndex(item.getIndex());
+        copy.setContentHash(item.getContentHash());
+        copy.setRecordedFileName(item.getRecordedFileName());
+        copy.setRecordedFileUriString(item.getRecordedFileUriString());
+        copy.setRecordedDurationMs(item.getRecordedDurationMs());
+        return copy;
+    }
+}
@@ -0,0 +1,61 @@
+package com.example.tts_tool;
+
+import androidx.lifecycle.ViewModel;
+
+import java.util.List;
+
+/**
+ * Keeps the live session of ProcessingActivity across configuration changes. The activity hands
+ * its references over in onSaveInstanceState and takes them back in onCreate, so nothing is
+ * copied or serialized and a rotation costs the same for any length of script.
+ *
+ * Nothing here survives process death. For that the activity only keeps a pointer to the session
+ * in its Bundle and reloads the session from the local session store.
+ */
+public class SessionStateHolder extends ViewModel {
+
+    private String userId;
+    private ProcessingActivity.SessionState session;
+    private List<ProcessingActivity.SentenceItem> displayedItems;
+    private int[] recordingOrder;
+    private int[] recordingOrderPositions;
+    private boolean duplicatesDetected;
+    private List<ProcessingActivity.SentenceItem> pendingReattach;
+
+    /**
+     * Retains the given state by reference.
+     * @param session The session header and the live sentence list (not a copy).
+     * @param displayedItems The list backing the SentenceAdapter.
+     * @param pendingReattach The stored sentence items whose recordings are not attached yet, or null.
+     */
+    public void retain(String userId, ProcessingActivity.SessionState session, List<ProcessingActivity.SentenceItem> displayedItems,
+                       int[] recordingOrder, int[] recordingOrderPositions, boolean duplicatesDetected,
+                       List<ProcessingActivity.SentenceItem> pendingReattach) {
+        this.userId = userId;
+        this.session = session;
+        this.displayedItems = displayedItems;
+        this.recordingOrder = recordingOrder;
+        this.recordingOrderPositions = recordingOrderPositions;
+        this.duplicatesDetected = duplicatesDetected;
+        this.pendingReattach = pendingReattach;
+    }
+
+    public boolean hasSession() {
+        return session != null && session.getSentenceItems() != null && displayedItems != null;
+    }
+
+    public String getUserId() { return userId; }
+    public ProcessingActivity.SessionState getSession() { return session; }
+    public List<ProcessingActivity.SentenceItem> getDisplayedItems() { return displayedItems; }
+    public int[] getRecordingOrder() { return recordingOrder; }
+    public int[] getRecordingOrderPositions() { return recordingOrderPositions; }
+    public boolean isDuplicatesDetected() { return duplicatesDetected; }
+    public List<ProcessingActivity.SentenceItem> getPendingReattach() { return pendingReattach; }
+
+    @Override
+    protected void onCleared() {
+        session = null;
+        displayedItems = null;
+        pendingReattach = null;
+    }
+}
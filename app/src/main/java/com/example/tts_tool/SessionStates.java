@@ -0,0 +1,112 @@
+package com.example.tts_tool;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Copy and merge helpers shared by the session repositories.
+ */
+final class SessionStates {
+
+    /**
+     * Order of the session list and key of its pagination: newest first, ties broken by ID
+     * (descending, matching the default index Firestore uses for the same query).
+     */
+    static final Comparator<SessionSummary> NEWEST_FIRST = (s1, s2) -> {
+        int byTime = Long.compare(s2.getLastModified(), s1.getLastModified());
+        return byTime != 0 ? byTime : s2.getSessionId().compareTo(s1.getSessionId());
+    };
+
+    private SessionStates() {}
+
+    /**
+     * @param withItems Whether to deep-copy the sentence items; header-only copies leave them null.
+     */
+    static ProcessingActivity.SessionState copy(ProcessingActivity.SessionState source, boolean withItems) {
+        ProcessingActivity.SessionState copy = new ProcessingActivity.SessionState();
+        copyHeader(source, copy);
+        if (withItems && source.getSentenceItems() != null) {
+            List<ProcessingActivity.SentenceItem> items = new ArrayList<>(source.getSentenceItems().size());
+            for (ProcessingActivity.SentenceItem item : source.getSentenceItems()) {
+                items.add(new ProcessingActivity.SentenceItem(item));
+            }
+            copy.setSentenceItems(items);
+        }
+        if (withItems && source.getRecordingOrder() != null) {
+            copy.setRecordingOrder(new ArrayList<>(source.getRecordingOrder()));
+            copy.setRecordingOrderFingerprint(source.getRecordingOrderFingerprint());
+        }
+        return copy;
+    }
+
+    /**
+     * Copies the header fields (everything but sentence items and recording order).
+     */
+    static void copyHeader(ProcessingActivity.SessionState source, ProcessingActivity.SessionState target) {
+        target.setSessionId(source.getSessionId());
+        target.setUsername(source.getUsername());
+        target.setOriginalInputFileUriString(source.getOriginalInputFileUriString());
+        target.setRootFolderUriString(source.getRootFolderUriString());
+        target.setWorkingFolderUriString(source.getWorkingFolderUriString());
+        target.setCurrentSentenceIndex(source.getCurrentSentenceIndex());
+        target.setSchemaVersion(source.getSchemaVersion());
+        target.setLastModified(source.getLastModified());
+    }
+
+    /**
+     * Applies a header and the recording state of some sentences to a stored session. Takes beyond
+     * the stored sentence list grow it with placeholders, as the remote layout does.
+     */
+    static void applyTakes(ProcessingActivity.SessionState stored, ProcessingActivity.SessionState header,
+                           Collection<ProcessingActivity.SentenceItem> takes) {
+        copyHeader(header, stored);
+        List<ProcessingActivity.SentenceItem> items = stored.getSentenceItems();
+        if (items == null) {
+            items = new ArrayList<>();
+            stored.setSentenceItems(items);
+        }
+        for (ProcessingActivity.SentenceItem take : takes) {
+            int index = take.getIndex();
+            if (index < 0) {
+                continue;
+            }
+            while (items.size() <= index) {
+                ProcessingActivity.SentenceItem placeholder = new ProcessingActivity.SentenceItem();
+                placeholder.setIndex(items.size());
+                items.add(placeholder);
+            }
+            ProcessingActivity.SentenceItem item = items.get(index);
+            if (take.getContentHash() != null) {
+                item.setContentHash(take.getContentHash());
+            }
+            item.copyRecordingFrom(take);
+        }
+    }
+
+    /**
+     * Returns the page of {@code sorted} (ordered by {@link #NEWEST_FIRST}) that starts right
+     * after {@code after}, found by binary search rather than by offset, so that sessions added
+     * or changed while paging don't shift or repeat entries.
+     * @param after The last summary of the previous page, or null for the first page.
+     */
+    static List<SessionSummary> pageAfter(List<SessionSummary> sorted, SessionSummary after, int pageSize) {
+        int from = 0;
+        if (after != null) {
+            int low = 0;
+            int high = sorted.size();
+            while (low < high) { // First position that sorts strictly after the cursor
+                int mid = (low + high) >>> 1;
+                if (NEWEST_FIRST.compare(sorted.get(mid), after) <= 0) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            from = low;
+        }
+        int to = Math.min(sorted.size(), from + pageSize);
+        return new ArrayList<>(sorted.subList(from, to));
+    }
+}
@@ -0,0 +1,72 @@
+package com.example.tts_tool;
+
+import java.util.List;
+
+/**
+ * A few dozen bytes describing a session for the Load Session list. Stored next to the session
+ * (locally in the summary index, remotely in its own collection) and rewritten on every save,
+ * so that listing sessions never has to read the sessions themselves.
+ */
+public class SessionSummary {
+    String sessionId;
+    String username;
+    long lastModified;
+    int recordedCount;
+    int totalCount;
+    long durationMs; // Total length of all recorded takes
+    boolean archived; // A tombstone: the session itself was moved to the archive store
+
+    public SessionSummary() {} // Needed for Firestore and Gson deserialization
+
+    /**
+     * Summarizes a complete session.
+     */
+    public static SessionSummary of(ProcessingActivity.SessionState sessionState) {
+        SessionSummary summary = new SessionSummary();
+        summary.sessionId = sessionState.getSessionId();
+        summary.username = sessionState.getUsername();
+        summary.lastModified = sessionState.getLastModified();
+        List<ProcessingActivity.SentenceItem> items = sessionState.getSentenceItems();
+        if (items != null) {
+            summary.totalCount = items.size();
+            for (ProcessingActivity.SentenceItem item : items) {
+                if (item.getRecordedFileName() != null) {
+                    summary.recordedCount++;
+                    summary.durationMs += item.getRecordedDurationMs();
+                }
+            }
+        }
+        return summary;
+    }
+
+    /**
+     * @return A copy of this summary marking the session as archived.
+     */
+    public SessionSummary toTombstone() {
+        SessionSummary tombstone = new SessionSummary();
+        tombstone.sessionId = sessionId;
+        tombstone.username = username;
+        tombstone.lastModified = lastModified;
+        tombstone.recordedCount = recordedCount;
+        tombstone.totalCount = totalCount;
+        tombstone.durationMs = durationMs;
+        tombstone.archived = true;
+        return tombstone;
+    }
+
+    public String getSessionId() { return sessionId; }
+    public String getUsername() { return username; }
+    public long getLastModified() { return lastModified; }
+    public int getRecordedCount() { return recordedCount; }
+    public int getTotalCount() { return totalCount; }
+    public long getDurationMs() { return durationMs; }
+    public boolean isArchived() { return archived; }
+
+    public void setSessionId(String sessionId) { this.sessionId = sessionId; }
+    public void setUsername(String username) { this.username = username; }
+    public void setLastModified(long lastModified) { this.lastModified = lastModified; }
+    public void setRecordedCount(int recordedCount) { this.recordedCount = recordedCount; }
+    public void setTotalCount(int totalCount) { this.totalCount = totalCount; }
+    public void setDurationMs(long durationMs) { this.durationMs = durationMs; }
+    public void setArchived(boolean archived) { this.archived = archived; }
+}
@@ -0,0 +1,140 @@
+package com.example.tts_tool;
+
+import android.content.Context;
+import android.net.Uri;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Writes {@code <folder>_stats.txt}: how many hours a workspace holds, the distribution of take
+ * durations and speaking rates, and a summary per speaker (see {@link DatasetStatistics}). The
+ * selected folder is either a working folder or a folder of working folders, one per speaker
+ * and script.
+ *
+ * Durations come from the WAV headers alone ({@link WavHeader}), read on a pool of threads since
+ * each read mostly waits on the documents provider. Each take's sentence is taken from the
+ * script, as in the exports; duplicates count only the latest take.
+ */
+public class StatisticsReportTask extends FileExportTask {
+
+    static final String OUTPUT_SUFFIX = "_stats.txt";
+    // Header reads block on binder calls rather than the CPU, so more threads than cores pay off.
+    private static final int THREADS_PER_CORE = 4;
+
+    public StatisticsReportTask(Context context, Uri folderUri, Listener listener) {
+        super(context, folderUri, listener);
+    }
+
+    @Override
+    protected String getOutputName() {
+        return getFolderName() + OUTPUT_SUFFIX;
+    }
+
+    /** A take whose header is still to be read. */
+    private static class Job {
+        final String speaker;
+        final WorkingFolderIndex.Entry take;
+        final int sentenceLength;
+
+        Job(String speaker, WorkingFolderIndex.Entry take, int sentenceLength) {
+            this.speaker = speaker;
+            this.take = take;
+            this.sentenceLength = sentenceLength;
+        }
+    }
+
+    @Override
+    protected String writeTo(WorkingFolderIndex folder, OutputStream out) throws IOException {
+        final DatasetStatistics statistics = new DatasetStatistics();
+        final List<Job> jobs = new ArrayList<>();
+        if (ScriptParser.findScript(folder) != null) {
+            addFolder(folder, getFolderName(), statistics, jobs);
+        } else {
+            for (WorkingFolderIndex.Entry entry : folder.entries()) {
+                if (entry.isDirectory() && entry.getName() != null) {
+                    addFolder(WorkingFolderIndex.query(context.getContentResolver(), entry.getUri()),
+                            entry.getName(), statistics, jobs);
+                }
+            }
+        }
+        if (jobs.isEmpty()) {
+            throw new IOException("No recorded sentences found in the selected folder or its subfolders.");
+        }
+
+        final int total = jobs.size();
+        final AtomicInteger next = new AtomicInteger();
+        int threads = Math.min(total, THREADS_PER_CORE * Runtime.getRuntime().availableProcessors());
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> workers = new ArrayList<>(threads);
+            for (int i = 0; i < threads; i++) {
+                workers.add(pool.submit(() -> {
+                    int index;
+                    while ((index = next.getAndIncrement()) < total) {
+                        readHeader(jobs.get(index), statistics);
+                        reportProgress(index + 1, total);
+                    }
+                    return null;
+                }));
+            }
+            awaitAll(workers);
+        } finally {
+            pool.shutdownNow();
+        }
+
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), OUTPUT_BUFFER_SIZE);
+        statistics.writeReport(writer, getFolderName());
+        writer.flush();
+        return statistics.summarize();
+    }
+
+    // Queues the takes of one working folder; folders without a script are skipped.
+    private void addFolder(WorkingFolderIndex folder, String folderName, DatasetStatistics statistics,
+                           List<Job> jobs) throws IOException {
+        WorkingFolderIndex.Entry script = ScriptParser.findScript(folder);
+        if (script == null) {
+            return;
+        }
+        TakeMatcher takes = TakeMatcher.match(folder, TakeMatcher.DuplicatePolicy.LATEST, context.getContentResolver());
+        String speaker = speakerOf(folderName);
+        try (InputStream in = context.getContentResolver().openInputStream(script.getUri())) {
+            if (in == null) {
+                throw new IOException("Could not open " + script.getName());
+            }
+            ScriptParser.parse(new InputStreamReader(in, StandardCharsets.UTF_8), (index, sentence) -> {
+                WorkingFolderIndex.Entry take = takes.getTake(index);
+                if (take == null) {
+                    statistics.addMissing(speaker);
+                } else {
+                    jobs.add(new Job(speaker, take, sentence.length()));
+                }
+            });
+        }
+        statistics.addFolder();
+    }
+
+    // Runs on the pool.
+    private void readHeader(Job job, DatasetStatistics statistics) {
+        try (InputStream in = context.getContentResolver().openInputStream(job.take.getUri())) {
+            if (in == null) {
+                throw new IOException("Could not open " + job.take.getName());
+            }
+            statistics.addTake(job.speaker, WavHeader.read(in, job.take.getSize()), job.sentenceLength);
+        } catch (IOException | RuntimeException e) {
+            statistics.addUnreadable(job.speaker);
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package com.example.tts_tool;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * The replication queue of {@link SyncingSessionRepository}: what still has to be written to
+ * Firestore per session, in the order sessions were changed, with at most one session in flight.
+ * Work for a session that is queued more than once is merged, so repeated changes are sent once.
+ * A failed write goes back to the front of the queue and is retried after an exponential backoff.
+ *
+ * Plain Java without Android dependencies; the repository persists it as JSON and schedules the
+ * retries. Not thread-safe.
+ */
+final class SyncQueue {
+
+    static final long INITIAL_BACKOFF_MS = 1000;
+    static final long MAX_BACKOFF_MS = 5 * 60 * 1000;
+
+    /** What still has to be written remotely for one session. */
+    static class PendingSync {
+        boolean full;
+        TreeSet<Integer> takeIndices = new TreeSet<>();
+
+        void mergeFrom(PendingSync other) {
+            full |= other.full;
+            takeIndices.addAll(other.takeIndices);
+        }
+    }
+
+    private static final Type JSON_TYPE = new TypeToken<LinkedHashMap<String, PendingSync>>() {}.getType();
+
+    private final Gson gson = new Gson();
+    private final Map<String, PendingSync> pending = new LinkedHashMap<>();
+    private String inFlightSessionId;
+    private PendingSync inFlight;
+    private long backoffMs = INITIAL_BACKOFF_MS;
+
+    /** Queues a full write of the session. */
+    void enqueueFull(String sessionId) {
+        PendingSync sync = new PendingSync();
+        sync.full = true;
+        enqueue(sessionId, sync);
+    }
+
+    /** Queues a write of the given takes of the session. */
+    void enqueueTakes(String sessionId, Collection<Integer> takeIndices) {
+        PendingSync sync = new PendingSync();
+        sync.takeIndices.addAll(takeIndices);
+        enqueue(sessionId, sync);
+    }
+
+    private void enqueue(String sessionId, PendingSync sync) {
+        PendingSync existing = pending.get(sessionId);
+        if (existing == null) {
+            pending.put(sessionId, sync);
+        } else {
+            existing.mergeFrom(sync);
+        }
+    }
+
+    /**
+     * Moves the oldest queued session in flight.
+     * @return Its ID, or null if a session is already in flight or nothing is queued.
+     */
+    String takeNext() {
+        if (inFlight != null || pending.isEmpty()) {
+            return null;
+        }
+        Iterator<Map.Entry<String, PendingSync>> iterator = pending.entrySet().iterator();
+        Map.Entry<String, PendingSync> next = iterator.next();
+        iterator.remove();
+        inFlightSessionId = next.getKey();
+        inFlight = next.getValue();
+        return inFlightSessionId;
+    }
+
+    /** @return What the session in flight needs written, or null if none is. */
+    PendingSync getInFlight() {
+        return inFlight;
+    }
+
+    /**
+     * Ends the write of the session in flight. On failure the work goes back in front of
+     * anything queued since, merged with it, so it is retried first.
+     * @return The delay before the retry on failure, doubling from {@link #INITIAL_BACKOFF_MS}
+     *         up to {@link #MAX_BACKOFF_MS}; 0 on success, which resets the backoff.
+     */
+    long finishInFlight(boolean success) {
+        if (inFlight == null) {
+            return 0;
+        }
+        if (!success) {
+            Map<String, PendingSync> requeued = new LinkedHashMap<>();
+            requeued.put(inFlightSessionId, inFlight);
+            for (Map.Entry<String, PendingSync> entry : pending.entrySet()) {
+                PendingSync existing = requeued.get(entry.getKey());
+                if (existing == null) {
+                    requeued.put(entry.getKey(), entry.getValue());
+                } else {
+                    existing.mergeFrom(entry.getValue());
+                }
+            }
+            pending.clear();
+            pending.putAll(requeued);
+        }
+        inFlightSessionId = null;
+        inFlight = null;
+        if (success) {
+            backoffMs = INITIAL_BACKOFF_MS;
+            return 0;
+        }
+        long delayMs = backoffMs;
+        backoffMs = Math.min(MAX_BACKOFF_MS, backoffMs * 2);
+        return delayMs;
+    }
+
+    /** @return Whether anything is queued or in flight. */
+    boolean hasUnsynced() {
+        return !pending.isEmpty() || inFlight != null;
+    }
+
+    /** @return The sessions queued or in flight. */
+    Collection<String> getUnsyncedSessionIds() {
+        List<String> ids = new ArrayList<>(pending.keySet());
+        if (inFlightSessionId != null) {
+            ids.add(inFlightSessionId);
+        }
+        return ids;
+    }
+
+    /**
+     * @return The queue as JSON, the session in flight included: it stays persisted until
+     *         Firestore confirms it.
+     */
+    String toJson() {
+        Map<String, PendingSync> snapshot = new LinkedHashMap<>();
+        if (inFlightSessionId != null) {
+            snapshot.put(inFlightSessionId, inFlight);
+        }
+        for (Map.Entry<String, PendingSync> entry : pending.entrySet()) {
+            PendingSync existing = snapshot.get(entry.getKey());
+            if (existing == null) {
+                snapshot.put(entry.getKey(), entry.getValue());
+            } else {
+                PendingSync merged = new PendingSync();
+                merged.mergeFrom(existing);
+                merged.mergeFrom(entry.getValue());
+                snapshot.put(entry.getKey(), merged);
+            }
+        }
+        return gson.toJson(snapshot);
+    }
+
+    /**
+     * Queues what {@link #toJson} wrote, merged with anything queued already.
+     * @return The number of sessions restored.
+     * @throws com.google.gson.JsonParseException If the JSON is not a persisted queue.
+     */
+    int restore(String json) {
+        Map<String, PendingSync> restored = gson.fromJson(json, JSON_TYPE);
+        if (restored == null) {
+            return 0;
+        }
+        for (Map.Entry<String, PendingSync> entry : restored.entrySet()) {
+            PendingSync sync = entry.getValue();
+            if (sync.takeIndices == null) {
+                sync.takeIndices = new TreeSet<>();
+            }
+            enqueue(entry.getKey(), sync);
+        }
+        return restored.size();
+    }
+}
@@ -0,0 +1,610 @@
+package com.example.tts_tool;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.google.android.gms.tasks.Task;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FieldPath;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.Query;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Local-first session repository: every read and write goes to a {@link LocalSessionRepository},
+ * and changes are replicated to Firestore in the background.
+ *
+ * Pending replication is tracked per session in a {@link SyncQueue} (either "everything" or a
+ * set of dirty take indices), persisted in SharedPreferences so it survives process death, and
+ * retried with exponential backoff when a write fails. The data to replicate is read from the
+ * local copy when the replication runs, so repeated changes to a session are sent once.
+ *
+ * Listing is served from the local summary index as well, and refreshed from Firestore in the
+ * background, since sessions recorded on other devices are only known there; see
+ * {@link #listSessions}. Such sessions are fetched into local storage the first time they are
+ * loaded. Old sessions can be moved into an archive, see {@link #archiveSessions}.
+ * All methods must be called on the main thread.
+ */
+public class SyncingSessionRepository implements SessionRepository {
+
+    private static final String TAG = "SyncingSessionRepo";
+    private static final String PREFS_NAME = "SessionSyncQueue";
+    // Session documents read per step of the summary backfill; legacy ones hold whole sessions
+    private static final int BACKFILL_PAGE_SIZE = 10;
+
+    /** Told when a background refresh of the session list from Firestore has finished. */
+    public interface SummariesListener {
+        /**
+         * @param changed Whether the refresh changed the local list; false as well when it failed.
+         */
+        void onSummariesRefreshed(boolean changed);
+    }
+
+    private final LocalSessionRepository local;
+    private final FirestoreSessionStore remote;
+    private final SharedPreferences queuePreferences;
+    private final String queueKey;
+    private final String backfillKey;
+    private final String backfillCursorKey;
+    private final String backfillRetryKey;
+    private final String archiveKey;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Runnable replicateRunnable = this::replicateNext;
+    private final List<SummariesListener> summariesListeners = new ArrayList<>();
+
+    private final SyncQueue queue = new SyncQueue();
+    private boolean retryScheduled = false;
+    private boolean backfillRunning = false;
+    private final Set<String> backfillFailed = new HashSet<>();
+    private int backfillWritten;
+    private boolean archiveRunning = false;
+
+    public SyncingSessionRepository(Context context, String userId) {
+        Context appContext = context.getApplicationContext();
+        this.local = new LocalSessionRepository(appContext, userId);
+        this.remote = new FirestoreSessionStore(FirebaseFirestore.getInstance(), appContext.getPackageName(), userId);
+        this.queuePreferences = appContext.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        this.queueKey = "pending_" + userId;
+        this.backfillKey = "summaries_backfilled_" + userId;
+        this.backfillCursorKey = "summaries_backfill_after_" + userId;
+        this.backfillRetryKey = "summaries_backfill_retry_" + userId;
+        this.archiveKey = "archived_at_" + userId;
+        restoreQueue();
+        replicateNext(); // Resume whatever was left over from the last run
+    }
+
+    @Override
+    public void loadSession(String sessionId, Callback<ProcessingActivity.SessionState> callback) {
+        local.loadSession(sessionId, new Callback<ProcessingActivity.SessionState>() {
+            @Override
+            public void onResult(ProcessingActivity.SessionState result) {
+                callback.onResult(result);
+            }
+
+            @Override
+            public void onError(Exception e) {
+                if (e instanceof LocalSessionRepository.SessionArchivedException) {
+                    restoreArchivedSession(sessionId, callback);
+                    return;
+                }
+                if (!(e instanceof LocalSessionRepository.SessionNotFoundException)) {
+                    callback.onError(e);
+                    return;
+                }
+                Log.d(TAG, "Session " + sessionId + " has no local copy, fetching it from Firestore.");
+                remote.loadSession(sessionId, new FirestoreSessionStore.LoadCallback() {
+                    @Override
+                    public void onLoaded(ProcessingActivity.SessionState sessionState) {
+                        if (SessionMigrations.migrate(sessionState)) {
+                            saveSession(sessionState, null); // Also replaces the old remote copy
+                        } else {
+                            local.storeRemoteSession(sessionState);
+                        }
+                        callback.onResult(sessionState);
+                    }
+
+                    @Override
+                    public void onError(Exception remoteError) {
+                        loadRemoteArchive(sessionId, remoteError, callback);
+                    }
+                });
+            }
+        });
+    }
+
+    // The session was archived locally: restore it and replicate it in full, which makes the
+    // remote copy active again.
+    private void restoreArchivedSession(String sessionId, Callback<ProcessingActivity.SessionState> callback) {
+        local.restoreArchivedSession(sessionId, new Callback<ProcessingActivity.SessionState>() {
+            @Override
+            public void onResult(ProcessingActivity.SessionState sessionState) {
+                queue.enqueueFull(sessionId);
+                scheduleReplication();
+                callback.onResult(sessionState);
+            }
+
+            @Override
+            public void onError(Exception e) {
+                callback.onError(e);
+            }
+        });
+    }
+
+    // Sessions archived on any device have no session document left, only their archive.
+    private void loadRemoteArchive(String sessionId, Exception notFound, Callback<ProcessingActivity.SessionState> callback) {
+        remote.loadArchivedSession(sessionId, new FirestoreSessionStore.LoadCallback() {
+            @Override
+            public void onLoaded(ProcessingActivity.SessionState sessionState) {
+                Log.d(TAG, "Restoring session " + sessionId + " from the Firestore archive.");
+                SessionMigrations.migrate(sessionState);
+                saveSession(sessionState, null);
+                callback.onResult(sessionState);
+            }
+
+            @Override
+            public void onError(Exception archiveError) {
+                Log.d(TAG, "Session " + sessionId + " is not archived either: " + archiveError.getMessage());
+                callback.onError(notFound);
+            }
+        });
+    }
+
+    /**
+     * Archives the sessions {@code policy} selects: each one is compressed, moved into the
+     * Firestore archive (its session documents are deleted) and then replaced locally by its
+     * archive file, leaving a tombstone summary in both indexes. Loading an archived session
+     * restores it.
+     *
+     * Sessions are moved one at a time, at most {@link SessionArchivePolicy#getMaxSessionsPerRun()}
+     * per run and at most one run per {@link SessionArchivePolicy#getMinRunIntervalMs()}, so the job
+     * never competes with recording for I/O. Sessions with unreplicated changes are skipped. A
+     * failed remote write ends the run; it is picked up again by the next one.
+     * @param callback Receives the number of sessions archived. May be null.
+     */
+    public void archiveSessions(SessionArchivePolicy policy, Callback<Integer> callback) {
+        long now = System.currentTimeMillis();
+        if (archiveRunning || now - queuePreferences.getLong(archiveKey, 0) < policy.getMinRunIntervalMs()) {
+            if (callback != null) {
+                callback.onResult(0);
+            }
+            return;
+        }
+        archiveRunning = true;
+        local.findArchiveCandidates(policy, now, getUnsyncedSessionIds(), new Callback<List<SessionSummary>>() {
+            @Override
+            public void onResult(List<SessionSummary> candidates) {
+                Log.d(TAG, "Archiving " + candidates.size() + " sessions.");
+                archiveNext(candidates, 0, 0, now, callback);
+            }
+
+            @Override
+            public void onError(Exception e) {
+                finishArchiving(e, 0, now, callback);
+            }
+        });
+    }
+
+    private void archiveNext(List<SessionSummary> candidates, int position, int archived, long startedAt,
+                             Callback<Integer> callback) {
+        if (position == candidates.size()) {
+            finishArchiving(null, archived, startedAt, callback);
+            return;
+        }
+        SessionSummary summary = candidates.get(position);
+        String sessionId = summary.getSessionId();
+        if (queue.getUnsyncedSessionIds().contains(sessionId)) {
+            archiveNext(candidates, position + 1, archived, startedAt, callback); // Changed since it was selected
+            return;
+        }
+        local.compressSession(sessionId, new Callback<byte[]>() {
+            @Override
+            public void onResult(byte[] archive) {
+                remote.archiveSession(sessionId, archive, summary.toTombstone()).addOnCompleteListener(task -> {
+                    if (!task.isSuccessful()) {
+                        Log.e(TAG, "Error archiving session " + sessionId + " in Firestore: " + task.getException());
+                        finishArchiving(task.getException(), archived, startedAt, callback);
+                        return;
+                    }
+                    local.storeArchive(sessionId, archive, new Callback<Void>() {
+                        @Override
+                        public void onResult(Void result) {
+                            Log.d(TAG, "Archived session " + sessionId + " (" + archive.length + " bytes).");
+                            archiveNext(candidates, position + 1, archived + 1, startedAt, callback);
+                        }
+
+                        @Override
+                        public void onError(Exception e) {
+                            // Archived remotely; the local copy stays and is picked again next run
+                            archiveNext(candidates, position + 1, archived, startedAt, callback);
+                        }
+                    });
+                });
+            }
+
+            @Override
+            public void onError(Exception e) {
+                archiveNext(candidates, position + 1, archived, startedAt, callback);
+            }
+        });
+    }
+
+    private void finishArchiving(Exception error, int archived, long startedAt, Callback<Integer> callback) {
+        archiveRunning = false;
+        if (error == null) {
+            queuePreferences.edit().putLong(archiveKey, startedAt).apply();
+        }
+        Log.d(TAG, "Archived " + archived + " sessions.");
+        if (callback == null) {
+            return;
+        }
+        if (error == null) {
+            callback.onResult(archived);
+        } else {
+            callback.onError(error);
+        }
+    }
+
+    /**
+     * Returns the requested page of the local list right away, then refreshes that page from
+     * Firestore in the background (one query, resuming after the cursor) and merges it into the
+     * local index. Only the small summary documents are transferred, however large the sessions
+     * are. The {@link SummariesListener}s are told when the refresh is done, so that a changed
+     * list can be listed again.
+     */
+    @Override
+    public void listSessions(SessionSummary after, int pageSize, Callback<List<SessionSummary>> callback) {
+        local.listSessions(after, pageSize, callback);
+        refreshSummaries(after, pageSize);
+    }
+
+    public void addSummariesListener(SummariesListener listener) {
+        summariesListeners.add(listener);
+    }
+
+    public void removeSummariesListener(SummariesListener listener) {
+        summariesListeners.remove(listener);
+    }
+
+    private void notifySummariesRefreshed(boolean changed) {
+        for (SummariesListener listener : new ArrayList<>(summariesListeners)) {
+            listener.onSummariesRefreshed(changed);
+        }
+    }
+
+    private void refreshSummaries(SessionSummary after, int pageSize) {
+        if (after == null) {
+            startBackfill(pageSize);
+        }
+        fetchSummaries(after, pageSize);
+    }
+
+    private void fetchSummaries(SessionSummary after, int pageSize) {
+        Query query = remote.summariesCollection()
+                .orderBy("lastModified", Query.Direction.DESCENDING)
+                .orderBy(FieldPath.documentId(), Query.Direction.DESCENDING)
+                .limit(pageSize);
+        if (after != null) {
+            query = query.startAfter(after.getLastModified(), after.getSessionId());
+        }
+        query.get().addOnCompleteListener(task -> {
+            if (!task.isSuccessful() || task.getResult() == null) {
+                Log.w(TAG, "Could not refresh session summaries from Firestore: " + task.getException());
+                notifySummariesRefreshed(false);
+                return;
+            }
+            local.mergeRemoteSummaries(toSummaries(task.getResult().getDocuments()), getUnsyncedSessionIds(),
+                    new Callback<Boolean>() {
+                        @Override
+                        public void onResult(Boolean changed) {
+                            notifySummariesRefreshed(changed);
+                        }
+
+                        @Override
+                        public void onError(Exception e) {
+                            notifySummariesRefreshed(false);
+                        }
+                    });
+        });
+    }
+
+    private static List<SessionSummary> toSummaries(List<DocumentSnapshot> documents) {
+        List<SessionSummary> summaries = new ArrayList<>(documents.size());
+        for (DocumentSnapshot document : documents) {
+            try {
+                Map<String, Object> data = document.getData();
+                SessionSummary summary = (data != null) ? SessionCodec.summaryFromDocument(data) : null;
+                if (summary != null && summary.getSessionId() != null) {
+                    summaries.add(summary);
+                }
+            } catch (Exception e) {
+                Log.e(TAG, "Error deserializing session summary " + document.getId(), e);
+            }
+        }
+        return summaries;
+    }
+
+    // Sessions saved before summaries existed have none. Theirs are written in the background, a
+    // page of session documents at a time, so listing never waits for it. The scan position and
+    // the sessions that failed are kept: an interrupted backfill resumes where it stopped, failed
+    // sessions are retried, and it only counts as done once every session has a summary.
+    private void startBackfill(int pageSize) {
+        if (backfillRunning || queuePreferences.getBoolean(backfillKey, false)) {
+            return;
+        }
+        backfillRunning = true;
+        backfillFailed.clear();
+        backfillWritten = 0;
+        remote.summariesCollection().get().addOnCompleteListener(task -> {
+            if (!task.isSuccessful() || task.getResult() == null) {
+                Log.w(TAG, "Could not list summaries for the backfill: " + task.getException());
+                finishBackfill(false, pageSize);
+                return;
+            }
+            Set<String> summarized = new HashSet<>();
+            for (DocumentSnapshot document : task.getResult().getDocuments()) {
+                summarized.add(document.getId());
+            }
+            List<String> retry = new ArrayList<>();
+            for (String sessionId : queuePreferences.getStringSet(backfillRetryKey, Collections.emptySet())) {
+                if (!summarized.contains(sessionId)) {
+                    retry.add(sessionId);
+                }
+            }
+            backfillSessions(retry, Collections.emptyMap(), 0,
+                    () -> backfillPage(summarized, queuePreferences.getString(backfillCursorKey, null), pageSize));
+        });
+    }
+
+    private void backfillPage(Set<String> summarized, String cursor, int pageSize) {
+        Query query = remote.sessionsCollection()
+                .orderBy(FieldPath.documentId(), Query.Direction.ASCENDING)
+                .limit(BACKFILL_PAGE_SIZE);
+        if (cursor != null) {
+            query = query.startAfter(cursor);
+        }
+        query.get().addOnCompleteListener(task -> {
+            if (!task.isSuccessful() || task.getResult() == null) {
+                Log.w(TAG, "Could not list sessions for the summary backfill: " + task.getException());
+                finishBackfill(false, pageSize);
+                return;
+            }
+            List<DocumentSnapshot> documents = task.getResult().getDocuments();
+            List<String> missing = new ArrayList<>();
+            Map<String, Map<String, Object>> legacyData = new HashMap<>();
+            for (DocumentSnapshot document : documents) {
+                if (summarized.contains(document.getId())) {
+                    continue;
+                }
+                missing.add(document.getId());
+                Map<String, Object> data = document.getData();
+                if (data != null && data.get("sentenceItems") != null) {
+                    legacyData.put(document.getId(), data); // Holds the whole session; no need to load it again
+                }
+            }
+            backfillSessions(missing, legacyData, 0, () -> {
+                String next = documents.isEmpty() ? cursor : documents.get(documents.size() - 1).getId();
+                queuePreferences.edit()
+                        .putString(backfillCursorKey, next)
+                        .putStringSet(backfillRetryKey, new HashSet<>(backfillFailed))
+                        .apply();
+                if (documents.size() < BACKFILL_PAGE_SIZE) {
+                    finishBackfill(backfillFailed.isEmpty(), pageSize);
+                } else {
+                    backfillPage(summarized, next, pageSize);
+                }
+            });
+        });
+    }
+
+    // Writes the summaries of the given sessions one at a time, noting those that fail.
+    private void backfillSessions(List<String> sessionIds, Map<String, Map<String, Object>> legacyData,
+                                  int position, Runnable then) {
+        if (position == sessionIds.size()) {
+            then.run();
+            return;
+        }
+        String sessionId = sessionIds.get(position);
+        Runnable next = () -> backfillSessions(sessionIds, legacyData, position + 1, then);
+        Map<String, Object> data = legacyData.get(sessionId);
+        if (data != null) {
+            try {
+                ProcessingActivity.SessionState sessionState = SessionCodec.fromDocument(data);
+                sessionState.setSessionId(sessionId);
+                writeBackfilledSummary(sessionState, next);
+            } catch (Exception e) {
+                Log.e(TAG, "Error reading session " + sessionId + " for the summary backfill", e);
+                backfillFailed.add(sessionId);
+                next.run();
+            }
+            return;
+        }
+        remote.loadSession(sessionId, new FirestoreSessionStore.LoadCallback() {
+            @Override
+            public void onLoaded(ProcessingActivity.SessionState sessionState) {
+                writeBackfilledSummary(sessionState, next);
+            }
+
+            @Override
+            public void onError(Exception e) {
+                Log.e(TAG, "Error loading session " + sessionId + " for the summary backfill", e);
+                backfillFailed.add(sessionId);
+                next.run();
+            }
+        });
+    }
+
+    private void writeBackfilledSummary(ProcessingActivity.SessionState sessionState, Runnable next) {
+        remote.saveSummary(SessionSummary.of(sessionState)).addOnCompleteListener(task -> {
+            if (task.isSuccessful()) {
+                backfillWritten++;
+            } else {
+                Log.e(TAG, "Error writing the backfilled summary of " + sessionState.getSessionId() + ": " + task.getException());
+                backfillFailed.add(sessionState.getSessionId());
+            }
+            next.run();
+        });
+    }
+
+    private void finishBackfill(boolean complete, int pageSize) {
+        backfillRunning = false;
+        if (complete) {
+            queuePreferences.edit()
+                    .putBoolean(backfillKey, true)
+                    .remove(backfillCursorKey)
+                    .remove(backfillRetryKey)
+                    .apply();
+        }
+        Log.d(TAG, "Summary backfill " + (complete ? "done" : "paused") + ": " + backfillWritten + " summaries written, "
+                + backfillFailed.size() + " sessions to retry.");
+        if (backfillWritten > 0) {
+            fetchSummaries(null, pageSize); // Lists the sessions that just got summaries
+        }
+    }
+
+    @Override
+    public void saveSession(ProcessingActivity.SessionState sessionState, Callback<Void> callback) {
+        final String sessionId = sessionState.getSessionId();
+        local.saveSession(sessionState, new Callback<Void>() {
+            @Override
+            public void onResult(Void result) {
+                queue.enqueueFull(sessionId);
+                scheduleReplication();
+                if (callback != null) {
+                    callback.onResult(null);
+                }
+            }
+
+            @Override
+            public void onError(Exception e) {
+                if (callback != null) {
+                    callback.onError(e);
+                }
+            }
+        });
+    }
+
+    @Override
+    public void saveTakes(ProcessingActivity.SessionState header, Collection<ProcessingActivity.SentenceItem> takes) {
+        local.saveTakes(header, takes);
+        List<Integer> takeIndices = new ArrayList<>(takes.size());
+        for (ProcessingActivity.SentenceItem take : takes) {
+            takeIndices.add(take.getIndex());
+        }
+        queue.enqueueTakes(header.getSessionId(), takeIndices);
+        scheduleReplication();
+    }
+
+    /**
+     * @return Whether local changes are still waiting to be written to Firestore.
+     */
+    public boolean hasUnsyncedChanges() {
+        return queue.hasUnsynced();
+    }
+
+    private Collection<String> getUnsyncedSessionIds() {
+        return queue.getUnsyncedSessionIds();
+    }
+
+    private void scheduleReplication() {
+        persistQueue();
+        if (!retryScheduled) {
+            // Let the local write that triggered this land first; it is queued on the I/O thread.
+            handler.post(replicateRunnable);
+        }
+    }
+
+    private void replicateNext() {
+        retryScheduled = false;
+        final String sessionId = queue.takeNext();
+        if (sessionId == null) {
+            return;
+        }
+        final SyncQueue.PendingSync sync = queue.getInFlight();
+
+        if (sync.full) {
+            local.loadSession(sessionId, new Callback<ProcessingActivity.SessionState>() {
+                @Override
+                public void onResult(ProcessingActivity.SessionState sessionState) {
+                    onReplicated(sessionId, sync, remote.saveFullSession(sessionState));
+                }
+
+                @Override
+                public void onError(Exception e) {
+                    dropInFlight(sessionId, e);
+                }
+            });
+            return;
+        }
+        // Only the dirty takes are copied out of the local session, not its whole sentence list
+        local.loadTakes(sessionId, sync.takeIndices, new Callback<LocalSessionRepository.TakeSnapshot>() {
+            @Override
+            public void onResult(LocalSessionRepository.TakeSnapshot snapshot) {
+                onReplicated(sessionId, sync, remote.saveTakes(snapshot.header, snapshot.takes, snapshot.summary));
+            }
+
+            @Override
+            public void onError(Exception e) {
+                dropInFlight(sessionId, e);
+            }
+        });
+    }
+
+    private void onReplicated(String sessionId, SyncQueue.PendingSync sync, Task<Void> write) {
+        write.addOnCompleteListener(task -> {
+            if (task.isSuccessful()) {
+                Log.d(TAG, "Replicated session " + sessionId + (sync.full ? " in full." : " (" + sync.takeIndices.size() + " takes)."));
+                finishInFlight(true);
+            } else {
+                Log.e(TAG, "Error replicating session " + sessionId + ": " + task.getException());
+                finishInFlight(false);
+            }
+        });
+    }
+
+    private void dropInFlight(String sessionId, Exception e) {
+        // Without a local copy there is nothing left to replicate.
+        Log.e(TAG, "Dropping replication of session " + sessionId + ": " + e.getMessage());
+        finishInFlight(true);
+    }
+
+    private void finishInFlight(boolean success) {
+        long retryDelayMs = queue.finishInFlight(success);
+        persistQueue();
+        if (success) {
+            replicateNext();
+        } else {
+            Log.d(TAG, "Retrying replication in " + retryDelayMs + " ms.");
+            handler.removeCallbacks(replicateRunnable);
+            handler.postDelayed(replicateRunnable, retryDelayMs);
+            retryScheduled = true;
+        }
+    }
+
+    private void persistQueue() {
+        queuePreferences.edit().putString(queueKey, queue.toJson()).apply();
+    }
+
+    private void restoreQueue() {
+        String json = queuePreferences.getString(queueKey, null);
+        if (json == null) {
+            return;
+        }
+        try {
+            int restored = queue.restore(json);
+            Log.d(TAG, "Restored " + restored + " sessions waiting for replication.");
+        } catch (Exception e) {
+            Log.e(TAG, "Error restoring replication queue", e);
+        }
+    }
+}
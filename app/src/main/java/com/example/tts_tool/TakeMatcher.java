@@ -0,0 +1,272 @@
+package com.example.tts_tool;
+
+import android.content.ContentResolver;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Pairs the WAV files of a working folder with script sentences by the sentence number in their
+ * names. The recorder names takes {@code %04d_<timestamp>.wav}, with the one-based position of
+ * the sentence (see {@link ScriptParser}) and the time recording started, so a skipped sentence
+ * or a stray retake only affects its own row.
+ *
+ * Matching is one pass over the folder listing into an array indexed by sentence; files are
+ * only opened to score duplicate takes with {@link DuplicatePolicy#BEST}. The array is sized by
+ * the number of WAV files, since a single stray name could carry any sentence number; takes
+ * numbered beyond it go to a map.
+ */
+public class TakeMatcher {
+
+    private static final String TAG = "TakeMatcher";
+    // Sentence numbers beyond this are not recorder names; keeps the parse from overflowing.
+    private static final int MAX_SENTENCE_NUMBER = 10_000_000;
+    // Dense slots beyond the WAV count, for sentences skipped while recording
+    private static final int DENSE_SLACK = 64;
+    private static final int MAX_LISTED_GAPS = 10;
+
+    /** Which take to export when a sentence was recorded more than once. */
+    public enum DuplicatePolicy {
+        /** The take recorded last, by the timestamp in its name. */
+        LATEST,
+        /** The take with the highest {@link AudioRecorderManager#qualityScore}. */
+        BEST
+    }
+
+    private final WorkingFolderIndex.Entry[] takes; // Indexed by sentence
+    private final long[] timestamps;
+    private final Map<Integer, WorkingFolderIndex.Entry> sparseTakes = new HashMap<>(); // Beyond takes.length
+    private final Map<Integer, Long> sparseTimestamps = new HashMap<>();
+    private int takeCount;
+    private int duplicateCount;
+    private int unrecognizedCount;
+
+    private TakeMatcher(int denseSize) {
+        takes = new WorkingFolderIndex.Entry[denseSize];
+        timestamps = new long[denseSize];
+    }
+
+    /**
+     * Picks one take per sentence from the folder's WAV files.
+     * @param resolver Used to read takes for {@link DuplicatePolicy#BEST}.
+     */
+    public static TakeMatcher match(WorkingFolderIndex folder, DuplicatePolicy policy, ContentResolver resolver) {
+        return match(folder.entries(), policy, resolver);
+    }
+
+    static TakeMatcher match(Collection<WorkingFolderIndex.Entry> entries, DuplicatePolicy policy, ContentResolver resolver) {
+        List<WorkingFolderIndex.Entry> wavs = new ArrayList<>();
+        for (WorkingFolderIndex.Entry entry : entries) {
+            String name = entry.getName();
+            if (name != null && name.toLowerCase(Locale.ROOT).endsWith(".wav")) {
+                wavs.add(entry);
+            }
+        }
+        TakeMatcher matcher = new TakeMatcher(wavs.size() + DENSE_SLACK);
+        Map<Integer, List<WorkingFolderIndex.Entry>> contenders = new HashMap<>(); // Only sentences with duplicates
+        for (WorkingFolderIndex.Entry entry : wavs) {
+            String name = entry.getName();
+            int sentenceNumber = parseSentenceNumber(name);
+            if (sentenceNumber < 1) {
+                matcher.unrecognizedCount++;
+                continue;
+            }
+            int index = sentenceNumber - 1;
+            long timestamp = parseTimestamp(name);
+            WorkingFolderIndex.Entry current = matcher.getTake(index);
+            if (current == null) {
+                matcher.setTake(index, entry, timestamp);
+                matcher.takeCount++;
+                continue;
+            }
+            matcher.duplicateCount++;
+            if (policy == DuplicatePolicy.BEST) {
+                List<WorkingFolderIndex.Entry> list = contenders.get(index);
+                if (list == null) {
+                    list = new ArrayList<>();
+                    list.add(current);
+                    contenders.put(index, list);
+                }
+                list.add(entry);
+            } else if (timestamp > matcher.getTimestamp(index)) {
+                matcher.setTake(index, entry, timestamp);
+            }
+        }
+        for (Map.Entry<Integer, List<WorkingFolderIndex.Entry>> sentence : contenders.entrySet()) {
+            WorkingFolderIndex.Entry best = best(resolver, sentence.getValue());
+            matcher.setTake(sentence.getKey(), best, parseTimestamp(best.getName()));
+        }
+        return matcher;
+    }
+
+    private static WorkingFolderIndex.Entry best(ContentResolver resolver, List<WorkingFolderIndex.Entry> candidates) {
+        WorkingFolderIndex.Entry best = null;
+        double bestScore = Double.NEGATIVE_INFINITY;
+        long bestTimestamp = Long.MIN_VALUE;
+        for (WorkingFolderIndex.Entry candidate : candidates) {
+            double score = Double.NEGATIVE_INFINITY;
+            try (InputStream in = resolver.openInputStream(candidate.getUri())) {
+                if (in != null) {
+                    score = AudioRecorderManager.qualityScore(new BufferedInputStream(in));
+                }
+            } catch (IOException | RuntimeException e) {
+                Log.w(TAG, "Could not score take " + candidate.getName() + ": " + e.getMessage());
+            }
+            long timestamp = parseTimestamp(candidate.getName());
+            // Ties (including unreadable takes) go to the later take
+            if (best == null || score > bestScore || (score == bestScore && timestamp > bestTimestamp)) {
+                best = candidate;
+                bestScore = score;
+                bestTimestamp = timestamp;
+            }
+        }
+        return best;
+    }
+
+    private void setTake(int index, WorkingFolderIndex.Entry entry, long timestamp) {
+        if (index < takes.length) {
+            takes[index] = entry;
+            timestamps[index] = timestamp;
+        } else {
+            sparseTakes.put(index, entry);
+            sparseTimestamps.put(index, timestamp);
+        }
+    }
+
+    private long getTimestamp(int index) {
+        return (index < timestamps.length) ? timestamps[index] : sparseTimestamps.get(index);
+    }
+
+    /**
+     * @return The one-based sentence number a recorder file name starts with, or -1 if the name
+     *         doesn't start with digits followed by an underscore.
+     */
+    static int parseSentenceNumber(String name) {
+        int number = 0;
+        int i = 0;
+        for (; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (c < '0' || c > '9') {
+                break;
+            }
+            number = number * 10 + (c - '0');
+            if (number > MAX_SENTENCE_NUMBER) {
+                return -1;
+            }
+        }
+        return (i > 0 && i < name.length() && name.charAt(i) == '_') ? number : -1;
+    }
+
+    // The digits after the first underscore, or 0 if there are none.
+    static long parseTimestamp(String name) {
+        int start = name.indexOf('_') + 1;
+        long timestamp = 0;
+        for (int i = start; start > 0 && i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (c < '0' || c > '9' || timestamp > (Long.MAX_VALUE - 9) / 10) {
+                break;
+            }
+            timestamp = timestamp * 10 + (c - '0');
+        }
+        return timestamp;
+    }
+
+    /**
+     * @param index The zero-based sentence index.
+     * @return The take chosen for the sentence, or null if it has none.
+     */
+    public WorkingFolderIndex.Entry getTake(int index) {
+        if (index < 0) {
+            return null;
+        }
+        return (index < takes.length) ? takes[index] : sparseTakes.get(index);
+    }
+
+    /** @return The number of sentences with at least one take. */
+    public int getTakeCount() { return takeCount; }
+
+    /** @return The number of takes dropped in favour of another take of the same sentence. */
+    public int getDuplicateCount() { return duplicateCount; }
+
+    /** @return The number of WAV files whose name carries no sentence number. */
+    public int getUnrecognizedCount() { return unrecognizedCount; }
+
+    /**
+     * @return The number of sentences with a take at or beyond {@code sentenceCount}, i.e. takes
+     *         that belong to no sentence of the script.
+     */
+    public int countTakesFrom(int sentenceCount) {
+        int count = 0;
+        for (int i = Math.max(0, sentenceCount); i < takes.length; i++) {
+            if (takes[i] != null) {
+                count++;
+            }
+        }
+        for (int index : sparseTakes.keySet()) {
+            if (index >= sentenceCount) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Collects what an export left out, for the report shown when it finishes.
+     */
+    public class Report {
+        private int exported;
+        private int missing;
+        private final StringBuilder listedGaps = new StringBuilder();
+
+        /** Records a sentence that was exported. */
+        public void addExported() {
+            exported++;
+        }
+
+        /** Records a sentence without a take. */
+        public void addMissing(int index) {
+            if (missing < MAX_LISTED_GAPS) {
+                listedGaps.append(listedGaps.length() > 0 ? ", " : "").append(index + 1);
+            }
+            missing++;
+        }
+
+        public int getExported() { return exported; }
+        public int getMissing() { return missing; }
+
+        /**
+         * @param sentenceCount The number of sentences in the script.
+         */
+        public String describe(int sentenceCount) {
+            StringBuilder report = new StringBuilder().append(exported).append(" sentences exported.");
+            if (missing > 0) {
+                report.append("\n").append(missing).append(" sentences have no recording: ").append(listedGaps)
+                        .append(missing > MAX_LISTED_GAPS ? ", ..." : "").append(".");
+            }
+            int orphaned = countTakesFrom(sentenceCount);
+            if (orphaned > 0) {
+                report.append("\n").append(orphaned).append(" recordings are numbered beyond the script's ")
+                        .append(sentenceCount).append(" sentences.");
+            }
+            if (duplicateCount > 0) {
+                report.append("\n").append(duplicateCount).append(" extra takes were skipped.");
+            }
+            if (unrecognizedCount > 0) {
+                report.append("\n").append(unrecognizedCount).append(" WAV files have no sentence number.");
+            }
+            return report.toString();
+        }
+    }
+
+    public Report newReport() {
+        return new Report();
+    }
+}
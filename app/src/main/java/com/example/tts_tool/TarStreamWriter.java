@@ -0,0 +1,125 @@
+package com.example.tts_tool;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Writes a POSIX ustar archive to a stream, entry by entry, without buffering entry data. Only
+ * what WebDataset shards need: regular files with names of up to 100 bytes.
+ */
+final class TarStreamWriter {
+
+    static final int BLOCK_SIZE = 512;
+
+    private final OutputStream out;
+    private final byte[] header = new byte[BLOCK_SIZE];
+    private long currentSize = 0; // Data bytes of the current entry
+    private long remaining = 0; // Bytes of the current entry still to be written
+
+    /**
+     * @param out Receives the archive; buffer it.
+     */
+    TarStreamWriter(OutputStream out) {
+        this.out = out;
+    }
+
+    /**
+     * @return The bytes an entry of {@code size} bytes takes in the archive, header included.
+     */
+    static long entrySize(long size) {
+        return BLOCK_SIZE + (size + BLOCK_SIZE - 1) / BLOCK_SIZE * BLOCK_SIZE;
+    }
+
+    /**
+     * Starts an entry; write exactly {@code size} bytes with {@link #write} before the next one.
+     * @param lastModified Modification time in milliseconds since the epoch.
+     */
+    void putEntry(String name, long size, long lastModified) throws IOException {
+        if (remaining != 0) {
+            throw new IOException("Previous tar entry is missing " + remaining + " bytes");
+        }
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        if (nameBytes.length > 100) {
+            throw new IOException("Tar entry name too long: " + name);
+        }
+        Arrays.fill(header, (byte) 0);
+        System.arraycopy(nameBytes, 0, header, 0, nameBytes.length);
+        writeOctal(0644, 100, 8); // Mode
+        writeOctal(0, 108, 8); // uid
+        writeOctal(0, 116, 8); // gid
+        writeOctal(size, 124, 12);
+        writeOctal(Math.max(0, lastModified / 1000), 136, 12);
+        Arrays.fill(header, 148, 156, (byte) ' '); // Checksum is computed with its own field as spaces
+        header[156] = '0'; // Regular file
+        System.arraycopy("ustar\u000000".getBytes(StandardCharsets.US_ASCII), 0, header, 257, 8);
+        long checksum = 0;
+        for (byte b : header) {
+            checksum += b & 0xFF;
+        }
+        writeOctal(checksum, 148, 7);
+        header[155] = ' ';
+        out.write(header);
+        currentSize = size;
+        remaining = size;
+    }
+
+    void write(byte[] data, int offset, int length) throws IOException {
+        if (length > remaining) {
+            throw new IOException("Tar entry data exceeds its declared size");
+        }
+        out.write(data, offset, length);
+        remaining -= length;
+        if (remaining == 0) {
+            int padding = (int) ((BLOCK_SIZE - currentSize % BLOCK_SIZE) % BLOCK_SIZE);
+            if (padding > 0) {
+                Arrays.fill(header, 0, padding, (byte) 0);
+                out.write(header, 0, padding);
+            }
+        }
+    }
+
+    /**
+     * Writes a complete entry held in memory.
+     */
+    void writeEntry(String name, byte[] data, long lastModified) throws IOException {
+        putEntry(name, data.length, lastModified);
+        if (data.length > 0) {
+            write(data, 0, data.length);
+        }
+    }
+
+    /**
+     * @return Bytes still expected for the current entry.
+     */
+    long getRemaining() {
+        return remaining;
+    }
+
+    /**
+     * Writes the end-of-archive marker (two empty blocks) and flushes; doesn't close the stream.
+     */
+    void finish() throws IOException {
+        if (remaining != 0) {
+            throw new IOException("Last tar entry is missing " + remaining + " bytes");
+        }
+        Arrays.fill(header, (byte) 0);
+        out.write(header);
+        out.write(header);
+        out.flush();
+    }
+
+    private void writeOctal(long value, int offset, int length) {
+        // length - 1 digits, zero-padded, then a NUL
+        String digits = Long.toOctalString(value);
+        int start = offset + length - 1 - digits.length();
+        for (int i = offset; i < start; i++) {
+            header[i] = '0';
+        }
+        for (int i = 0; i < digits.length(); i++) {
+            header[start + i] = (byte) digits.charAt(i);
+        }
+        header[offset + length - 1] = 0;
+    }
+}
@@ -0,0 +1,97 @@
+package com.example.tts_tool;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * The format and length of a RIFF WAV file, read from its header alone. Besides the 44-byte
+ * header {@link AudioRecorderManager} writes, this walks the chunk list, so files from other
+ * recorders with LIST or fact chunks before the audio are read as well.
+ */
+final class WavHeader {
+
+    /** Bytes read from the start of the file; chunks that start beyond this are not found. */
+    static final int MAX_HEADER_SIZE = 4096;
+
+    final int sampleRate;
+    final int channels;
+    final int bitsPerSample;
+    /** Where the audio starts in the file: the header's size. */
+    final int dataOffset;
+    /** Bytes of audio, taken from the file size when the header's own count is unset or too large. */
+    final long dataSize;
+
+    private WavHeader(int sampleRate, int channels, int bitsPerSample, int dataOffset, long dataSize) {
+        this.sampleRate = sampleRate;
+        this.channels = channels;
+        this.bitsPerSample = bitsPerSample;
+        this.dataOffset = dataOffset;
+        this.dataSize = dataSize;
+    }
+
+    long getDurationMs() {
+        long bytesPerSecond = (long) sampleRate * channels * Math.max(1, bitsPerSample / 8);
+        return bytesPerSecond > 0 ? dataSize * 1000L / bytesPerSecond : 0;
+    }
+
+    /**
+     * Reads the header from the start of a WAV file. Up to {@link #MAX_HEADER_SIZE} bytes are
+     * consumed, so the stream is left at an unspecified position past {@link #dataOffset}.
+     * @param fileSize The file size, or -1 if unknown.
+     * @throws IOException If the file can't be read or isn't a WAV file.
+     */
+    static WavHeader read(InputStream in, long fileSize) throws IOException {
+        byte[] header = new byte[MAX_HEADER_SIZE];
+        int length = 0;
+        int read;
+        while (length < header.length && (read = in.read(header, length, header.length - length)) > 0) {
+            length += read;
+        }
+        if (length < 12 || !matches(header, 0, "RIFF") || !matches(header, 8, "WAVE")) {
+            throw new IOException("Not a WAV file");
+        }
+        int sampleRate = 0;
+        int channels = 0;
+        int bitsPerSample = 0;
+        int offset = 12;
+        while (offset + 8 <= length) {
+            long chunkSize = readInt(header, offset + 4);
+            if (matches(header, offset, "fmt ") && offset + 24 <= length) {
+                channels = readShort(header, offset + 10);
+                sampleRate = (int) readInt(header, offset + 12);
+                bitsPerSample = readShort(header, offset + 22);
+            } else if (matches(header, offset, "data")) {
+                if (sampleRate == 0) {
+                    break;
+                }
+                int dataOffset = offset + 8;
+                long dataSize = chunkSize;
+                // Recordings cut short by a crash keep the placeholder size written at the start
+                if (fileSize > dataOffset && (dataSize == 0 || dataSize == 0xFFFFFFFFL || dataOffset + dataSize > fileSize)) {
+                    dataSize = fileSize - dataOffset;
+                }
+                return new WavHeader(sampleRate, channels, bitsPerSample, dataOffset, dataSize);
+            }
+            offset += 8 + (int) Math.min(chunkSize + (chunkSize & 1), MAX_HEADER_SIZE); // Chunks are word-aligned
+        }
+        throw new IOException("No format or data chunk in the WAV header");
+    }
+
+    private static boolean matches(byte[] bytes, int offset, String id) {
+        for (int i = 0; i < 4; i++) {
+            if (bytes[offset + i] != id.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int readShort(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xFF) | ((bytes[offset + 1] & 0xFF) << 8);
+    }
+
+    private static long readInt(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xFFL) | ((bytes[offset + 1] & 0xFFL) << 8)
+                | ((bytes[offset + 2] & 0xFFL) << 16) | ((bytes[offset + 3] & 0xFFL) << 24);
+    }
+}
@@ -0,0 +1,260 @@
+package com.example.tts_tool;
+
+import android.content.Context;
+import android.net.Uri;
+
+import com.google.gson.stream.JsonWriter;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Exports a recorded folder as WebDataset shards for streaming data loaders: a folder
+ * {@code <folder>_webdataset} of tar files {@code <folder>-000000.tar}, ... where each sample is
+ * {@code <key>.wav}, {@code <key>.txt} (the sentence) and {@code <key>.json} (its metadata), keyed
+ * by the WAV name, plus {@code index.json} listing the shards. Takes are paired with sentences by
+ * {@link TakeMatcher}, as in the other exports.
+ *
+ * Samples are assigned to shards up front from the listed file sizes, so every shard stays under
+ * the requested size (a sample larger than that gets a shard of its own). Shards are then written
+ * in parallel, one per thread, each streaming its WAV files through a small buffer; memory use
+ * doesn't depend on the shard size. Samples are in script order or shuffled with a fixed seed, so
+ * repeated exports of the same recordings produce the same shards.
+ */
+public class WebDatasetExportTask extends DirectoryExportTask {
+
+    /** Seed of the sample shuffle; changing it changes every shuffled export. */
+    static final long SHUFFLE_SEED = 0x5EEDL;
+    public static final long DEFAULT_SHARD_SIZE = 1024L * 1024 * 1024;
+
+    private static final String INDEX_NAME = "index.json";
+    private static final String TAR_MIME_TYPE = "application/x-tar";
+    private static final String JSON_MIME_TYPE = "application/json";
+    private static final int END_OF_ARCHIVE_SIZE = 2 * TarStreamWriter.BLOCK_SIZE;
+
+    private final long shardSize;
+    private final boolean shuffle;
+    private final TakeMatcher.DuplicatePolicy duplicatePolicy;
+
+    /**
+     * @param shardSize The maximum size of a shard in bytes.
+     * @param shuffle Shuffle the samples across shards instead of keeping script order.
+     */
+    public WebDatasetExportTask(Context context, Uri folderUri, long shardSize, boolean shuffle,
+                                TakeMatcher.DuplicatePolicy duplicatePolicy, Listener listener) {
+        super(context, folderUri, listener);
+        this.shardSize = shardSize;
+        this.shuffle = shuffle;
+        this.duplicatePolicy = duplicatePolicy;
+    }
+
+    @Override
+    protected String getOutputName() {
+        return getFolderName() + "_webdataset";
+    }
+
+    /** One take with its transcript and metadata, encoded. */
+    private static class Sample {
+        String key;
+        WorkingFolderIndex.Entry take;
+        byte[] text;
+        byte[] metadata;
+
+        long archiveSize() {
+            return TarStreamWriter.entrySize(Math.max(0, take.getSize()))
+                    + TarStreamWriter.entrySize(text.length) + TarStreamWriter.entrySize(metadata.length);
+        }
+    }
+
+    /** The samples of one tar file. */
+    private static class Shard {
+        final String name;
+        final List<Sample> samples = new ArrayList<>();
+        long size = END_OF_ARCHIVE_SIZE;
+
+        Shard(String name) {
+            this.name = name;
+        }
+    }
+
+    @Override
+    protected String writeDirectory(WorkingFolderIndex folder, Uri directoryUri) throws IOException {
+        WorkingFolderIndex.Entry script = ScriptParser.findScript(folder);
+        if (script == null) {
+            throw new IOException("No .txt file found in the selected folder.");
+        }
+        final TakeMatcher takes = TakeMatcher.match(folder, duplicatePolicy, context.getContentResolver());
+        if (takes.getTakeCount() == 0) {
+            throw new IOException("No recorded .wav files found in the selected folder.");
+        }
+
+        final List<Sample> samples = new ArrayList<>(takes.getTakeCount());
+        final TakeMatcher.Report report = takes.newReport();
+        final String speaker = speakerOf(getFolderName());
+        int sentenceCount;
+        try (InputStream in = context.getContentResolver().openInputStream(script.getUri())) {
+            if (in == null) {
+                throw new IOException("Could not open " + script.getName());
+            }
+            sentenceCount = ScriptParser.parse(new InputStreamReader(in, StandardCharsets.UTF_8), (index, sentence) -> {
+                WorkingFolderIndex.Entry take = takes.getTake(index);
+                if (take == null) {
+                    report.addMissing(index);
+                    return;
+                }
+                Sample sample = new Sample();
+                // WebDataset splits the key from the extension at the first '.'
+                sample.key = take.getName().substring(0, take.getName().length() - 4).replace('.', '_');
+                sample.take = take;
+                sample.text = sentence.getBytes(StandardCharsets.UTF_8);
+                sample.metadata = metadataJson(index, speaker, take);
+                samples.add(sample);
+                report.addExported();
+            });
+        }
+        if (samples.isEmpty()) {
+            throw new IOException("None of the " + sentenceCount + " sentences has a recording.");
+        }
+        if (shuffle) {
+            Collections.shuffle(samples, new Random(SHUFFLE_SEED));
+        }
+
+        List<Shard> shards = planShards(samples);
+        writeShards(shards, directoryUri, samples.size());
+        writeIndex(shards, directoryUri, samples.size());
+        return report.describe(sentenceCount) + "\n" + shards.size() + (shards.size() == 1 ? " shard" : " shards")
+                + (shuffle ? ", shuffled." : ", in script order.");
+    }
+
+    // Fills each shard up to shardSize, in sample order.
+    private List<Shard> planShards(List<Sample> samples) {
+        List<Shard> shards = new ArrayList<>();
+        Shard current = null;
+        for (Sample sample : samples) {
+            long size = sample.archiveSize();
+            if (current == null || (!current.samples.isEmpty() && current.size + size > shardSize)) {
+                current = new Shard(String.format(Locale.ROOT, "%s-%06d.tar", getFolderName(), shards.size()));
+                shards.add(current);
+            }
+            current.samples.add(sample);
+            current.size += size;
+        }
+        return shards;
+    }
+
+    private void writeShards(List<Shard> shards, final Uri directoryUri, final int total) throws IOException {
+        int threads = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), shards.size()));
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        final AtomicInteger written = new AtomicInteger();
+        try {
+            List<Future<Void>> results = new ArrayList<>(shards.size());
+            for (final Shard shard : shards) {
+                results.add(pool.submit(() -> {
+                    writeShard(shard, directoryUri, written, total);
+                    return null;
+                }));
+            }
+            awaitAll(results);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    // Runs on the pool.
+    private void writeShard(Shard shard, Uri directoryUri, AtomicInteger written, int total) throws IOException {
+        byte[] buffer = new byte[OUTPUT_BUFFER_SIZE];
+        try (OutputStream out = new BufferedOutputStream(createFile(directoryUri, shard.name, TAR_MIME_TYPE), OUTPUT_BUFFER_SIZE)) {
+            TarStreamWriter tar = new TarStreamWriter(out);
+            for (Sample sample : shard.samples) {
+                long lastModified = sample.take.getLastModified();
+                writeTake(tar, sample, buffer);
+                tar.writeEntry(sample.key + ".txt", sample.text, lastModified);
+                tar.writeEntry(sample.key + ".json", sample.metadata, lastModified);
+                reportProgress(written.incrementAndGet(), total);
+            }
+            tar.finish();
+        }
+    }
+
+    private void writeTake(TarStreamWriter tar, Sample sample, byte[] buffer) throws IOException {
+        WorkingFolderIndex.Entry take = sample.take;
+        try (InputStream in = context.getContentResolver().openInputStream(take.getUri())) {
+            if (in == null) {
+                throw new IOException("Could not open " + take.getName());
+            }
+            String name = sample.key + ".wav";
+            if (take.getSize() <= 0) { // Size not listed: read it first, as tar headers come before the data
+                ByteArrayOutputStream data = new ByteArrayOutputStream();
+                int read;
+                while ((read = in.read(buffer)) > 0) {
+                    data.write(buffer, 0, read);
+                }
+                tar.writeEntry(name, data.toByteArray(), take.getLastModified());
+                return;
+            }
+            tar.putEntry(name, take.getSize(), take.getLastModified());
+            int read;
+            while (tar.getRemaining() > 0 && (read = in.read(buffer, 0, (int) Math.min(buffer.length, tar.getRemaining()))) > 0) {
+                tar.write(buffer, 0, read);
+            }
+            if (tar.getRemaining() > 0 || in.read() >= 0) {
+                throw new IOException(take.getName() + " changed during the export.");
+            }
+        }
+    }
+
+    private static byte[] metadataJson(int index, String speaker, WorkingFolderIndex.Entry take) throws IOException {
+        StringWriter json = new StringWriter();
+        try (JsonWriter writer = new JsonWriter(json)) {
+            writer.beginObject();
+            writer.name("sentence").value(index + 1); // Numbered from 1, as in the WAV names
+            writer.name("speaker").value(speaker);
+            writer.name("duration_ms").value(AudioRecorderManager.durationMsForWavSize(take.getSize()));
+            writer.name("sample_rate").value(AudioRecorderManager.DEFAULT_SAMPLE_RATE);
+            writer.name("source").value(take.getName());
+            writer.endObject();
+        }
+        return json.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private void writeIndex(List<Shard> shards, Uri directoryUri, int sampleCount) throws IOException {
+        try (JsonWriter writer = new JsonWriter(new OutputStreamWriter(
+                createFile(directoryUri, INDEX_NAME, JSON_MIME_TYPE), StandardCharsets.UTF_8))) {
+            writer.setIndent("  ");
+            writer.beginObject();
+            writer.name("format").value("webdataset");
+            writer.name("samples").value(sampleCount);
+            writer.name("shard_size").value(shardSize);
+            writer.name("shuffled").value(shuffle);
+            if (shuffle) {
+                writer.name("seed").value(SHUFFLE_SEED);
+            }
+            writer.name("shards").beginArray();
+            for (Shard shard : shards) {
+                writer.beginObject();
+                writer.name("url").value(shard.name);
+                writer.name("samples").value(shard.samples.size());
+                writer.name("bytes").value(shard.size);
+                writer.endObject();
+            }
+            writer.endArray();
+            writer.endObject();
+        }
+    }
+}
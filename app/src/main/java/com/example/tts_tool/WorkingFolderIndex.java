@@ -0,0 +1,161 @@
+package com.example.tts_tool;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.provider.DocumentsContract;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The files directly inside a working folder, listed with a single query to the documents
+ * provider. Looking recordings up here replaces one ContentResolver round trip per file
+ * (DocumentFile.exists(), length(), ...) when a session with thousands of takes is loaded.
+ *
+ * Queries block on the documents provider and must not run on the main thread.
+ */
+public class WorkingFolderIndex {
+
+    private static final String[] PROJECTION = {
+            DocumentsContract.Document.COLUMN_DOCUMENT_ID,
+            DocumentsContract.Document.COLUMN_DISPLAY_NAME,
+            DocumentsContract.Document.COLUMN_SIZE,
+            DocumentsContract.Document.COLUMN_LAST_MODIFIED,
+            DocumentsContract.Document.COLUMN_MIME_TYPE
+    };
+
+    /**
+     * One file of the folder as the documents provider reported it.
+     */
+    public static class Entry {
+        private final String documentId;
+        private final String name;
+        private final long size;
+        private final long lastModified;
+        private final String mimeType;
+        private final Uri uri;
+
+        Entry(String documentId, String name, long size, long lastModified, String mimeType, Uri uri) {
+            this.documentId = documentId;
+            this.name = name;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.mimeType = mimeType;
+            this.uri = uri;
+        }
+
+        public String getDocumentId() { return documentId; }
+        public String getName() { return name; }
+        /** @return The size in bytes, or -1 if the provider doesn't know it. */
+        public long getSize() { return size; }
+        public long getLastModified() { return lastModified; }
+        public Uri getUri() { return uri; }
+        /** @return True for a subfolder; its {@link #getUri()} can be passed to {@link #query}. */
+        public boolean isDirectory() { return DocumentsContract.Document.MIME_TYPE_DIR.equals(mimeType); }
+    }
+
+    private final Map<String, Entry> entriesByDocumentId = new HashMap<>();
+    private final Map<String, Entry> entriesByName = new HashMap<>();
+
+    private WorkingFolderIndex() {
+    }
+
+    /**
+     * Lists the folder's children in one query.
+     * @param folderUri The working folder's tree URI or tree document URI.
+     * @throws IOException If the provider doesn't answer the query.
+     */
+    public static WorkingFolderIndex query(ContentResolver resolver, Uri folderUri) throws IOException {
+        Uri childrenUri = DocumentsContract.buildChildDocumentsUriUsingTree(folderUri, folderDocumentId(folderUri));
+        WorkingFolderIndex index = new WorkingFolderIndex();
+        try (Cursor cursor = resolver.query(childrenUri, PROJECTION, null, null, null)) {
+            if (cursor == null) {
+                throw new IOException("No cursor for the children of " + folderUri);
+            }
+            while (cursor.moveToNext()) {
+                Entry entry = readEntry(cursor, DocumentsContract.buildDocumentUriUsingTree(folderUri, cursor.getString(0)));
+                index.entriesByDocumentId.put(entry.getDocumentId(), entry);
+                if (entry.getName() != null) {
+                    index.entriesByName.put(entry.getName(), entry);
+                }
+            }
+        }
+        return index;
+    }
+
+    /**
+     * @return The document URI of a folder given as a tree URI (from the folder picker) or as a
+     *         tree document URI (from DocumentFile.getUri()).
+     */
+    public static Uri folderDocumentUri(Uri folderUri) {
+        return DocumentsContract.buildDocumentUriUsingTree(folderUri, folderDocumentId(folderUri));
+    }
+
+    private static String folderDocumentId(Uri folderUri) {
+        try {
+            return DocumentsContract.getDocumentId(folderUri);
+        } catch (IllegalArgumentException e) {
+            return DocumentsContract.getTreeDocumentId(folderUri); // A bare tree URI
+        }
+    }
+
+    /**
+     * Queries a single document, for when the folder can't be listed.
+     * @return The document's entry, or null if it doesn't exist.
+     */
+    public static Entry queryDocument(ContentResolver resolver, Uri documentUri) {
+        try (Cursor cursor = resolver.query(documentUri, PROJECTION, null, null, null)) {
+            if (cursor == null || !cursor.moveToNext()) {
+                return null;
+            }
+            return readEntry(cursor, documentUri);
+        } catch (RuntimeException e) {
+            // Providers throw (rather than return nothing) for documents that are gone
+            return null;
+        }
+    }
+
+    private static Entry readEntry(Cursor cursor, Uri uri) {
+        return new Entry(
+                cursor.getString(0),
+                cursor.getString(1),
+                cursor.isNull(2) ? -1 : cursor.getLong(2),
+                cursor.isNull(3) ? 0 : cursor.getLong(3),
+                cursor.getString(4),
+                uri);
+    }
+
+    /**
+     * Finds a recorded file by the document ID in its saved URI, then by its file name. The name
+     * match covers sessions whose folder was granted again under a different tree.
+     * @return The file's entry, or null if it is not in the folder.
+     */
+    public Entry find(Uri documentUri, String fileName) {
+        Entry entry = null;
+        if (documentUri != null) {
+            try {
+                entry = entriesByDocumentId.get(DocumentsContract.getDocumentId(documentUri));
+            } catch (IllegalArgumentException e) {
+                // Not a document URI; fall back to the name
+            }
+        }
+        if (entry == null && fileName != null) {
+            entry = entriesByName.get(fileName);
+        }
+        return entry;
+    }
+
+    /**
+     * @return Every file of the folder, in no particular order.
+     */
+    public Collection<Entry> entries() {
+        return entriesByDocumentId.values();
+    }
+
+    public int size() {
+        return entriesByDocumentId.size();
+    }
+}
@@ -0,0 +1,475 @@
+package com.example.tts_tool;
+
+import android.content.ContentResolver;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.provider.DocumentsContract;
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.CRC32;
+
+/**
+ * A session manifest kept in the working folder itself. It lets a session be opened from its
+ * folder alone: without Firestore, without the local session store, and on a device that has
+ * never seen the session before.
+ *
+ * The manifest is a UTF-8 log of tab-separated records, one per line. Each line ends with the
+ * CRC32 of its record:
+ * <pre>
+ * M  TTSM  version
+ * S  sessionId  username  scriptFileName  sentenceCount  lastModified
+ * C  currentSentenceIndex
+ * T  index  contentHash  fileName  durationMs     (a take was recorded for the sentence)
+ * X  index                                         (the sentence's take was deleted)
+ * </pre>
+ * Later records win. Takes are appended as they happen. A line torn by a crash fails its CRC (or
+ * lacks its line break) and ends the log there; the log is then rewritten up to the last good
+ * record, so that later appends don't land behind the torn line and get lost with it. Once
+ * there are more appended records than live ones, the log is compacted: it is written out to a
+ * temporary file that then replaces it. Reading a session stays a single short sequential pass.
+ *
+ * All file access runs on one background thread. Results are posted to the main thread.
+ */
+public class WorkspaceManifest {
+
+    private static final String TAG = "WorkspaceManifest";
+    public static final String FILE_NAME = "session.manifest";
+    private static final String TEMP_FILE_NAME = FILE_NAME + ".tmp";
+    private static final String MIME_TYPE = "application/octet-stream";
+    private static final String MAGIC = "TTSM";
+    static final int VERSION = 1;
+    // Appended records tolerated beyond the live ones before compacting
+    private static final int COMPACTION_SLACK = 64;
+
+    private static class Take {
+        final String contentHash;
+        final String fileName;
+        final long durationMs;
+
+        Take(String contentHash, String fileName, long durationMs) {
+            this.contentHash = contentHash;
+            this.fileName = fileName;
+            this.durationMs = durationMs;
+        }
+    }
+
+    private final ContentResolver resolver;
+    private final Uri folderUri;
+    private final ExecutorService ioExecutor = Executors.newSingleThreadExecutor();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    // The manifest's content as replayed or written so far. Only touched on ioExecutor.
+    private boolean loaded;
+    private Uri manifestUri; // Null while the folder has no manifest
+    private String sessionId;
+    private String username;
+    private String scriptFileName;
+    private int sentenceCount;
+    private long lastModified;
+    private int currentSentenceIndex = -1;
+    private final TreeMap<Integer, Take> takes = new TreeMap<>();
+    private int appendedRecords;
+
+    /**
+     * @param folderUri The working folder, as a tree URI or a tree document URI.
+     */
+    public WorkspaceManifest(ContentResolver resolver, Uri folderUri) {
+        this.resolver = resolver;
+        this.folderUri = WorkingFolderIndex.folderDocumentUri(folderUri);
+    }
+
+    public Uri getFolderUri() {
+        return folderUri;
+    }
+
+    /**
+     * Reads the session described by the manifest. Sentences carry only their content hash and
+     * take; the text comes from the script copy named in the manifest.
+     * @param callback Receives the session, or an error if the folder has no readable manifest.
+     */
+    public void read(SessionRepository.Callback<ProcessingActivity.SessionState> callback) {
+        ioExecutor.execute(() -> {
+            try {
+                WorkingFolderIndex folderIndex = load();
+                if (manifestUri == null || sessionId == null) {
+                    throw new IOException("No session manifest in " + folderUri);
+                }
+                ProcessingActivity.SessionState state = toSessionState(folderIndex);
+                mainHandler.post(() -> callback.onResult(state));
+            } catch (Exception e) {
+                Log.e(TAG, "Error reading the manifest of " + folderUri, e);
+                mainHandler.post(() -> callback.onError(e));
+            }
+        });
+    }
+
+    /**
+     * Replaces the manifest with the given session, for new sessions and full saves.
+     */
+    public void writeSnapshot(ProcessingActivity.SessionState session) {
+        final ProcessingActivity.SessionState snapshot = SessionStates.copy(session, true);
+        ioExecutor.execute(() -> {
+            try {
+                if (!loaded) {
+                    load(); // Finds the manifest being replaced
+                }
+                setHeader(snapshot, snapshot.getSentenceItems().size());
+                takes.clear();
+                for (ProcessingActivity.SentenceItem item : snapshot.getSentenceItems()) {
+                    if (item.getRecordedFileName() != null) {
+                        takes.put(item.getIndex(), new Take(item.getContentHash(), item.getRecordedFileName(), item.getRecordedDurationMs()));
+                    }
+                }
+                compact();
+            } catch (Exception e) {
+                Log.e(TAG, "Error writing the manifest of " + folderUri, e);
+            }
+        });
+    }
+
+    /**
+     * Appends a take (or its deletion, if {@code item} has no recording) and the current sentence.
+     * @param header The session header; used to start the manifest of folders that have none.
+     * @param sentenceCount The number of sentences in the script.
+     */
+    public void recordTake(ProcessingActivity.SessionState header, ProcessingActivity.SentenceItem item, int sentenceCount) {
+        final ProcessingActivity.SessionState headerSnapshot = SessionStates.copy(header, false);
+        final ProcessingActivity.SentenceItem take = new ProcessingActivity.SentenceItem(item);
+        ioExecutor.execute(() -> {
+            try {
+                if (!loaded) {
+                    load();
+                }
+                List<String> records = new ArrayList<>();
+                if (manifestUri == null || !headerSnapshot.getSessionId().equals(sessionId)) {
+                    setHeader(headerSnapshot, sentenceCount);
+                    takes.clear();
+                    applyTake(take);
+                    compact();
+                    return;
+                }
+                lastModified = headerSnapshot.getLastModified();
+                if (headerSnapshot.getCurrentSentenceIndex() != currentSentenceIndex) {
+                    currentSentenceIndex = headerSnapshot.getCurrentSentenceIndex();
+                    records.add(record("C", String.valueOf(currentSentenceIndex)));
+                }
+                records.add(applyTake(take));
+                append(records);
+            } catch (Exception e) {
+                Log.e(TAG, "Error recording take " + item.getIndex() + " in the manifest of " + folderUri, e);
+            }
+        });
+    }
+
+    /**
+     * Lets queued writes finish, then stops the background thread.
+     */
+    public void shutdown() {
+        ioExecutor.shutdown();
+    }
+
+    private void setHeader(ProcessingActivity.SessionState header, int count) {
+        sessionId = header.getSessionId();
+        username = header.getUsername();
+        lastModified = header.getLastModified();
+        currentSentenceIndex = header.getCurrentSentenceIndex();
+        sentenceCount = count;
+        String scriptUriString = header.getOriginalInputFileUriString();
+        WorkingFolderIndex.Entry script = (scriptUriString != null)
+                ? WorkingFolderIndex.queryDocument(resolver, Uri.parse(scriptUriString))
+                : null;
+        if (script != null) {
+            scriptFileName = script.getName();
+        }
+    }
+
+    private String applyTake(ProcessingActivity.SentenceItem item) {
+        if (item.getRecordedFileName() != null) {
+            takes.put(item.getIndex(), new Take(item.getContentHash(), item.getRecordedFileName(), item.getRecordedDurationMs()));
+            return record("T", String.valueOf(item.getIndex()), item.getContentHash(), item.getRecordedFileName(),
+                    String.valueOf(item.getRecordedDurationMs()));
+        }
+        takes.remove(item.getIndex());
+        return record("X", String.valueOf(item.getIndex()));
+    }
+
+    private void append(List<String> records) throws IOException {
+        appendedRecords += records.size();
+        if (appendedRecords > liveRecordCount() + COMPACTION_SLACK) {
+            compact();
+            return;
+        }
+        try (OutputStream outputStream = resolver.openOutputStream(manifestUri, "wa")) {
+            if (outputStream == null) {
+                throw new IOException("No output stream for " + manifestUri);
+            }
+            StringBuilder lines = new StringBuilder();
+            for (String record : records) {
+                lines.append(line(record));
+            }
+            outputStream.write(lines.toString().getBytes(StandardCharsets.UTF_8));
+        } catch (IOException | RuntimeException e) {
+            // Not every provider supports appending; rewriting the manifest always works
+            Log.w(TAG, "Could not append to " + manifestUri + ", rewriting it", e);
+            compact();
+        }
+    }
+
+    /**
+     * Writes the live records to a temporary file and puts it in place of the manifest.
+     */
+    private void compact() throws IOException {
+        StringBuilder lines = new StringBuilder();
+        lines.append(line(record("M", MAGIC, String.valueOf(VERSION))));
+        lines.append(line(record("S", sessionId, username, scriptFileName, String.valueOf(sentenceCount), String.valueOf(lastModified))));
+        lines.append(line(record("C", String.valueOf(currentSentenceIndex))));
+        for (Map.Entry<Integer, Take> entry : takes.entrySet()) {
+            Take take = entry.getValue();
+            lines.append(line(record("T", String.valueOf(entry.getKey()), take.contentHash, take.fileName, String.valueOf(take.durationMs))));
+        }
+
+        Uri tempUri = DocumentsContract.createDocument(resolver, folderUri, MIME_TYPE, TEMP_FILE_NAME);
+        if (tempUri == null) {
+            throw new IOException("Could not create " + TEMP_FILE_NAME + " in " + folderUri);
+        }
+        try (OutputStream outputStream = resolver.openOutputStream(tempUri, "w")) {
+            if (outputStream == null) {
+                throw new IOException("No output stream for " + tempUri);
+            }
+            outputStream.write(lines.toString().getBytes(StandardCharsets.UTF_8));
+        }
+        // SAF can't rename over a file: a crash between these two steps leaves only the temporary
+        // file, which load() picks up
+        if (manifestUri != null) {
+            DocumentsContract.deleteDocument(resolver, manifestUri);
+        }
+        Uri renamedUri = DocumentsContract.renameDocument(resolver, tempUri, FILE_NAME);
+        manifestUri = (renamedUri != null) ? renamedUri : tempUri;
+        appendedRecords = 0;
+        Log.d(TAG, "Compacted manifest of session " + sessionId + " (" + takes.size() + " takes).");
+    }
+
+    private int liveRecordCount() {
+        return 3 + takes.size();
+    }
+
+    /**
+     * Replays the manifest into memory.
+     * @return The listing of the folder, used to find the manifest, script and takes.
+     */
+    private WorkingFolderIndex load() throws IOException {
+        WorkingFolderIndex folderIndex = WorkingFolderIndex.query(resolver, folderUri);
+        WorkingFolderIndex.Entry manifest = folderIndex.find(null, FILE_NAME);
+        WorkingFolderIndex.Entry temp = folderIndex.find(null, TEMP_FILE_NAME);
+        if (manifest == null && temp != null) {
+            // Interrupted compaction: the temporary file was complete before the old one was deleted
+            Uri renamedUri = DocumentsContract.renameDocument(resolver, temp.getUri(), FILE_NAME);
+            manifestUri = (renamedUri != null) ? renamedUri : temp.getUri();
+        } else {
+            if (manifest != null && temp != null) {
+                // Interrupted while writing the temporary file; the manifest is still complete
+                DocumentsContract.deleteDocument(resolver, temp.getUri());
+            }
+            manifestUri = (manifest != null) ? manifest.getUri() : null;
+        }
+        loaded = true;
+        takes.clear();
+        sessionId = null;
+        appendedRecords = 0;
+        if (manifestUri == null) {
+            return folderIndex;
+        }
+
+        StringBuilder content = new StringBuilder();
+        try (InputStream inputStream = resolver.openInputStream(manifestUri);
+             Reader reader = new InputStreamReader(inputStream, StandardCharsets.UTF_8)) {
+            char[] buffer = new char[8192];
+            int read;
+            while ((read = reader.read(buffer)) != -1) {
+                content.append(buffer, 0, read);
+            }
+        }
+        Replay replay = replay(content);
+        for (String[] fields : replay.records) {
+            applyRecord(fields);
+        }
+        appendedRecords = Math.max(0, replay.records.size() - liveRecordCount());
+        if (replay.torn) {
+            Log.w(TAG, "Manifest " + manifestUri + " ends in a damaged line after " + replay.records.size() + " records; rewriting it without the rest.");
+            if (sessionId != null) {
+                compact(); // Without a session, the next take rewrites the manifest anyway
+            }
+        }
+        return folderIndex;
+    }
+
+    /** The records of a manifest, up to its first damaged line. */
+    static final class Replay {
+        final List<String[]> records = new ArrayList<>();
+        /** Whether the log ends in a damaged or unterminated line, which an append would continue. */
+        boolean torn;
+    }
+
+    /**
+     * Splits manifest content into records, stopping at the first line that fails its checksum.
+     * A last line without its line break keeps its record if the checksum matches, but still
+     * counts as torn.
+     */
+    static Replay replay(CharSequence content) {
+        Replay replay = new Replay();
+        String text = content.toString();
+        int start = 0;
+        while (start < text.length()) {
+            int end = text.indexOf('\n', start);
+            String[] fields = parseLine(text.substring(start, end < 0 ? text.length() : end));
+            if (fields != null) {
+                replay.records.add(fields);
+            }
+            if (fields == null || end < 0) {
+                replay.torn = true;
+                break;
+            }
+            start = end + 1;
+        }
+        return replay;
+    }
+
+    private void applyRecord(String[] fields) throws IOException {
+        switch (fields[0]) {
+            case "M":
+                if (fields.length < 3 || !MAGIC.equals(fields[1]) || Integer.parseInt(fields[2]) > VERSION) {
+                    throw new IOException("Unsupported manifest format in " + manifestUri);
+                }
+                break;
+            case "S":
+                sessionId = fields[1];
+                username = fields[2];
+                scriptFileName = fields[3];
+                sentenceCount = Integer.parseInt(fields[4]);
+                lastModified = Long.parseLong(fields[5]);
+                break;
+            case "C":
+                currentSentenceIndex = Integer.parseInt(fields[1]);
+                break;
+            case "T":
+                takes.put(Integer.parseInt(fields[1]), new Take(fields[2], fields[3], Long.parseLong(fields[4])));
+                break;
+            case "X":
+                takes.remove(Integer.parseInt(fields[1]));
+                break;
+            default:
+                break; // Written by a newer version
+        }
+    }
+
+    private ProcessingActivity.SessionState toSessionState(WorkingFolderIndex folderIndex) {
+        int count = sentenceCount;
+        if (!takes.isEmpty()) {
+            count = Math.max(count, takes.lastKey() + 1);
+        }
+        List<ProcessingActivity.SentenceItem> items = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            ProcessingActivity.SentenceItem item = new ProcessingActivity.SentenceItem();
+            item.setIndex(i);
+            Take take = takes.get(i);
+            if (take != null) {
+                item.setContentHash(take.contentHash);
+                WorkingFolderIndex.Entry file = folderIndex.find(null, take.fileName);
+                if (file != null) {
+                    item.setRecordedFile(take.fileName, file.getUri());
+                    item.setRecordedDurationMs(take.durationMs);
+                }
+            }
+            items.add(item);
+        }
+        WorkingFolderIndex.Entry script = (scriptFileName != null) ? folderIndex.find(null, scriptFileName) : null;
+        return new ProcessingActivity.SessionState(
+                sessionId,
+                username,
+                script != null ? script.getUri().toString() : null,
+                null,
+                folderUri.toString(),
+                currentSentenceIndex,
+                items,
+                lastModified
+        );
+    }
+
+    static String record(String type, String... values) {
+        StringBuilder record = new StringBuilder(type);
+        for (String value : values) {
+            record.append('\t').append(escape(value));
+        }
+        return record.toString();
+    }
+
+    static String line(String record) {
+        return record + '\t' + Long.toHexString(crc(record)) + '\n';
+    }
+
+    /**
+     * @return The unescaped fields of a line, or null if its checksum doesn't match.
+     */
+    private static String[] parseLine(String line) {
+        int checksumStart = line.lastIndexOf('\t');
+        if (checksumStart <= 0) {
+            return null;
+        }
+        String record = line.substring(0, checksumStart);
+        if (!Long.toHexString(crc(record)).equals(line.substring(checksumStart + 1))) {
+            return null;
+        }
+        String[] fields = record.split("\t", -1);
+        for (int i = 0; i < fields.length; i++) {
+            fields[i] = unescape(fields[i]);
+        }
+        return fields;
+    }
+
+    private static long crc(String record) {
+        CRC32 crc = new CRC32();
+        crc.update(record.getBytes(StandardCharsets.UTF_8));
+        return crc.getValue();
+    }
+
+    // Null is written as an empty field; tabs, line breaks and backslashes are escaped
+    private static String escape(String value) {
+        if (value == null) {
+            return "";
+        }
+        return value.replace("\\", "\\\\").replace("\t", "\\t").replace("\n", "\\n").replace("\r", "\\r");
+    }
+
+    private static String unescape(String field) {
+        if (field.isEmpty()) {
+            return null;
+        }
+        if (field.indexOf('\\') < 0) {
+            return field;
+        }
+        StringBuilder value = new StringBuilder(field.length());
+        for (int i = 0; i < field.length(); i++) {
+            char c = field.charAt(i);
+            if (c == '\\' && i + 1 < field.length()) {
+                char next = field.charAt(++i);
+                value.append(next == 't' ? '\t' : next == 'n' ? '\n' : next == 'r' ? '\r' : next);
+            } else {
+                value.append(c);
+            }
+        }
+        return value.toString();
+    }
+}
@@ -0,0 +1,172 @@
+package com.example.tts_tool;
+
+import android.content.Context;
+import android.net.Uri;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Exports every session folder of a workspace as one multi-speaker CSV,
+ * {@code <workspace>_merged.csv}: {@code Speaker_ID,Speaker,Sentence,Audio_Path}, with paths
+ * relative to the workspace and speakers numbered from 0 in name order. Each folder is paired
+ * with its own script by {@link TakeMatcher}, as in the single-folder CSV export; subfolders
+ * without a script are skipped.
+ *
+ * Folders are written in (speaker, folder) order, each with its rows in sentence order, so the
+ * file is the same no matter how long each folder took. The slow part, listing a folder and
+ * matching its takes, runs on a pool with one thread per core a few folders ahead of the one
+ * being written; rows go straight from the script to the output.
+ */
+public class WorkspaceMergeExportTask extends FileExportTask {
+
+    private static final String HEADER = "Speaker_ID,Speaker,Sentence,Audio_Path\n";
+    // Folders looked up ahead of the one being written, per thread; each holds its takes until written
+    private static final int LOOKAHEAD_PER_THREAD = 2;
+
+    private final TakeMatcher.DuplicatePolicy duplicatePolicy;
+
+    public WorkspaceMergeExportTask(Context context, Uri workspaceUri, TakeMatcher.DuplicatePolicy duplicatePolicy,
+                                    Listener listener) {
+        super(context, workspaceUri, listener);
+        this.duplicatePolicy = duplicatePolicy;
+    }
+
+    @Override
+    protected String getOutputName() {
+        return getFolderName() + "_merged.csv";
+    }
+
+    /** A session folder, filled in on the pool. */
+    private static class SessionFolder {
+        final WorkingFolderIndex.Entry entry;
+        WorkingFolderIndex.Entry script; // Null if the folder has none
+        TakeMatcher takes;
+
+        SessionFolder(WorkingFolderIndex.Entry entry) {
+            this.entry = entry;
+        }
+    }
+
+    /** What has been written so far. */
+    private static class Totals {
+        String speaker;
+        int speakerId = -1;
+        int rows;
+        int missing;
+    }
+
+    @Override
+    protected String writeTo(WorkingFolderIndex workspace, OutputStream out) throws IOException {
+        final List<SessionFolder> folders = new ArrayList<>();
+        for (WorkingFolderIndex.Entry entry : workspace.entries()) {
+            if (entry.isDirectory() && entry.getName() != null) {
+                folders.add(new SessionFolder(entry));
+            }
+        }
+        if (folders.isEmpty()) {
+            throw new IOException("The selected folder has no session folders. Select the folder that contains them.");
+        }
+        folders.sort((a, b) -> {
+            int order = speakerOf(a.entry.getName()).compareTo(speakerOf(b.entry.getName()));
+            return (order != 0) ? order : a.entry.getName().compareTo(b.entry.getName());
+        });
+
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), OUTPUT_BUFFER_SIZE);
+        writer.write(HEADER);
+        Totals totals = new Totals();
+        int folderCount = 0;
+        int threads = Math.min(folders.size(), Math.max(1, Runtime.getRuntime().availableProcessors()));
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> lookups = new ArrayList<>(folders.size());
+            for (int i = 0; i < folders.size(); i++) {
+                while (lookups.size() < folders.size() && lookups.size() < i + threads * LOOKAHEAD_PER_THREAD) {
+                    final SessionFolder folder = folders.get(lookups.size());
+                    lookups.add(pool.submit(() -> {
+                        lookUp(folder);
+                        return null;
+                    }));
+                }
+                awaitAll(lookups.subList(i, i + 1));
+                SessionFolder folder = folders.get(i);
+                if (folder.script != null) {
+                    folderCount++;
+                    writeRows(folder, writer, totals);
+                    folder.takes = null; // Written; let it go
+                }
+                reportProgress(i + 1, folders.size());
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        writer.flush();
+        if (totals.rows == 0) {
+            throw new IOException("None of the " + folders.size() + " subfolders has a script with recorded sentences.");
+        }
+
+        StringBuilder summary = new StringBuilder().append(totals.rows).append(" sentences from ").append(folderCount)
+                .append(folderCount == 1 ? " folder and " : " folders and ").append(totals.speakerId + 1)
+                .append(totals.speakerId == 0 ? " speaker" : " speakers").append(" merged.");
+        if (totals.missing > 0) {
+            summary.append("\n").append(totals.missing).append(" sentences have no recording.");
+        }
+        if (folderCount < folders.size()) {
+            summary.append("\n").append(folders.size() - folderCount).append(" subfolders without a script were skipped.");
+        }
+        return summary.toString();
+    }
+
+    // Runs on the pool.
+    private void lookUp(SessionFolder folder) throws IOException {
+        WorkingFolderIndex index = WorkingFolderIndex.query(context.getContentResolver(), folder.entry.getUri());
+        WorkingFolderIndex.Entry script = ScriptParser.findScript(index);
+        if (script != null) {
+            folder.takes = TakeMatcher.match(index, duplicatePolicy, context.getContentResolver());
+            folder.script = script;
+        }
+    }
+
+    // Rows come out of the script in sentence order. Speakers are numbered as their first row is written.
+    private void writeRows(SessionFolder folder, Writer writer, Totals totals) throws IOException {
+        final String folderName = folder.entry.getName();
+        final String speaker = speakerOf(folderName);
+        final String escapedSpeaker = CsvExportTask.escapeCsv(speaker);
+        try (InputStream in = context.getContentResolver().openInputStream(folder.script.getUri())) {
+            if (in == null) {
+                throw new IOException("Could not open " + folder.script.getName() + " in " + folderName);
+            }
+            ScriptParser.parse(new InputStreamReader(in, StandardCharsets.UTF_8), (index, sentence) -> {
+                WorkingFolderIndex.Entry take = folder.takes.getTake(index);
+                if (take == null) {
+                    totals.missing++;
+                    return;
+                }
+                if (!speaker.equals(totals.speaker)) {
+                    totals.speaker = speaker;
+                    totals.speakerId++;
+                }
+                writer.write(Integer.toString(totals.speakerId));
+                writer.write(',');
+                writer.write(escapedSpeaker);
+                writer.write(',');
+                writer.write(CsvExportTask.escapeCsv(sentence));
+                writer.write(',');
+                writer.write(CsvExportTask.escapeCsv("./" + folderName + "/" + take.getName()));
+                writer.write('\n');
+                totals.rows++;
+            });
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package com.example.tts_tool;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Calendar;
+
+/**
+ * Writes a ZIP archive to a stream that can't seek (such as a Storage Access Framework document),
+ * from entries that were already compressed and checksummed. Unlike {@link java.util.zip.ZipOutputStream}
+ * this leaves the compression to the caller, so entries can be compressed in parallel and written
+ * in order, and STORED entries need no second pass over their data.
+ *
+ * Sizes are known up front, so local headers carry them and no data descriptors are written.
+ * ZIP64 records are added where needed: more than 65535 entries, or entries, offsets or the
+ * central directory beyond 4 GiB.
+ */
+final class ZipStreamWriter {
+
+    static final int METHOD_STORED = 0;
+    static final int METHOD_DEFLATED = 8;
+
+    private static final long ZIP64_LIMIT = 0xFFFFFFFFL;
+    private static final int ZIP64_ENTRY_LIMIT = 0xFFFF;
+    private static final int FLAG_UTF8 = 0x0800;
+    private static final int VERSION_DEFAULT = 20;
+    private static final int VERSION_ZIP64 = 45;
+
+    private final OutputStream out;
+    // The central directory, built as entries are written; about 100 bytes per entry.
+    private final ByteArrayOutputStream centralDirectory = new ByteArrayOutputStream();
+    private final byte[] scratch = new byte[8];
+    private long offset = 0;
+    private long entryCount = 0;
+
+    /**
+     * @param out Receives the archive; buffer it, as headers are written in small pieces.
+     */
+    ZipStreamWriter(OutputStream out) {
+        this.out = out;
+    }
+
+    /**
+     * Writes one entry.
+     * @param data The entry data, already compressed with raw deflate if {@code method} is
+     *             {@link #METHOD_DEFLATED}.
+     * @param crc The CRC-32 of the uncompressed data.
+     * @param lastModified Modification time in milliseconds since the epoch.
+     */
+    void writeEntry(String name, int method, byte[] data, int length, long crc, long uncompressedSize,
+                    long lastModified) throws IOException {
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        long dosTime = toDosTime(lastModified);
+        long headerOffset = offset;
+        boolean zip64Sizes = uncompressedSize >= ZIP64_LIMIT || length >= ZIP64_LIMIT;
+        int version = zip64Sizes ? VERSION_ZIP64 : VERSION_DEFAULT;
+
+        writeInt(out, 0x04034b50);
+        writeShort(out, version);
+        writeShort(out, FLAG_UTF8);
+        writeShort(out, method);
+        writeInt(out, dosTime);
+        writeInt(out, crc);
+        writeInt(out, zip64Sizes ? ZIP64_LIMIT : length);
+        writeInt(out, zip64Sizes ? ZIP64_LIMIT : uncompressedSize);
+        writeShort(out, nameBytes.length);
+        writeShort(out, zip64Sizes ? 20 : 0);
+        out.write(nameBytes);
+        if (zip64Sizes) {
+            writeShort(out, 0x0001);
+            writeShort(out, 16);
+            writeLong(out, uncompressedSize);
+            writeLong(out, length);
+        }
+        out.write(data, 0, length);
+        offset += 30 + nameBytes.length + (zip64Sizes ? 20 : 0) + length;
+        entryCount++;
+
+        boolean zip64Offset = headerOffset >= ZIP64_LIMIT;
+        int extraLength = (zip64Sizes || zip64Offset) ? 4 + (zip64Sizes ? 16 : 0) + (zip64Offset ? 8 : 0) : 0;
+        if (zip64Offset) {
+            version = VERSION_ZIP64;
+        }
+        ByteArrayOutputStream cd = centralDirectory;
+        writeInt(cd, 0x02014b50);
+        writeShort(cd, version); // Made by
+        writeShort(cd, version); // Needed to extract
+        writeShort(cd, FLAG_UTF8);
+        writeShort(cd, method);
+        writeInt(cd, dosTime);
+        writeInt(cd, crc);
+        writeInt(cd, zip64Sizes ? ZIP64_LIMIT : length);
+        writeInt(cd, zip64Sizes ? ZIP64_LIMIT : uncompressedSize);
+        writeShort(cd, nameBytes.length);
+        writeShort(cd, extraLength);
+        writeShort(cd, 0); // Comment length
+        writeShort(cd, 0); // Disk number
+        writeShort(cd, 0); // Internal attributes
+        writeInt(cd, 0); // External attributes
+        writeInt(cd, zip64Offset ? ZIP64_LIMIT : headerOffset);
+        cd.write(nameBytes);
+        if (extraLength > 0) {
+            writeShort(cd, 0x0001);
+            writeShort(cd, extraLength - 4);
+            if (zip64Sizes) {
+                writeLong(cd, uncompressedSize);
+                writeLong(cd, length);
+            }
+            if (zip64Offset) {
+                writeLong(cd, headerOffset);
+            }
+        }
+    }
+
+    /**
+     * Writes the central directory and end records. The output stream is flushed, not closed.
+     */
+    void finish() throws IOException {
+        long directoryOffset = offset;
+        long directorySize = centralDirectory.size();
+        centralDirectory.writeTo(out);
+        offset += directorySize;
+
+        if (entryCount >= ZIP64_ENTRY_LIMIT || directoryOffset >= ZIP64_LIMIT || directorySize >= ZIP64_LIMIT) {
+            long zip64EndOffset = offset;
+            writeInt(out, 0x06064b50);
+            writeLong(out, 44); // Size of the rest of this record
+            writeShort(out, VERSION_ZIP64);
+            writeShort(out, VERSION_ZIP64);
+            writeInt(out, 0);
+            writeInt(out, 0);
+            writeLong(out, entryCount);
+            writeLong(out, entryCount);
+            writeLong(out, directorySize);
+            writeLong(out, directoryOffset);
+            writeInt(out, 0x07064b50); // ZIP64 end of central directory locator
+            writeInt(out, 0);
+            writeLong(out, zip64EndOffset);
+            writeInt(out, 1);
+        }
+        writeInt(out, 0x06054b50);
+        writeShort(out, 0);
+        writeShort(out, 0);
+        writeShort(out, (int) Math.min(entryCount, ZIP64_ENTRY_LIMIT));
+        writeShort(out, (int) Math.min(entryCount, ZIP64_ENTRY_LIMIT));
+        writeInt(out, Math.min(directorySize, ZIP64_LIMIT));
+        writeInt(out, Math.min(directoryOffset, ZIP64_LIMIT));
+        writeShort(out, 0); // Comment length
+        out.flush();
+    }
+
+    private static long toDosTime(long millis) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(millis);
+        int year = calendar.get(Calendar.YEAR);
+        if (year < 1980) {
+            return (1 << 21) | (1 << 16); // 1980-01-01, the earliest DOS date
+        }
+        return ((long) (year - 1980) << 25)
+                | ((long) (calendar.get(Calendar.MONTH) + 1) << 21)
+                | ((long) calendar.get(Calendar.DAY_OF_MONTH) << 16)
+                | ((long) calendar.get(Calendar.HOUR_OF_DAY) << 11)
+                | ((long) calendar.get(Calendar.MINUTE) << 5)
+                | (calendar.get(Calendar.SECOND) >> 1);
+    }
+
+    // --- Little-endian primitives ---
+
+    private void writeShort(OutputStream stream, int value) throws IOException {
+        scratch[0] = (byte) value;
+        scratch[1] = (byte) (value >>> 8);
+        stream.write(scratch, 0, 2);
+    }
+
+    private void writeInt(OutputStream stream, long value) throws IOException {
+        for (int i = 0; i < 4; i++) {
+            scratch[i] = (byte) (value >>> (8 * i));
+        }
+        stream.write(scratch, 0, 4);
+    }
+
+    private void writeLong(OutputStream stream, long value) throws IOException {
+        for (int i = 0; i < 8; i++) {
+            scratch[i] = (byte) (value >>> (8 * i));
+        }
+        stream.write(scratch, 0, 8);
+    }
+}
@@ -0,0 +1,91 @@
+package com.example.tts_tool;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class DatasetSplitterTest {
+
+    private static final DatasetSplitter.Split[] SPLITS = DatasetSplitter.Split.values();
+
+    @Test
+    public void eachStratum_followsTheRatiosWithinOneTake() {
+        DatasetSplitter splitter = new DatasetSplitter(80, 10, 10, DatasetSplitter.DEFAULT_SEED);
+        String[] speakers = {"alice", "bob", "carol"};
+        long[] durations = {1000, 3000, 6000, 12000, 30000};
+        Map<String, int[]> counts = new java.util.HashMap<>();
+        for (int i = 0; i < 3000; i++) {
+            String speaker = speakers[i % speakers.length];
+            long duration = durations[(i / speakers.length) % durations.length];
+            DatasetSplitter.Split split = splitter.assign(speaker, duration, i + "_take.wav");
+            int[] stratum = counts.computeIfAbsent(speaker + duration, key -> new int[1 + SPLITS.length]);
+            stratum[0]++;
+            stratum[1 + split.ordinal()]++;
+            double[] ratios = {0.8, 0.1, 0.1};
+            for (int s = 0; s < SPLITS.length; s++) {
+                assertTrue("stratum " + speaker + "/" + duration + " after " + stratum[0] + " takes",
+                        Math.abs(stratum[1 + s] - ratios[s] * stratum[0]) <= 1);
+            }
+        }
+        assertEquals(2400, splitter.getCount(DatasetSplitter.Split.TRAIN));
+        assertEquals(300, splitter.getCount(DatasetSplitter.Split.VALIDATION));
+        assertEquals(300, splitter.getCount(DatasetSplitter.Split.TEST));
+    }
+
+    @Test
+    public void ratios_areNormalized() {
+        DatasetSplitter percent = new DatasetSplitter(90, 5, 5, 7);
+        DatasetSplitter fraction = new DatasetSplitter(0.9, 0.05, 0.05, 7);
+        for (int i = 0; i < 500; i++) {
+            assertEquals(percent.assign("s", 2500, "k" + i), fraction.assign("s", 2500, "k" + i));
+        }
+    }
+
+    @Test
+    public void sameInputAndSeed_giveTheSameSplits() {
+        List<DatasetSplitter.Split> first = assignAll(new DatasetSplitter(70, 15, 15, 42), 1000);
+        List<DatasetSplitter.Split> second = assignAll(new DatasetSplitter(70, 15, 15, 42), 1000);
+        assertEquals(first, second);
+    }
+
+    @Test
+    public void appendedTakes_leaveEarlierAssignmentsUnchanged() {
+        List<DatasetSplitter.Split> shorter = assignAll(new DatasetSplitter(70, 15, 15, 42), 400);
+        List<DatasetSplitter.Split> longer = assignAll(new DatasetSplitter(70, 15, 15, 42), 1000);
+        assertEquals(shorter, longer.subList(0, 400));
+    }
+
+    @Test
+    public void zeroRatio_neverReceivesTakes() {
+        DatasetSplitter splitter = new DatasetSplitter(90, 10, 0, DatasetSplitter.DEFAULT_SEED);
+        Map<DatasetSplitter.Split, Integer> seen = new EnumMap<>(DatasetSplitter.Split.class);
+        for (DatasetSplitter.Split split : assignAll(splitter, 1000)) {
+            seen.merge(split, 1, Integer::sum);
+        }
+        assertNull(seen.get(DatasetSplitter.Split.TEST));
+        assertEquals(0, splitter.getCount(DatasetSplitter.Split.TEST));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void allZeroRatios_areRejected() {
+        new DatasetSplitter(0, 0, 0, DatasetSplitter.DEFAULT_SEED);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void negativeRatios_areRejected() {
+        new DatasetSplitter(100, -5, 5, DatasetSplitter.DEFAULT_SEED);
+    }
+
+    private static List<DatasetSplitter.Split> assignAll(DatasetSplitter splitter, int count) {
+        List<DatasetSplitter.Split> splits = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            splits.add(splitter.assign(i % 2 == 0 ? "alice" : "bob", 1000 + (i % 7) * 2500L, i + "_take.wav"));
+        }
+        return splits;
+    }
+}
@@ -0,0 +1,87 @@
+package com.example.tts_tool;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Reference tones from EBU Tech 3341 and ITU-R BS.1770-4, generated on the fly.
+ */
+public class LoudnessMeterTest {
+
+    // Feeds a sine of the given level to every channel, in blocks as the exports read them.
+    private static void addSine(LoudnessMeter meter, int sampleRate, int channels, double frequency, double dbfs,
+                                double seconds) {
+        double amplitude = 32767 * Math.pow(10, dbfs / 20);
+        int frames = (int) (sampleRate * seconds);
+        short[] block = new short[4096 * channels];
+        int fill = 0;
+        for (int n = 0; n < frames; n++) {
+            short sample = (short) Math.round(amplitude * Math.sin(2 * Math.PI * frequency * n / sampleRate));
+            for (int c = 0; c < channels; c++) {
+                block[fill++] = sample;
+            }
+            if (fill == block.length) {
+                meter.add(block, fill);
+                fill = 0;
+            }
+        }
+        meter.add(block, fill);
+    }
+
+    @Test
+    public void stereoSineAtMinus23Dbfs_measuresMinus23Lufs() {
+        // EBU Tech 3341, test 1: 1 kHz, -23 dBFS on both channels reads -23.0 LUFS
+        for (int sampleRate : new int[] {48000, 44100}) {
+            LoudnessMeter meter = new LoudnessMeter(sampleRate, 2);
+            addSine(meter, sampleRate, 2, 1000, -23, 20);
+            assertEquals("at " + sampleRate + " Hz", -23.0, meter.getIntegratedLoudness(), 0.1);
+        }
+    }
+
+    @Test
+    public void monoSine_measures3DbBelowStereo() {
+        // BS.1770: a 0 dBFS 1 kHz sine in one channel reads -3.01 LKFS
+        LoudnessMeter meter = new LoudnessMeter(48000, 1);
+        addSine(meter, 48000, 1, 1000, -20, 10);
+        assertEquals(-23.01, meter.getIntegratedLoudness(), 0.1);
+    }
+
+    @Test
+    public void relativeGate_dropsQuietPassages() {
+        // EBU Tech 3341, test 3 in spirit: a passage 30 LU down doesn't lower the reading
+        LoudnessMeter meter = new LoudnessMeter(48000, 2);
+        addSine(meter, 48000, 2, 1000, -36, 10);
+        addSine(meter, 48000, 2, 1000, -23, 60);
+        addSine(meter, 48000, 2, 1000, -36, 10);
+        assertEquals(-23.0, meter.getIntegratedLoudness(), 0.1);
+    }
+
+    @Test
+    public void silenceAndShortAudio_haveNoLoudness() {
+        LoudnessMeter silent = new LoudnessMeter(48000, 1);
+        silent.add(new short[48000], 48000);
+        assertEquals(Double.NEGATIVE_INFINITY, silent.getIntegratedLoudness(), 0);
+        assertEquals(Double.NEGATIVE_INFINITY, silent.getTruePeak(), 0);
+
+        LoudnessMeter shortTone = new LoudnessMeter(48000, 1);
+        addSine(shortTone, 48000, 1, 1000, -20, 0.3); // Under one 400 ms block
+        assertEquals(Double.NEGATIVE_INFINITY, shortTone.getIntegratedLoudness(), 0);
+    }
+
+    @Test
+    public void truePeak_findsPeaksBetweenSamples() {
+        // A sine at a quarter of the rate, sampled 45 degrees off its crests: every sample sits
+        // 3 dB below the true peak, which the oversampling has to recover
+        LoudnessMeter meter = new LoudnessMeter(48000, 1);
+        double amplitude = 32767 * Math.pow(10, -6 / 20.0);
+        short[] samples = new short[48000];
+        for (int n = 0; n < samples.length; n++) {
+            samples[n] = (short) Math.round(amplitude * Math.sin(Math.PI / 2 * n + Math.PI / 4));
+        }
+        meter.add(samples, samples.length);
+        assertEquals(-6.0, meter.getTruePeak(), 0.5);
+        double samplePeak = 20 * Math.log10(Math.abs(samples[0]) / 32768.0);
+        assertTrue(meter.getTruePeak() > samplePeak + 2);
+    }
+}
@@ -0,0 +1,54 @@
+package com.example.tts_tool;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class RecordingOrderPlannerTest {
+
+    private static List<ProcessingActivity.SentenceItem> script(String... texts) {
+        List<ProcessingActivity.SentenceItem> items = new ArrayList<>();
+        for (String text : texts) {
+            items.add(new ProcessingActivity.SentenceItem(items.size(), text));
+        }
+        return items;
+    }
+
+    @Test
+    public void fingerprint_followsTheContentInOrder() {
+        String fingerprint = RecordingOrderPlanner.fingerprint(script("One.", "Two.", "Three."));
+        assertEquals(fingerprint, RecordingOrderPlanner.fingerprint(script("One.", "Two.", "Three.")));
+        assertEquals(fingerprint, RecordingOrderPlanner.fingerprint(script("One.", "Two.\n", "  Three.")));
+        assertNotEquals(fingerprint, RecordingOrderPlanner.fingerprint(script("One.", "Two!", "Three.")));
+        assertNotEquals(fingerprint, RecordingOrderPlanner.fingerprint(script("Two.", "One.", "Three.")));
+    }
+
+    @Test
+    public void isOrderFor_rejectsAnOrderSavedForAnEditedScriptOfTheSameLength() {
+        List<ProcessingActivity.SentenceItem> saved = script("One.", "Two.", "Three.");
+        List<Integer> order = Arrays.asList(2, 0, 1);
+        String fingerprint = RecordingOrderPlanner.fingerprint(saved);
+
+        assertTrue(RecordingOrderPlanner.isOrderFor(order, fingerprint, script("One.", "Two.", "Three.")));
+        assertTrue(RecordingOrderPlanner.isValidOrder(order, 3));
+        assertFalse(RecordingOrderPlanner.isOrderFor(order, fingerprint, script("One.", "Another.", "Three.")));
+    }
+
+    @Test
+    public void isOrderFor_rejectsAnOrderWithoutFingerprint() {
+        // Saved before fingerprints; the order is planned again, which gives the same order for an unchanged script
+        assertFalse(RecordingOrderPlanner.isOrderFor(Arrays.asList(0, 1), null, script("One.", "Two.")));
+    }
+
+    @Test
+    public void isOrderFor_rejectsAnOrderThatIsNotAPermutation() {
+        List<ProcessingActivity.SentenceItem> items = script("One.", "Two.");
+        String fingerprint = RecordingOrderPlanner.fingerprint(items);
+        assertFalse(RecordingOrderPlanner.isOrderFor(Arrays.asList(0, 0), fingerprint, items));
+        assertFalse(RecordingOrderPlanner.isOrderFor(Arrays.asList(0), fingerprint, items));
+    }
+}
@@ -0,0 +1,58 @@
+package com.example.tts_tool;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Sentence numbers name the recordings, so the split must not drift between versions.
+ */
+public class ScriptParserTest {
+
+    private static List<String> parse(String script) throws IOException {
+        List<String> sentences = new ArrayList<>();
+        int count = ScriptParser.parse(new StringReader(script), (index, sentence) -> {
+            assertEquals("indices are consecutive", sentences.size(), index);
+            sentences.add(sentence);
+        });
+        assertEquals(sentences.size(), count);
+        return sentences;
+    }
+
+    @Test
+    public void blankLines_separateSentences() throws IOException {
+        assertEquals(Arrays.asList("One.", "Two.", "Three."), parse("One.\n\nTwo.\n\n\n\nThree.\n"));
+    }
+
+    @Test
+    public void wrappedLines_stayInOneSentence() throws IOException {
+        assertEquals(Arrays.asList("First line\nsecond line", "Next."), parse("First line\nsecond line\n\nNext."));
+    }
+
+    @Test
+    public void whitespaceOnlyLines_countAsBlank() throws IOException {
+        assertEquals(Arrays.asList("A.", "B."), parse("  A.  \n \t \nB.\n"));
+    }
+
+    @Test
+    public void leadingAndTrailingBlankLines_areIgnored() throws IOException {
+        assertEquals(Arrays.asList("Only."), parse("\n\n\nOnly.\n\n\n"));
+    }
+
+    @Test
+    public void windowsLineEndings_areHandled() throws IOException {
+        assertEquals(Arrays.asList("One.", "Two."), parse("One.\r\n\r\nTwo.\r\n"));
+    }
+
+    @Test
+    public void emptyScript_hasNoSentences() throws IOException {
+        assertTrue(parse("").isEmpty());
+        assertTrue(parse("\n \n\t\n").isEmpty());
+    }
+}
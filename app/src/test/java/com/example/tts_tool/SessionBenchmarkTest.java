@@ -0,0 +1,105 @@
+package com.example.tts_tool;
+
+import com.google.gson.Gson;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Arrays;
+
+/**
+ * Times the session codec against Gson on large sessions, and the migration of a large legacy
+ * session. Skipped unless the TTS_BENCHMARKS environment variable is set; prints the median of
+ * several runs after a warm-up.
+ */
+public class SessionBenchmarkTest {
+
+    private static final int WARMUP_RUNS = 3;
+    private static final int MEASURED_RUNS = 7;
+
+    private interface Run {
+        void run() throws IOException;
+    }
+
+    @Before
+    public void requireBenchmarks() {
+        Assume.assumeTrue(System.getenv("TTS_BENCHMARKS") != null);
+    }
+
+    @Test
+    public void codec_versusGson() throws IOException {
+        for (int sentences : new int[] {10_000, 100_000}) {
+            ProcessingActivity.SessionState state = SessionCodecTest.sampleSession(sentences);
+            Gson gson = new Gson();
+            String gsonJson = gson.toJson(state);
+            StringWriter codecJson = new StringWriter();
+            SessionCodec.writeJson(state, codecJson);
+            ByteArrayOutputStream binary = new ByteArrayOutputStream();
+            SessionCodec.writeBinary(state, binary);
+            byte[] binaryBytes = binary.toByteArray();
+
+            report(sentences, "Gson write", () -> gson.toJson(state));
+            report(sentences, "Gson read", () -> gson.fromJson(gsonJson, ProcessingActivity.SessionState.class));
+            report(sentences, "codec JSON write", () -> SessionCodec.writeJson(state, new StringWriter()));
+            report(sentences, "codec JSON read", () -> SessionCodec.readJson(new StringReader(codecJson.toString())));
+            report(sentences, "codec binary write", () -> SessionCodec.writeBinary(state, new ByteArrayOutputStream()));
+            report(sentences, "codec binary read", () -> SessionCodec.readBinary(new ByteArrayInputStream(binaryBytes)));
+            System.out.printf("%,d sentences: Gson JSON %,d chars, binary %,d bytes%n", sentences, gsonJson.length(), binaryBytes.length);
+        }
+    }
+
+    @Test
+    public void migration_ofLargeLegacySessions() throws IOException {
+        for (int sentences : new int[] {10_000, 100_000}) {
+            // Written by Gson, as version 1 sessions were: no version fields, no hashes
+            String legacyJson = new Gson().toJson(SessionMigrationsTest.versionOneSession(sentences));
+            ProcessingActivity.SessionState[] fixture = new ProcessingActivity.SessionState[1];
+            report(sentences, "migrate step", () -> fixture[0] = SessionMigrationsTest.versionOneSession(sentences),
+                    () -> SessionMigrations.migrate(fixture[0]));
+            report(sentences, "upgrade: decode, migrate, write binary", () -> {
+                ProcessingActivity.SessionState state = SessionCodec.readJson(new StringReader(legacyJson));
+                SessionMigrations.migrate(state);
+                SessionCodec.writeBinary(state, new ByteArrayOutputStream());
+            });
+
+            ProcessingActivity.SessionState migrated = SessionCodec.readJson(new StringReader(legacyJson));
+            SessionMigrations.migrate(migrated);
+            ByteArrayOutputStream binary = new ByteArrayOutputStream();
+            SessionCodec.writeBinary(migrated, binary);
+            byte[] binaryBytes = binary.toByteArray();
+            report(sentences, "later load, no migration", () -> {
+                ProcessingActivity.SessionState state = SessionCodec.readBinary(new ByteArrayInputStream(binaryBytes));
+                if (SessionMigrations.migrate(state)) {
+                    throw new AssertionError("a migrated session was migrated again");
+                }
+            });
+        }
+    }
+
+    private static void report(int sentences, String name, Run run) throws IOException {
+        report(sentences, name, () -> {}, run);
+    }
+
+    // Only run is timed; setup prepares each run, such as a fresh fixture for run to change.
+    private static void report(int sentences, String name, Run setup, Run run) throws IOException {
+        for (int i = 0; i < WARMUP_RUNS; i++) {
+            setup.run();
+            run.run();
+        }
+        long[] nanos = new long[MEASURED_RUNS];
+        for (int i = 0; i < MEASURED_RUNS; i++) {
+            setup.run();
+            long start = System.nanoTime();
+            run.run();
+            nanos[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(nanos);
+        System.out.printf("%,d sentences, %s: %.1f ms%n", sentences, name, nanos[MEASURED_RUNS / 2] / 1e6);
+    }
+}
@@ -0,0 +1,150 @@
+package com.example.tts_tool;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class SessionCodecTest {
+
+    static ProcessingActivity.SessionState sampleSession(int sentences) {
+        List<ProcessingActivity.SentenceItem> items = new ArrayList<>(sentences);
+        for (int i = 0; i < sentences; i++) {
+            ProcessingActivity.SentenceItem item = new ProcessingActivity.SentenceItem(i, "Sentence " + i + " with \"quotes\", ünïcödé and a line\nbreak.");
+            if (i % 3 == 0) {
+                item.setRecordedFileName(i + "_1700000000000.wav");
+                item.setRecordedFileUriString("content://com.android.externalstorage.documents/tree/primary%3ATTS/document/" + i);
+                item.setRecordedDurationMs(1500L + i);
+            }
+            if (i % 5 == 4) {
+                item.setDuplicateOf(i - 1);
+            }
+            item.setSelected(i == 1);
+            items.add(item);
+        }
+        ProcessingActivity.SessionState state = new ProcessingActivity.SessionState("session-1", "speaker",
+                "content://input/script.txt", "content://root", "content://root/working", 1, items, 1700000000123L);
+        List<Integer> order = new ArrayList<>(sentences);
+        for (int i = sentences - 1; i >= 0; i--) {
+            order.add(i);
+        }
+        state.setRecordingOrder(order);
+        state.setRecordingOrderFingerprint(RecordingOrderPlanner.fingerprint(items));
+        return state;
+    }
+
+    static void assertSameSession(ProcessingActivity.SessionState expected, ProcessingActivity.SessionState actual) {
+        assertEquals(expected.getSessionId(), actual.getSessionId());
+        assertEquals(expected.getUsername(), actual.getUsername());
+        assertEquals(expected.getOriginalInputFileUriString(), actual.getOriginalInputFileUriString());
+        assertEquals(expected.getRootFolderUriString(), actual.getRootFolderUriString());
+        assertEquals(expected.getWorkingFolderUriString(), actual.getWorkingFolderUriString());
+        assertEquals(expected.getCurrentSentenceIndex(), actual.getCurrentSentenceIndex());
+        assertEquals(expected.getLastModified(), actual.getLastModified());
+        assertEquals(expected.getSchemaVersion(), actual.getSchemaVersion());
+        assertEquals(expected.getRecordingOrder(), actual.getRecordingOrder());
+        assertEquals(expected.getRecordingOrderFingerprint(), actual.getRecordingOrderFingerprint());
+        if (expected.getSentenceItems() == null) {
+            assertNull(actual.getSentenceItems());
+            return;
+        }
+        assertEquals(expected.getSentenceItems().size(), actual.getSentenceItems().size());
+        for (int i = 0; i < expected.getSentenceItems().size(); i++) {
+            ProcessingActivity.SentenceItem a = expected.getSentenceItems().get(i);
+            ProcessingActivity.SentenceItem b = actual.getSentenceItems().get(i);
+            assertEquals(a.getIndex(), b.getIndex());
+            assertEquals(a.getText(), b.getText());
+            assertEquals(a.getContentHash(), b.getContentHash());
+            assertEquals(a.getRecordedFileName(), b.getRecordedFileName());
+            assertEquals(a.getRecordedFileUriString(), b.getRecordedFileUriString());
+            assertEquals(a.getRecordedDurationMs(), b.getRecordedDurationMs());
+            assertEquals(a.getDuplicateOf(), b.getDuplicateOf());
+            assertEquals(a.isSelected(), b.isSelected());
+        }
+    }
+
+    private static ProcessingActivity.SessionState binaryRoundTrip(ProcessingActivity.SessionState state) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        SessionCodec.writeBinary(state, bytes);
+        return SessionCodec.readBinary(new ByteArrayInputStream(bytes.toByteArray()));
+    }
+
+    private static ProcessingActivity.SessionState jsonRoundTrip(ProcessingActivity.SessionState state) throws IOException {
+        StringWriter json = new StringWriter();
+        SessionCodec.writeJson(state, json);
+        return SessionCodec.readJson(new StringReader(json.toString()));
+    }
+
+    @Test
+    public void binaryForm_roundTrips() throws IOException {
+        ProcessingActivity.SessionState state = sampleSession(50);
+        assertSameSession(state, binaryRoundTrip(state));
+    }
+
+    @Test
+    public void jsonForm_roundTrips() throws IOException {
+        ProcessingActivity.SessionState state = sampleSession(50);
+        assertSameSession(state, jsonRoundTrip(state));
+    }
+
+    @Test
+    public void archiveForm_roundTrips() throws IOException {
+        ProcessingActivity.SessionState state = sampleSession(50);
+        byte[] archive = SessionCodec.toArchive(state);
+        assertSameSession(state, SessionCodec.fromArchive(new ByteArrayInputStream(archive)));
+    }
+
+    @Test
+    public void missingFields_stayMissing() throws IOException {
+        ProcessingActivity.SessionState state = new ProcessingActivity.SessionState();
+        state.setSessionId("empty");
+        state.setCurrentSentenceIndex(-1);
+        assertSameSession(state, binaryRoundTrip(state));
+        assertSameSession(state, jsonRoundTrip(state));
+
+        state.setSentenceItems(new ArrayList<>());
+        state.setRecordingOrder(new ArrayList<>());
+        assertSameSession(state, binaryRoundTrip(state));
+        assertSameSession(state, jsonRoundTrip(state));
+    }
+
+    @Test
+    public void jsonReader_readsGsonOutputAndSkipsUnknownFields() throws IOException {
+        String json = "{\"sessionId\":\"legacy\",\"username\":\"speaker\",\"currentSentenceIndex\":2,"
+                + "\"unknownField\":{\"nested\":[1,2,3]},\"lastModified\":42,"
+                + "\"sentenceItems\":[{\"index\":0,\"text\":\"Hello there.\",\"recordedFileName\":\"0_1.wav\","
+                + "\"recordedFileUriString\":\"content://x/0\",\"selected\":false,\"extra\":true}]}";
+        ProcessingActivity.SessionState state = SessionCodec.readJson(new StringReader(json));
+        assertEquals("legacy", state.getSessionId());
+        assertEquals(2, state.getCurrentSentenceIndex());
+        assertEquals(42, state.getLastModified());
+        assertEquals(0, state.getSchemaVersion()); // No version: written before versioning
+        ProcessingActivity.SentenceItem item = state.getSentenceItems().get(0);
+        assertEquals("Hello there.", item.getText());
+        assertEquals("0_1.wav", item.getRecordedFileName());
+        assertEquals(ContentHash.of("Hello there."), item.getContentHash()); // Computed on demand
+    }
+
+    @Test
+    public void binaryForm_isSmallerThanJson() throws IOException {
+        ProcessingActivity.SessionState state = sampleSession(1000);
+        ByteArrayOutputStream binary = new ByteArrayOutputStream();
+        SessionCodec.writeBinary(state, binary);
+        StringWriter json = new StringWriter();
+        SessionCodec.writeJson(state, json);
+        assertTrue(binary.size() < json.toString().getBytes(java.nio.charset.StandardCharsets.UTF_8).length);
+    }
+
+    @Test(expected = IOException.class)
+    public void foreignData_isRejected() throws IOException {
+        SessionCodec.readBinary(new ByteArrayInputStream(Arrays.copyOf("not a session".getBytes(), 32)));
+    }
+}
@@ -0,0 +1,216 @@
+package com.example.tts_tool;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs the session flow against {@link InMemorySessionRepository}: save, take saves, load,
+ * paged listing, archiving and restoring.
+ */
+public class SessionFlowTest {
+
+    private static final long DAY_MS = 24L * 60 * 60 * 1000;
+
+    private InMemorySessionRepository repository;
+
+    @Before
+    public void setUp() {
+        repository = new InMemorySessionRepository();
+    }
+
+    private static ProcessingActivity.SessionState newSession(String sessionId, int sentences, long lastModified) {
+        List<ProcessingActivity.SentenceItem> items = new ArrayList<>();
+        for (int i = 0; i < sentences; i++) {
+            items.add(new ProcessingActivity.SentenceItem(i, "Sentence " + i + " of " + sessionId + "."));
+        }
+        return new ProcessingActivity.SessionState(sessionId, "speaker", "content://script", "content://root",
+                "content://root/" + sessionId, 0, items, lastModified);
+    }
+
+    private static ProcessingActivity.SentenceItem take(int index, long durationMs) {
+        ProcessingActivity.SentenceItem item = new ProcessingActivity.SentenceItem();
+        item.setIndex(index);
+        item.setRecordedFileName(index + "_1700000000000.wav");
+        item.setRecordedFileUriString("content://root/takes/" + index);
+        item.setRecordedDurationMs(durationMs);
+        return item;
+    }
+
+    private ProcessingActivity.SessionState load(String sessionId) {
+        ProcessingActivity.SessionState[] result = new ProcessingActivity.SessionState[1];
+        repository.loadSession(sessionId, new SessionRepository.Callback<ProcessingActivity.SessionState>() {
+            @Override
+            public void onResult(ProcessingActivity.SessionState sessionState) {
+                result[0] = sessionState;
+            }
+
+            @Override
+            public void onError(Exception e) {
+                throw new AssertionError("Could not load " + sessionId, e);
+            }
+        });
+        return result[0];
+    }
+
+    private List<SessionSummary> list(SessionSummary after, int pageSize) {
+        List<SessionSummary> result = new ArrayList<>();
+        repository.listSessions(after, pageSize, new SessionRepository.Callback<List<SessionSummary>>() {
+            @Override
+            public void onResult(List<SessionSummary> page) {
+                result.addAll(page);
+            }
+
+            @Override
+            public void onError(Exception e) {
+                throw new AssertionError(e);
+            }
+        });
+        return result;
+    }
+
+    private int archive(long now) {
+        int[] result = new int[1];
+        repository.archiveSessions(new SessionArchivePolicy(30 * DAY_MS, 180 * DAY_MS, 10, 0), now,
+                new SessionRepository.Callback<Integer>() {
+                    @Override
+                    public void onResult(Integer archived) {
+                        result[0] = archived;
+                    }
+
+                    @Override
+                    public void onError(Exception e) {
+                        throw new AssertionError(e);
+                    }
+                });
+        return result[0];
+    }
+
+    @Test
+    public void savedTakes_areLoadedAndSummarized() {
+        ProcessingActivity.SessionState session = newSession("s1", 5, 1000);
+        repository.saveSession(session, null);
+
+        session.setCurrentSentenceIndex(2);
+        session.setLastModified(2000);
+        repository.saveTakes(session, Arrays.asList(take(0, 1500), take(1, 2500)));
+
+        ProcessingActivity.SessionState loaded = load("s1");
+        assertEquals(2, loaded.getCurrentSentenceIndex());
+        assertEquals(2000, loaded.getLastModified());
+        assertEquals(5, loaded.getSentenceItems().size());
+        assertEquals("1_1700000000000.wav", loaded.getSentenceItems().get(1).getRecordedFileName());
+        assertEquals("Sentence 1 of s1.", loaded.getSentenceItems().get(1).getText());
+        assertNull(loaded.getSentenceItems().get(2).getRecordedFileName());
+
+        SessionSummary summary = list(null, 10).get(0);
+        assertEquals(2, summary.getRecordedCount());
+        assertEquals(5, summary.getTotalCount());
+        assertEquals(4000, summary.getDurationMs());
+    }
+
+    @Test
+    public void loadedSession_isACopy() {
+        repository.saveSession(newSession("s1", 3, 1000), null);
+        load("s1").getSentenceItems().get(0).setRecordedFileName("changed.wav");
+        assertNull(load("s1").getSentenceItems().get(0).getRecordedFileName());
+    }
+
+    @Test
+    public void listing_pagesNewestFirstWithoutRepeats() {
+        for (int i = 0; i < 25; i++) {
+            repository.saveSession(newSession("s" + i, 2, 1000 + (i % 10)), null); // Ties on lastModified
+        }
+        List<String> seen = new ArrayList<>();
+        SessionSummary after = null;
+        List<SessionSummary> page;
+        do {
+            page = list(after, 7);
+            for (SessionSummary summary : page) {
+                seen.add(summary.getSessionId());
+            }
+            after = page.isEmpty() ? null : page.get(page.size() - 1);
+        } while (page.size() == 7);
+
+        assertEquals(25, seen.size());
+        assertEquals(25, seen.stream().distinct().count());
+        List<SessionSummary> all = list(null, 100);
+        for (int i = 1; i < all.size(); i++) {
+            assertTrue(SessionStates.NEWEST_FIRST.compare(all.get(i - 1), all.get(i)) < 0);
+        }
+    }
+
+    @Test
+    public void changedSession_movesToTheFrontOfTheList() {
+        repository.saveSession(newSession("old", 2, 1000), null);
+        repository.saveSession(newSession("new", 2, 2000), null);
+        ProcessingActivity.SessionState old = load("old");
+        old.setLastModified(3000);
+        repository.saveTakes(old, Arrays.asList(take(0, 1000)));
+        assertEquals("old", list(null, 1).get(0).getSessionId());
+        assertEquals("new", list(list(null, 1).get(0), 1).get(0).getSessionId());
+    }
+
+    @Test
+    public void archivedSession_leavesATombstoneAndIsRestoredOnLoad() {
+        long now = 400 * DAY_MS;
+        ProcessingActivity.SessionState idle = newSession("idle", 4, now - 200 * DAY_MS);
+        repository.saveSession(idle, null);
+        repository.saveTakes(idle, Arrays.asList(take(3, 1200)));
+        repository.saveSession(newSession("recent", 4, now - DAY_MS), null);
+
+        assertEquals(1, archive(now));
+        List<SessionSummary> listed = list(null, 10);
+        assertEquals(2, listed.size());
+        SessionSummary tombstone = listed.get(1);
+        assertEquals("idle", tombstone.getSessionId());
+        assertTrue(tombstone.isArchived());
+        assertEquals(1, tombstone.getRecordedCount());
+        assertFalse(listed.get(0).isArchived());
+        assertEquals("a tombstone is never archived again", 0, archive(now));
+
+        ProcessingActivity.SessionState restored = load("idle");
+        assertEquals(4, restored.getSentenceItems().size());
+        assertEquals("3_1700000000000.wav", restored.getSentenceItems().get(3).getRecordedFileName());
+        assertFalse(list(null, 10).get(1).isArchived());
+    }
+
+    @Test
+    public void takesSavedToAnArchivedSession_restoreItFirst() {
+        long now = 400 * DAY_MS;
+        ProcessingActivity.SessionState session = newSession("s1", 3, now - 200 * DAY_MS);
+        repository.saveSession(session, null);
+        assertEquals(1, archive(now));
+
+        session.setLastModified(now);
+        repository.saveTakes(session, Arrays.asList(take(2, 900)));
+        ProcessingActivity.SessionState loaded = load("s1");
+        assertEquals("Sentence 0 of s1.", loaded.getSentenceItems().get(0).getText());
+        assertEquals("2_1700000000000.wav", loaded.getSentenceItems().get(2).getRecordedFileName());
+        SessionSummary summary = list(null, 10).get(0);
+        assertFalse(summary.isArchived());
+        assertEquals(1, summary.getRecordedCount());
+    }
+
+    @Test
+    public void unknownSession_isAnError() {
+        Exception[] error = new Exception[1];
+        repository.loadSession("missing", new SessionRepository.Callback<ProcessingActivity.SessionState>() {
+            @Override
+            public void onResult(ProcessingActivity.SessionState sessionState) {
+                fail("Loaded a session that was never saved");
+            }
+
+            @Override
+            public void onError(Exception e) {
+                error[0] = e;
+            }
+        });
+        assertNotNull(error[0]);
+    }
+}
@@ -0,0 +1,94 @@
+package com.example.tts_tool;
+
+import org.junit.Test;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class SessionMigrationsTest {
+
+    // A session as the original single-document layout stored it: no version, no hashes.
+    static ProcessingActivity.SessionState versionOneSession(int sentences) {
+        List<ProcessingActivity.SentenceItem> items = new ArrayList<>(sentences);
+        for (int i = 0; i < sentences; i++) {
+            ProcessingActivity.SentenceItem item = new ProcessingActivity.SentenceItem();
+            item.setIndex(i);
+            item.setTextAndHash("Legacy sentence number " + i + ".", null);
+            items.add(item);
+        }
+        ProcessingActivity.SessionState state = new ProcessingActivity.SessionState();
+        state.setSessionId("legacy");
+        state.setSentenceItems(items);
+        state.setSchemaVersion(0);
+        return state;
+    }
+
+    @Test
+    public void versionlessSession_isMigratedToTheCurrentVersion() {
+        ProcessingActivity.SessionState state = versionOneSession(10);
+        assertTrue(SessionMigrations.migrate(state));
+        assertEquals(SessionMigrations.CURRENT_VERSION, state.getSchemaVersion());
+        for (ProcessingActivity.SentenceItem item : state.getSentenceItems()) {
+            assertEquals(ContentHash.of(item.getText()), item.getContentHash());
+        }
+    }
+
+    @Test
+    public void currentSession_isLeftAlone() {
+        ProcessingActivity.SessionState state = SessionCodecTest.sampleSession(10);
+        assertFalse(SessionMigrations.migrate(state));
+        assertFalse("a migrated session needs no second write", SessionMigrations.migrate(versionOneMigrated()));
+    }
+
+    private static ProcessingActivity.SessionState versionOneMigrated() {
+        ProcessingActivity.SessionState state = versionOneSession(3);
+        SessionMigrations.migrate(state);
+        return state;
+    }
+
+    @Test
+    public void invalidAnalysisFields_areDropped() {
+        ProcessingActivity.SessionState state = versionOneSession(4);
+        state.setSchemaVersion(2);
+        List<ProcessingActivity.SentenceItem> items = state.getSentenceItems();
+        items.get(0).setDuplicateOf(0); // Points at itself
+        items.get(1).setDuplicateOf(3); // Points forward
+        items.get(2).setDuplicateOf(-7);
+        items.get(3).setDuplicateOf(1); // Valid
+        state.setRecordingOrder(Arrays.asList(0, 1, 1, 3)); // Not a permutation
+        assertTrue(SessionMigrations.migrate(state));
+        assertEquals(-1, items.get(0).getDuplicateOf());
+        assertEquals(-1, items.get(1).getDuplicateOf());
+        assertEquals(-1, items.get(2).getDuplicateOf());
+        assertEquals(1, items.get(3).getDuplicateOf());
+        assertNull(state.getRecordingOrder());
+    }
+
+    @Test
+    public void validRecordingOrder_isKept() {
+        ProcessingActivity.SessionState state = versionOneSession(3);
+        state.setSchemaVersion(2);
+        state.setRecordingOrder(Arrays.asList(2, 0, 1));
+        SessionMigrations.migrate(state);
+        assertEquals(Arrays.asList(2, 0, 1), state.getRecordingOrder());
+    }
+
+    @Test
+    public void sessionWithoutSentences_migrates() {
+        ProcessingActivity.SessionState state = new ProcessingActivity.SessionState();
+        assertTrue(SessionMigrations.migrate(state));
+        assertEquals(SessionMigrations.CURRENT_VERSION, state.getSchemaVersion());
+    }
+
+    @Test
+    public void legacyJson_decodesAndMigrates() throws Exception {
+        String json = "{\"sessionId\":\"old\",\"sentenceItems\":[{\"index\":0,\"text\":\"Hi.\"},{\"index\":1,\"text\":\"Bye.\"}]}";
+        ProcessingActivity.SessionState state = SessionCodec.readJson(new StringReader(json));
+        assertTrue(SessionMigrations.migrate(state));
+        assertEquals(ContentHash.of("Bye."), state.getSentenceItems().get(1).getContentHash());
+    }
+}
@@ -0,0 +1,108 @@
+package com.example.tts_tool;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.TreeSet;
+
+import static org.junit.Assert.*;
+
+public class SyncQueueTest {
+
+    @Test
+    public void sessions_areReplicatedInTheOrderTheyChanged() {
+        SyncQueue queue = new SyncQueue();
+        queue.enqueueFull("a");
+        queue.enqueueTakes("b", Arrays.asList(3));
+        queue.enqueueTakes("a", Arrays.asList(1)); // Merged into a's entry, which keeps its place
+        assertEquals("a", queue.takeNext());
+        assertNull("one session in flight at a time", queue.takeNext());
+        assertTrue(queue.finishInFlight(true) == 0);
+        assertEquals("b", queue.takeNext());
+        queue.finishInFlight(true);
+        assertNull(queue.takeNext());
+        assertFalse(queue.hasUnsynced());
+    }
+
+    @Test
+    public void repeatedChanges_areMerged() {
+        SyncQueue queue = new SyncQueue();
+        queue.enqueueTakes("a", Arrays.asList(5, 1));
+        queue.enqueueTakes("a", Arrays.asList(1, 9));
+        queue.takeNext();
+        SyncQueue.PendingSync sync = queue.getInFlight();
+        assertFalse(sync.full);
+        assertEquals(new TreeSet<>(Arrays.asList(1, 5, 9)), sync.takeIndices);
+    }
+
+    @Test
+    public void failedWrite_isRetriedFirstAndMergedWithNewerChanges() {
+        SyncQueue queue = new SyncQueue();
+        queue.enqueueTakes("a", Arrays.asList(1));
+        queue.enqueueFull("b");
+        assertEquals("a", queue.takeNext());
+        queue.enqueueTakes("a", Arrays.asList(2)); // Changed again while in flight
+        assertTrue(queue.finishInFlight(false) > 0);
+
+        assertEquals("a", queue.takeNext());
+        assertEquals(new TreeSet<>(Arrays.asList(1, 2)), queue.getInFlight().takeIndices);
+        queue.finishInFlight(true);
+        assertEquals("b", queue.takeNext());
+    }
+
+    @Test
+    public void backoff_doublesUpToTheMaximumAndResetsOnSuccess() {
+        SyncQueue queue = new SyncQueue();
+        queue.enqueueFull("a");
+        long expected = SyncQueue.INITIAL_BACKOFF_MS;
+        for (int attempt = 0; attempt < 20; attempt++) {
+            queue.takeNext();
+            assertEquals(expected, queue.finishInFlight(false));
+            expected = Math.min(SyncQueue.MAX_BACKOFF_MS, expected * 2);
+        }
+        assertEquals(SyncQueue.MAX_BACKOFF_MS, expected);
+        queue.takeNext();
+        assertEquals(0, queue.finishInFlight(true));
+
+        queue.enqueueFull("a");
+        queue.takeNext();
+        assertEquals(SyncQueue.INITIAL_BACKOFF_MS, queue.finishInFlight(false));
+    }
+
+    @Test
+    public void persistedQueue_includesTheSessionInFlight() {
+        SyncQueue queue = new SyncQueue();
+        queue.enqueueTakes("a", Arrays.asList(4));
+        queue.enqueueFull("b");
+        queue.takeNext();
+        queue.enqueueTakes("a", Arrays.asList(7));
+
+        SyncQueue restored = new SyncQueue();
+        assertEquals(2, restored.restore(queue.toJson()));
+        assertEquals(Arrays.asList("a", "b"), restored.getUnsyncedSessionIds());
+        assertEquals("a", restored.takeNext());
+        assertEquals(new TreeSet<>(Arrays.asList(4, 7)), restored.getInFlight().takeIndices);
+        restored.finishInFlight(true);
+        assertEquals("b", restored.takeNext());
+        assertTrue(restored.getInFlight().full);
+    }
+
+    @Test
+    public void restore_mergesWithQueuedWork() {
+        SyncQueue queue = new SyncQueue();
+        queue.enqueueTakes("a", Collections.singletonList(1));
+        SyncQueue restored = new SyncQueue();
+        restored.enqueueTakes("a", Collections.singletonList(2));
+        restored.restore(queue.toJson());
+        restored.takeNext();
+        assertEquals(new TreeSet<>(Arrays.asList(1, 2)), restored.getInFlight().takeIndices);
+    }
+
+    @Test
+    public void finishingWithNothingInFlight_doesNothing() {
+        SyncQueue queue = new SyncQueue();
+        assertEquals(0, queue.finishInFlight(false));
+        assertFalse(queue.hasUnsynced());
+    }
+}
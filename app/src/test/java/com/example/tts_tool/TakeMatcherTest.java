@@ -0,0 +1,85 @@
+package com.example.tts_tool;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class TakeMatcherTest {
+
+    @Test
+    public void parseSentenceNumber_readsLeadingDigits() {
+        assertEquals(0, TakeMatcher.parseSentenceNumber("0_20240101.wav"));
+        assertEquals(42, TakeMatcher.parseSentenceNumber("42_1700000000000.wav"));
+        assertEquals(7, TakeMatcher.parseSentenceNumber("007_take.wav"));
+    }
+
+    @Test
+    public void parseSentenceNumber_needsDigitsThenUnderscore() {
+        assertEquals(-1, TakeMatcher.parseSentenceNumber("script.txt"));
+        assertEquals(-1, TakeMatcher.parseSentenceNumber("_12.wav"));
+        assertEquals(-1, TakeMatcher.parseSentenceNumber("12.wav"));
+        assertEquals(-1, TakeMatcher.parseSentenceNumber("12"));
+        assertEquals(-1, TakeMatcher.parseSentenceNumber("12a_1.wav"));
+        assertEquals(-1, TakeMatcher.parseSentenceNumber(""));
+    }
+
+    @Test
+    public void parseSentenceNumber_rejectsNumbersPastTheLimit() {
+        assertEquals(10_000_000, TakeMatcher.parseSentenceNumber("10000000_1.wav"));
+        assertEquals(-1, TakeMatcher.parseSentenceNumber("10000001_1.wav"));
+        assertEquals(-1, TakeMatcher.parseSentenceNumber("99999999999999999999_1.wav"));
+        assertEquals(-1, TakeMatcher.parseSentenceNumber(Integer.MAX_VALUE + "0_1.wav"));
+    }
+
+    @Test
+    public void parseTimestamp_readsDigitsAfterTheFirstUnderscore() {
+        assertEquals(1700000000000L, TakeMatcher.parseTimestamp("3_1700000000000.wav"));
+        assertEquals(0, TakeMatcher.parseTimestamp("3.wav"));
+        assertEquals(0, TakeMatcher.parseTimestamp("3_.wav"));
+    }
+
+    private static WorkingFolderIndex.Entry file(String name) {
+        return new WorkingFolderIndex.Entry(name, name, 1000, 0, "audio/wav", null);
+    }
+
+    @Test
+    public void match_picksTheLatestTakePerSentence() {
+        List<WorkingFolderIndex.Entry> files = Arrays.asList(
+                file("0001_100.wav"), file("0002_100.wav"), file("0001_300.wav"), file("0001_200.wav"),
+                file("0004_100.WAV"), file("script.txt"), file("notes.wav"));
+        TakeMatcher matcher = TakeMatcher.match(files, TakeMatcher.DuplicatePolicy.LATEST, null);
+        assertEquals("0001_300.wav", matcher.getTake(0).getName());
+        assertEquals("0002_100.wav", matcher.getTake(1).getName());
+        assertNull(matcher.getTake(2));
+        assertEquals("0004_100.WAV", matcher.getTake(3).getName());
+        assertNull(matcher.getTake(-1));
+        assertEquals(3, matcher.getTakeCount());
+        assertEquals(2, matcher.getDuplicateCount());
+        assertEquals(1, matcher.getUnrecognizedCount());
+    }
+
+    @Test
+    public void match_keepsStrayHighNumbersOutOfTheDenseArray() {
+        List<WorkingFolderIndex.Entry> files = new ArrayList<>();
+        for (int i = 1; i <= 100; i++) {
+            files.add(file(i + "_100.wav"));
+        }
+        files.add(file("9999999_100.wav"));
+        files.add(file("9999999_200.wav"));
+        files.add(file("5000_100.wav"));
+        TakeMatcher matcher = TakeMatcher.match(files, TakeMatcher.DuplicatePolicy.LATEST, null);
+
+        assertEquals("9999999_200.wav", matcher.getTake(9_999_998).getName());
+        assertEquals("5000_100.wav", matcher.getTake(4999).getName());
+        assertNull(matcher.getTake(9_999_997));
+        assertEquals(102, matcher.getTakeCount());
+        assertEquals(1, matcher.getDuplicateCount());
+        assertEquals(2, matcher.countTakesFrom(100));
+        assertEquals(1, matcher.countTakesFrom(5000));
+        assertEquals(0, matcher.countTakesFrom(10_000_000));
+    }
+}
@@ -0,0 +1,104 @@
+package com.example.tts_tool;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+public class TarStreamWriterTest {
+
+    private static final long MTIME = 1700000000000L;
+
+    private static long octal(byte[] archive, int offset, int length) {
+        String field = new String(archive, offset, length, StandardCharsets.US_ASCII).trim();
+        int end = field.indexOf('\0');
+        return Long.parseLong(end >= 0 ? field.substring(0, end) : field, 8);
+    }
+
+    // The ustar checksum: the unsigned sum of the header with its checksum field read as spaces.
+    private static long expectedChecksum(byte[] archive, int headerOffset) {
+        long sum = 0;
+        for (int i = 0; i < TarStreamWriter.BLOCK_SIZE; i++) {
+            boolean inChecksumField = i >= 148 && i < 156;
+            sum += inChecksumField ? ' ' : archive[headerOffset + i] & 0xFF;
+        }
+        return sum;
+    }
+
+    @Test
+    public void headers_carryAValidChecksumAndFields() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        TarStreamWriter tar = new TarStreamWriter(bytes);
+        byte[] data = "hello".getBytes(StandardCharsets.UTF_8);
+        tar.writeEntry("sample_0001.txt", data, MTIME);
+        tar.writeEntry("sample_0001.wav", new byte[600], MTIME);
+        tar.finish();
+        byte[] archive = bytes.toByteArray();
+
+        int second = (int) TarStreamWriter.entrySize(data.length);
+        for (int header : new int[] {0, second}) {
+            assertEquals(expectedChecksum(archive, header), octal(archive, header + 148, 7));
+            assertEquals(' ', archive[header + 155]);
+            assertEquals('0', archive[header + 156]);
+            assertEquals("ustar", new String(archive, header + 257, 5, StandardCharsets.US_ASCII));
+            assertEquals(0644, octal(archive, header + 100, 8));
+            assertEquals(MTIME / 1000, octal(archive, header + 136, 12));
+        }
+        assertEquals("sample_0001.txt", new String(archive, 0, 15, StandardCharsets.US_ASCII));
+        assertEquals(0, archive[15]);
+        assertEquals(data.length, octal(archive, 124, 12));
+        assertEquals(600, octal(archive, second + 124, 12));
+        assertEquals("hello", new String(archive, 512, 5, StandardCharsets.US_ASCII));
+    }
+
+    @Test
+    public void entries_arePaddedToBlocksAndEndWithTwoEmptyBlocks() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        TarStreamWriter tar = new TarStreamWriter(bytes);
+        tar.writeEntry("a", new byte[1], MTIME);
+        tar.writeEntry("b", new byte[512], MTIME);
+        tar.writeEntry("c", new byte[0], MTIME);
+        tar.finish();
+        assertEquals(TarStreamWriter.entrySize(1) + TarStreamWriter.entrySize(512) + TarStreamWriter.entrySize(0) + 1024,
+                bytes.size());
+        assertEquals(1024, TarStreamWriter.entrySize(1));
+        assertEquals(1024, TarStreamWriter.entrySize(512));
+        assertEquals(512, TarStreamWriter.entrySize(0));
+        byte[] archive = bytes.toByteArray();
+        for (int i = archive.length - 1024; i < archive.length; i++) {
+            assertEquals(0, archive[i]);
+        }
+    }
+
+    @Test
+    public void streamedEntry_mustMatchItsDeclaredSize() throws IOException {
+        TarStreamWriter tar = new TarStreamWriter(new ByteArrayOutputStream());
+        tar.putEntry("a", 10, MTIME);
+        tar.write(new byte[4], 0, 4);
+        assertEquals(6, tar.getRemaining());
+        try {
+            tar.write(new byte[7], 0, 7);
+            fail("Writing past the declared size must fail");
+        } catch (IOException expected) {
+            // Expected
+        }
+        try {
+            tar.putEntry("b", 1, MTIME);
+            fail("Starting an entry before the previous one is complete must fail");
+        } catch (IOException expected) {
+            // Expected
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void namesOver100Bytes_areRejected() throws IOException {
+        StringBuilder name = new StringBuilder();
+        for (int i = 0; i < 101; i++) {
+            name.append('x');
+        }
+        new TarStreamWriter(new ByteArrayOutputStream()).putEntry(name.toString(), 0, MTIME);
+    }
+}
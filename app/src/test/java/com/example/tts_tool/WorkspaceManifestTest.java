@@ -0,0 +1,86 @@
+package com.example.tts_tool;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class WorkspaceManifestTest {
+
+    private static final String HEADER = WorkspaceManifest.line(WorkspaceManifest.record("M", "TTSM", "1"))
+            + WorkspaceManifest.line(WorkspaceManifest.record("S", "session", "speaker", "script.txt", "10", "1000"))
+            + WorkspaceManifest.line(WorkspaceManifest.record("C", "0"));
+
+    private static String take(int index) {
+        return WorkspaceManifest.line(WorkspaceManifest.record("T", String.valueOf(index), "hash" + index, index + "_1.wav", "1500"));
+    }
+
+    @Test
+    public void intactLog_replaysEveryRecord() {
+        WorkspaceManifest.Replay replay = WorkspaceManifest.replay(HEADER + take(0) + take(1));
+        assertEquals(5, replay.records.size());
+        assertFalse(replay.torn);
+        assertArrayEquals(new String[] {"T", "1", "hash1", "1_1.wav", "1500"}, replay.records.get(4));
+    }
+
+    @Test
+    public void escapedValues_roundTrip() {
+        String line = WorkspaceManifest.line(WorkspaceManifest.record("S", "id", "tab\there", "new\nline\\", null, "1"));
+        String[] fields = WorkspaceManifest.replay(line).records.get(0);
+        assertArrayEquals(new String[] {"S", "id", "tab\there", "new\nline\\", null, "1"}, fields);
+    }
+
+    @Test
+    public void badChecksum_endsTheLog() {
+        String damaged = take(1).replace("hash1", "hashX");
+        WorkspaceManifest.Replay replay = WorkspaceManifest.replay(HEADER + take(0) + damaged + take(2));
+        assertEquals(4, replay.records.size());
+        assertTrue(replay.torn);
+    }
+
+    @Test
+    public void lineCutOffMidRecord_isTorn() {
+        String full = take(1);
+        WorkspaceManifest.Replay replay = WorkspaceManifest.replay(HEADER + take(0) + full.substring(0, full.length() / 2));
+        assertEquals(4, replay.records.size());
+        assertTrue(replay.torn);
+    }
+
+    @Test
+    public void lineMissingOnlyItsBreak_keepsItsRecordButIsTorn() {
+        String full = take(1);
+        WorkspaceManifest.Replay replay = WorkspaceManifest.replay(HEADER + full.substring(0, full.length() - 1));
+        assertEquals(4, replay.records.size());
+        assertTrue(replay.torn);
+    }
+
+    @Test
+    public void appendAfterATornLine_isLostUnlessTheLogIsRewrittenFirst() {
+        String full = take(1);
+        String torn = HEADER + take(0) + full.substring(0, full.length() - 1); // Crashed before the line break
+
+        // Appending to the file as it is continues the torn line: both takes fail the checksum
+        WorkspaceManifest.Replay appended = WorkspaceManifest.replay(torn + take(2));
+        assertEquals(4, appended.records.size());
+
+        // load() rewrites the log from the records it kept before anything is appended
+        WorkspaceManifest.Replay kept = WorkspaceManifest.replay(torn);
+        StringBuilder rewritten = new StringBuilder();
+        for (String[] fields : kept.records) {
+            String[] values = new String[fields.length - 1];
+            System.arraycopy(fields, 1, values, 0, values.length);
+            rewritten.append(WorkspaceManifest.line(WorkspaceManifest.record(fields[0], values)));
+        }
+        WorkspaceManifest.Replay replay = WorkspaceManifest.replay(rewritten + take(2) + take(3));
+        assertFalse(replay.torn);
+        assertEquals(7, replay.records.size());
+        assertEquals("2", replay.records.get(5)[1]);
+        assertEquals("3", replay.records.get(6)[1]);
+    }
+
+    @Test
+    public void emptyLog_isNotTorn() {
+        WorkspaceManifest.Replay replay = WorkspaceManifest.replay("");
+        assertTrue(replay.records.isEmpty());
+        assertFalse(replay.torn);
+    }
+}
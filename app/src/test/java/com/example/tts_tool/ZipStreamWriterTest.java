@@ -0,0 +1,166 @@
+package com.example.tts_tool;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import static org.junit.Assert.*;
+
+public class ZipStreamWriterTest {
+
+    private static final long MTIME = 1700000000000L;
+
+    private static long crcOf(byte[] data) {
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        return crc.getValue();
+    }
+
+    private static byte[] deflate(byte[] data) {
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        deflater.setInput(data);
+        deflater.finish();
+        byte[] buffer = new byte[data.length + 64];
+        int length = deflater.deflate(buffer);
+        deflater.end();
+        byte[] result = new byte[length];
+        System.arraycopy(buffer, 0, result, 0, length);
+        return result;
+    }
+
+    private static byte[] readAll(ZipInputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = in.read(buffer)) > 0) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+
+    // Position of the last occurrence of a little-endian signature.
+    private static int lastIndexOf(byte[] archive, int signature) {
+        for (int i = archive.length - 4; i >= 0; i--) {
+            if (ByteBuffer.wrap(archive, i, 4).order(ByteOrder.LITTLE_ENDIAN).getInt() == signature) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Test
+    public void storedAndDeflatedEntries_areReadBackByZipInputStream() throws IOException {
+        byte[] text = "metadata line\n".repeat(100).getBytes(StandardCharsets.UTF_8);
+        byte[] audio = new byte[1000];
+        for (int i = 0; i < audio.length; i++) {
+            audio[i] = (byte) (i * 31);
+        }
+        byte[] compressed = deflate(text);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ZipStreamWriter zip = new ZipStreamWriter(bytes);
+        zip.writeEntry("metadata.csv", ZipStreamWriter.METHOD_DEFLATED, compressed, compressed.length, crcOf(text), text.length, MTIME);
+        zip.writeEntry("wavs/ä.wav", ZipStreamWriter.METHOD_STORED, audio, audio.length, crcOf(audio), audio.length, MTIME);
+        zip.finish();
+
+        try (ZipInputStream in = new ZipInputStream(new ByteArrayInputStream(bytes.toByteArray()), StandardCharsets.UTF_8)) {
+            ZipEntry entry = in.getNextEntry();
+            assertEquals("metadata.csv", entry.getName());
+            assertArrayEquals(text, readAll(in));
+            entry = in.getNextEntry();
+            assertEquals("wavs/ä.wav", entry.getName());
+            assertEquals(ZipEntry.STORED, entry.getMethod());
+            assertArrayEquals(audio, readAll(in));
+            assertNull(in.getNextEntry());
+        }
+    }
+
+    @Test
+    public void smallArchive_hasNoZip64Records() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ZipStreamWriter zip = new ZipStreamWriter(bytes);
+        zip.writeEntry("a", ZipStreamWriter.METHOD_STORED, new byte[0], 0, 0, 0, MTIME);
+        zip.finish();
+        byte[] archive = bytes.toByteArray();
+        assertEquals(-1, lastIndexOf(archive, 0x06064b50));
+        int end = lastIndexOf(archive, 0x06054b50);
+        assertEquals(archive.length - 22, end);
+        assertEquals(1, ByteBuffer.wrap(archive, end + 10, 2).order(ByteOrder.LITTLE_ENDIAN).getShort());
+    }
+
+    @Test
+    public void moreThan65535Entries_addZip64EndRecords() throws IOException {
+        int count = 70_000;
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ZipStreamWriter zip = new ZipStreamWriter(bytes);
+        for (int i = 0; i < count; i++) {
+            zip.writeEntry(Integer.toString(i), ZipStreamWriter.METHOD_STORED, new byte[0], 0, 0, 0, MTIME);
+        }
+        zip.finish();
+        byte[] archive = bytes.toByteArray();
+
+        int zip64End = lastIndexOf(archive, 0x06064b50);
+        int locator = lastIndexOf(archive, 0x07064b50);
+        int end = lastIndexOf(archive, 0x06054b50);
+        assertTrue(zip64End > 0);
+        assertEquals(zip64End + 56, locator);
+        assertEquals(locator + 20, end);
+        ByteBuffer record = ByteBuffer.wrap(archive).order(ByteOrder.LITTLE_ENDIAN);
+        assertEquals(count, record.getLong(zip64End + 24)); // Entries on this disk
+        assertEquals(count, record.getLong(zip64End + 32)); // Entries in total
+        assertEquals(zip64End, record.getLong(locator + 8));
+        // The classic record saturates and points readers at the ZIP64 one
+        assertEquals(0xFFFF, record.getShort(end + 10) & 0xFFFF);
+
+        int read = 0;
+        try (ZipInputStream in = new ZipInputStream(new ByteArrayInputStream(archive))) {
+            while (in.getNextEntry() != null) {
+                read++;
+            }
+        }
+        assertEquals(count, read);
+    }
+
+    @Test
+    public void entryOver4GiB_carriesZip64SizesInBothHeaders() throws IOException {
+        long uncompressedSize = 5L << 30;
+        byte[] data = {1, 2, 3};
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ZipStreamWriter zip = new ZipStreamWriter(bytes);
+        zip.writeEntry("big.wav", ZipStreamWriter.METHOD_DEFLATED, data, data.length, 0x12345678L, uncompressedSize, MTIME);
+        zip.finish();
+        ByteBuffer archive = ByteBuffer.wrap(bytes.toByteArray()).order(ByteOrder.LITTLE_ENDIAN);
+
+        // Local header: 32-bit sizes saturated, ZIP64 extra field after the name
+        assertEquals(0x04034b50, archive.getInt(0));
+        assertEquals(45, archive.getShort(4));
+        assertEquals(0xFFFFFFFFL, archive.getInt(18) & 0xFFFFFFFFL);
+        assertEquals(0xFFFFFFFFL, archive.getInt(22) & 0xFFFFFFFFL);
+        int nameLength = archive.getShort(26);
+        assertEquals(20, archive.getShort(28));
+        int extra = 30 + nameLength;
+        assertEquals(0x0001, archive.getShort(extra));
+        assertEquals(16, archive.getShort(extra + 2));
+        assertEquals(uncompressedSize, archive.getLong(extra + 4));
+        assertEquals(data.length, archive.getLong(extra + 12));
+
+        // Central directory entry: same sizes, offset still fits in 32 bits
+        int central = lastIndexOf(bytes.toByteArray(), 0x02014b50);
+        assertEquals(0xFFFFFFFFL, archive.getInt(central + 20) & 0xFFFFFFFFL);
+        assertEquals(0xFFFFFFFFL, archive.getInt(central + 24) & 0xFFFFFFFFL);
+        assertEquals(20, archive.getShort(central + 30));
+        assertEquals(0, archive.getInt(central + 42));
+        int centralExtra = central + 46 + nameLength;
+        assertEquals(0x0001, archive.getShort(centralExtra));
+        assertEquals(uncompressedSize, archive.getLong(centralExtra + 4));
+        assertEquals(data.length, archive.getLong(centralExtra + 12));
+    }
+}